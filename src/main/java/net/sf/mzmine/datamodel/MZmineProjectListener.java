@@ -27,4 +27,15 @@ public interface MZmineProjectListener {
 
   void peakListAdded(PeakList newPeakList);
 
+  /**
+   * Called before a data file, which was removed from the project or belongs to a project that is
+   * replaced by another one, is closed
+   */
+  void dataFileRemoved(RawDataFile removedFile);
+
+  /**
+   * Called after a feature list was removed from the project
+   */
+  void peakListRemoved(PeakList removedPeakList);
+
 }
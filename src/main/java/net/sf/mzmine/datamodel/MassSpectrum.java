@@ -73,6 +73,22 @@ public interface MassSpectrum {
   @Nonnull
   public DataPoint[] getDataPoints();
 
+  /**
+   * Copies the m/z and intensity values of the data points, sorted in m/z order, into the given
+   * arrays. Both arrays must hold at least getNumberOfDataPoints() values. Unlike getDataPoints(),
+   * this does not create an object per data point, so the arrays can be reused for many spectra.
+   *
+   * @return Number of data points copied into the arrays
+   */
+  public default int getDataPoints(@Nonnull double mzValues[], @Nonnull double intensityValues[]) {
+    final DataPoint dataPoints[] = getDataPoints();
+    for (int i = 0; i < dataPoints.length; i++) {
+      mzValues[i] = dataPoints[i].getMZ();
+      intensityValues[i] = dataPoints[i].getIntensity();
+    }
+    return dataPoints.length;
+  }
+
   /**
    * Returns data points in given m/z range, sorted in m/z order.
    *
@@ -224,4 +224,11 @@ public interface PeakList {
    */
   public PeakListRow findRowByID(int id);
 
+  /**
+   * Returns a counter which changes whenever rows are added or removed, or features are added to or
+   * removed from the rows. Cached values derived from the feature list are out of date when the
+   * counter differs from its value at the time they were computed.
+   */
+  public long getModificationCount();
+
 }
@@ -102,6 +102,14 @@ public interface RawDataFile {
 
   public double getDataMaxTotalIonCurrent(int msLevel);
 
+  /**
+   * Returns an estimate of the heap memory (in bytes) used by the scan and data point bookkeeping
+   * of this file. The data points themselves are kept in a temporary file and are not included.
+   *
+   * @return Estimated memory usage in bytes
+   */
+  public long getMemoryUsage();
+
   /**
    * Close the file in case it is removed from the project
    */
@@ -24,7 +24,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Stream;
 import com.google.common.collect.Range;
 import net.sf.mzmine.datamodel.Feature;
@@ -34,6 +37,7 @@ import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.desktop.impl.projecttree.PeakListTreeModel;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.project.impl.MZmineProjectImpl;
+import net.sf.mzmine.util.RTMZWindowIndex;
 
 /**
  * Simple implementation of the PeakList interface.
@@ -48,6 +52,19 @@ public class SimplePeakList implements PeakList {
   private String dateCreated;
   private Range<Double> mzRange, rtRange;
 
+  /**
+   * Incremented whenever a row is added or removed, a feature is added to or removed from a row, or
+   * the average m/z or retention time of a row changes. The window indexes are rebuilt on the next
+   * query after a modification.
+   */
+  private final AtomicLong modificationCounter = new AtomicLong();
+
+  // Number of rows which do not report changes of their average values, such rows are not indexed
+  private int untrackedRows = 0;
+
+  private volatile WindowIndex rowIndex;
+  private final Map<RawDataFile, WindowIndex> peakIndexes = new ConcurrentHashMap<>();
+
   public static DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
 
   public SimplePeakList(String name, RawDataFile dataFile) {
@@ -166,14 +183,35 @@ public class SimplePeakList implements PeakList {
 
   @Override
   public PeakListRow[] getRowsInsideScanAndMZRange(Range<Double> rtRange, Range<Double> mzRange) {
-    Vector<PeakListRow> rowsInside = new Vector<PeakListRow>();
 
-    for (PeakListRow row : peakListRows) {
-      if (rtRange.contains(row.getAverageRT()) && mzRange.contains(row.getAverageMZ()))
-        rowsInside.add(row);
+    if (untrackedRows > 0) {
+      Vector<PeakListRow> rowsInside = new Vector<PeakListRow>();
+      for (PeakListRow row : peakListRows) {
+        if (rtRange.contains(row.getAverageRT()) && mzRange.contains(row.getAverageMZ()))
+          rowsInside.add(row);
+      }
+      return rowsInside.toArray(new PeakListRow[0]);
+    }
+
+    WindowIndex index = rowIndex;
+    if ((index == null) || (index.modificationCount != modificationCounter.get())) {
+      final long modificationCount = modificationCounter.get();
+      final PeakListRow rows[] = getRows();
+      final double mzValues[] = new double[rows.length];
+      final double rtValues[] = new double[rows.length];
+      for (int i = 0; i < rows.length; i++) {
+        mzValues[i] = rows[i].getAverageMZ();
+        rtValues[i] = rows[i].getAverageRT();
+      }
+      index = new WindowIndex(modificationCount, rows, mzValues, rtValues);
+      rowIndex = index;
     }
 
-    return rowsInside.toArray(new PeakListRow[0]);
+    final int inside[] = index.getItemsInside(rtRange, mzRange);
+    final PeakListRow rowsInside[] = new PeakListRow[inside.length];
+    for (int i = 0; i < inside.length; i++)
+      rowsInside[i] = (PeakListRow) index.items[inside[i]];
+    return rowsInside;
   }
 
   @Override
@@ -185,6 +223,12 @@ public class SimplePeakList implements PeakList {
     }
 
     peakListRows.add(row);
+    if (row instanceof SimplePeakListRow)
+      ((SimplePeakListRow) row).addModificationCounter(modificationCounter);
+    else
+      untrackedRows++;
+    modificationCounter.incrementAndGet();
+
     if (row.getDataPointMaxIntensity() > maxDataPointIntensity) {
       maxDataPointIntensity = row.getDataPointMaxIntensity();
     }
@@ -227,15 +271,38 @@ public class SimplePeakList implements PeakList {
   @Override
   public Feature[] getPeaksInsideScanAndMZRange(RawDataFile file, Range<Double> rtRange,
       Range<Double> mzRange) {
-    Vector<Feature> peaksInside = new Vector<Feature>();
 
-    Feature[] peaks = getPeaks(file);
-    for (Feature p : peaks) {
-      if (rtRange.contains(p.getRT()) && mzRange.contains(p.getMZ()))
-        peaksInside.add(p);
+    if (untrackedRows > 0) {
+      Vector<Feature> peaksInside = new Vector<Feature>();
+      Feature[] peaks = getPeaks(file);
+      for (Feature p : peaks) {
+        if (rtRange.contains(p.getRT()) && mzRange.contains(p.getMZ()))
+          peaksInside.add(p);
+      }
+      return peaksInside.toArray(new Feature[0]);
+    }
+
+    // Adding or removing a feature changes the average values of its row, so the modification
+    // counter also covers the features of each data file
+    WindowIndex index = peakIndexes.get(file);
+    if ((index == null) || (index.modificationCount != modificationCounter.get())) {
+      final long modificationCount = modificationCounter.get();
+      final Feature peaks[] = getPeaks(file);
+      final double mzValues[] = new double[peaks.length];
+      final double rtValues[] = new double[peaks.length];
+      for (int i = 0; i < peaks.length; i++) {
+        mzValues[i] = peaks[i].getMZ();
+        rtValues[i] = peaks[i].getRT();
+      }
+      index = new WindowIndex(modificationCount, peaks, mzValues, rtValues);
+      peakIndexes.put(file, index);
     }
 
-    return peaksInside.toArray(new Feature[0]);
+    final int inside[] = index.getItemsInside(rtRange, mzRange);
+    final Feature peaksInside[] = new Feature[inside.length];
+    for (int i = 0; i < inside.length; i++)
+      peaksInside[i] = (Feature) index.items[inside[i]];
+    return peaksInside;
   }
 
   /**
@@ -243,7 +310,13 @@ public class SimplePeakList implements PeakList {
    */
   @Override
   public void removeRow(PeakListRow row) {
-    peakListRows.remove(row);
+    if (peakListRows.remove(row)) {
+      if (row instanceof SimplePeakListRow)
+        ((SimplePeakListRow) row).removeModificationCounter(modificationCounter);
+      else
+        untrackedRows--;
+      modificationCounter.incrementAndGet();
+    }
 
     // We have to update the project tree model
     MZmineProjectImpl project =
@@ -370,4 +443,34 @@ public class SimplePeakList implements PeakList {
   public PeakListRow findRowByID(int id) {
     return stream().filter(r -> r.getID() == id).findFirst().orElse(null);
   }
+
+  @Override
+  public long getModificationCount() {
+    return modificationCounter.get();
+  }
+
+  /**
+   * Index of the rows or features of this feature list, valid as long as the modification counter
+   * has the given value
+   */
+  private static final class WindowIndex {
+
+    private final long modificationCount;
+    private final Object items[];
+    private final RTMZWindowIndex index;
+
+    WindowIndex(long modificationCount, Object items[], double mzValues[], double rtValues[]) {
+      this.modificationCount = modificationCount;
+      this.items = items;
+      this.index = new RTMZWindowIndex(mzValues, rtValues);
+    }
+
+    /**
+     * @return positions of the items inside both ranges, in feature list order
+     */
+    int[] getItemsInside(Range<Double> rtRange, Range<Double> mzRange) {
+      return index.getIndexesInside(rtRange, mzRange);
+    }
+
+  }
 }
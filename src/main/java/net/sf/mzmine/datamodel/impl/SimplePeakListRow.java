@@ -26,6 +26,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Vector;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.Nonnull;
 import net.sf.mzmine.datamodel.Feature;
 import net.sf.mzmine.datamodel.IsotopePattern;
@@ -61,6 +62,14 @@ public class SimplePeakListRow implements PeakListRow {
   private double averageRT, averageMZ, averageHeight, averageArea;
   private int rowCharge;
 
+  private static final AtomicLong NO_COUNTERS[] = new AtomicLong[0];
+
+  /**
+   * Modification counters of the feature lists containing this row. They are incremented whenever
+   * the average m/z or retention time changes, so the lists know their indexes are out of date.
+   */
+  private volatile AtomicLong modificationCounters[] = NO_COUNTERS;
+
   public SimplePeakListRow(int myID) {
     this.myID = myID;
     peaks = new ConcurrentHashMap<RawDataFile, Feature>();
@@ -170,6 +179,36 @@ public class SimplePeakListRow implements PeakListRow {
     } else {
       rowCharge = 0;
     }
+    averageValuesChanged();
+  }
+
+  /**
+   * Registers the modification counter of a feature list this row was added to
+   */
+  synchronized void addModificationCounter(AtomicLong counter) {
+    AtomicLong counters[] = Arrays.copyOf(modificationCounters, modificationCounters.length + 1);
+    counters[counters.length - 1] = counter;
+    modificationCounters = counters;
+  }
+
+  /**
+   * Unregisters the modification counter of a feature list this row was removed from
+   */
+  synchronized void removeModificationCounter(AtomicLong counter) {
+    for (int i = 0; i < modificationCounters.length; i++) {
+      if (modificationCounters[i] == counter) {
+        AtomicLong counters[] = new AtomicLong[modificationCounters.length - 1];
+        System.arraycopy(modificationCounters, 0, counters, 0, i);
+        System.arraycopy(modificationCounters, i + 1, counters, i, counters.length - i);
+        modificationCounters = counters;
+        return;
+      }
+    }
+  }
+
+  private void averageValuesChanged() {
+    for (AtomicLong counter : modificationCounters)
+      counter.incrementAndGet();
   }
 
   /**
@@ -218,6 +257,7 @@ public class SimplePeakListRow implements PeakListRow {
   @Override
   public void setAverageMZ(double mz) {
     this.averageMZ = mz;
+    averageValuesChanged();
   }
 
   /**
@@ -226,6 +266,7 @@ public class SimplePeakListRow implements PeakListRow {
   @Override
   public void setAverageRT(double rt) {
     this.averageRT = rt;
+    averageValuesChanged();
   }
 
   /**
@@ -30,6 +30,7 @@ import net.sf.mzmine.parameters.parametertypes.ComboParameter;
 import net.sf.mzmine.parameters.parametertypes.WindowSettingsParameter;
 import net.sf.mzmine.parameters.parametertypes.filenames.FileNameParameter;
 import net.sf.mzmine.parameters.parametertypes.submodules.OptionalModuleParameter;
+import net.sf.mzmine.project.impl.DataPointsCodec;
 import net.sf.mzmine.util.ColorPalettes;
 import net.sf.mzmine.util.ExitCode;
 
@@ -66,11 +67,22 @@ public class MZminePreferences extends SimpleParameterSet {
       new OptionalModuleParameter("Send error e-Mail notifications",
           "Send error e-Mail notifications", new ErrorMailSettings());
 
+  public static final BooleanParameter memoryMappedStorage = new BooleanParameter(
+      "Memory-mapped scan storage",
+      "Read data points from memory-mapped segments of the temporary scan files. Reads do not lock the data file, so parallel tasks working on the same raw data file scale with the number of threads.",
+      false);
+
+  public static final ComboParameter<DataPointsCodec> scanStorageCodec = new ComboParameter<>(
+      "Scan storage encoding",
+      "Encoding of the data points in the temporary scan files and saved projects. Lossless compression reduces the temporary disk space and the project size at the cost of some CPU time when reading scans. Applies to newly imported raw data files.",
+      DataPointsCodec.values(), DataPointsCodec.NONE);
+
   public static final WindowSettingsParameter windowSetttings = new WindowSettingsParameter();
 
   public MZminePreferences() {
     super(new Parameter[] {colorPalettes, mzFormat, rtFormat, intensityFormat, numOfThreads,
-        proxySettings, rExecPath, sendStatistics, windowSetttings, sendErrorEMail});
+        memoryMappedStorage, scanStorageCodec, proxySettings, rExecPath, sendStatistics,
+        windowSetttings, sendErrorEMail});
   }
 
   @Override
@@ -27,6 +27,7 @@ import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import org.w3c.dom.Document;
 import net.sf.mzmine.datamodel.MZmineProject;
+import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.modules.MZmineModuleCategory;
 import net.sf.mzmine.modules.MZmineProcessingModule;
 import net.sf.mzmine.parameters.ParameterSet;
@@ -87,6 +88,10 @@ public class BatchModeModule implements MZmineProcessingModule {
       BatchQueue newQueue = BatchQueue.loadFromXml(parsedBatchXML.getDocumentElement());
       ParameterSet parameters = new BatchModeParameters();
       parameters.getParameter(BatchModeParameters.batchQueue).setValue(newQueue);
+      // The batch file only contains the queue, use the configured execution mode
+      Boolean pipelined = MZmineCore.getConfiguration().getModuleParameters(BatchModeModule.class)
+          .getParameter(BatchModeParameters.pipelined).getValue();
+      parameters.getParameter(BatchModeParameters.pipelined).setValue(pipelined);
       Task batchTask = new BatchTask(project, parameters);
       batchTask.run();
       if (batchTask.getStatus() == TaskStatus.FINISHED)
@@ -23,6 +23,7 @@ import java.util.logging.Logger;
 import net.sf.mzmine.parameters.Parameter;
 import net.sf.mzmine.parameters.dialogs.ParameterSetupDialog;
 import net.sf.mzmine.parameters.impl.SimpleParameterSet;
+import net.sf.mzmine.parameters.parametertypes.BooleanParameter;
 import net.sf.mzmine.parameters.parametertypes.filenames.FileNameListSilentParameter;
 import net.sf.mzmine.util.ExitCode;
 
@@ -32,9 +33,12 @@ public class BatchModeParameters extends SimpleParameterSet {
 
   public static final FileNameListSilentParameter lastFiles = new FileNameListSilentParameter("Last used files");
   public static final BatchQueueParameter batchQueue = new BatchQueueParameter();
+  public static final BooleanParameter pipelined = new BooleanParameter("Pipeline per-file steps",
+      "Consecutive steps which process each raw data file or feature list on its own (e.g. mass detection, chromatogram building, deconvolution, isotope grouping) are run on each file as soon as the previous step has finished this file. Steps combining several files (e.g. alignment) still wait for all files.",
+      false);
 
   public BatchModeParameters() {
-    super(new Parameter[] {batchQueue, lastFiles});
+    super(new Parameter[] {batchQueue, pipelined, lastFiles});
   }
 
   @Override
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.batchmode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.sf.mzmine.datamodel.MZmineProject;
+import net.sf.mzmine.datamodel.PeakList;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.modules.MZmineProcessingModule;
+import net.sf.mzmine.modules.MZmineProcessingStep;
+import net.sf.mzmine.parameters.ParameterSet;
+import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.Task;
+import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.ExitCode;
+
+/**
+ * Processes a sequence of per-file batch steps for a single raw data file or feature list. The
+ * tasks of each step are run in the thread of this pipeline, so the data files and feature lists
+ * they add to the project can be assigned to this pipeline (see getCurrentPipeline()).
+ */
+class BatchPipelineTask extends AbstractTask {
+
+  // Pipeline running in the current thread
+  private static final ThreadLocal<BatchPipelineTask> currentPipeline = new ThreadLocal<>();
+
+  private final MZmineProject project;
+  private final BatchQueue queue;
+  private final int firstStep, lastStep;
+  private final String inputName;
+
+  private final List<RawDataFile> createdDataFiles, previousCreatedDataFiles;
+  private final List<PeakList> createdPeakLists, previousCreatedPeakLists;
+
+  private volatile int currentStep;
+  private volatile Task currentTask;
+
+  /**
+   * @param dataFiles data files to be processed by the first step (if it processes data files)
+   * @param peakLists feature lists to be processed by the first step (if it processes feature
+   *        lists)
+   */
+  BatchPipelineTask(MZmineProject project, BatchQueue queue, int firstStep, int lastStep,
+      List<RawDataFile> dataFiles, List<PeakList> peakLists) {
+    this.project = project;
+    this.queue = queue;
+    this.firstStep = firstStep;
+    this.lastStep = lastStep;
+    this.currentStep = firstStep;
+    this.inputName = peakLists.isEmpty() ? dataFiles.toString() : peakLists.toString();
+    createdDataFiles = new ArrayList<>(dataFiles);
+    createdPeakLists = new ArrayList<>(peakLists);
+    previousCreatedDataFiles = new ArrayList<>();
+    previousCreatedPeakLists = new ArrayList<>();
+  }
+
+  /**
+   * @return pipeline running in the current thread, or null
+   */
+  static BatchPipelineTask getCurrentPipeline() {
+    return currentPipeline.get();
+  }
+
+  synchronized void dataFileAdded(RawDataFile newFile) {
+    createdDataFiles.add(newFile);
+  }
+
+  synchronized void peakListAdded(PeakList newPeakList) {
+    createdPeakLists.add(newPeakList);
+  }
+
+  synchronized List<RawDataFile> getCreatedDataFiles() {
+    return new ArrayList<>(createdDataFiles);
+  }
+
+  synchronized List<PeakList> getCreatedPeakLists() {
+    return new ArrayList<>(createdPeakLists);
+  }
+
+  synchronized List<RawDataFile> getPreviousCreatedDataFiles() {
+    return new ArrayList<>(previousCreatedDataFiles);
+  }
+
+  synchronized List<PeakList> getPreviousCreatedPeakLists() {
+    return new ArrayList<>(previousCreatedPeakLists);
+  }
+
+  @Override
+  public void run() {
+
+    setStatus(TaskStatus.PROCESSING);
+    currentPipeline.set(this);
+
+    try {
+      for (int i = firstStep; i <= lastStep; i++) {
+        currentStep = i;
+        processStep(i);
+        if (getStatus() != TaskStatus.PROCESSING)
+          return;
+      }
+    } finally {
+      currentPipeline.remove();
+      currentTask = null;
+    }
+
+    setStatus(TaskStatus.FINISHED);
+
+  }
+
+  private void processStep(int stepNumber) {
+
+    MZmineProcessingStep<?> step = queue.get(stepNumber);
+    MZmineProcessingModule method = (MZmineProcessingModule) step.getModule();
+
+    // Each pipeline needs its own parameters, because they point to its own data files or feature
+    // lists
+    ParameterSet stepParameters = step.getParameterSet().cloneParameterSet();
+
+    final String missingParameter;
+    synchronized (this) {
+
+      // If the last step did not produce any data files or feature lists, use
+      // the ones from the previous step
+      if (createdDataFiles.isEmpty())
+        createdDataFiles.addAll(previousCreatedDataFiles);
+      if (createdPeakLists.isEmpty())
+        createdPeakLists.addAll(previousCreatedPeakLists);
+
+      missingParameter = BatchTask.setBatchLastItems(stepParameters,
+          createdDataFiles.toArray(new RawDataFile[0]), createdPeakLists.toArray(new PeakList[0]));
+
+      previousCreatedDataFiles.clear();
+      previousCreatedDataFiles.addAll(createdDataFiles);
+      previousCreatedPeakLists.clear();
+      previousCreatedPeakLists.addAll(createdPeakLists);
+      createdDataFiles.clear();
+      createdPeakLists.clear();
+    }
+
+    if (missingParameter != null) {
+      setErrorMessage("Invalid parameter settings for module " + method.getName() + ": "
+          + "Missing parameter value for " + missingParameter);
+      setStatus(TaskStatus.ERROR);
+      return;
+    }
+
+    // Check if the parameter settings are valid
+    ArrayList<String> messages = new ArrayList<String>();
+    if (!stepParameters.checkParameterValues(messages)) {
+      setErrorMessage("Invalid parameter settings for module " + method.getName() + ": "
+          + Arrays.toString(messages.toArray()));
+      setStatus(TaskStatus.ERROR);
+      return;
+    }
+
+    ArrayList<Task> stepTasks = new ArrayList<Task>();
+    ExitCode exitCode = method.runModule(project, stepParameters, stepTasks);
+    if (exitCode != ExitCode.OK) {
+      setErrorMessage("Could not start batch step " + method.getName());
+      setStatus(TaskStatus.ERROR);
+      return;
+    }
+
+    for (Task stepTask : stepTasks) {
+
+      if (isCanceled())
+        return;
+
+      currentTask = stepTask;
+      stepTask.run();
+
+      // If there was an error, we have to stop the whole batch
+      if (stepTask.getStatus() == TaskStatus.ERROR) {
+        setErrorMessage(stepTask.getTaskDescription() + ": " + stepTask.getErrorMessage());
+        setStatus(TaskStatus.ERROR);
+        return;
+      }
+
+      // If the task was canceled, we have to cancel the whole batch
+      if (stepTask.getStatus() == TaskStatus.CANCELED) {
+        setStatus(TaskStatus.CANCELED);
+        return;
+      }
+
+    }
+
+  }
+
+  @Override
+  public void cancel() {
+    super.cancel();
+    Task task = currentTask;
+    if (task != null)
+      task.cancel();
+  }
+
+  @Override
+  public double getFinishedPercentage() {
+    final int numOfSteps = lastStep - firstStep + 1;
+    double finished = currentStep - firstStep;
+    Task task = currentTask;
+    if ((task != null) && (task.getStatus() == TaskStatus.PROCESSING))
+      finished += Math.max(0.0, Math.min(1.0, task.getFinishedPercentage()));
+    return finished / numOfSteps;
+  }
+
+  @Override
+  public String getTaskDescription() {
+    return "Batch steps " + (firstStep + 1) + " - " + (lastStep + 1) + " on " + inputName;
+  }
+
+}
@@ -28,22 +28,29 @@ import net.sf.mzmine.datamodel.MZmineProjectListener;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.modules.MZminePerFileProcessingModule;
 import net.sf.mzmine.modules.MZmineProcessingModule;
 import net.sf.mzmine.modules.MZmineProcessingStep;
 import net.sf.mzmine.parameters.Parameter;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.selectors.PeakListsParameter;
 import net.sf.mzmine.parameters.parametertypes.selectors.PeakListsSelection;
+import net.sf.mzmine.parameters.parametertypes.selectors.PeakListsSelectionType;
 import net.sf.mzmine.parameters.parametertypes.selectors.RawDataFilesParameter;
 import net.sf.mzmine.parameters.parametertypes.selectors.RawDataFilesSelection;
+import net.sf.mzmine.parameters.parametertypes.selectors.RawDataFilesSelectionType;
 import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.SubTaskGroup;
 import net.sf.mzmine.taskcontrol.Task;
 import net.sf.mzmine.taskcontrol.TaskPriority;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.ExitCode;
 
 /**
- * Batch mode task
+ * Batch mode task. The steps of the batch are processed one after another, each step waits until
+ * all tasks of the previous step are finished. In pipelined mode, consecutive steps of
+ * MZminePerFileProcessingModules are instead processed by one BatchPipelineTask per raw data file or
+ * feature list, so each file goes through these steps independently of the other files.
  */
 public class BatchTask extends AbstractTask {
 
@@ -57,9 +64,18 @@ public class BatchTask extends AbstractTask {
   private final List<RawDataFile> createdDataFiles, previousCreatedDataFiles;
   private final List<PeakList> createdPeakLists, previousCreatedPeakLists;
 
+  // Process consecutive per-file steps in a pipeline for each file
+  private final boolean pipelined;
+
+  // Pipelines of the currently processed per-file steps
+  private volatile SubTaskGroup<BatchPipelineTask> pipelineTasks;
+  private int pipelineSteps;
+
   BatchTask(MZmineProject project, ParameterSet parameters) {
     this.project = project;
     this.queue = parameters.getParameter(BatchModeParameters.batchQueue).getValue();
+    Boolean pipelinedValue = parameters.getParameter(BatchModeParameters.pipelined).getValue();
+    this.pipelined = (pipelinedValue != null) && pipelinedValue;
     totalSteps = queue.size();
     createdDataFiles = new ArrayList<>();
     createdPeakLists = new ArrayList<>();
@@ -77,21 +93,44 @@ public class BatchTask extends AbstractTask {
     MZmineProjectListener listener = new MZmineProjectListener() {
       @Override
       public void peakListAdded(PeakList newPeakList) {
-        createdPeakLists.add(newPeakList);
+        // Items created by a pipeline belong to the file processed by that pipeline
+        BatchPipelineTask pipeline = BatchPipelineTask.getCurrentPipeline();
+        if (pipeline != null)
+          pipeline.peakListAdded(newPeakList);
+        else
+          createdPeakLists.add(newPeakList);
       }
 
       @Override
       public void dataFileAdded(RawDataFile newFile) {
-        createdDataFiles.add(newFile);
+        BatchPipelineTask pipeline = BatchPipelineTask.getCurrentPipeline();
+        if (pipeline != null)
+          pipeline.dataFileAdded(newFile);
+        else
+          createdDataFiles.add(newFile);
       }
+
+      @Override
+      public void dataFileRemoved(RawDataFile removedFile) {}
+
+      @Override
+      public void peakListRemoved(PeakList removedPeakList) {}
     };
     project.addProjectListener(listener);
 
     // Process individual batch steps
     for (int i = 0; i < totalSteps; i++) {
 
-      processQueueStep(i);
-      processedSteps++;
+      final int lastPipelinedStep = pipelined ? getLastPerFileStep(i) : i;
+      if (lastPipelinedStep > i) {
+        processPipelinedSteps(i, lastPipelinedStep);
+        processedSteps += lastPipelinedStep - i + 1;
+        pipelineTasks = null;
+        i = lastPipelinedStep;
+      } else {
+        processQueueStep(i);
+        processedSteps++;
+      }
 
       // Update the project reference in case new project was loaded
       if (project != MZmineCore.getProjectManager().getCurrentProject()) {
@@ -130,38 +169,15 @@ public class BatchTask extends AbstractTask {
     if (createdPeakLists.isEmpty())
       createdPeakLists.addAll(previousCreatedPeakLists);
 
-    // Update the RawDataFilesParameter parameters to reflect the current
-    // state of the batch
-    for (Parameter<?> p : batchStepParameters.getParameters()) {
-      if (p instanceof RawDataFilesParameter) {
-        RawDataFilesParameter rdp = (RawDataFilesParameter) p;
-        RawDataFile createdFiles[] = createdDataFiles.toArray(new RawDataFile[0]);
-        final RawDataFilesSelection selectedFiles = rdp.getValue();
-        if (selectedFiles == null) {
-          setStatus(TaskStatus.ERROR);
-          setErrorMessage("Invalid parameter settings for module " + method.getName() + ": "
-              + "Missing parameter value for " + p.getName());
-          return;
-        }
-        selectedFiles.setBatchLastFiles(createdFiles);
-      }
-    }
-
-    // Update the PeakListsParameter parameters to reflect the current
-    // state of the batch
-    for (Parameter<?> p : batchStepParameters.getParameters()) {
-      if (p instanceof PeakListsParameter) {
-        PeakListsParameter rdp = (PeakListsParameter) p;
-        PeakList createdPls[] = createdPeakLists.toArray(new PeakList[0]);
-        final PeakListsSelection selectedPeakLists = rdp.getValue();
-        if (selectedPeakLists == null) {
-          setStatus(TaskStatus.ERROR);
-          setErrorMessage("Invalid parameter settings for module " + method.getName() + ": "
-              + "Missing parameter value for " + p.getName());
-          return;
-        }
-        selectedPeakLists.setBatchLastPeakLists(createdPls);
-      }
+    // Update the RawDataFilesParameter and PeakListsParameter parameters to
+    // reflect the current state of the batch
+    String missingParameter = setBatchLastItems(batchStepParameters,
+        createdDataFiles.toArray(new RawDataFile[0]), createdPeakLists.toArray(new PeakList[0]));
+    if (missingParameter != null) {
+      setStatus(TaskStatus.ERROR);
+      setErrorMessage("Invalid parameter settings for module " + method.getName() + ": "
+          + "Missing parameter value for " + missingParameter);
+      return;
     }
 
     // Clear the saved data files and feature lists. Save them to the
@@ -253,6 +269,152 @@ public class BatchTask extends AbstractTask {
 
   }
 
+  /**
+   * Sets the data files and feature lists created by the previous batch step to the
+   * RawDataFilesParameter and PeakListsParameter parameters of the given step parameters
+   * 
+   * @return name of a parameter without value, or null if all parameters were set
+   */
+  static String setBatchLastItems(ParameterSet batchStepParameters, RawDataFile createdFiles[],
+      PeakList createdPeakLists[]) {
+    for (Parameter<?> p : batchStepParameters.getParameters()) {
+      if (p instanceof RawDataFilesParameter) {
+        final RawDataFilesSelection selectedFiles = ((RawDataFilesParameter) p).getValue();
+        if (selectedFiles == null)
+          return p.getName();
+        selectedFiles.setBatchLastFiles(createdFiles);
+      }
+      if (p instanceof PeakListsParameter) {
+        final PeakListsSelection selectedPeakLists = ((PeakListsParameter) p).getValue();
+        if (selectedPeakLists == null)
+          return p.getName();
+        selectedPeakLists.setBatchLastPeakLists(createdPeakLists);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Checks whether the step processes each of the data files or feature lists created by the
+   * previous step on its own
+   */
+  private boolean isPerFileStep(int stepNumber) {
+
+    MZmineProcessingStep<?> step = queue.get(stepNumber);
+    if (!(step.getModule() instanceof MZminePerFileProcessingModule))
+      return false;
+
+    // The step must have a single input, which is the result of the previous step
+    int numOfInputs = 0;
+    for (Parameter<?> p : step.getParameterSet().getParameters()) {
+      if (p instanceof RawDataFilesParameter) {
+        final RawDataFilesSelection selection = ((RawDataFilesParameter) p).getValue();
+        if ((selection == null)
+            || (selection.getSelectionType() != RawDataFilesSelectionType.BATCH_LAST_FILES))
+          return false;
+        numOfInputs++;
+      }
+      if (p instanceof PeakListsParameter) {
+        final PeakListsSelection selection = ((PeakListsParameter) p).getValue();
+        if ((selection == null)
+            || (selection.getSelectionType() != PeakListsSelectionType.BATCH_LAST_PEAKLISTS))
+          return false;
+        numOfInputs++;
+      }
+    }
+    return numOfInputs == 1;
+
+  }
+
+  /**
+   * @return the last step of the sequence of per-file steps starting at the given step, or the
+   *         given step if there is no such sequence of at least two steps
+   */
+  private int getLastPerFileStep(int stepNumber) {
+    int lastStep = stepNumber - 1;
+    while ((lastStep + 1 < totalSteps) && isPerFileStep(lastStep + 1))
+      lastStep++;
+    return (lastStep > stepNumber) ? lastStep : stepNumber;
+  }
+
+  /**
+   * Processes the given steps by one BatchPipelineTask per data file (or feature list, if the first
+   * step processes feature lists) created by the previous step. Only when all pipelines are
+   * finished, the batch continues with the next step.
+   */
+  private void processPipelinedSteps(int firstStep, int lastStep) {
+
+    logger.info("Starting steps # " + (firstStep + 1) + " - " + (lastStep + 1)
+        + " as a pipeline for each file");
+
+    // If the last step did not produce any data files or feature lists, use
+    // the ones from the previous step
+    if (createdDataFiles.isEmpty())
+      createdDataFiles.addAll(previousCreatedDataFiles);
+    if (createdPeakLists.isEmpty())
+      createdPeakLists.addAll(previousCreatedPeakLists);
+
+    boolean peakListInput = false;
+    for (Parameter<?> p : queue.get(firstStep).getParameterSet().getParameters()) {
+      if (p instanceof PeakListsParameter)
+        peakListInput = true;
+    }
+
+    List<BatchPipelineTask> pipelines = new ArrayList<>();
+    if (peakListInput) {
+      for (PeakList peakList : createdPeakLists) {
+        pipelines.add(new BatchPipelineTask(project, queue, firstStep, lastStep,
+            Arrays.asList(peakList.getRawDataFiles()), Arrays.asList(peakList)));
+      }
+    } else {
+      for (RawDataFile dataFile : createdDataFiles) {
+        pipelines.add(new BatchPipelineTask(project, queue, firstStep, lastStep,
+            Arrays.asList(dataFile), new ArrayList<PeakList>()));
+      }
+    }
+
+    // Without any input there is nothing to pipeline, the steps behave as usual
+    if (pipelines.isEmpty()) {
+      for (int i = firstStep; i <= lastStep; i++) {
+        processQueueStep(i);
+        if (isCanceled())
+          return;
+      }
+      return;
+    }
+
+    pipelineSteps = lastStep - firstStep + 1;
+    pipelineTasks = new SubTaskGroup<>(this);
+    pipelineTasks.submitAll(pipelines);
+    final boolean pipelinesFinished = pipelineTasks.join();
+
+    if (!pipelinesFinished) {
+      if (isCanceled())
+        return;
+      final String errorMessage = pipelineTasks.getErrorMessage();
+      if (errorMessage != null) {
+        setStatus(TaskStatus.ERROR);
+        setErrorMessage(errorMessage);
+      } else {
+        setStatus(TaskStatus.CANCELED);
+      }
+      return;
+    }
+
+    // Collect the results of the pipelines, as if the steps were processed for all files at once
+    createdDataFiles.clear();
+    createdPeakLists.clear();
+    previousCreatedDataFiles.clear();
+    previousCreatedPeakLists.clear();
+    for (BatchPipelineTask pipeline : pipelines) {
+      createdDataFiles.addAll(pipeline.getCreatedDataFiles());
+      createdPeakLists.addAll(pipeline.getCreatedPeakLists());
+      previousCreatedDataFiles.addAll(pipeline.getPreviousCreatedDataFiles());
+      previousCreatedPeakLists.addAll(pipeline.getPreviousCreatedPeakLists());
+    }
+
+  }
+
   @Override
   public TaskPriority getTaskPriority() {
     // to not block mzmine when run with single thread
@@ -263,6 +425,10 @@ public class BatchTask extends AbstractTask {
   public double getFinishedPercentage() {
     if (totalSteps == 0)
       return 0;
+    final SubTaskGroup<BatchPipelineTask> currentPipelineTasks = pipelineTasks;
+    if (currentPipelineTasks != null)
+      return (processedSteps + pipelineSteps * currentPipelineTasks.getFinishedPercentage())
+          / totalSteps;
     return (double) processedSteps / totalSteps;
   }
 
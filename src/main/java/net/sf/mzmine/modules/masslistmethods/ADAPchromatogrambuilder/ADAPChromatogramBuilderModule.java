@@ -27,12 +27,12 @@ import javax.annotation.Nonnull;
 import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.modules.MZmineModuleCategory;
-import net.sf.mzmine.modules.MZmineProcessingModule;
+import net.sf.mzmine.modules.MZminePerFileProcessingModule;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.taskcontrol.Task;
 import net.sf.mzmine.util.ExitCode;
 
-public class ADAPChromatogramBuilderModule implements MZmineProcessingModule {
+public class ADAPChromatogramBuilderModule implements MZminePerFileProcessingModule {
 
   private static final String MODULE_NAME = "ADAP Chromatogram builder";
   private static final String MODULE_DESCRIPTION =
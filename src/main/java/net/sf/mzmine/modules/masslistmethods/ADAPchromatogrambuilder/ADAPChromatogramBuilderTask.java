@@ -26,7 +26,6 @@ import com.google.common.collect.RangeSet;
 import java.util.*;
 import java.util.logging.Logger;
 
-import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.Feature;
 import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.MassList;
@@ -207,6 +206,9 @@ public class ADAPChromatogramBuilderTask extends AbstractTask {
     // make a list of all the data points
     List<ExpandedDataPoint> allMzValues = new ArrayList<ExpandedDataPoint>();
 
+    // Reused for the m/z and intensity values of all mass lists
+    double mzValues[] = new double[0], intensityValues[] = new double[0];
+
     for (Scan scan : scans) {
       if (isCanceled())
         return;
@@ -219,17 +221,16 @@ public class ADAPChromatogramBuilderTask extends AbstractTask {
         return;
       }
 
-      DataPoint mzValues[] = massList.getDataPoints();
-
-      if (mzValues == null) {
-        setStatus(TaskStatus.ERROR);
-        setErrorMessage("Mass list " + massListName + " does not contain m/z values for scan #"
-            + scan.getScanNumber() + " of file " + dataFile);
-        return;
+      final int numOfDataPoints = massList.getNumberOfDataPoints();
+      if (mzValues.length < numOfDataPoints) {
+        mzValues = new double[numOfDataPoints];
+        intensityValues = new double[numOfDataPoints];
       }
+      final int numOfReadDataPoints = massList.getDataPoints(mzValues, intensityValues);
 
-      for (DataPoint mzPeak : mzValues) {
-        ExpandedDataPoint curDatP = new ExpandedDataPoint(mzPeak, scan.getScanNumber());
+      for (int i = 0; i < numOfReadDataPoints; i++) {
+        ExpandedDataPoint curDatP =
+            new ExpandedDataPoint(mzValues[i], intensityValues[i], scan.getScanNumber());
         allMzValues.add(curDatP);
         // corespondingScanNum.add(scan.getScanNumber());
       }
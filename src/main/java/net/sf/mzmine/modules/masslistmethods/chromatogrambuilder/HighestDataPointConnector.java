@@ -18,19 +18,17 @@
 
 package net.sf.mzmine.modules.masslistmethods.chromatogrambuilder;
 
-import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.Set;
 
 import com.google.common.collect.Range;
 
+import it.unimi.dsi.fastutil.ints.IntArrays;
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
-import net.sf.mzmine.util.DataPointSorter;
-import net.sf.mzmine.util.SortingDirection;
-import net.sf.mzmine.util.SortingProperty;
 
 public class HighestDataPointConnector {
 
@@ -58,17 +56,32 @@ public class HighestDataPointConnector {
 
   }
 
-  public void addScan(int scanNumber, DataPoint mzValues[]) {
-
-    // Sort m/z peaks by descending intensity
-    Arrays.sort(mzValues,
-        new DataPointSorter(SortingProperty.Intensity, SortingDirection.Descending));
+  /**
+   * Connects the m/z peaks of one scan to the chromatograms. The m/z peaks are given as primitive
+   * arrays, data point objects are only created for the peaks which become part of a chromatogram.
+   */
+  public void addScan(int scanNumber, double mzValues[], double intensityValues[],
+      int numOfDataPoints) {
+
+    // Sort m/z peaks by descending intensity (and descending m/z for equal intensities, as the
+    // DataPointSorter does)
+    final int sortedIndexes[] = new int[numOfDataPoints];
+    for (int i = 0; i < numOfDataPoints; i++)
+      sortedIndexes[i] = i;
+    IntArrays.quickSort(sortedIndexes, (i, j) -> {
+      int result = Double.compare(intensityValues[j], intensityValues[i]);
+      if (result == 0)
+        result = Double.compare(mzValues[j], mzValues[i]);
+      return result;
+    });
 
     // Set of already connected chromatograms in each iteration
     Set<Chromatogram> connectedChromatograms = new LinkedHashSet<Chromatogram>();
 
     // TODO: these two nested cycles should be optimized for speed
-    for (DataPoint mzPeak : mzValues) {
+    for (int index : sortedIndexes) {
+
+      final double mz = mzValues[index];
 
       // Search for best chromatogram, which has highest last data point
       Chromatogram bestChromatogram = null;
@@ -77,7 +90,7 @@ public class HighestDataPointConnector {
 
         DataPoint lastMzPeak = testChrom.getLastMzPeak();
         Range<Double> toleranceRange = mzTolerance.getToleranceRange(lastMzPeak.getMZ());
-        if (toleranceRange.contains(mzPeak.getMZ())) {
+        if (toleranceRange.contains(mz)) {
           if ((bestChromatogram == null) || (testChrom.getLastMzPeak()
               .getIntensity() > bestChromatogram.getLastMzPeak().getIntensity())) {
             bestChromatogram = testChrom;
@@ -98,7 +111,7 @@ public class HighestDataPointConnector {
       }
 
       // Add this mzPeak to the chromatogram
-      bestChromatogram.addMzPeak(scanNumber, mzPeak);
+      bestChromatogram.addMzPeak(scanNumber, new SimpleDataPoint(mz, intensityValues[index]));
 
       // Move the chromatogram to the set of connected chromatograms
       connectedChromatograms.add(bestChromatogram);
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package net.sf.mzmine.modules.peaklistmethods.alignment.hierarchical;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import net.sf.mzmine.taskcontrol.RangeSubTask;
+
+/**
+ * Sub task of the HierarAlignerGCTask, computes the sparse distance graph edges of a range of rows
+ * in RT order: the distances to the following rows of other raw data files within the tolerances.
+ */
+class HierarAlignerGCGraphTask extends RangeSubTask {
+
+  private final RowVsRowDistanceProvider distProvider;
+  private final double mzMaxDiff, rtMaxDiff, minScore;
+  private final int rtOrder[];
+  private final double rts[], mzs[];
+  private final int fileIndexes[];
+  private final int neighbors[][];
+  private final float distances[][];
+
+  /**
+   * @param rtOrder row indexes sorted by RT
+   * @param neighbors receives the neighbor rows of the edges of each processed row
+   * @param distances receives the distances of the edges of each processed row
+   * @param start first position in rtOrder to process
+   * @param end end (exclusive) of the positions in rtOrder to process
+   */
+  HierarAlignerGCGraphTask(HierarAlignerGCTask alignerTask, RowVsRowDistanceProvider distProvider,
+      double mzMaxDiff, double rtMaxDiff, double minScore, int rtOrder[], double rts[],
+      double mzs[], int fileIndexes[], int neighbors[][], float distances[][], int start,
+      int end) {
+    super(alignerTask, "rows", start, end);
+    this.distProvider = distProvider;
+    this.mzMaxDiff = mzMaxDiff;
+    this.rtMaxDiff = rtMaxDiff;
+    this.minScore = minScore;
+    this.rtOrder = rtOrder;
+    this.rts = rts;
+    this.mzs = mzs;
+    this.fileIndexes = fileIndexes;
+    this.neighbors = neighbors;
+    this.distances = distances;
+  }
+
+  @Override
+  protected void process(int k) {
+
+    final int x = rtOrder[k];
+    final IntArrayList candidates = new IntArrayList();
+    for (int l = k + 1; l < rtOrder.length && rts[rtOrder[l]] - rts[x] < rtMaxDiff / 2.0; l++) {
+      final int y = rtOrder[l];
+      if (fileIndexes[x] != fileIndexes[y] && Math.abs(mzs[x] - mzs[y]) < mzMaxDiff / 2.0)
+        candidates.add(y);
+    }
+
+    final int rowNeighbors[] = candidates.toIntArray();
+    final float rowDistances[] = new float[rowNeighbors.length];
+    for (int j = 0; j < rowNeighbors.length; j++) {
+      rowDistances[j] = (float) distProvider.getRankedDistance(x, rowNeighbors[j], mzMaxDiff,
+          rtMaxDiff, minScore);
+    }
+    neighbors[x] = rowNeighbors;
+    distances[x] = rowDistances;
+
+  }
+
+}
@@ -97,6 +97,13 @@ public class HierarAlignerGCParameters extends SimpleParameterSet {
   // perfectly matching identities.");
 
   // *** GLG HACK: Added...
+  public static final BooleanParameter sparseDistanceGraph = new BooleanParameter(
+      "Sparse distance graph",
+      "If checked, only the distances between rows within the m/z and RT tolerances are computed (in parallel) and stored, and the clustering runs on that sparse graph. "
+          + "Memory then grows with the number of candidate pairs instead of the square of the number of rows. "
+          + "Unchecked: the full distance matrix is computed and clustered.",
+      false);
+
   public static final BooleanParameter useKnownCompoundsAsRef =
       new BooleanParameter("Use RT recalibration",
           "If checked, uses compounds with known identities to ease alignment", true);
@@ -144,7 +151,7 @@ public class HierarAlignerGCParameters extends SimpleParameterSet {
         // useKnownCompoundsAsRef,
         // useDetectedMzOnly,
         // RTToleranceAfter,
-        exportDendrogramTxt, dendrogramTxtFilename
+        sparseDistanceGraph, exportDendrogramTxt, dendrogramTxtFilename
         /* SameChargeRequired, SameIDRequired, compareIsotopePattern */
     });
   }
@@ -25,6 +25,7 @@ import java.io.IOException;
 import java.text.Format;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
@@ -32,6 +33,7 @@ import java.util.List;
 import java.util.Set;
 import java.util.Vector;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 import org.gnf.clustering.DataSource;
 import org.gnf.clustering.DistanceMatrix;
 import org.gnf.clustering.FloatSource1D;
@@ -55,6 +57,7 @@ import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import net.sf.mzmine.parameters.parametertypes.tolerances.RTTolerance;
 import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.SubTaskGroup;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.PeakUtils;
 import net.sf.mzmine.util.SortingDirection;
@@ -69,9 +72,15 @@ public class HierarAlignerGCTask extends AbstractTask {
   private PeakList peakLists[];
   private PeakList alignedPeakList;
 
+  // Rows of a sparse distance graph computation sub task
+  private static final int ROWS_PER_SUB_TASK = 500;
+
   // Processed rows counter
   private int processedRows, totalRows;
 
+  // Sub tasks computing the sparse distance graph
+  private volatile SubTaskGroup<HierarAlignerGCGraphTask> graphSubTasks;
+
   private String peakListName;
   private LinkageMode linkageStartegyType;
 
@@ -80,6 +89,9 @@ public class HierarAlignerGCTask extends AbstractTask {
 
   private boolean saveRAMratherThanCPU_1;
   private boolean saveRAMratherThanCPU_2;
+
+  // Only compute and store the distances of rows within the tolerances
+  private boolean useSparseGraph;
   //
   // private boolean useOldestRDFAncestor;
   private MZTolerance mzTolerance;
@@ -148,6 +160,9 @@ public class HierarAlignerGCTask extends AbstractTask {
     saveRAMratherThanCPU_1 = false;
     saveRAMratherThanCPU_2 = false;
 
+    useSparseGraph =
+        parameters.getParameter(HierarAlignerGCParameters.sparseDistanceGraph).getValue();
+
     mzTolerance = parameters.getParameter(HierarAlignerGCParameters.MZTolerance).getValue();
     rtTolerance = parameters.getParameter(HierarAlignerGCParameters.RTTolerance).getValue();
 
@@ -230,9 +245,11 @@ public class HierarAlignerGCTask extends AbstractTask {
     if (totalRows == 0)
       return 0f;
     // return (double) processedRows / (double) totalRows;
-    double progress =
-        (double) (processedRows + (clustProgress.getProgress() * (double) totalRows / 3.0d))
-            / (double) totalRows;
+    final SubTaskGroup<HierarAlignerGCGraphTask> currentGraphSubTasks = graphSubTasks;
+    final double graphRows = (currentGraphSubTasks == null) ? 0.0
+        : currentGraphSubTasks.getFinishedPercentage() * (double) totalRows / 3.0d;
+    double progress = (double) (processedRows + graphRows
+        + (clustProgress.getProgress() * (double) totalRows / 3.0d)) / (double) totalRows;
     // logger.info(">> THE progress: " + progress);
     // logger.info("Caught progress: " +
     // clustProgress.getProgress());
@@ -326,7 +343,8 @@ public class HierarAlignerGCTask extends AbstractTask {
     }
 
     // If 'Hybrid' or no distance matrix: no need for a matrix
-    if (CLUSTERER_TYPE == ClustererType.HYBRID || !saveRAMratherThanCPU_1) {
+    // (nor if the distances are stored in a sparse graph)
+    if ((CLUSTERER_TYPE == ClustererType.HYBRID || !saveRAMratherThanCPU_1) && !useSparseGraph) {
       // distances = new double[nbPeaks][nbPeaks];
 
       int nRowCount = nbPeaks;
@@ -357,8 +375,18 @@ public class HierarAlignerGCTask extends AbstractTask {
         // rtToleranceAfter,
         maximumScore);
 
+    // Sparse distance graph: only rows within the tolerances
+    SparseDistanceGraph distancesGraph = null;
+    if (useSparseGraph) {
+      distancesGraph = buildSparseDistanceGraph(distProvider, nbPeaks);
+      if (distancesGraph == null)
+        return;
+      logger.info("Sparse distance graph: " + distancesGraph.getNumOfEdges()
+          + " candidate pairs out of " + DistanceMatrixTriangular1D2D.sumFormula(nbPeaks - 1));
+    }
+
     // If 'Hybrid' or no distance matrix: no need for a matrix
-    if (CLUSTERER_TYPE == ClustererType.HYBRID || !saveRAMratherThanCPU_1) {
+    if ((CLUSTERER_TYPE == ClustererType.HYBRID || !saveRAMratherThanCPU_1) && !useSparseGraph) {
 
       for (int x = 0; x < nbPeaks; ++x) {
 
@@ -431,7 +459,9 @@ public class HierarAlignerGCTask extends AbstractTask {
       if (DEBUG_2)
         logger.info(distancesGNF_Tri.toString());
 
-      if (saveRAMratherThanCPU_2) { // Requires: distances values will be
+      if (distancesGraph != null) { // The graph is not changed by the clustering
+        distancesGNF_Tri_Bkp = distancesGraph;
+      } else if (saveRAMratherThanCPU_2) { // Requires: distances values will be
                                     // recomputed on demand during
                                     // "getValidatedClusters_3()"
         distancesGNF_Tri_Bkp = null; // No duplicate backup storage!
@@ -445,7 +475,10 @@ public class HierarAlignerGCTask extends AbstractTask {
 
       if (DEBUG)
         logger.info("Clustering...");
-      if (distancesGNF_Tri != null)
+      if (distancesGraph != null)
+        arNodes = SparseHierarchicalClustering.clusterGraph(distancesGraph, linkageStartegyType,
+            clustProgress);
+      else if (distancesGNF_Tri != null)
         arNodes = org.gnf.clustering.sequentialcache.SequentialCacheClustering
             .clusterDM(distancesGNF_Tri, linkageStartegyType, null, nRowCount);
 
@@ -673,6 +706,63 @@ public class HierarAlignerGCTask extends AbstractTask {
 
   }
 
+  /**
+   * Builds the sparse distance graph: sweeps the rows in RT order and computes, in parallel sub
+   * tasks, the distances of the pairs within the RT and m/z tolerances only. All other pairs get
+   * the constant distances of the RowVsRowDistanceProvider.
+   * 
+   * @return the graph, or null if the task was canceled or a sub task failed
+   */
+  private SparseDistanceGraph buildSparseDistanceGraph(final RowVsRowDistanceProvider distProvider,
+      final int nbPeaks) {
+
+    final double mzMaxDiff = mzTolerance.getMzTolerance();
+    final double rtMaxDiff = rtTolerance.getTolerance();
+
+    final double rts[] = new double[nbPeaks];
+    final double mzs[] = new double[nbPeaks];
+    final int fileIndexes[] = new int[nbPeaks];
+    final HashMap<RawDataFile, Integer> fileIndexMap = new HashMap<>();
+    for (int i = 0; i < nbPeaks; i++) {
+      PeakListRow row = full_rows_list.get(i);
+      rts[i] = row.getBestPeak().getRT();
+      mzs[i] = row.getBestPeak().getMZ();
+      RawDataFile file = row.getRawDataFiles()[0];
+      Integer fileIndex = fileIndexMap.get(file);
+      if (fileIndex == null) {
+        fileIndex = fileIndexMap.size();
+        fileIndexMap.put(file, fileIndex);
+      }
+      fileIndexes[i] = fileIndex;
+    }
+
+    final int rtOrder[] = IntStream.range(0, nbPeaks).boxed()
+        .sorted(Comparator.comparingDouble(i -> rts[i])).mapToInt(Integer::intValue).toArray();
+
+    // Edges of each row to the rows following it in RT order, in chunks of rows processed in
+    // parallel
+    final int neighbors[][] = new int[nbPeaks][];
+    final float distances[][] = new float[nbPeaks][];
+    final SubTaskGroup<HierarAlignerGCGraphTask> subTasks = new SubTaskGroup<>(this);
+    graphSubTasks = subTasks;
+    subTasks.submitRanges(nbPeaks, ROWS_PER_SUB_TASK,
+        (start, end) -> new HierarAlignerGCGraphTask(this, distProvider, mzMaxDiff, rtMaxDiff,
+            minScore, rtOrder, rts, mzs, fileIndexes, neighbors, distances, start, end));
+
+    final boolean finished = subTasks.join();
+    graphSubTasks = null;
+    if (!finished) {
+      if (!isCanceled()) {
+        setErrorMessage(subTasks.getErrorMessage());
+        setStatus(TaskStatus.ERROR);
+      }
+      return null;
+    }
+    processedRows += nbPeaks;
+
+    return new SparseDistanceGraph(neighbors, distances, fileIndexes);
+  }
+
   /**
    * Two clusters can be merged if and only if: - The resulting merged cluster: (their parent)
    * doesn't exceed 'level' leaves - The distance between them two is acceptable (close enough)
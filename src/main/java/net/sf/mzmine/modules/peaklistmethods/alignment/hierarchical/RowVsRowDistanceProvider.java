@@ -26,6 +26,11 @@ import net.sf.mzmine.modules.peaklistmethods.alignment.hierarchical.RowVsRowScor
 
 public class RowVsRowDistanceProvider {
 
+  // Ranked distance of rows from the same raw data file, which are never aligned
+  public static final double SAME_FILE_DISTANCE = 1000.0d;
+  // Ranked distance of rows outside the m/z or RT tolerance
+  public static final double NOT_CANDIDATE_DISTANCE = 100.0d;
+
   MZmineProject project;
   // boolean useOldestRDFancestor;
   // Hashtable<RawDataFile, List<double[]>> rtAdjustementMapping;
@@ -124,7 +129,7 @@ public class RowVsRowDistanceProvider {
     // aligned_row_id < 102)
     // || (row_id >= 102 && aligned_row_id >= 102)) {
     if (row.getRawDataFiles()[0] == k_row.getRawDataFiles()[0]) {
-      return 1000.0d;
+      return SAME_FILE_DISTANCE;
     }
     // Not candidate
     else {
@@ -141,7 +146,7 @@ public class RowVsRowDistanceProvider {
       if ((Math.abs(row.getBestPeak().getRT() - k_row.getBestPeak().getRT()) >= rtMaxDiff / 2.0
           || Math.abs(row.getBestPeak().getMZ() - k_row.getBestPeak().getMZ()) >= mzMaxDiff
               / 2.0)) {
-        return 100.0d;
+        return NOT_CANDIDATE_DISTANCE;
       }
     }
 
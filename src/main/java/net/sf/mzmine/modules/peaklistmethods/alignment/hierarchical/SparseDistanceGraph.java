@@ -0,0 +1,190 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.alignment.hierarchical;
+
+import java.util.Arrays;
+
+import org.gnf.clustering.DistanceMatrix;
+
+/**
+ * Distance matrix which only stores the distances of the candidate pairs of rows, i.e. the rows of
+ * different raw data files within the m/z and RT tolerances. All other distances are constants of
+ * the RowVsRowDistanceProvider, so the values are the same as the ones of a dense
+ * DistanceMatrixTriangular1D2D, while the memory grows with the number of candidate pairs only.
+ * 
+ * Each candidate pair (edge) is stored once, at one of its two rows. Setting the distance of a pair
+ * which is not stored yet adds an edge.
+ */
+public class SparseDistanceGraph implements DistanceMatrix {
+
+  private final int dimension;
+
+  // Edges stored at each row: neighbor rows (ascending) and distances
+  private final int neighbors[][];
+  private final float distances[][];
+
+  // Index of the raw data file of each row
+  private final int fileIndexes[];
+
+  private long numOfEdges;
+
+  /**
+   * @param neighbors neighbor rows of the edges stored at each row (sorted in place)
+   * @param distances distances of the edges stored at each row
+   * @param fileIndexes index of the raw data file of each row
+   */
+  public SparseDistanceGraph(int neighbors[][], float distances[][], int fileIndexes[]) {
+
+    this.dimension = fileIndexes.length;
+    this.neighbors = neighbors;
+    this.distances = distances;
+    this.fileIndexes = fileIndexes;
+
+    long edges = 0;
+    for (int row = 0; row < dimension; row++) {
+      sortEdges(neighbors[row], distances[row]);
+      edges += neighbors[row].length;
+    }
+    this.numOfEdges = edges;
+  }
+
+  private static void sortEdges(int rowNeighbors[], float rowDistances[]) {
+    // Sort (neighbor, distance) pairs packed in longs, the neighbor in the high bits
+    final long packed[] = new long[rowNeighbors.length];
+    for (int i = 0; i < packed.length; i++)
+      packed[i] =
+          ((long) rowNeighbors[i] << 32) | (Float.floatToRawIntBits(rowDistances[i]) & 0xffffffffL);
+    Arrays.sort(packed);
+    for (int i = 0; i < packed.length; i++) {
+      rowNeighbors[i] = (int) (packed[i] >>> 32);
+      rowDistances[i] = Float.intBitsToFloat((int) packed[i]);
+    }
+  }
+
+  /**
+   * @return number of stored edges (candidate pairs)
+   */
+  public long getNumOfEdges() {
+    return numOfEdges;
+  }
+
+  /**
+   * @return neighbor rows of the edges stored at the given row, in ascending order
+   */
+  int[] getNeighbors(int row) {
+    return neighbors[row];
+  }
+
+  /**
+   * @return distances of the edges stored at the given row
+   */
+  float[] getDistances(int row) {
+    return distances[row];
+  }
+
+  /**
+   * @return index of the raw data file of the given row
+   */
+  int getFileIndex(int row) {
+    return fileIndexes[row];
+  }
+
+  @Override
+  public int getRowCount() {
+    return dimension;
+  }
+
+  @Override
+  public int getColCount() {
+    return dimension;
+  }
+
+  @Override
+  public float getValue(int nRow, int nCol) {
+
+    if (nRow == nCol)
+      return 0f;
+
+    int index = indexOf(neighbors[nRow], nCol);
+    if (index >= 0)
+      return distances[nRow][index];
+    index = indexOf(neighbors[nCol], nRow);
+    if (index >= 0)
+      return distances[nCol][index];
+
+    if (fileIndexes[nRow] == fileIndexes[nCol])
+      return (float) RowVsRowDistanceProvider.SAME_FILE_DISTANCE;
+    return (float) RowVsRowDistanceProvider.NOT_CANDIDATE_DISTANCE;
+  }
+
+  private static int indexOf(int rowNeighbors[], int neighbor) {
+    int low = 0, high = rowNeighbors.length - 1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      if (rowNeighbors[mid] < neighbor)
+        low = mid + 1;
+      else if (rowNeighbors[mid] > neighbor)
+        high = mid - 1;
+      else
+        return mid;
+    }
+    return -1;
+  }
+
+  @Override
+  public void setValue(int nRow, int nCol, float fVal) {
+
+    if (nRow == nCol) {
+      if (fVal != 0f)
+        throw new IllegalArgumentException("Distance of a row to itself must be 0");
+      return;
+    }
+
+    int index = indexOf(neighbors[nRow], nCol);
+    if (index >= 0) {
+      distances[nRow][index] = fVal;
+      return;
+    }
+    index = indexOf(neighbors[nCol], nRow);
+    if (index >= 0) {
+      distances[nCol][index] = fVal;
+      return;
+    }
+
+    // New edge, inserted at nRow keeping the neighbors in ascending order
+    final int rowNeighbors[] = neighbors[nRow];
+    final float rowDistances[] = distances[nRow];
+    final int insertion = -(Arrays.binarySearch(rowNeighbors, nCol) + 1);
+
+    final int newNeighbors[] = new int[rowNeighbors.length + 1];
+    final float newDistances[] = new float[rowDistances.length + 1];
+    System.arraycopy(rowNeighbors, 0, newNeighbors, 0, insertion);
+    System.arraycopy(rowDistances, 0, newDistances, 0, insertion);
+    newNeighbors[insertion] = nCol;
+    newDistances[insertion] = fVal;
+    System.arraycopy(rowNeighbors, insertion, newNeighbors, insertion + 1,
+        rowNeighbors.length - insertion);
+    System.arraycopy(rowDistances, insertion, newDistances, insertion + 1,
+        rowDistances.length - insertion);
+    neighbors[nRow] = newNeighbors;
+    distances[nRow] = newDistances;
+    numOfEdges++;
+  }
+
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.alignment.hierarchical;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+import org.gnf.clustering.LinkageMode;
+import org.gnf.clustering.Node;
+
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+
+/**
+ * Agglomerative hierarchical clustering of a SparseDistanceGraph. Only the clusters connected by
+ * edges are compared. Pairs of rows without an edge count as SAME_FILE_DISTANCE if both rows come
+ * from the same raw data file and as NOT_CANDIDATE_DISTANCE otherwise, like in the dense distance
+ * matrix. Once no clusters closer than NOT_CANDIDATE_DISTANCE are left, the remaining clusters are
+ * chained.
+ * 
+ * The resulting tree has the org.gnf.clustering layout: node k merges m_nLeft and m_nRight, which
+ * are row indexes (leaves) if >= 0 and references -(i + 1) to node i otherwise, and the last node
+ * is the root. Above NOT_CANDIDATE_DISTANCE the tree may differ from the dense clustering; no valid
+ * cluster is found there anyway.
+ */
+public class SparseHierarchicalClustering {
+
+  private static final float NOT_CANDIDATE_DISTANCE =
+      (float) RowVsRowDistanceProvider.NOT_CANDIDATE_DISTANCE;
+  private static final float SAME_FILE_DISTANCE =
+      (float) RowVsRowDistanceProvider.SAME_FILE_DISTANCE;
+
+  /**
+   * Distances between the rows of two clusters which are connected by edges, and the number of
+   * pairs of rows of these clusters which come from the same raw data file (with or without edge).
+   */
+  private static class Link {
+    double sum;
+    long count, sameFileEdgeCount, sameFileCount;
+    float min = Float.MAX_VALUE, max = -Float.MAX_VALUE;
+
+    void add(Link link) {
+      sum += link.sum;
+      count += link.count;
+      sameFileEdgeCount += link.sameFileEdgeCount;
+      min = Math.min(min, link.min);
+      max = Math.max(max, link.max);
+    }
+  }
+
+  /**
+   * Candidate merge of the clusters a and b, valid as long as both clusters are unchanged.
+   */
+  private static class Candidate implements Comparable<Candidate> {
+    final float distance;
+    final int a, b, versionA, versionB;
+
+    Candidate(float distance, int a, int b, int versionA, int versionB) {
+      this.distance = distance;
+      this.a = Math.min(a, b);
+      this.b = Math.max(a, b);
+      this.versionA = (a < b) ? versionA : versionB;
+      this.versionB = (a < b) ? versionB : versionA;
+    }
+
+    @Override
+    public int compareTo(Candidate other) {
+      int result = Float.compare(distance, other.distance);
+      if (result == 0)
+        result = Integer.compare(a, other.a);
+      if (result == 0)
+        result = Integer.compare(b, other.b);
+      return result;
+    }
+  }
+
+  /**
+   * Clusters the rows of the graph.
+   * 
+   * @param progress receives the progress (ratio of merged nodes), may be null
+   * @return the n - 1 nodes of the tree
+   */
+  public static Node[] clusterGraph(SparseDistanceGraph graph, LinkageMode linkageMode,
+      ClusteringProgression progress) {
+
+    final int n = graph.getRowCount();
+    final Node nodes[] = new Node[Math.max(0, n - 1)];
+    if (n < 2)
+      return nodes;
+
+    // Each cluster is kept in the slot of one of its rows
+    final int references[] = new int[n];
+    final int sizes[] = new int[n];
+    final int versions[] = new int[n];
+    @SuppressWarnings("unchecked")
+    final Int2ObjectOpenHashMap<Link> links[] = new Int2ObjectOpenHashMap[n];
+    // Number of rows of each raw data file in each cluster
+    final Int2IntOpenHashMap fileCounts[] = new Int2IntOpenHashMap[n];
+    for (int row = 0; row < n; row++) {
+      references[row] = row;
+      sizes[row] = 1;
+      links[row] = new Int2ObjectOpenHashMap<>();
+      fileCounts[row] = new Int2IntOpenHashMap();
+      fileCounts[row].put(graph.getFileIndex(row), 1);
+    }
+
+    final PriorityQueue<Candidate> queue = new PriorityQueue<>();
+    for (int row = 0; row < n; row++) {
+      final int rowNeighbors[] = graph.getNeighbors(row);
+      final float rowDistances[] = graph.getDistances(row);
+      for (int k = 0; k < rowNeighbors.length; k++) {
+        final Link link = new Link();
+        link.sum = link.min = link.max = rowDistances[k];
+        link.count = 1;
+        if (graph.getFileIndex(row) == graph.getFileIndex(rowNeighbors[k]))
+          link.sameFileEdgeCount = link.sameFileCount = 1;
+        links[row].put(rowNeighbors[k], link);
+        links[rowNeighbors[k]].put(row, link);
+        queue.add(new Candidate(rowDistances[k], row, rowNeighbors[k], 0, 0));
+      }
+    }
+
+    int numOfNodes = 0;
+    while (!queue.isEmpty()) {
+
+      final Candidate candidate = queue.poll();
+      final int a = candidate.a, b = candidate.b;
+      if (links[a] == null || links[b] == null || versions[a] != candidate.versionA
+          || versions[b] != candidate.versionB)
+        continue;
+      if (candidate.distance >= NOT_CANDIDATE_DISTANCE)
+        break;
+
+      // Merge b into a
+      nodes[numOfNodes] = new Node(references[a], references[b], candidate.distance);
+      references[a] = -(numOfNodes + 1);
+      numOfNodes++;
+      sizes[a] += sizes[b];
+      versions[a]++;
+      for (Int2IntMap.Entry entry : fileCounts[b].int2IntEntrySet())
+        fileCounts[a].addTo(entry.getIntKey(), entry.getIntValue());
+      fileCounts[b] = null;
+
+      final Int2ObjectOpenHashMap<Link> linksA = links[a], linksB = links[b];
+      linksA.remove(b);
+      linksB.remove(a);
+      for (Int2ObjectMap.Entry<Link> entry : linksB.int2ObjectEntrySet()) {
+        final Link merged = new Link();
+        merged.add(entry.getValue());
+        final Link linkA = linksA.get(entry.getIntKey());
+        if (linkA != null)
+          merged.add(linkA);
+        linksA.put(entry.getIntKey(), merged);
+      }
+      links[b] = null;
+
+      for (Int2ObjectMap.Entry<Link> entry : linksA.int2ObjectEntrySet()) {
+        final int c = entry.getIntKey();
+        final Link link = entry.getValue();
+        link.sameFileCount = countSameFilePairs(fileCounts[a], fileCounts[c]);
+        links[c].remove(b);
+        links[c].put(a, link);
+        queue.add(
+            new Candidate(linkage(link, sizes[a], sizes[c], linkageMode), a, c, versions[a],
+                versions[c]));
+      }
+
+      if (progress != null)
+        progress.setProgress((double) numOfNodes / nodes.length);
+    }
+
+    // Chain the remaining clusters
+    int previous = -1;
+    for (int slot = 0; slot < n; slot++) {
+      if (links[slot] == null)
+        continue;
+      if (previous >= 0) {
+        nodes[numOfNodes] =
+            new Node(references[previous], references[slot], NOT_CANDIDATE_DISTANCE);
+        references[slot] = -(numOfNodes + 1);
+        numOfNodes++;
+      }
+      previous = slot;
+    }
+    Arrays.fill(links, null);
+    Arrays.fill(fileCounts, null);
+
+    if (progress != null)
+      progress.setProgress(1d);
+
+    return nodes;
+  }
+
+  /**
+   * @return number of pairs of rows of the two clusters which come from the same raw data file
+   */
+  private static long countSameFilePairs(Int2IntOpenHashMap fileCountsA,
+      Int2IntOpenHashMap fileCountsB) {
+    if (fileCountsA.size() > fileCountsB.size())
+      return countSameFilePairs(fileCountsB, fileCountsA);
+    long sameFilePairs = 0;
+    for (Int2IntMap.Entry entry : fileCountsA.int2IntEntrySet())
+      sameFilePairs += (long) entry.getIntValue() * fileCountsB.get(entry.getIntKey());
+    return sameFilePairs;
+  }
+
+  private static float linkage(Link link, int sizeA, int sizeB, LinkageMode linkageMode) {
+
+    final long numOfPairs = (long) sizeA * sizeB;
+
+    // Pairs of rows without an edge
+    final long sameFilePairs = link.sameFileCount - link.sameFileEdgeCount;
+    final long notCandidatePairs = numOfPairs - link.count - sameFilePairs;
+
+    if (linkageMode == LinkageMode.MIN)
+      return link.min;
+    if (linkageMode == LinkageMode.MAX) {
+      if (sameFilePairs > 0)
+        return Math.max(link.max, SAME_FILE_DISTANCE);
+      return (notCandidatePairs == 0) ? link.max : Math.max(link.max, NOT_CANDIDATE_DISTANCE);
+    }
+
+    // Average
+    return (float) ((link.sum + sameFilePairs * SAME_FILE_DISTANCE
+        + notCandidatePairs * NOT_CANDIDATE_DISTANCE) / numOfPairs);
+  }
+
+}
@@ -44,6 +44,7 @@ import net.sf.mzmine.util.PeakUtils;
 import net.sf.mzmine.util.RangeUtils;
 import net.sf.mzmine.util.scans.similarity.SpectralSimilarity;
 import net.sf.mzmine.util.scans.similarity.SpectralSimilarityFunction;
+import net.sf.mzmine.util.scans.similarity.SpectralSimilarityKernel;
 
 public class JoinAlignerTask extends AbstractTask {
 
@@ -68,6 +69,8 @@ public class JoinAlignerTask extends AbstractTask {
 
   // fields for spectra similarity
   private MZmineProcessingStep<SpectralSimilarityFunction> simFunction;
+  // reused for all spectra comparisons of this task
+  private SpectralSimilarityKernel kernel;
   private int msLevel;
   private String massList;
 
@@ -103,6 +106,7 @@ public class JoinAlignerTask extends AbstractTask {
       simFunction = parameters.getParameter(JoinAlignerParameters.compareSpectraSimilarity)
           .getEmbeddedParameters()
           .getParameter(JoinAlignerSpectraSimilarityScoreParameters.similarityFunction).getValue();
+      kernel = simFunction.getModule().createKernel(simFunction.getParameterSet(), mzTolerance, 0);
 
       msLevel = parameters.getParameter(JoinAlignerParameters.compareSpectraSimilarity)
           .getEmbeddedParameters().getParameter(JoinAlignerSpectraSimilarityScoreParameters.msLevel)
@@ -338,8 +342,7 @@ public class JoinAlignerTask extends AbstractTask {
    * @return positive match with similarity or null if criteria was not met
    */
   private SpectralSimilarity createSimilarity(DataPoint[] library, DataPoint[] query) {
-    return simFunction.getModule().getSimilarity(simFunction.getParameterSet(), mzTolerance, 0,
-        library, query);
+    return kernel.getSimilarity(simFunction.getModule().getName(), library, query);
   }
 
 }
@@ -29,7 +29,6 @@ import jmprojection.PCA;
 import jmprojection.Preprocess;
 import jmprojection.ProjectionStatus;
 import jmprojection.Sammons;
-import net.sf.mzmine.datamodel.Feature;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
@@ -42,6 +41,7 @@ import net.sf.mzmine.modules.peaklistmethods.dataanalysis.projectionplots.Projec
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.taskcontrol.TaskPriority;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.FeatureMatrix;
 import net.sf.mzmine.util.PeakMeasurementType;
 import weka.core.Attribute;
 import weka.core.FastVector;
@@ -353,51 +353,15 @@ public class ClusteringTask extends AbstractXYDataset implements ProjectionPlotD
    */
   private double[][] createMatrix(boolean isForSamples) {
     // Generate matrix of raw data (input to CDA)
-    boolean useArea = true;
-    if (parameters.getParameter(ClusteringParameters.peakMeasurementType)
-        .getValue() == PeakMeasurementType.AREA) {
-      useArea = true;
-    }
-    if (parameters.getParameter(ClusteringParameters.peakMeasurementType)
-        .getValue() == PeakMeasurementType.HEIGHT) {
-      useArea = false;
-    }
-    double[][] rawData;
+    PeakMeasurementType measurementType =
+        parameters.getParameter(ClusteringParameters.peakMeasurementType).getValue();
+    FeatureMatrix matrix =
+        FeatureMatrix.getMatrix(peakList, selectedRows, selectedRawDataFiles, measurementType);
     if (isForSamples) {
-      rawData = new double[selectedRawDataFiles.length][selectedRows.length];
-      for (int rowIndex = 0; rowIndex < selectedRows.length; rowIndex++) {
-        PeakListRow peakListRow = selectedRows[rowIndex];
-        for (int fileIndex = 0; fileIndex < selectedRawDataFiles.length; fileIndex++) {
-          RawDataFile rawDataFile = selectedRawDataFiles[fileIndex];
-          Feature p = peakListRow.getPeak(rawDataFile);
-          if (p != null) {
-            if (useArea) {
-              rawData[fileIndex][rowIndex] = p.getArea();
-            } else {
-              rawData[fileIndex][rowIndex] = p.getHeight();
-            }
-          }
-        }
-      }
+      return matrix.toSampleMatrix(0.0);
     } else {
-      rawData = new double[selectedRows.length][selectedRawDataFiles.length];
-      for (int rowIndex = 0; rowIndex < selectedRows.length; rowIndex++) {
-        PeakListRow peakListRow = selectedRows[rowIndex];
-        for (int fileIndex = 0; fileIndex < selectedRawDataFiles.length; fileIndex++) {
-          RawDataFile rawDataFile = selectedRawDataFiles[fileIndex];
-          Feature p = peakListRow.getPeak(rawDataFile);
-          if (p != null) {
-            if (useArea) {
-              rawData[rowIndex][fileIndex] = p.getArea();
-            } else {
-              rawData[rowIndex][fileIndex] = p.getHeight();
-            }
-          }
-        }
-      }
+      return matrix.toRowMatrix(0.0);
     }
-
-    return rawData;
   }
 
   /**
@@ -29,7 +29,6 @@ import org.apache.commons.math.MathException;
 import org.apache.commons.math.stat.descriptive.DescriptiveStatistics;
 import org.apache.commons.math.stat.inference.TTestImpl;
 
-import net.sf.mzmine.datamodel.Feature;
 import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
@@ -38,6 +37,8 @@ import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.UserParameter;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.FeatureMatrix;
+import net.sf.mzmine.util.PeakMeasurementType;
 import net.sf.mzmine.util.R.REngineType;
 import net.sf.mzmine.util.R.RSessionWrapper;
 import net.sf.mzmine.util.R.RSessionWrapperException;
@@ -352,24 +353,23 @@ public class HeatMapTask extends AbstractTask {
       shownDataFiles = nonReferenceDataFiles;
     }
 
-    for (int row = 0, rowIndex = 0; row < peakList.getNumberOfRows(); row++) {
-      PeakListRow rowPeak = peakList.getRow(row);
+    FeatureMatrix matrix = getFeatureMatrix();
+    int referenceIndexes[] =
+        matrix.getDataFileIndexes(referenceDataFiles.toArray(new RawDataFile[0]));
+    int shownIndexes[] = matrix.getDataFileIndexes(shownDataFiles.toArray(new RawDataFile[0]));
+
+    for (int row = 0, rowIndex = 0; row < matrix.getNumberOfRows(); row++) {
+      PeakListRow rowPeak = matrix.getRow(row);
       if (!onlyIdentified || (onlyIdentified && rowPeak.getPeakIdentities().length > 0)) {
 
         // Average area or height of the reference group
         double referenceAverage = 0;
         int referencePeakCount = 0;
-        for (int column = 0; column < referenceDataFiles.size(); column++) {
-
-          if (rowPeak.getPeak(referenceDataFiles.get(column)) != null) {
+        for (int column : referenceIndexes) {
 
-            if (area) {
+          if (!matrix.isMissing(row, column)) {
 
-              referenceAverage += rowPeak.getPeak(referenceDataFiles.get(column)).getArea();
-            } else {
-
-              referenceAverage += rowPeak.getPeak(referenceDataFiles.get(column)).getHeight();
-            }
+            referenceAverage += matrix.getValue(row, column);
             referencePeakCount++;
           }
         }
@@ -380,18 +380,11 @@ public class HeatMapTask extends AbstractTask {
 
         // Divide the area or height of each peak by the average of the
         // area or height of the reference peaks in each row
-        for (int column = 0; column < shownDataFiles.size(); column++) {
+        for (int column = 0; column < shownIndexes.length; column++) {
           double value = Double.NaN;
-          if (rowPeak.getPeak(shownDataFiles.get(column)) != null) {
+          if (!matrix.isMissing(row, shownIndexes[column])) {
 
-            Feature peak = rowPeak.getPeak(shownDataFiles.get(column));
-            if (area) {
-
-              value = peak.getArea() / referenceAverage;
-            } else {
-
-              value = peak.getHeight() / referenceAverage;
-            }
+            value = matrix.getValue(row, shownIndexes[column]) / referenceAverage;
             if (log) {
 
               value = Math.log(value);
@@ -503,24 +496,26 @@ public class HeatMapTask extends AbstractTask {
     // data files that should be in the heat map
     List<RawDataFile> shownDataFiles = nonReferenceDataFiles;
 
-    for (int row = 0, rowIndex = 0; row < peakList.getNumberOfRows(); row++) {
-      PeakListRow rowPeak = peakList.getRow(row);
+    FeatureMatrix matrix = getFeatureMatrix();
+    int referenceIndexes[] =
+        matrix.getDataFileIndexes(referenceDataFiles.toArray(new RawDataFile[0]));
+    int shownIndexes[] = matrix.getDataFileIndexes(shownDataFiles.toArray(new RawDataFile[0]));
+    String shownGroups[] = new String[shownIndexes.length];
+    for (int dataColumn = 0; dataColumn < shownIndexes.length; dataColumn++) {
+      shownGroups[dataColumn] = String.valueOf(
+          project.getParameterValue(selectedParameter, shownDataFiles.get(dataColumn)));
+    }
+
+    for (int row = 0, rowIndex = 0; row < matrix.getNumberOfRows(); row++) {
+      PeakListRow rowPeak = matrix.getRow(row);
       if (!onlyIdentified || (onlyIdentified && rowPeak.getPeakIdentities().length > 0)) {
         // Average area or height of the reference group
         meanControlStats.clear();
-        for (int column = 0; column < referenceDataFiles.size(); column++) {
-
-          if (rowPeak.getPeak(referenceDataFiles.get(column)) != null) {
-
-            if (area) {
+        for (int column : referenceIndexes) {
 
-              meanControlStats.addValue(rowPeak.getPeak(referenceDataFiles.get(column)).getArea());
-            } else {
-
-              meanControlStats
-                  .addValue(rowPeak.getPeak(referenceDataFiles.get(column)).getHeight());
-            }
+          if (!matrix.isMissing(row, column)) {
 
+            meanControlStats.addValue(matrix.getValue(row, column));
           }
         }
 
@@ -532,24 +527,15 @@ public class HeatMapTask extends AbstractTask {
           meanGroupStats.clear();
           if (!group.equals(referenceGroup)) {
 
-            for (int dataColumn = 0; dataColumn < shownDataFiles.size(); dataColumn++) {
+            for (int dataColumn = 0; dataColumn < shownIndexes.length; dataColumn++) {
 
-              Object paramValue =
-                  project.getParameterValue(selectedParameter, shownDataFiles.get(dataColumn));
-              if (rowPeak.getPeak(shownDataFiles.get(dataColumn)) != null
-                  && String.valueOf(paramValue).equals(group)) {
+              final int fileIndex = shownIndexes[dataColumn];
+              if (!matrix.isMissing(row, fileIndex) && shownGroups[dataColumn].equals(group)) {
 
-                Feature peak = rowPeak.getPeak(shownDataFiles.get(dataColumn));
+                double intensity = matrix.getValue(row, fileIndex);
+                if (!Double.isInfinite(intensity) && !Double.isNaN(intensity)) {
 
-                if (!Double.isInfinite(peak.getArea()) && !Double.isNaN(peak.getArea())) {
-
-                  if (area) {
-
-                    meanGroupStats.addValue(peak.getArea());
-                  } else {
-
-                    meanGroupStats.addValue(peak.getHeight());
-                  }
+                  meanGroupStats.addValue(intensity);
                 }
 
               }
@@ -609,6 +595,14 @@ public class HeatMapTask extends AbstractTask {
     return dataMatrix;
   }
 
+  /**
+   * @return feature matrix of all rows of the feature list in all its data files
+   */
+  private FeatureMatrix getFeatureMatrix() {
+    return FeatureMatrix.getMatrix(peakList, peakList.getRawDataFiles(),
+        area ? PeakMeasurementType.AREA : PeakMeasurementType.HEIGHT);
+  }
+
   private String getPvalue(DescriptiveStatistics group1, DescriptiveStatistics group2) {
     TTestImpl ttest = new TTestImpl();
     String sig = "";
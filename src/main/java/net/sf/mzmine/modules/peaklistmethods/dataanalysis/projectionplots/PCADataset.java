@@ -18,21 +18,20 @@
 
 package net.sf.mzmine.modules.peaklistmethods.dataanalysis.projectionplots;
 
-import java.util.Vector;
 import java.util.logging.Logger;
 import org.jfree.data.xy.AbstractXYDataset;
 import jmprojection.PCA;
 import jmprojection.Preprocess;
 import jmprojection.ProjectionStatus;
-import net.sf.mzmine.datamodel.Feature;
 import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.parameters.ParameterSet;
-import net.sf.mzmine.parameters.UserParameter;
 import net.sf.mzmine.taskcontrol.TaskPriority;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.FeatureMatrix;
+import net.sf.mzmine.util.FeatureMatrix.SampleGroups;
 import net.sf.mzmine.util.PeakMeasurementType;
 
 public class PCADataset extends AbstractXYDataset implements ProjectionPlotDataset {
@@ -103,19 +102,10 @@ public class PCADataset extends AbstractXYDataset implements ProjectionPlotDatas
 
     if (coloringType.isByParameter()) {
       // Group files with same parameter value to same group
-      Vector<Object> availableParameterValues = new Vector<Object>();
-      UserParameter<?, ?> selectedParameter = coloringType.getParameter();
-      for (RawDataFile rawDataFile : selectedRawDataFiles) {
-        Object paramValue = project.getParameterValue(selectedParameter, rawDataFile);
-        if (!availableParameterValues.contains(paramValue))
-          availableParameterValues.add(paramValue);
-      }
-
-      for (int ind = 0; ind < selectedRawDataFiles.length; ind++) {
-        Object paramValue = project.getParameterValue(selectedParameter, selectedRawDataFiles[ind]);
-        groupsForSelectedRawDataFiles[ind] = availableParameterValues.indexOf(paramValue);
-      }
-      parameterValuesForGroups = availableParameterValues.toArray();
+      SampleGroups groups =
+          FeatureMatrix.groupDataFiles(project, coloringType.getParameter(), selectedRawDataFiles);
+      groupsForSelectedRawDataFiles = groups.getGroups();
+      parameterValuesForGroups = groups.getGroupValues();
 
       numberOfGroups = parameterValuesForGroups.length;
     }
@@ -211,8 +201,8 @@ public class PCADataset extends AbstractXYDataset implements ProjectionPlotDatas
     logger.info("Computing PCA projection plot");
 
     // Generate matrix of raw data (input to PCA)
-    final boolean useArea = (parameters.getParameter(ProjectionPlotParameters.peakMeasurementType)
-        .getValue() == PeakMeasurementType.AREA);
+    PeakMeasurementType measurementType =
+        parameters.getParameter(ProjectionPlotParameters.peakMeasurementType).getValue();
 
     if (selectedRows.length == 0) {
       this.status = TaskStatus.ERROR;
@@ -225,20 +215,9 @@ public class PCADataset extends AbstractXYDataset implements ProjectionPlotDatas
       return;
     }
 
-    double[][] rawData = new double[selectedRawDataFiles.length][selectedRows.length];
-    for (int rowIndex = 0; rowIndex < selectedRows.length; rowIndex++) {
-      PeakListRow peakListRow = selectedRows[rowIndex];
-      for (int fileIndex = 0; fileIndex < selectedRawDataFiles.length; fileIndex++) {
-        RawDataFile rawDataFile = selectedRawDataFiles[fileIndex];
-        Feature p = peakListRow.getPeak(rawDataFile);
-        if (p != null) {
-          if (useArea)
-            rawData[fileIndex][rowIndex] = p.getArea();
-          else
-            rawData[fileIndex][rowIndex] = p.getHeight();
-        }
-      }
-    }
+    FeatureMatrix matrix =
+        FeatureMatrix.getMatrix(peakList, selectedRows, selectedRawDataFiles, measurementType);
+    double[][] rawData = matrix.toSampleMatrix(0.0);
 
     int numComponents = xAxisPC;
     if (yAxisPC > numComponents)
@@ -21,12 +21,12 @@ package net.sf.mzmine.modules.peaklistmethods.dataanalysis.rtmzplots.cvplot;
 import java.util.Vector;
 import java.util.logging.Logger;
 
-import net.sf.mzmine.datamodel.Feature;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.modules.peaklistmethods.dataanalysis.rtmzplots.RTMZDataset;
 import net.sf.mzmine.parameters.ParameterSet;
+import net.sf.mzmine.util.FeatureMatrix;
 import net.sf.mzmine.util.MathUtils;
 import net.sf.mzmine.util.PeakMeasurementType;
 
@@ -76,26 +76,18 @@ public class CVDataset extends AbstractXYZDataset implements RTMZDataset {
     Vector<Double> colorCoordsV = new Vector<Double>();
     Vector<PeakListRow> peakListRowsV = new Vector<PeakListRow>();
 
+    FeatureMatrix matrix = FeatureMatrix.getMatrix(alignedPeakList, selectedFiles, measurementType);
+    int fileIndexes[] = matrix.getDataFileIndexes(selectedFiles);
+
     for (int rowIndex = 0; rowIndex < numOfRows; rowIndex++) {
 
-      PeakListRow row = alignedPeakList.getRow(rowIndex);
-
-      // Collect available peak intensities for selected files
-      Vector<Double> peakIntensities = new Vector<Double>();
-      for (int fileIndex = 0; fileIndex < selectedFiles.length; fileIndex++) {
-        Feature p = row.getPeak(selectedFiles[fileIndex]);
-        if (p != null) {
-          if (measurementType == PeakMeasurementType.AREA)
-            peakIntensities.add(p.getArea());
-          else
-            peakIntensities.add(p.getHeight());
-        }
-      }
+      PeakListRow row = matrix.getRow(rowIndex);
 
       // If there are at least two measurements available for this peak
       // then calc CV and include this peak in the plot
-      if (peakIntensities.size() > 1) {
-        double[] ints = Doubles.toArray(peakIntensities);
+      if (matrix.getNumberOfPresentValues(rowIndex) > 1) {
+        // Collect available peak intensities for selected files
+        double[] ints = matrix.getPresentValues(rowIndex, fileIndexes);
         Double cv = MathUtils.calcCV(ints);
 
         Double rt = row.getAverageRT();
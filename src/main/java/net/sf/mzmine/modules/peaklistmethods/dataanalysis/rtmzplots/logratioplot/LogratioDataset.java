@@ -21,17 +21,18 @@ package net.sf.mzmine.modules.peaklistmethods.dataanalysis.rtmzplots.logratioplo
 import java.util.Vector;
 import java.util.logging.Logger;
 
-import net.sf.mzmine.datamodel.Feature;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.modules.peaklistmethods.dataanalysis.rtmzplots.RTMZDataset;
 import net.sf.mzmine.parameters.ParameterSet;
+import net.sf.mzmine.util.FeatureMatrix;
 import net.sf.mzmine.util.MathUtils;
 import net.sf.mzmine.util.PeakMeasurementType;
 
 import org.jfree.data.xy.AbstractXYZDataset;
 
+import com.google.common.collect.ObjectArrays;
 import com.google.common.primitives.Doubles;
 
 public class LogratioDataset extends AbstractXYZDataset implements RTMZDataset {
@@ -77,39 +78,24 @@ public class LogratioDataset extends AbstractXYZDataset implements RTMZDataset {
     Vector<Double> colorCoordsV = new Vector<Double>();
     Vector<PeakListRow> peakListRowsV = new Vector<PeakListRow>();
 
+    RawDataFile allFiles[] = ObjectArrays.concat(groupOneFiles, groupTwoFiles, RawDataFile.class);
+    FeatureMatrix matrix = FeatureMatrix.getMatrix(alignedPeakList, allFiles, measurementType);
+    int groupOneIndexes[] = matrix.getDataFileIndexes(groupOneFiles);
+    int groupTwoIndexes[] = matrix.getDataFileIndexes(groupTwoFiles);
+
     for (int rowIndex = 0; rowIndex < numOfRows; rowIndex++) {
 
-      PeakListRow row = alignedPeakList.getRow(rowIndex);
+      PeakListRow row = matrix.getRow(rowIndex);
 
       // Collect available peak intensities for selected files
-      Vector<Double> groupOnePeakIntensities = new Vector<Double>();
-      for (int fileIndex = 0; fileIndex < groupOneFiles.length; fileIndex++) {
-        Feature p = row.getPeak(groupOneFiles[fileIndex]);
-        if (p != null) {
-          if (measurementType == PeakMeasurementType.AREA)
-            groupOnePeakIntensities.add(p.getArea());
-          else
-            groupOnePeakIntensities.add(p.getHeight());
-        }
-      }
-      Vector<Double> groupTwoPeakIntensities = new Vector<Double>();
-      for (int fileIndex = 0; fileIndex < groupTwoFiles.length; fileIndex++) {
-        Feature p = row.getPeak(groupTwoFiles[fileIndex]);
-        if (p != null) {
-          if (measurementType == PeakMeasurementType.AREA)
-            groupTwoPeakIntensities.add(p.getArea());
-          else
-            groupTwoPeakIntensities.add(p.getHeight());
-        }
-      }
+      double[] groupOneInts = matrix.getPresentValues(rowIndex, groupOneIndexes);
+      double[] groupTwoInts = matrix.getPresentValues(rowIndex, groupTwoIndexes);
 
       // If there are at least one measurement from each group for this
       // peak then calc logratio and include this peak in the plot
-      if ((groupOnePeakIntensities.size() > 0) && (groupTwoPeakIntensities.size() > 0)) {
+      if ((groupOneInts.length > 0) && (groupTwoInts.length > 0)) {
 
-        double[] groupOneInts = Doubles.toArray(groupOnePeakIntensities);
         double groupOneAvg = MathUtils.calcAvg(groupOneInts);
-        double[] groupTwoInts = Doubles.toArray(groupTwoPeakIntensities);
         double groupTwoAvg = MathUtils.calcAvg(groupTwoInts);
         double logratio = Double.NaN;
         if (groupTwoAvg != 0.0)
@@ -0,0 +1,374 @@
+/*
+ * Copyright (C) 2018 Du-Lab Team <dulab.binf@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.dataanalysis.significance;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import javax.annotation.Nonnull;
+
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.SubTaskGroup;
+import net.sf.mzmine.util.FeatureMatrix;
+
+import org.apache.commons.math3.exception.MathIllegalStateException;
+import org.apache.commons.math3.special.Beta;
+
+/**
+ * One-way ANOVA and Welch's t-test of all rows of a feature matrix in one pass. The rows are
+ * processed in blocks, which are distributed to parallel sub tasks of the calling task. Within a
+ * block the column-major matrix is read column by column, so the values are read sequentially, and
+ * the group counts, means and variances are accumulated in primitive arrays. The p-values are taken
+ * from the regularized incomplete beta function, and the p-values of all rows are adjusted by the
+ * Benjamini-Hochberg false discovery rate procedure.
+ *
+ * Missing and NaN values are left out. Welch's t-test is only computed if there are exactly two
+ * groups.
+ */
+final class BatchStatistics {
+
+  // Number of rows processed together
+  private static final int BLOCK_SIZE = 1024;
+
+  // Number of blocks processed by one sub task
+  private static final int BLOCKS_PER_SUB_TASK = 16;
+
+  private final FeatureMatrix matrix;
+  private final int groups[];
+  private final int numOfRows, numOfGroups;
+
+  // Statistics of group g in row r are stored at r * numOfGroups + g
+  private final int counts[];
+  private final double means[], variances[];
+
+  private final double fStatistics[], anovaPValues[];
+  private final double tStatistics[], tTestPValues[];
+  private double anovaQValues[], tTestQValues[];
+
+  private final AtomicInteger processedRows = new AtomicInteger();
+
+  /**
+   * @param groups group of each data file of the matrix, or -1 for the files which are not tested
+   */
+  BatchStatistics(@Nonnull FeatureMatrix matrix, @Nonnull int groups[], int numOfGroups) {
+
+    if (groups.length != matrix.getNumberOfDataFiles())
+      throw new IllegalArgumentException("The number of groups and data files differs");
+
+    this.matrix = matrix;
+    this.groups = groups;
+    this.numOfRows = matrix.getNumberOfRows();
+    this.numOfGroups = numOfGroups;
+
+    counts = new int[numOfRows * numOfGroups];
+    means = new double[numOfRows * numOfGroups];
+    variances = new double[numOfRows * numOfGroups];
+    fStatistics = new double[numOfRows];
+    anovaPValues = new double[numOfRows];
+    tStatistics = (numOfGroups == 2) ? new double[numOfRows] : null;
+    tTestPValues = (numOfGroups == 2) ? new double[numOfRows] : null;
+
+  }
+
+  /**
+   * Computes the statistics of all rows in sub tasks of the given task.
+   *
+   * @param task the task which runs the computation, canceling it stops the computation
+   * @return false if the task was canceled
+   * @throws IllegalStateException if a sub task failed
+   */
+  boolean compute(@Nonnull AbstractTask task) throws IllegalStateException {
+
+    final int numOfBlocks = (numOfRows + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    final SubTaskGroup<BatchStatisticsBlocksTask> subTasks = new SubTaskGroup<>(task);
+    subTasks.submitRanges(numOfBlocks, BLOCKS_PER_SUB_TASK,
+        (start, end) -> new BatchStatisticsBlocksTask(task, this, start, end));
+
+    if (!subTasks.join()) {
+      if (task.isCanceled())
+        return false;
+      throw new IllegalStateException(subTasks.getErrorMessage());
+    }
+
+    anovaQValues = benjaminiHochberg(anovaPValues);
+    if (tTestPValues != null)
+      tTestQValues = benjaminiHochberg(tTestPValues);
+
+    return true;
+
+  }
+
+  /**
+   * Computes the statistics of the rows of the given block.
+   */
+  void computeBlock(int block) {
+
+    final int fromRow = block * BLOCK_SIZE;
+    final int toRow = Math.min(numOfRows, fromRow + BLOCK_SIZE);
+    final double values[] = matrix.getValues();
+    final boolean missing[] = matrix.getMissingMask();
+    final int blockRows = toRow - fromRow;
+
+    // Group sums and sums of squared deviations in the block, group g of row i at g * blockRows + i
+    final int blockCounts[] = new int[numOfGroups * blockRows];
+    final double blockMeans[] = new double[numOfGroups * blockRows];
+    final double blockSquares[] = new double[numOfGroups * blockRows];
+
+    for (int file = 0; file < groups.length; file++) {
+      if (groups[file] < 0)
+        continue;
+      final int offset = file * numOfRows + fromRow;
+      final int groupOffset = groups[file] * blockRows;
+      for (int i = 0; i < blockRows; i++) {
+        final double value = values[offset + i];
+        if (!missing[offset + i] && !Double.isNaN(value)) {
+          blockMeans[groupOffset + i] += value;
+          blockCounts[groupOffset + i]++;
+        }
+      }
+    }
+
+    for (int i = 0; i < blockMeans.length; i++) {
+      if (blockCounts[i] > 0)
+        blockMeans[i] /= blockCounts[i];
+    }
+
+    for (int file = 0; file < groups.length; file++) {
+      if (groups[file] < 0)
+        continue;
+      final int offset = file * numOfRows + fromRow;
+      final int groupOffset = groups[file] * blockRows;
+      for (int i = 0; i < blockRows; i++) {
+        final double value = values[offset + i];
+        if (!missing[offset + i] && !Double.isNaN(value)) {
+          final double deviation = value - blockMeans[groupOffset + i];
+          blockSquares[groupOffset + i] += deviation * deviation;
+        }
+      }
+    }
+
+    for (int i = 0; i < blockRows; i++) {
+      final int row = fromRow + i;
+      for (int group = 0; group < numOfGroups; group++) {
+        final int blockIndex = group * blockRows + i;
+        final int n = blockCounts[blockIndex];
+        counts[row * numOfGroups + group] = n;
+        means[row * numOfGroups + group] = (n > 0) ? blockMeans[blockIndex] : Double.NaN;
+        variances[row * numOfGroups + group] =
+            (n > 1) ? blockSquares[blockIndex] / (n - 1) : Double.NaN;
+      }
+      oneWayAnova(row, i, blockRows, blockCounts, blockMeans, blockSquares);
+      if (tTestPValues != null)
+        welchTTest(row);
+    }
+
+    processedRows.addAndGet(blockRows);
+
+  }
+
+  private void oneWayAnova(int row, int i, int blockRows, int blockCounts[], double blockMeans[],
+      double blockSquares[]) {
+
+    // Only the groups with values in this row are compared
+    int numOfNonEmptyGroups = 0;
+    long numOfValues = 0;
+    double sum = 0, sumOfSquaresOfError = 0;
+    for (int group = 0; group < numOfGroups; group++) {
+      final int blockIndex = group * blockRows + i;
+      final int n = blockCounts[blockIndex];
+      if (n == 0)
+        continue;
+      numOfNonEmptyGroups++;
+      numOfValues += n;
+      sum += n * blockMeans[blockIndex];
+      sumOfSquaresOfError += blockSquares[blockIndex];
+    }
+
+    fStatistics[row] = Double.NaN;
+    anovaPValues[row] = Double.NaN;
+
+    final long degreesOfFreedomOfTreatment = numOfNonEmptyGroups - 1;
+    final long degreesOfFreedomOfError = numOfValues - numOfNonEmptyGroups;
+    if ((degreesOfFreedomOfTreatment <= 0) || (degreesOfFreedomOfError <= 0))
+      return;
+
+    final double overallMean = sum / numOfValues;
+    double sumOfSquaresOfTreatment = 0;
+    for (int group = 0; group < numOfGroups; group++) {
+      final int blockIndex = group * blockRows + i;
+      if (blockCounts[blockIndex] == 0)
+        continue;
+      final double deviation = blockMeans[blockIndex] - overallMean;
+      sumOfSquaresOfTreatment += blockCounts[blockIndex] * deviation * deviation;
+    }
+
+    final double meanSquareOfError = sumOfSquaresOfError / degreesOfFreedomOfError;
+    if (meanSquareOfError == 0.0)
+      return;
+
+    final double f = (sumOfSquaresOfTreatment / degreesOfFreedomOfTreatment) / meanSquareOfError;
+    fStatistics[row] = f;
+
+    // Upper tail of the F distribution
+    anovaPValues[row] = regularizedBeta(
+        degreesOfFreedomOfError / (degreesOfFreedomOfError + degreesOfFreedomOfTreatment * f),
+        0.5 * degreesOfFreedomOfError, 0.5 * degreesOfFreedomOfTreatment);
+
+  }
+
+  private void welchTTest(int row) {
+
+    tStatistics[row] = Double.NaN;
+    tTestPValues[row] = Double.NaN;
+
+    final int index = row * numOfGroups;
+    final int n1 = counts[index], n2 = counts[index + 1];
+    if ((n1 < 2) || (n2 < 2))
+      return;
+
+    final double error1 = variances[index] / n1;
+    final double error2 = variances[index + 1] / n2;
+    final double squaredError = error1 + error2;
+    if (squaredError == 0.0)
+      return;
+
+    final double t = (means[index] - means[index + 1]) / Math.sqrt(squaredError);
+    final double degreesOfFreedom = squaredError * squaredError
+        / (error1 * error1 / (n1 - 1) + error2 * error2 / (n2 - 1));
+    tStatistics[row] = t;
+
+    // Two-sided tail of the t distribution
+    tTestPValues[row] = regularizedBeta(degreesOfFreedom / (degreesOfFreedom + t * t),
+        0.5 * degreesOfFreedom, 0.5);
+
+  }
+
+  private static double regularizedBeta(double x, double a, double b) {
+    try {
+      return Beta.regularizedBeta(x, a, b);
+    } catch (MathIllegalStateException e) {
+      return Double.NaN;
+    }
+  }
+
+  /**
+   * @return Benjamini-Hochberg adjusted p-values (q-values), NaN where the p-value is NaN
+   */
+  static double[] benjaminiHochberg(double pValues[]) {
+
+    final double qValues[] = new double[pValues.length];
+    Arrays.fill(qValues, Double.NaN);
+
+    final int order[] =
+        IntStream.range(0, pValues.length).filter(i -> !Double.isNaN(pValues[i])).toArray();
+    IntArrays.quickSort(order, (a, b) -> Double.compare(pValues[a], pValues[b]));
+
+    final int numOfTests = order.length;
+    double qValue = 1.0;
+    for (int rank = numOfTests; rank > 0; rank--) {
+      final int row = order[rank - 1];
+      qValue = Math.min(qValue, pValues[row] * numOfTests / rank);
+      qValues[row] = qValue;
+    }
+
+    return qValues;
+
+  }
+
+  double getFinishedPercentage() {
+    return (numOfRows == 0) ? 1.0 : (double) processedRows.get() / numOfRows;
+  }
+
+  int getNumberOfGroups() {
+    return numOfGroups;
+  }
+
+  /**
+   * @return number of values of the group in the row
+   */
+  int getCount(int row, int group) {
+    return counts[row * numOfGroups + group];
+  }
+
+  /**
+   * @return mean of the group in the row, or NaN if there are no values
+   */
+  double getMean(int row, int group) {
+    return means[row * numOfGroups + group];
+  }
+
+  /**
+   * @return sample variance of the group in the row, or NaN if there are less than two values
+   */
+  double getVariance(int row, int group) {
+    return variances[row * numOfGroups + group];
+  }
+
+  /**
+   * @return ANOVA F statistic of the row, or NaN if it can not be computed
+   */
+  double getFStatistic(int row) {
+    return fStatistics[row];
+  }
+
+  /**
+   * @return ANOVA p-value of the row, or NaN if it can not be computed
+   */
+  double getANOVAPValue(int row) {
+    return anovaPValues[row];
+  }
+
+  /**
+   * @return false discovery rate adjusted ANOVA p-value of the row, or NaN
+   */
+  double getANOVAQValue(int row) {
+    return anovaQValues[row];
+  }
+
+  /**
+   * @return true if Welch's t-test was computed, i.e. there are exactly two groups
+   */
+  boolean hasTTest() {
+    return tTestPValues != null;
+  }
+
+  /**
+   * @return Welch's t statistic of the row (first minus second group), or NaN
+   */
+  double getTStatistic(int row) {
+    return tStatistics[row];
+  }
+
+  /**
+   * @return Welch's t-test two-sided p-value of the row, or NaN
+   */
+  double getTTestPValue(int row) {
+    return tTestPValues[row];
+  }
+
+  /**
+   * @return false discovery rate adjusted Welch's t-test p-value of the row, or NaN
+   */
+  double getTTestQValue(int row) {
+    return tTestQValues[row];
+  }
+
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2018 Du-Lab Team <dulab.binf@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+
+package net.sf.mzmine.modules.peaklistmethods.dataanalysis.significance;
+
+import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.RangeSubTask;
+
+/**
+ * Sub task of the BatchStatistics computation, computes the statistics of a range of row blocks.
+ */
+class BatchStatisticsBlocksTask extends RangeSubTask {
+
+  private final BatchStatistics statistics;
+
+  /**
+   * @param start first block to process
+   * @param end end (exclusive) of the blocks to process
+   */
+  BatchStatisticsBlocksTask(AbstractTask parentTask, BatchStatistics statistics, int start,
+      int end) {
+    super(parentTask, "row blocks", start, end);
+    this.statistics = statistics;
+  }
+
+  @Override
+  protected void process(int block) {
+    statistics.computeBlock(block);
+  }
+
+}
@@ -54,7 +54,7 @@ public class SignificanceModule implements MZmineProcessingModule {
                 .getMatchingPeakLists();
 
         for (PeakList peakList : peakLists) {
-            tasks.add(new SignificanceTask(peakList.getRows(), parameters));
+            tasks.add(new SignificanceTask(peakList, parameters));
         }
 
         return ExitCode.OK;
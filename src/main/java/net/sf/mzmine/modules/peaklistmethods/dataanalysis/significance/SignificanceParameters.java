@@ -52,7 +52,9 @@ public class SignificanceParameters extends SimpleParameterSet {
 
         // Add a message
         String message = "<html>To view the results of ANOVA test, export the feature list to CSV file "
-            + "and look for column ANOVA_P_VALUE. Click Help for details.</html>";
+            + "and look for column ANOVA_P_VALUE (WELCH_T_TEST_P_VALUE for two groups, "
+            + "ANOVA_Q_VALUE and WELCH_T_TEST_Q_VALUE for FDR adjusted p-values). "
+            + "Click Help for details.</html>";
 
         ParameterSetupDialog dialog = new ParameterSetupDialog(
             parent, valueCheckRequired, this, message);
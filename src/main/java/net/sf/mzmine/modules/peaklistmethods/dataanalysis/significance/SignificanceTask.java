@@ -19,12 +19,8 @@
 package net.sf.mzmine.modules.peaklistmethods.dataanalysis.significance;
 
 import java.util.*;
-import java.util.Map.Entry;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
-
-import java.util.stream.IntStream;
 
 import net.sf.mzmine.datamodel.*;
 import net.sf.mzmine.datamodel.impl.SimplePeakInformation;
@@ -33,26 +29,30 @@ import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.UserParameter;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
-
-import javax.annotation.Nonnull;
-import javax.annotation.Nullable;
-import org.apache.commons.math3.distribution.FDistribution;
-import org.apache.commons.math3.exception.MathIllegalArgumentException;
+import net.sf.mzmine.util.FeatureMatrix;
+import net.sf.mzmine.util.FeatureMatrix.SampleGroups;
+import net.sf.mzmine.util.PeakMeasurementType;
 
 public class SignificanceTask extends AbstractTask {
 
   private static final String EMPTY_STRING = "";
 
+  private static final String F_VALUE_KEY = "ANOVA_F_VALUE";
   private static final String P_VALUE_KEY = "ANOVA_P_VALUE";
+  private static final String Q_VALUE_KEY = "ANOVA_Q_VALUE";
+  private static final String T_VALUE_KEY = "WELCH_T_VALUE";
+  private static final String T_TEST_P_VALUE_KEY = "WELCH_T_TEST_P_VALUE";
+  private static final String T_TEST_Q_VALUE_KEY = "WELCH_T_TEST_Q_VALUE";
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
-  private double finishedPercentage = 0.0;
 
-  private final PeakListRow[] peakListRows;
+  private final PeakList peakList;
   private final UserParameter userParameter;
 
-  public SignificanceTask(PeakListRow[] peakListRows, ParameterSet parameters) {
-    this.peakListRows = peakListRows;
+  private volatile BatchStatistics statistics;
+
+  public SignificanceTask(PeakList peakList, ParameterSet parameters) {
+    this.peakList = peakList;
     this.userParameter = parameters.getParameter(SignificanceParameters.selectionData).getValue();
   }
 
@@ -61,7 +61,8 @@ public class SignificanceTask extends AbstractTask {
   }
 
   public double getFinishedPercentage() {
-    return finishedPercentage;
+    BatchStatistics currentStatistics = statistics;
+    return currentStatistics == null ? 0.0 : currentStatistics.getFinishedPercentage();
   }
 
   public void run() {
@@ -77,6 +78,9 @@ public class SignificanceTask extends AbstractTask {
 
     try {
       calculateSignificance();
+      if (isCanceled()) {
+        return;
+      }
 
       setStatus(TaskStatus.FINISHED);
       logger.info("Calculating significance is completed");
@@ -98,136 +102,46 @@ public class SignificanceTask extends AbstractTask {
 
   private void calculateSignificance() throws IllegalStateException {
 
-    if (peakListRows.length == 0) {
+    if (peakList.getNumberOfRows() == 0) {
       return;
     }
 
-    List<Set<RawDataFile>> groups = getGroups(userParameter);
-
-    finishedPercentage = 0.0;
-    final double finishedStep = 1.0 / peakListRows.length;
-
-    for (PeakListRow row : peakListRows) {
-
-      if (isCanceled()) {
-        break;
-      }
+    MZmineProject project = MZmineCore.getProjectManager().getCurrentProject();
 
-      finishedPercentage += finishedStep;
+    // Test the data files which have a value of the parameter
+    RawDataFile[] dataFiles = Arrays.stream(peakList.getRawDataFiles())
+        .filter(file -> project.getParameterValue(userParameter, file) != null)
+        .toArray(RawDataFile[]::new);
 
-      double[][] intensityGroups = new double[groups.size()][];
-      for (int i = 0; i < groups.size(); ++i) {
-        Set<RawDataFile> groupFiles = groups.get(i);
-        intensityGroups[i] = Arrays.stream(row.getPeaks())
-            .filter(peak -> groupFiles.contains(peak.getDataFile()))
-            .mapToDouble(Feature::getHeight)
-            .toArray();
-      }
+    FeatureMatrix matrix = FeatureMatrix.getMatrix(peakList, dataFiles, PeakMeasurementType.HEIGHT);
+    SampleGroups groups = matrix.getSampleGroups(project, userParameter);
 
-      Double pValue = oneWayAnova(intensityGroups);
+    statistics = new BatchStatistics(matrix, groups.getGroups(), groups.getNumberOfGroups());
+    if (!statistics.compute(this)) {
+      return;
+    }
 
-      // Save results
-      PeakInformation peakInformation = row.getPeakInformation();
+    // Save results
+    for (int row = 0; row < matrix.getNumberOfRows(); ++row) {
+      PeakListRow peakListRow = matrix.getRow(row);
+      PeakInformation peakInformation = peakListRow.getPeakInformation();
       if (peakInformation == null) {
         peakInformation = new SimplePeakInformation();
       }
-      peakInformation.getAllProperties().put(
-          P_VALUE_KEY,
-          pValue == null ? EMPTY_STRING : pValue.toString());
-      row.setPeakInformation(peakInformation);
-    }
-  }
-
-  private List<Set<RawDataFile>> getGroups(UserParameter factor) {
-
-    MZmineProject project = MZmineCore.getProjectManager().getCurrentProject();
-
-    // Find the parameter value of each data file
-    Map<RawDataFile, Object> paramMap = new HashMap<>();
-    for (PeakListRow row : peakListRows) {
-      for (RawDataFile file : row.getRawDataFiles()) {
-        Object paramValue = project.getParameterValue(factor, file);
-        if (paramValue != null) {
-          paramMap.put(file, paramValue);
-        }
+      Map<String, String> properties = peakInformation.getAllProperties();
+      properties.put(F_VALUE_KEY, toString(statistics.getFStatistic(row)));
+      properties.put(P_VALUE_KEY, toString(statistics.getANOVAPValue(row)));
+      properties.put(Q_VALUE_KEY, toString(statistics.getANOVAQValue(row)));
+      if (statistics.hasTTest()) {
+        properties.put(T_VALUE_KEY, toString(statistics.getTStatistic(row)));
+        properties.put(T_TEST_P_VALUE_KEY, toString(statistics.getTTestPValue(row)));
+        properties.put(T_TEST_Q_VALUE_KEY, toString(statistics.getTTestQValue(row)));
       }
+      peakListRow.setPeakInformation(peakInformation);
     }
-
-    // Find unique parameter values
-    Object[] paramValues = paramMap.values()
-        .stream()
-        .distinct()
-        .toArray();
-
-    // Form groups of files for each parameter value
-    List<Set<RawDataFile>> groups = new ArrayList<>(paramValues.length);
-    for (Object paramValue : paramValues) {
-      groups.add(paramMap.entrySet()
-          .stream()
-          .filter(e -> paramValue.equals(e.getValue()))
-          .map(Entry::getKey)
-          .collect(Collectors.toSet()));
-    }
-
-    return groups;
   }
 
-  @Nullable
-  private Double oneWayAnova(@Nonnull double[][] intensityGroups) {
-
-    int numGroups = intensityGroups.length;
-    long numIntensities = Arrays.stream(intensityGroups)
-        .flatMapToDouble(Arrays::stream)
-        .count();
-
-    double[] groupMeans = Arrays.stream(intensityGroups)
-        .mapToDouble(intensities -> Arrays.stream(intensities).average().orElse(0.0))
-        .toArray();
-
-    double overallMean = Arrays.stream(intensityGroups)
-        .flatMapToDouble(Arrays::stream)
-        .average()
-        .orElse(0.0);
-
-    double sumOfSquaresOfError = IntStream.range(0, intensityGroups.length)
-        .mapToDouble(i -> Arrays
-            .stream(intensityGroups[i])
-            .map(x -> x - groupMeans[i])
-            .map(x -> x * x)
-            .sum())
-        .sum();
-
-    double sumOfSquaresOfTreatment = (numGroups - 1) * Arrays.stream(groupMeans)
-        .map(x -> x - overallMean)
-        .map(x -> x * x)
-        .sum();
-
-    long degreesOfFreedomOfTreatment = numGroups - 1;
-    long degreesOfFreedomOfError = numIntensities - numGroups;
-
-    if (degreesOfFreedomOfTreatment <= 0 || degreesOfFreedomOfError <= 0) {
-      return null;
-    }
-
-    double meanSquareOfTreatment = sumOfSquaresOfTreatment / degreesOfFreedomOfTreatment;
-    double meanSquareOfError = sumOfSquaresOfError / degreesOfFreedomOfError;
-
-    if (meanSquareOfError == 0.0) {
-      return null;
-    }
-
-    double anovaStatistics = meanSquareOfTreatment / meanSquareOfError;
-
-    Double pValue = null;
-    try {
-      FDistribution distribution = new FDistribution(
-          degreesOfFreedomOfTreatment, degreesOfFreedomOfError);
-      pValue = 1.0 - distribution.cumulativeProbability(anovaStatistics);
-    }
-    catch (MathIllegalArgumentException ex) {
-      logger.warning("Error during F-distribution calculation: " + ex.getMessage());
-    }
-
-    return pValue;
+  private static String toString(double value) {
+    return Double.isNaN(value) ? EMPTY_STRING : Double.toString(value);
   }
 }
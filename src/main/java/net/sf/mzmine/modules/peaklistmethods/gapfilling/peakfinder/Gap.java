@@ -31,7 +31,7 @@ import net.sf.mzmine.datamodel.impl.SimpleFeature;
 import net.sf.mzmine.util.RangeUtils;
 import net.sf.mzmine.util.scans.ScanUtils;
 
-public class Gap {
+public class Gap implements SweepLineGap {
 
   private PeakListRow peakListRow;
   private RawDataFile rawDataFile;
@@ -62,6 +62,16 @@ public class Gap {
 
   }
 
+  @Override
+  public Range<Double> getMZRange() {
+    return mzRange;
+  }
+
+  @Override
+  public Range<Double> getRTRange() {
+    return rtRange;
+  }
+
   public void offerNextScan(Scan scan) {
 
     double scanRT = scan.getRetentionTime();
@@ -75,7 +85,22 @@ public class Gap {
       return;
 
     // Find top m/z peak in our range
-    DataPoint basePeak = ScanUtils.findBasePeak(scan, mzRange);
+    offerBasePeak(scan, ScanUtils.findBasePeak(scan, mzRange));
+
+  }
+
+  @Override
+  public boolean offerBasePeak(Scan scan, DataPoint basePeak) {
+
+    double scanRT = scan.getRetentionTime();
+
+    // If not yet inside the RT range
+    if (scanRT < rtRange.lowerEndpoint())
+      return true;
+
+    // If we have passed the RT range and finished processing last peak
+    if ((scanRT > rtRange.upperEndpoint()) && (currentPeakDataPoints == null))
+      return false;
 
     GapDataPoint currentDataPoint;
     if (basePeak != null) {
@@ -90,7 +115,7 @@ public class Gap {
     if (currentPeakDataPoints == null) {
       currentPeakDataPoints = new Vector<GapDataPoint>();
       currentPeakDataPoints.add(currentDataPoint);
-      return;
+      return true;
     }
 
     // Check if this continues previous peak?
@@ -109,6 +134,8 @@ public class Gap {
 
     }
 
+    return true;
+
   }
 
   /**
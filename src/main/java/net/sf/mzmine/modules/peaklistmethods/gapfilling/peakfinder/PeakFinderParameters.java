@@ -50,12 +50,17 @@ public class PeakFinderParameters extends SimpleParameterSet {
       new BooleanParameter("Parallel (never combined with RT correction)",
           "Parallel processing of gaps (RT correction is always on a single thread)");
 
+  public static final BooleanParameter sweepLine = new BooleanParameter("Sweep-line scan matching",
+      "If checked, the scans are read once and matched only to the gaps within their retention time"
+          + "\nrange, sorted by m/z. This gives the same result and is much faster with many gaps.",
+      true);
+
   public static final BooleanParameter autoRemove = new BooleanParameter(
       "Remove original feature list", "If checked, the original feature list will be removed");
 
   public PeakFinderParameters() {
     super(new Parameter[] {peakLists, suffix, intTolerance, MZTolerance, RTTolerance, RTCorrection,
-        useParallel, autoRemove});
+        useParallel, sweepLine, autoRemove});
   }
 
 }
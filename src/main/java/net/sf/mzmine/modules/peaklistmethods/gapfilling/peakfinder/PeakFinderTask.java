@@ -59,6 +59,7 @@ class PeakFinderTask extends AbstractTask {
   private boolean MASTERLIST = true, removeOriginal;
   private int masterSample = 0;
   private boolean useParallelStream = false;
+  private boolean sweepLine;
 
   PeakFinderTask(MZmineProject project, PeakList peakList, ParameterSet parameters) {
 
@@ -73,6 +74,7 @@ class PeakFinderTask extends AbstractTask {
     rtCorrection = parameters.getParameter(PeakFinderParameters.RTCorrection).getValue();
     removeOriginal = parameters.getParameter(PeakFinderParameters.autoRemove).getValue();
     useParallelStream = parameters.getParameter(PeakFinderParameters.useParallel).getValue();
+    sweepLine = parameters.getParameter(PeakFinderParameters.sweepLine).getValue();
   }
 
   public void run() {
@@ -171,23 +173,31 @@ class PeakFinderTask extends AbstractTask {
         // Get all scans of this data file
         int scanNumbers[] = dataFile.getScanNumbers(1);
 
-        // Process each scan
-        for (int scanNumber : scanNumbers) {
-          // Canceled?
-          if (isCanceled()) {
-            // inside stream - only skips this element
+        if (sweepLine) {
+          // Feed each scan only to the gaps within its retention time range
+          SweepLineGapFiller gapFiller = new SweepLineGapFiller(dataFile, gaps);
+          if (!gapFiller.offerScans(scanNumbers, this::isCanceled, processedScans::incrementAndGet))
             return;
-          }
+        } else {
 
-          // Get the scan
-          Scan scan = dataFile.getScan(scanNumber);
+          // Process each scan
+          for (int scanNumber : scanNumbers) {
+            // Canceled?
+            if (isCanceled()) {
+              // inside stream - only skips this element
+              return;
+            }
 
-          // Feed this scan to all gaps
-          for (Gap gap : gaps) {
-            gap.offerNextScan(scan);
-          }
+            // Get the scan
+            Scan scan = dataFile.getScan(scanNumber);
 
-          processedScans.incrementAndGet();
+            // Feed this scan to all gaps
+            for (Gap gap : gaps) {
+              gap.offerNextScan(scan);
+            }
+
+            processedScans.incrementAndGet();
+          }
         }
 
         // Finalize gaps
@@ -307,22 +317,30 @@ class PeakFinderTask extends AbstractTask {
         // Get all scans of this data file
         int scanNumbers[] = datafile1.getScanNumbers(1);
 
-        // Process each scan
-        for (int scanNumber : scanNumbers) {
-
-          // Canceled?
-          if (isCanceled()) {
+        if (sweepLine) {
+          // Feed each scan only to the gaps within its retention time range
+          SweepLineGapFiller gapFiller = new SweepLineGapFiller(datafile1, gaps);
+          if (!gapFiller.offerScans(scanNumbers, this::isCanceled, processedScans::incrementAndGet))
             return;
-          }
+        } else {
 
-          // Get the scan
-          Scan scan = datafile1.getScan(scanNumber);
+          // Process each scan
+          for (int scanNumber : scanNumbers) {
 
-          // Feed this scan to all gaps
-          for (Gap gap : gaps) {
-            gap.offerNextScan(scan);
+            // Canceled?
+            if (isCanceled()) {
+              return;
+            }
+
+            // Get the scan
+            Scan scan = datafile1.getScan(scanNumber);
+
+            // Feed this scan to all gaps
+            for (Gap gap : gaps) {
+              gap.offerNextScan(scan);
+            }
+            processedScans.incrementAndGet();
           }
-          processedScans.incrementAndGet();
         }
 
         // Finalize gaps
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.gapfilling.peakfinder;
+
+import javax.annotation.Nullable;
+import com.google.common.collect.Range;
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.Scan;
+
+/**
+ * A gap which can be filled by the SweepLineGapFiller. The gap receives the base peak within its
+ * m/z range of each scan in retention time order, starting with the first scan at or after the
+ * lower end of its retention time range.
+ */
+public interface SweepLineGap {
+
+  /**
+   * @return m/z range in which the base peak of each scan is searched
+   */
+  Range<Double> getMZRange();
+
+  /**
+   * @return retention time range of the gap, the first scan is offered at its lower end
+   */
+  Range<Double> getRTRange();
+
+  /**
+   * Offers the base peak of the next scan within the m/z range of this gap
+   *
+   * @param basePeak most intense data point within the m/z range, or null if there is none
+   * @return false if this gap does not accept any more scans
+   */
+  boolean offerBasePeak(Scan scan, @Nullable DataPoint basePeak);
+
+}
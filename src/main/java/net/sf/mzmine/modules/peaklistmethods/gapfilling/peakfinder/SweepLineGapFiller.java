@@ -0,0 +1,158 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.gapfilling.peakfinder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import com.google.common.collect.BoundType;
+import com.google.common.collect.Range;
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
+
+/**
+ * Fills the gaps of one raw data file in a single pass over its scans. Instead of offering each
+ * scan to every gap, the gaps are sorted by the lower end of their retention time range and only
+ * the gaps which are active at the current scan are kept, sorted by their m/z range. The data
+ * points of each scan are read once and the base peak of each active gap is found by binary search
+ * in the m/z values, so the cost is proportional to the number of active gaps per scan instead of
+ * the number of all gaps.
+ */
+public class SweepLineGapFiller {
+
+  private static final Comparator<SweepLineGap> RT_ORDER =
+      Comparator.comparingDouble(gap -> gap.getRTRange().lowerEndpoint());
+  private static final Comparator<SweepLineGap> MZ_ORDER =
+      Comparator.comparingDouble(gap -> gap.getMZRange().lowerEndpoint());
+
+  private final RawDataFile dataFile;
+  private final SweepLineGap gapsByRT[];
+
+  // Reused buffers for the data points of the current scan
+  private double mzValues[] = new double[0], intensityValues[] = new double[0];
+
+  public SweepLineGapFiller(RawDataFile dataFile, Collection<? extends SweepLineGap> gaps) {
+    this.dataFile = dataFile;
+    this.gapsByRT = gaps.toArray(new SweepLineGap[0]);
+    Arrays.sort(gapsByRT, RT_ORDER);
+  }
+
+  /**
+   * Offers the given scans, in retention time order, to the gaps
+   *
+   * @param isCanceled checked before each scan, processing stops if it returns true
+   * @param scanProcessed called after each scan, e.g. to update the progress
+   * @return false if the processing was canceled
+   */
+  public boolean offerScans(int scanNumbers[], BooleanSupplier isCanceled,
+      Runnable scanProcessed) {
+
+    final List<SweepLineGap> activeGaps = new ArrayList<>();
+    int nextGap = 0;
+
+    for (int scanNumber : scanNumbers) {
+
+      if (isCanceled.getAsBoolean())
+        return false;
+
+      final Scan scan = dataFile.getScan(scanNumber);
+      final double scanRT = scan.getRetentionTime();
+
+      // Activate the gaps whose retention time range has been reached
+      boolean newGaps = false;
+      while ((nextGap < gapsByRT.length)
+          && (gapsByRT[nextGap].getRTRange().lowerEndpoint() <= scanRT)) {
+        activeGaps.add(gapsByRT[nextGap++]);
+        newGaps = true;
+      }
+      if (newGaps)
+        activeGaps.sort(MZ_ORDER);
+
+      if (!activeGaps.isEmpty())
+        offerScan(scan, activeGaps);
+
+      scanProcessed.run();
+    }
+
+    return true;
+
+  }
+
+  private void offerScan(Scan scan, List<SweepLineGap> activeGaps) {
+
+    final int numOfStoredDataPoints = scan.getNumberOfDataPoints();
+    if (mzValues.length < numOfStoredDataPoints) {
+      mzValues = new double[numOfStoredDataPoints];
+      intensityValues = new double[numOfStoredDataPoints];
+    }
+    final int numOfDataPoints = scan.getDataPoints(mzValues, intensityValues);
+
+    // The active gaps are sorted by the lower end of their m/z range, so the search for the first
+    // data point of each gap can start at the first data point of the previous gap
+    int fromIndex = 0;
+    int numOfActiveGaps = 0;
+    for (int i = 0; i < activeGaps.size(); i++) {
+      final SweepLineGap gap = activeGaps.get(i);
+      final Range<Double> mzRange = gap.getMZRange();
+
+      fromIndex = lowerIndex(mzRange, fromIndex, numOfDataPoints);
+      int basePeakIndex = -1;
+      for (int index = fromIndex; index < numOfDataPoints; index++) {
+        if (mzValues[index] > mzRange.upperEndpoint())
+          break;
+        if (!mzRange.contains(mzValues[index]))
+          continue;
+        if ((basePeakIndex < 0) || (intensityValues[index] > intensityValues[basePeakIndex]))
+          basePeakIndex = index;
+      }
+
+      final DataPoint basePeak = (basePeakIndex < 0) ? null
+          : new SimpleDataPoint(mzValues[basePeakIndex], intensityValues[basePeakIndex]);
+
+      // Keep the gap active if it accepts more scans
+      if (gap.offerBasePeak(scan, basePeak))
+        activeGaps.set(numOfActiveGaps++, gap);
+    }
+    activeGaps.subList(numOfActiveGaps, activeGaps.size()).clear();
+
+  }
+
+  /**
+   * @return index of the first data point at or after fromIndex which is not below the m/z range
+   */
+  private int lowerIndex(Range<Double> mzRange, int fromIndex, int numOfDataPoints) {
+    final double lower = mzRange.lowerEndpoint();
+    final boolean open = mzRange.lowerBoundType() == BoundType.OPEN;
+    int low = fromIndex, high = numOfDataPoints;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (mzValues[mid] < lower || (open && mzValues[mid] == lower))
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+
+}
@@ -41,11 +41,17 @@ public class MultiThreadPeakFinderParameters extends SimpleParameterSet {
 
   public static final RTToleranceParameter RTTolerance = new RTToleranceParameter();
 
+  public static final BooleanParameter sweepLine = new BooleanParameter("Sweep-line scan matching",
+      "If checked, the scans are read once and matched only to the gaps within their retention time"
+          + "\nrange, sorted by m/z. This gives the same result and is much faster with many gaps.",
+      true);
+
   public static final BooleanParameter autoRemove = new BooleanParameter(
       "Remove original feature list", "If checked, the original feature list will be removed");
 
   public MultiThreadPeakFinderParameters() {
-    super(new Parameter[] {peakLists, suffix, intTolerance, MZTolerance, RTTolerance, autoRemove});
+    super(new Parameter[] {peakLists, suffix, intTolerance, MZTolerance, RTTolerance, sweepLine,
+        autoRemove});
   }
 
 }
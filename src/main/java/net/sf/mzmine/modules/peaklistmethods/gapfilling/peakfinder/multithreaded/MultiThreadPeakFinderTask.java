@@ -29,6 +29,7 @@ import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.Scan;
 import net.sf.mzmine.modules.peaklistmethods.gapfilling.peakfinder.Gap;
+import net.sf.mzmine.modules.peaklistmethods.gapfilling.peakfinder.SweepLineGapFiller;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import net.sf.mzmine.parameters.parametertypes.tolerances.RTTolerance;
@@ -44,6 +45,7 @@ class MultiThreadPeakFinderTask extends AbstractTask {
   private MZTolerance mzTolerance;
   private RTTolerance rtTolerance;
   private int processedScans, totalScans;
+  private boolean sweepLine;
 
   // start and end (exclusive) for raw data file processing
   private int start;
@@ -67,6 +69,7 @@ class MultiThreadPeakFinderTask extends AbstractTask {
     intTolerance = parameters.getParameter(MultiThreadPeakFinderParameters.intTolerance).getValue();
     mzTolerance = parameters.getParameter(MultiThreadPeakFinderParameters.MZTolerance).getValue();
     rtTolerance = parameters.getParameter(MultiThreadPeakFinderParameters.RTTolerance).getValue();
+    sweepLine = parameters.getParameter(MultiThreadPeakFinderParameters.sweepLine).getValue();
 
     this.start = start;
     this.endexcl = endexcl;
@@ -129,22 +132,30 @@ class MultiThreadPeakFinderTask extends AbstractTask {
       // Get all scans of this data file
       int scanNumbers[] = dataFile.getScanNumbers(1);
 
-      // Process each scan
-      for (int scanNumber : scanNumbers) {
-        // Canceled?
-        if (isCanceled()) {
+      if (sweepLine) {
+        // Feed each scan only to the gaps within its retention time range
+        SweepLineGapFiller gapFiller = new SweepLineGapFiller(dataFile, gaps);
+        if (!gapFiller.offerScans(scanNumbers, this::isCanceled, () -> processedScans++))
           return;
-        }
+      } else {
 
-        // Get the scan
-        Scan scan = dataFile.getScan(scanNumber);
+        // Process each scan
+        for (int scanNumber : scanNumbers) {
+          // Canceled?
+          if (isCanceled()) {
+            return;
+          }
 
-        // Feed this scan to all gaps
-        for (Gap gap : gaps) {
-          gap.offerNextScan(scan);
-        }
+          // Get the scan
+          Scan scan = dataFile.getScan(scanNumber);
 
-        processedScans++;
+          // Feed this scan to all gaps
+          for (Gap gap : gaps) {
+            gap.offerNextScan(scan);
+          }
+
+          processedScans++;
+        }
       }
 
       // Finalize gaps
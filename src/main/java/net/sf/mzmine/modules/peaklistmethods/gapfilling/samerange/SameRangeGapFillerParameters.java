@@ -34,11 +34,16 @@ public class SameRangeGapFillerParameters extends SimpleParameterSet {
 
   public static final MZToleranceParameter mzTolerance = new MZToleranceParameter();
 
+  public static final BooleanParameter sweepLine = new BooleanParameter("Sweep-line scan matching",
+      "If checked, the scans are read once and matched only to the gaps within their retention time"
+          + "\nrange, sorted by m/z. This gives the same result and is much faster with many gaps.",
+      true);
+
   public static final BooleanParameter autoRemove = new BooleanParameter(
       "Remove original feature list", "If checked, the original feature list will be removed");
 
   public SameRangeGapFillerParameters() {
-    super(new Parameter[] {peakLists, suffix, mzTolerance, autoRemove});
+    super(new Parameter[] {peakLists, suffix, mzTolerance, sweepLine, autoRemove});
   }
 
 }
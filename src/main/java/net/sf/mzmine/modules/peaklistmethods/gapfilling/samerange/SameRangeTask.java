@@ -19,6 +19,7 @@
 package net.sf.mzmine.modules.peaklistmethods.gapfilling.samerange;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -36,6 +37,8 @@ import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.datamodel.impl.SimplePeakList;
 import net.sf.mzmine.datamodel.impl.SimplePeakListAppliedMethod;
 import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
+import net.sf.mzmine.modules.peaklistmethods.gapfilling.peakfinder.SweepLineGap;
+import net.sf.mzmine.modules.peaklistmethods.gapfilling.peakfinder.SweepLineGapFiller;
 import net.sf.mzmine.modules.peaklistmethods.qualityparameters.QualityParameters;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
@@ -53,11 +56,15 @@ class SameRangeTask extends AbstractTask {
 
   private String suffix;
   private MZTolerance mzTolerance;
-  private boolean removeOriginal;
+  private boolean removeOriginal, sweepLine;
 
   private int processedRows, totalRows;
   private AtomicInteger processedRowsAtomic;;
 
+  // Progress of the sweep-line mode
+  private int totalScans;
+  private AtomicInteger processedScans = new AtomicInteger();
+
   private ParameterSet parameters;
 
   SameRangeTask(MZmineProject project, PeakList peakList, ParameterSet parameters) {
@@ -69,6 +76,7 @@ class SameRangeTask extends AbstractTask {
     suffix = parameters.getParameter(SameRangeGapFillerParameters.suffix).getValue();
     mzTolerance = parameters.getParameter(SameRangeGapFillerParameters.mzTolerance).getValue();
     removeOriginal = parameters.getParameter(SameRangeGapFillerParameters.autoRemove).getValue();
+    sweepLine = parameters.getParameter(SameRangeGapFillerParameters.sweepLine).getValue();
 
   }
 
@@ -87,59 +95,55 @@ class SameRangeTask extends AbstractTask {
     // Create new feature list
     processedPeakList = new SimplePeakList(peakList + " " + suffix, columns);
 
-    /*************************************************************
-     * Creating a stream to process the data in parallel
-     */
-
     processedRowsAtomic = new AtomicInteger(0);
 
-    List<PeakListRow> outputList = Collections.synchronizedList(new ArrayList<>());
-
-    peakList.parallelStream().forEach(sourceRow -> {
-      // Canceled?
-      if (isCanceled())
-        return;
+    if (sweepLine) {
+      fillGapsBySweepLine(columns);
+    } else {
 
-      PeakListRow newRow = new SimplePeakListRow(sourceRow.getID());
+      /*************************************************************
+       * Creating a stream to process the data in parallel
+       */
 
-      // Copy comment
-      newRow.setComment(sourceRow.getComment());
+      List<PeakListRow> outputList = Collections.synchronizedList(new ArrayList<>());
 
-      // Copy identities
-      for (PeakIdentity ident : sourceRow.getPeakIdentities())
-        newRow.addPeakIdentity(ident, false);
-      if (sourceRow.getPreferredPeakIdentity() != null)
-        newRow.setPreferredPeakIdentity(sourceRow.getPreferredPeakIdentity());
-
-      // Copy each peaks and fill gaps
-      for (RawDataFile column : columns) {
+      peakList.parallelStream().forEach(sourceRow -> {
         // Canceled?
         if (isCanceled())
           return;
 
-        // Get current peak
-        Feature currentPeak = sourceRow.getPeak(column);
+        PeakListRow newRow = copyRow(sourceRow);
 
-        // If there is a gap, try to fill it
-        if (currentPeak == null)
-          currentPeak = fillGap(sourceRow, column);
+        // Copy each peaks and fill gaps
+        for (RawDataFile column : columns) {
+          // Canceled?
+          if (isCanceled())
+            return;
 
-        // If a peak was found or created, add it
-        if (currentPeak != null)
-          newRow.addPeak(column, currentPeak);
-      }
+          // Get current peak
+          Feature currentPeak = sourceRow.getPeak(column);
 
-      outputList.add(newRow);
+          // If there is a gap, try to fill it
+          if (currentPeak == null)
+            currentPeak = fillGap(sourceRow, newRow, column);
 
-      processedRowsAtomic.getAndAdd(1);
-    });
+          // If a peak was found or created, add it
+          if (currentPeak != null)
+            newRow.addPeak(column, currentPeak);
+        }
 
-    outputList.stream().forEach(newRow -> {
-      processedPeakList.addRow((PeakListRow) newRow);
-    });
+        outputList.add(newRow);
 
-    /* End Parallel Implementation */
-    /*******************************************************************************/
+        processedRowsAtomic.getAndAdd(1);
+      });
+
+      outputList.stream().forEach(newRow -> {
+        processedPeakList.addRow((PeakListRow) newRow);
+      });
+
+      /* End Parallel Implementation */
+      /*******************************************************************************/
+    }
 
     // Canceled?
     if (isCanceled())
@@ -164,9 +168,95 @@ class SameRangeTask extends AbstractTask {
 
   }
 
-  private Feature fillGap(PeakListRow row, RawDataFile column) {
+  /**
+   * Sweep-line mode: copies all rows and their peaks first, then fills the gaps of each data file in
+   * a single pass over its scans
+   */
+  private void fillGapsBySweepLine(RawDataFile columns[]) {
+
+    final PeakListRow sourceRows[] = peakList.getRows();
+    final PeakListRow newRows[] = new PeakListRow[sourceRows.length];
+    for (int i = 0; i < sourceRows.length; i++) {
+      newRows[i] = copyRow(sourceRows[i]);
+      for (RawDataFile column : columns) {
+        Feature currentPeak = sourceRows[i].getPeak(column);
+        if (currentPeak != null)
+          newRows[i].addPeak(column, currentPeak);
+      }
+    }
+
+    for (RawDataFile column : columns)
+      totalScans += column.getNumOfScans(1);
 
-    SameRangePeak newPeak = new SameRangePeak(column);
+    Arrays.stream(columns).parallel().forEach(column -> {
+      // Canceled?
+      if (isCanceled())
+        return;
+
+      List<SameRangeGap> gaps = new ArrayList<>();
+      for (int i = 0; i < sourceRows.length; i++) {
+        if (sourceRows[i].getPeak(column) == null)
+          gaps.add(createGap(sourceRows[i], newRows[i], column));
+      }
+
+      SweepLineGapFiller gapFiller = new SweepLineGapFiller(column, gaps);
+      if (!gapFiller.offerScans(column.getScanNumbers(1), this::isCanceled,
+          processedScans::incrementAndGet))
+        return;
+
+      // If a peak was found, add it
+      for (SameRangeGap gap : gaps) {
+        Feature newPeak = gap.getPeak();
+        if (newPeak != null)
+          gap.newRow.addPeak(column, newPeak);
+      }
+    });
+
+    for (PeakListRow newRow : newRows)
+      processedPeakList.addRow(newRow);
+
+  }
+
+  private PeakListRow copyRow(PeakListRow sourceRow) {
+
+    PeakListRow newRow = new SimplePeakListRow(sourceRow.getID());
+
+    // Copy comment
+    newRow.setComment(sourceRow.getComment());
+
+    // Copy identities
+    for (PeakIdentity ident : sourceRow.getPeakIdentities())
+      newRow.addPeakIdentity(ident, false);
+    if (sourceRow.getPreferredPeakIdentity() != null)
+      newRow.setPreferredPeakIdentity(sourceRow.getPreferredPeakIdentity());
+
+    return newRow;
+  }
+
+  private Feature fillGap(PeakListRow row, PeakListRow newRow, RawDataFile column) {
+
+    SameRangeGap gap = createGap(row, newRow, column);
+
+    // Get scan numbers
+    int[] scanNumbers = column.getScanNumbers(1, gap.rtRange);
+
+    for (int scanNumber : scanNumbers) {
+
+      if (isCanceled())
+        return null;
+
+      // Get next scan
+      Scan scan = column.getScan(scanNumber);
+
+      // Find most intense m/z peak
+      gap.offerBasePeak(scan, ScanUtils.findBasePeak(scan, gap.mzRange));
+
+    }
+
+    return gap.getPeak();
+  }
+
+  private SameRangeGap createGap(PeakListRow row, PeakListRow newRow, RawDataFile column) {
 
     Range<Double> mzRange = null, rtRange = null;
 
@@ -189,52 +279,85 @@ class SameRangeTask extends AbstractTask {
 
     Range<Double> mzRangeWithTol = mzTolerance.getToleranceRange(mzRange);
 
-    // Get scan numbers
-    int[] scanNumbers = column.getScanNumbers(1, rtRange);
+    return new SameRangeGap(newRow, column, mzRangeWithTol, rtRange);
+  }
 
-    boolean dataPointFound = false;
+  public double getFinishedPercentage() {
+    if (sweepLine) {
+      if (totalScans == 0)
+        return 0;
+      return (double) processedScans.get() / (double) totalScans;
+    }
+    if (totalRows == 0)
+      return 0;
+    return (double) processedRowsAtomic.get() / (double) totalRows;
 
-    for (int scanNumber : scanNumbers) {
+  }
 
-      if (isCanceled())
-        return null;
+  public String getTaskDescription() {
+    return "Gap filling " + peakList + " using RT and m/z range";
+  }
 
-      // Get next scan
-      Scan scan = column.getScan(scanNumber);
+  /**
+   * Gap of one row in one data file, collects the base peaks of the scans within the retention time
+   * range of the row
+   */
+  private static class SameRangeGap implements SweepLineGap {
+
+    private final PeakListRow newRow;
+    private final SameRangePeak newPeak;
+    private final Range<Double> mzRange, rtRange;
+    private boolean dataPointFound = false;
+
+    SameRangeGap(PeakListRow newRow, RawDataFile column, Range<Double> mzRange,
+        Range<Double> rtRange) {
+      this.newRow = newRow;
+      this.newPeak = new SameRangePeak(column);
+      this.mzRange = mzRange;
+      this.rtRange = rtRange;
+    }
 
-      // Find most intense m/z peak
-      DataPoint basePeak = ScanUtils.findBasePeak(scan, mzRangeWithTol);
+    @Override
+    public Range<Double> getMZRange() {
+      return mzRange;
+    }
+
+    @Override
+    public Range<Double> getRTRange() {
+      return rtRange;
+    }
+
+    @Override
+    public boolean offerBasePeak(Scan scan, DataPoint basePeak) {
+
+      if (!rtRange.contains(scan.getRetentionTime()))
+        return scan.getRetentionTime() < rtRange.lowerEndpoint();
 
       if (basePeak != null) {
         if (basePeak.getIntensity() > 0)
           dataPointFound = true;
         newPeak.addDatapoint(scan.getScanNumber(), basePeak);
       } else {
-        DataPoint fakeDataPoint = new SimpleDataPoint(RangeUtils.rangeCenter(mzRangeWithTol), 0);
+        DataPoint fakeDataPoint = new SimpleDataPoint(RangeUtils.rangeCenter(mzRange), 0);
         newPeak.addDatapoint(scan.getScanNumber(), fakeDataPoint);
       }
+      return true;
 
     }
 
-    if (dataPointFound) {
-      newPeak.finalizePeak();
-      if (newPeak.getArea() == 0)
-        return null;
-      return newPeak;
+    /**
+     * @return the peak filling this gap, or null if no data point was found
+     */
+    Feature getPeak() {
+      if (dataPointFound) {
+        newPeak.finalizePeak();
+        if (newPeak.getArea() == 0)
+          return null;
+        return newPeak;
+      }
+      return null;
     }
 
-    return null;
-  }
-
-  public double getFinishedPercentage() {
-    if (totalRows == 0)
-      return 0;
-    return (double) processedRowsAtomic.get() / (double) totalRows;
-
-  }
-
-  public String getTaskDescription() {
-    return "Gap filling " + peakList + " using RT and m/z range";
   }
 
 }
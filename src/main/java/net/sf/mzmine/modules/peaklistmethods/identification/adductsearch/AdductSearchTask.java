@@ -27,6 +27,8 @@ import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.google.common.collect.Range;
+
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.impl.SimplePeakListAppliedMethod;
@@ -39,6 +41,7 @@ import net.sf.mzmine.parameters.parametertypes.tolerances.RTTolerance;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.PeakListRowSorter;
+import net.sf.mzmine.util.RTMZWindowIndex;
 import net.sf.mzmine.util.SortingDirection;
 import net.sf.mzmine.util.SortingProperty;
 
@@ -136,14 +139,48 @@ public class AdductSearchTask extends AbstractTask {
     // Start with the highest peaks.
     Arrays.sort(rows, new PeakListRowSorter(SortingProperty.Height, SortingDirection.Descending));
 
-    // Compare each pair of rows against each other.
+    // Index the rows by m/z and retention time, so for each row and adduct only the rows with the
+    // expected adduct m/z within the retention time tolerance are checked.
+    final double[] mzValues = new double[totalRows];
+    final double[] rtValues = new double[totalRows];
+    for (int i = 0; i < totalRows; i++) {
+      mzValues[i] = rows[i].getAverageMZ();
+      rtValues[i] = rows[i].getAverageRT();
+    }
+    final RTMZWindowIndex index = new RTMZWindowIndex(mzValues, rtValues);
+
+    final int[][] candidates = new int[selectedAdducts.length][];
+    final int[] nextCandidate = new int[selectedAdducts.length];
+
+    // Compare each row against the candidate rows of each adduct.
     for (int i = 0; !isCanceled() && i < totalRows; i++) {
-      for (int j = 0; !isCanceled() && j < totalRows; j++) {
 
-        if (i == j)
-          continue;
+      final Range<Double> rtRange = rtTolerance.getToleranceRange(rows[i].getAverageRT());
+      for (int a = 0; a < selectedAdducts.length; a++) {
+        final double adductMZ = rows[i].getAverageMZ() + selectedAdducts[a].getMassDifference();
+        candidates[a] = index.getIndexesInside(rtRange, mzTolerance.getToleranceRange(adductMZ));
+        nextCandidate[a] = 0;
+      }
 
-        findAdducts(rows[i], rows[j]);
+      // Merge the sorted candidates of all adducts, so the identities are added in the same order
+      // as when comparing each pair of rows for each adduct.
+      while (!isCanceled()) {
+
+        int j = Integer.MAX_VALUE;
+        for (int a = 0; a < selectedAdducts.length; a++) {
+          if (nextCandidate[a] < candidates[a].length)
+            j = Math.min(j, candidates[a][nextCandidate[a]]);
+        }
+        if (j == Integer.MAX_VALUE)
+          break;
+
+        for (int a = 0; a < selectedAdducts.length; a++) {
+          if ((nextCandidate[a] < candidates[a].length) && (candidates[a][nextCandidate[a]] == j)) {
+            nextCandidate[a]++;
+            if ((i != j) && checkAdduct(rows[i], rows[j], selectedAdducts[a]))
+              addAdductIdentity(rows[i], rows[j], selectedAdducts[a]);
+          }
+        }
       }
 
       finishedRows++;
@@ -151,23 +188,18 @@ public class AdductSearchTask extends AbstractTask {
   }
 
   /**
-   * Check if candidate peak may be a possible adduct of a given main peak.
+   * Add adduct identity to the candidate peak.
    *
    * @param mainRow main peak.
    * @param possibleAdduct candidate adduct peak.
+   * @param adduct adduct.
    */
-  private void findAdducts(final PeakListRow mainRow, final PeakListRow possibleAdduct) {
-
-    for (final AdductType adduct : selectedAdducts) {
-
-      if (checkAdduct(mainRow, possibleAdduct, adduct)) {
+  private void addAdductIdentity(final PeakListRow mainRow, final PeakListRow possibleAdduct,
+      final AdductType adduct) {
 
-        // Add adduct identity and notify GUI.
-        possibleAdduct.addPeakIdentity(new AdductIdentity(mainRow, adduct), false);
-        MZmineCore.getProjectManager().getCurrentProject().notifyObjectChanged(possibleAdduct,
-            false);
-      }
-    }
+    // Add adduct identity and notify GUI.
+    possibleAdduct.addPeakIdentity(new AdductIdentity(mainRow, adduct), false);
+    MZmineCore.getProjectManager().getCurrentProject().notifyObjectChanged(possibleAdduct, false);
   }
 
   /**
@@ -35,6 +35,7 @@ import net.sf.mzmine.parameters.parametertypes.tolerances.RTTolerance;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.PeakListRowSorter;
+import net.sf.mzmine.util.RTMZWindowIndex;
 import net.sf.mzmine.util.SortingDirection;
 import net.sf.mzmine.util.SortingProperty;
 
@@ -97,6 +98,18 @@ public class ComplexSearchTask extends AbstractTask {
     PeakListRow rows[] = peakList.getRows();
     totalRows = rows.length;
 
+    // Index the rows in feature list order by m/z and retention time, so for each pair of rows
+    // only the second rows with the expected m/z are checked
+    PeakListRow listRows[] = peakList.getRows();
+    double mzValues[] = new double[listRows.length];
+    double rtValues[] = new double[listRows.length];
+    for (int i = 0; i < listRows.length; i++) {
+      mzValues[i] = listRows[i].getAverageMZ();
+      rtValues[i] = listRows[i].getAverageRT();
+    }
+    RTMZWindowIndex index = new RTMZWindowIndex(mzValues, rtValues);
+    Range<Double> allMZ = Range.all();
+
     // Sort the array by m/z so we start with biggest peak (possible
     // complex)
     Arrays.sort(rows, new PeakListRowSorter(SortingProperty.MZ, SortingDirection.Descending));
@@ -105,23 +118,46 @@ public class ComplexSearchTask extends AbstractTask {
     for (int i = 0; i < totalRows; i++) {
 
       Range<Double> testRTRange = rtTolerance.getToleranceRange(rows[i].getAverageRT());
-      PeakListRow testRows[] = peakList.getRowsInsideScanRange(testRTRange);
+      int testRows[] = index.getIndexesInside(testRTRange, allMZ);
+
+      // Mass condition of checkComplex(): row1 m/z + row2 m/z - 2 * added mass must be within the
+      // tolerance range of the complex mass
+      double addedMass = ionType.getAddedMass();
+      Range<Double> complexMZRange =
+          mzTolerance.getToleranceRange(rows[i].getAverageMZ() - addedMass);
 
       for (int j = 0; j < testRows.length; j++) {
 
-        for (int k = j; k < testRows.length; k++) {
+        // Task canceled?
+        if (isCanceled())
+          return;
+
+        PeakListRow row1 = listRows[testRows[j]];
+        if (rows[i] == row1)
+          continue;
 
-          // Task canceled?
-          if (isCanceled())
-            return;
+        // Expected m/z range of the second row. The range is widened a little, so rounding cannot
+        // exclude a match, and each candidate is verified by checkComplex().
+        double lower = complexMZRange.lowerEndpoint() + 2 * addedMass - mzValues[testRows[j]];
+        double upper = complexMZRange.upperEndpoint() + 2 * addedMass - mzValues[testRows[j]];
+        double slack = 1e-9 * (Math.abs(lower) + Math.abs(upper) + 1);
+        int candidates[] =
+            index.getIndexesInside(testRTRange, Range.closed(lower - slack, upper + slack));
+
+        for (int candidate : candidates) {
+
+          // Only pairs with k >= j, as in testRows
+          if (candidate < testRows[j])
+            continue;
 
           // To avoid finding a complex of the peak itself and another
           // very small m/z peak
-          if ((rows[i] == testRows[j]) || (rows[i] == testRows[k]))
+          PeakListRow row2 = listRows[candidate];
+          if (rows[i] == row2)
             continue;
 
-          if (checkComplex(rows[i], testRows[j], testRows[k]))
-            addComplexInfo(rows[i], testRows[j], testRows[k]);
+          if (checkComplex(rows[i], row1, row2))
+            addComplexInfo(rows[i], row1, row2);
 
         }
 
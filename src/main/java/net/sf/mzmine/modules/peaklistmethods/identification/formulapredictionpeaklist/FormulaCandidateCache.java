@@ -0,0 +1,137 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.identification.formulapredictionpeaklist;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+import org.openscience.cdk.formula.MolecularFormulaRange;
+import org.openscience.cdk.interfaces.IIsotope;
+import org.openscience.cdk.interfaces.IMolecularFormula;
+import org.openscience.cdk.tools.manipulator.MolecularFormulaManipulator;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Range;
+import net.sf.mzmine.util.FormulaUtils;
+
+/**
+ * Bounded cache of formula candidates, shared by all formula prediction tasks. The neutral mass
+ * axis is divided into buckets of fixed width. The candidates of a bucket are enumerated once for
+ * each set of element constraints and reused by all rows whose mass range overlaps the bucket. The
+ * cache size is limited by the total number of candidates, the least recently used buckets are
+ * evicted.
+ */
+class FormulaCandidateCache {
+
+  private static final double BUCKET_WIDTH = 0.01;
+  private static final long MAX_CANDIDATES = 500000;
+
+  // each bucket weighs at least 1, so empty buckets are limited as well
+  private static final Cache<String, FormulaCandidate[]> buckets =
+      CacheBuilder.newBuilder().maximumWeight(MAX_CANDIDATES)
+          .weigher((String key, FormulaCandidate[] value) -> value.length + 1).build();
+
+  private FormulaCandidateCache() {}
+
+  /**
+   * Enumerates all formulas within a mass range
+   */
+  interface FormulaEnumerator {
+
+    /**
+     * @return the formulas within the mass range or null if the enumeration was canceled
+     */
+    @Nullable
+    List<IMolecularFormula> enumerate(double minMass, double maxMass);
+  }
+
+  /**
+   * Formula candidate with its formula string and exact mass
+   */
+  static final class FormulaCandidate {
+
+    final IMolecularFormula cdkFormula;
+    final String formula;
+    final double exactMass;
+    // mass used by the formula generator, to check if the candidate is inside a mass range
+    private final double totalExactMass;
+
+    private FormulaCandidate(IMolecularFormula cdkFormula) {
+      this.cdkFormula = cdkFormula;
+      this.formula = MolecularFormulaManipulator.getString(cdkFormula);
+      this.exactMass = FormulaUtils.calculateExactMass(formula);
+      this.totalExactMass = MolecularFormulaManipulator.getTotalExactMass(cdkFormula);
+    }
+  }
+
+  /**
+   * @return key of the element constraints
+   */
+  static String getElementsKey(MolecularFormulaRange elements) {
+    StringBuilder key = new StringBuilder();
+    for (IIsotope isotope : elements.isotopes()) {
+      key.append(isotope.getSymbol()).append(isotope.getMassNumber()).append('[')
+          .append(elements.getIsotopeCountMin(isotope)).append('-')
+          .append(elements.getIsotopeCountMax(isotope)).append(']');
+    }
+    return key.toString();
+  }
+
+  /**
+   * Formula candidates within the mass range. Missing buckets are enumerated by the enumerator.
+   * 
+   * @param elementsKey key of the element constraints, see
+   *        {@link #getElementsKey(MolecularFormulaRange)}
+   * @return candidates in the mass range or null if the enumeration was canceled
+   */
+  @Nullable
+  static List<FormulaCandidate> getCandidates(Range<Double> massRange, String elementsKey,
+      FormulaEnumerator enumerator) {
+    final long firstBucket = (long) Math.floor(massRange.lowerEndpoint() / BUCKET_WIDTH);
+    final long lastBucket = (long) Math.floor(massRange.upperEndpoint() / BUCKET_WIDTH);
+
+    List<FormulaCandidate> candidates = new ArrayList<>();
+    for (long bucket = firstBucket; bucket <= lastBucket; bucket++) {
+      final String key = elementsKey + '@' + bucket;
+      FormulaCandidate bucketCandidates[] = buckets.getIfPresent(key);
+      if (bucketCandidates == null) {
+        // formulas exactly on a bucket border are in both buckets, but only added once below
+        List<IMolecularFormula> formulas =
+            enumerator.enumerate(bucket * BUCKET_WIDTH, (bucket + 1) * BUCKET_WIDTH);
+        if (formulas == null)
+          return null;
+        bucketCandidates = new FormulaCandidate[formulas.size()];
+        for (int i = 0; i < bucketCandidates.length; i++)
+          bucketCandidates[i] = new FormulaCandidate(formulas.get(i));
+        buckets.put(key, bucketCandidates);
+      }
+
+      final double bucketStart = bucket * BUCKET_WIDTH;
+      for (FormulaCandidate candidate : bucketCandidates) {
+        // skip the candidates on the lower border, which were added with the previous bucket
+        if ((bucket > firstBucket) && (candidate.totalExactMass <= bucketStart))
+          continue;
+        if (massRange.contains(candidate.totalExactMass))
+          candidates.add(candidate);
+      }
+    }
+    return candidates;
+  }
+
+}
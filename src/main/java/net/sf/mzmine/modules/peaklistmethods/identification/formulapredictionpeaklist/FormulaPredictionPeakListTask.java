@@ -18,14 +18,12 @@
 package net.sf.mzmine.modules.peaklistmethods.identification.formulapredictionpeaklist;
 
 import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.logging.Logger;
-import org.openscience.cdk.formula.MolecularFormulaGenerator;
 import org.openscience.cdk.formula.MolecularFormulaRange;
-import org.openscience.cdk.interfaces.IChemObjectBuilder;
 import org.openscience.cdk.interfaces.IMolecularFormula;
-import org.openscience.cdk.silent.SilentChemObjectBuilder;
 import org.openscience.cdk.tools.manipulator.MolecularFormulaManipulator;
 import com.google.common.collect.Range;
 import net.sf.mzmine.datamodel.Feature;
@@ -37,9 +35,9 @@ import net.sf.mzmine.datamodel.PeakListRow;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.Scan;
 import net.sf.mzmine.datamodel.impl.SimplePeakIdentity;
-import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.modules.peaklistmethods.identification.formulaprediction.restrictions.elements.ElementalHeuristicChecker;
 import net.sf.mzmine.modules.peaklistmethods.identification.formulaprediction.restrictions.rdbe.RDBERestrictionChecker;
+import net.sf.mzmine.modules.peaklistmethods.identification.formulapredictionpeaklist.FormulaCandidateCache.FormulaCandidate;
 import net.sf.mzmine.modules.peaklistmethods.isotopes.isotopepatternscore.IsotopePatternScoreCalculator;
 import net.sf.mzmine.modules.peaklistmethods.isotopes.isotopepatternscore.IsotopePatternScoreParameters;
 import net.sf.mzmine.modules.peaklistmethods.isotopes.isotopeprediction.IsotopePatternCalculator;
@@ -49,26 +47,28 @@ import net.sf.mzmine.modules.peaklistmethods.msms.msmsscore.MSMSScoreParameters;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.SubTaskGroup;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.FormulaUtils;
 
 public class FormulaPredictionPeakListTask extends AbstractTask {
 
+  private static final int ROWS_PER_SUB_TASK = 20;
+
   private Logger logger = Logger.getLogger(this.getClass().getName());
-  private Range<Double> massRange;
   private MolecularFormulaRange elementCounts;
-  private MolecularFormulaGenerator generator;
+  private String elementsKey;
   private IonizationType ionType;
-  private double searchedMass;
   private int charge;
   private PeakList peakList;
   private boolean checkIsotopes, checkMSMS, checkRatios, checkRDBE;
   private ParameterSet isotopeParameters, msmsParameters, ratiosParameters, rdbeParameters;
   private MZTolerance mzTolerance;
   private String message;
-  private int totalRows, finishedRows;
   private int maxBestFormulasPerPeak;
 
+  private SubTaskGroup<FormulaPredictionRowsTask> subTasks;
+
   /**
    *
    * @param parameters
@@ -89,6 +89,7 @@ public class FormulaPredictionPeakListTask extends AbstractTask {
         parameters.getParameter(FormulaPredictionPeakListParameters.mzTolerance).getValue();
     elementCounts =
         parameters.getParameter(FormulaPredictionPeakListParameters.elements).getValue();
+    elementsKey = FormulaCandidateCache.getElementsKey(elementCounts);
 
     checkIsotopes =
         parameters.getParameter(FormulaPredictionPeakListParameters.isotopeFilter).getValue();
@@ -112,7 +113,7 @@ public class FormulaPredictionPeakListTask extends AbstractTask {
     maxBestFormulasPerPeak = parameters
         .getParameter(FormulaPredictionPeakListParameters.maxBestFormulasPerPeak).getValue();
 
-    message = "Formula Prediction";
+    message = "Formula prediction in " + peakList;
   }
 
   /**
@@ -120,9 +121,9 @@ public class FormulaPredictionPeakListTask extends AbstractTask {
    */
   @Override
   public double getFinishedPercentage() {
-    if (totalRows == 0)
+    if (subTasks == null)
       return 0.0;
-    return (double) finishedRows / (double) totalRows;
+    return subTasks.getFinishedPercentage();
   }
 
   /**
@@ -141,81 +142,84 @@ public class FormulaPredictionPeakListTask extends AbstractTask {
 
     setStatus(TaskStatus.PROCESSING);
 
-    totalRows = peakList.getNumberOfRows();
+    // the rows are predicted in parallel, in chunks of ROWS_PER_SUB_TASK rows per sub task
+    PeakListRow rows[] = peakList.getRows();
+    subTasks = new SubTaskGroup<>(this);
+    subTasks.submitRanges(rows.length, ROWS_PER_SUB_TASK,
+        (start, end) -> new FormulaPredictionRowsTask(this, rows, start, end));
+    if (!subTasks.join()) {
+      if (isCanceled())
+        return;
+      setStatus(TaskStatus.ERROR);
+      setErrorMessage(subTasks.getErrorMessage());
+      return;
+    }
 
-    for (PeakListRow row : peakList.getRows()) {
+    logger.finest("Finished formula search for all the peaks, isotope pattern cache: "
+        + IsotopePatternCalculator.getCacheStats());
 
-      if (row.getPeakIdentities().length > 0) {
-        continue;
-      }
+    setStatus(TaskStatus.FINISHED);
 
-      this.searchedMass = (row.getAverageMZ() - ionType.getAddedMass()) * charge;
+  }
 
-      message = "Formula prediction for "
-          + MZmineCore.getConfiguration().getMZFormat().format(searchedMass);
+  MolecularFormulaRange getElementCounts() {
+    return elementCounts;
+  }
 
-      massRange = mzTolerance.getToleranceRange(searchedMass);
+  /**
+   * Predicts the formulas of the row and adds the best ones as identities. Called by the sub tasks,
+   * which set their status to ERROR if the prediction failed.
+   */
+  void predictFormulas(PeakListRow row, FormulaPredictionRowsTask subTask) {
 
-      IChemObjectBuilder builder = SilentChemObjectBuilder.getInstance();
-      generator = new MolecularFormulaGenerator(builder, massRange.lowerEndpoint(),
-          massRange.upperEndpoint(), elementCounts);
+    final double searchedMass = (row.getAverageMZ() - ionType.getAddedMass()) * charge;
 
-      IMolecularFormula cdkFormula;
+    Range<Double> massRange = mzTolerance.getToleranceRange(searchedMass);
 
-      // create a map to store ResultFormula and relative mass deviation for sorting
-      Map<Double, String> possibleFormulas = new TreeMap<>();
-      while ((cdkFormula = generator.getNextFormula()) != null) {
-        if (isCanceled())
-          return;
+    // candidates of rows with similar masses are enumerated only once
+    List<FormulaCandidate> candidates = FormulaCandidateCache.getCandidates(massRange, elementsKey,
+        subTask::enumerateFormulas);
+    if (candidates == null)
+      return;
 
-        // Mass is ok, so test other constraints
-        if (checkConstraints(cdkFormula, row) == true) {
-          String formula = MolecularFormulaManipulator.getString(cdkFormula);
+    // create a map to store ResultFormula and relative mass deviation for sorting
+    Map<Double, String> possibleFormulas = new TreeMap<>();
+    for (FormulaCandidate candidate : candidates) {
+      if (subTask.isCanceled())
+        return;
 
-          // calc rel mass deviation
-          Double relMassDev =
-              ((searchedMass - (FormulaUtils.calculateExactMass(formula))) / searchedMass)
-                  * 1000000;
+      // Mass is ok, so test other constraints
+      if (checkConstraints(candidate.cdkFormula, row, subTask) == true) {
+        // calc rel mass deviation
+        Double relMassDev = ((searchedMass - candidate.exactMass) / searchedMass) * 1000000;
 
-          // write to map
-          possibleFormulas.put(relMassDev, formula);
-        }
+        // write to map
+        possibleFormulas.put(relMassDev, candidate.formula);
       }
-
-      if (isCanceled())
+      if (subTask.getStatus() == TaskStatus.ERROR)
         return;
+    }
 
-      // create a map to store ResultFormula and relative mass deviation for sorting
-      Map<Double, String> possibleFormulasSorted = new TreeMap<>(
-          (Comparator<Double>) (o1, o2) -> Double.compare(Math.abs(o1), Math.abs(o2)));
-      possibleFormulasSorted.putAll(possibleFormulas);
-
-      // Add the new formula entry top results
-      int ctr = 0;
-      for (Map.Entry<Double, String> entry : possibleFormulasSorted.entrySet()) {
-        if (ctr < maxBestFormulasPerPeak) {
-          SimplePeakIdentity newIdentity = new SimplePeakIdentity(entry.getValue(),
-              entry.getValue(), this.getClass().getName(), null, null);
-          row.addPeakIdentity(newIdentity, false);
-          ctr++;
-        }
+    // create a map to store ResultFormula and relative mass deviation for sorting
+    Map<Double, String> possibleFormulasSorted = new TreeMap<>(
+        (Comparator<Double>) (o1, o2) -> Double.compare(Math.abs(o1), Math.abs(o2)));
+    possibleFormulasSorted.putAll(possibleFormulas);
+
+    // Add the new formula entry top results
+    int ctr = 0;
+    for (Map.Entry<Double, String> entry : possibleFormulasSorted.entrySet()) {
+      if (ctr < maxBestFormulasPerPeak) {
+        SimplePeakIdentity newIdentity = new SimplePeakIdentity(entry.getValue(),
+            entry.getValue(), this.getClass().getName(), null, null);
+        row.addPeakIdentity(newIdentity, false);
+        ctr++;
       }
-      if (isCanceled())
-        return;
-      finishedRows++;
-
     }
 
-    if (isCanceled())
-      return;
-
-    logger.finest("Finished formula search for all the peaks");
-
-    setStatus(TaskStatus.FINISHED);
-
   }
 
-  private boolean checkConstraints(IMolecularFormula cdkFormula, PeakListRow peakListRow) {
+  private boolean checkConstraints(IMolecularFormula cdkFormula, PeakListRow peakListRow,
+      AbstractTask subTask) {
 
     // Check elemental ratios
     if (checkRatios) {
@@ -252,6 +256,7 @@ public class FormulaPredictionPeakListTask extends AbstractTask {
 
       final double minPredictedAbundance = isotopeNoiseLevel / detectedPatternHeight;
 
+      // cached by the IsotopePatternCalculator
       predictedIsotopePattern = IsotopePatternCalculator.calculateIsotopePattern(adjustedFormula,
           minPredictedAbundance, charge, ionType.getPolarity());
 
@@ -278,9 +283,9 @@ public class FormulaPredictionPeakListTask extends AbstractTask {
       String massListName = msmsParameters.getParameter(MSMSScoreParameters.massList).getValue();
       MassList ms2MassList = msmsScan.getMassList(massListName);
       if (ms2MassList == null) {
-        setStatus(TaskStatus.ERROR);
-        setErrorMessage("The MS/MS scan #" + msmsScanNumber + " in file " + dataFile.getName()
-            + " does not have a mass list called '" + massListName + "'");
+        subTask.setStatus(TaskStatus.ERROR);
+        subTask.setErrorMessage("The MS/MS scan #" + msmsScanNumber + " in file "
+            + dataFile.getName() + " does not have a mass list called '" + massListName + "'");
         return false;
       }
 
@@ -300,16 +305,4 @@ public class FormulaPredictionPeakListTask extends AbstractTask {
     }
     return true;
   }
-
-  @Override
-  public void cancel() {
-    super.cancel();
-
-    // We need to cancel the formula generator, because searching for next
-    // candidate formula may take a looong time
-    if (generator != null) {
-      generator.cancel();
-    }
-
-  }
 }
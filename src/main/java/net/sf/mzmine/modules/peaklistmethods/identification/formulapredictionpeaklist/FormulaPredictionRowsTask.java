@@ -0,0 +1,96 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.identification.formulapredictionpeaklist;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.openscience.cdk.formula.MolecularFormulaGenerator;
+import org.openscience.cdk.interfaces.IChemObjectBuilder;
+import org.openscience.cdk.interfaces.IMolecularFormula;
+import org.openscience.cdk.silent.SilentChemObjectBuilder;
+import net.sf.mzmine.datamodel.PeakListRow;
+import net.sf.mzmine.taskcontrol.RangeSubTask;
+
+/**
+ * Sub task of the FormulaPredictionPeakListTask, predicts the formulas of a range of rows
+ */
+class FormulaPredictionRowsTask extends RangeSubTask {
+
+  private final FormulaPredictionPeakListTask predictionTask;
+  private final PeakListRow rows[];
+
+  private volatile MolecularFormulaGenerator generator;
+
+  /**
+   * @param start first row to predict
+   * @param end end (exclusive) of the rows to predict
+   */
+  FormulaPredictionRowsTask(FormulaPredictionPeakListTask predictionTask, PeakListRow rows[],
+      int start, int end) {
+    super(predictionTask, "rows", start, end);
+    this.predictionTask = predictionTask;
+    this.rows = rows;
+  }
+
+  @Override
+  protected void process(int index) {
+    if (rows[index].getPeakIdentities().length == 0)
+      predictionTask.predictFormulas(rows[index], this);
+  }
+
+  /**
+   * Enumerates all formulas of the element constraints within the mass range
+   * 
+   * @return the formulas or null if this task was canceled
+   */
+  List<IMolecularFormula> enumerateFormulas(double minMass, double maxMass) {
+    IChemObjectBuilder builder = SilentChemObjectBuilder.getInstance();
+    generator = new MolecularFormulaGenerator(builder, minMass, maxMass,
+        predictionTask.getElementCounts());
+    // the task may have been canceled before the generator was set
+    if (isCanceled())
+      return null;
+
+    List<IMolecularFormula> formulas = new ArrayList<>();
+    IMolecularFormula cdkFormula;
+    while ((cdkFormula = generator.getNextFormula()) != null) {
+      if (isCanceled())
+        return null;
+      formulas.add(cdkFormula);
+    }
+    generator = null;
+
+    // a canceled generator returns an incomplete result
+    if (isCanceled())
+      return null;
+    return formulas;
+  }
+
+  @Override
+  public void cancel() {
+    super.cancel();
+
+    // We need to cancel the formula generator, because searching for next
+    // candidate formula may take a looong time
+    MolecularFormulaGenerator currentGenerator = generator;
+    if (currentGenerator != null)
+      currentGenerator.cancel();
+  }
+
+}
@@ -23,6 +23,7 @@ import net.sf.mzmine.parameters.impl.SimpleParameterSet;
 import net.sf.mzmine.parameters.parametertypes.DoubleParameter;
 import net.sf.mzmine.parameters.parametertypes.IntegerParameter;
 import net.sf.mzmine.parameters.parametertypes.MassListParameter;
+import net.sf.mzmine.parameters.parametertypes.OptionalParameter;
 import net.sf.mzmine.parameters.parametertypes.selectors.PeakListsParameter;
 import net.sf.mzmine.parameters.parametertypes.tolerances.MZToleranceParameter;
 
@@ -36,6 +37,11 @@ public class Ms2SearchParameters extends SimpleParameterSet {
 
   public static final MZToleranceParameter mzTolerance = new MZToleranceParameter();
 
+  public static final OptionalParameter<MZToleranceParameter> precursorMZTolerance =
+      new OptionalParameter<>(new MZToleranceParameter("Precursor m/z tolerance",
+          "If checked, only MS2 scans with precursor m/z values within this tolerance are"
+              + " compared"));
+
   public static final DoubleParameter intensityThreshold = new DoubleParameter(
       "Minimum MS2 ion intensity", "Minimum ion intensity to consider in MS2 comparison");
 
@@ -47,8 +53,8 @@ public class Ms2SearchParameters extends SimpleParameterSet {
       "Minimum spectral match score to report", "Minimum MS2 comparison score to report");
 
   public Ms2SearchParameters() {
-    super(new Parameter[] {peakList1, peakList2, massList, mzTolerance, intensityThreshold,
-        minimumIonsMatched, scoreThreshold});
+    super(new Parameter[] {peakList1, peakList2, massList, mzTolerance, precursorMZTolerance,
+        intensityThreshold, minimumIonsMatched, scoreThreshold});
   }
 
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.identification.ms2search;
+
+import com.google.common.collect.Range;
+import net.sf.mzmine.datamodel.PeakListRow;
+import net.sf.mzmine.modules.peaklistmethods.identification.ms2search.Ms2SearchTask.FragmentSpectrum;
+import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import net.sf.mzmine.taskcontrol.RangeSubTask;
+import net.sf.mzmine.util.RTMZWindowIndex;
+
+/**
+ * Sub task of the Ms2SearchTask, compares a range of rows of feature list 1 against all rows of
+ * feature list 2
+ */
+class Ms2SearchRowsTask extends RangeSubTask {
+
+  private final Ms2SearchTask searchTask;
+  private final PeakListRow rows1[];
+  private final FragmentSpectrum spectra1[], spectra2[];
+  private final RTMZWindowIndex precursorIndex;
+
+  private final Range<Double> allRT = Range.all();
+
+  /**
+   * @param start first row of rows1 to compare
+   * @param end end (exclusive) of the rows of rows1 to compare
+   * @param precursorIndex index of the precursor m/z values of spectra2, or null to compare all
+   *        rows
+   */
+  Ms2SearchRowsTask(Ms2SearchTask searchTask, PeakListRow rows1[], FragmentSpectrum spectra1[],
+      int start, int end, FragmentSpectrum spectra2[], RTMZWindowIndex precursorIndex) {
+    super(searchTask, "rows", start, end);
+    this.searchTask = searchTask;
+    this.rows1 = rows1;
+    this.spectra1 = spectra1;
+    this.spectra2 = spectra2;
+    this.precursorIndex = precursorIndex;
+  }
+
+  @Override
+  protected void process(int i) {
+
+    final FragmentSpectrum spectrumA = spectra1[i];
+    if (spectrumA == null)
+      return;
+
+    if (precursorIndex == null) {
+      for (int j = 0; j < spectra2.length; j++)
+        compare(i, spectrumA, spectra2[j]);
+    } else {
+      final MZTolerance precursorMZTolerance = searchTask.getPrecursorMZTolerance();
+      final Range<Double> precursorRange =
+          precursorMZTolerance.getToleranceRange(spectrumA.scan.getPrecursorMZ());
+      for (int j : precursorIndex.getIndexesInside(allRT, precursorRange))
+        compare(i, spectrumA, spectra2[j]);
+    }
+
+  }
+
+  private void compare(int i, FragmentSpectrum spectrumA, FragmentSpectrum spectrumB) {
+
+    if (spectrumB == null)
+      return;
+
+    final Ms2SearchResult searchResult = searchTask.simpleMS2similarity(spectrumA, spectrumB);
+
+    // Report the final score to the peaklist identity
+    if (searchTask.isReported(searchResult))
+      searchTask.addMS2Identity(rows1[i], spectrumA.bestPeak, spectrumB.bestPeak, searchResult);
+  }
+
+}
@@ -37,7 +37,9 @@ import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.SubTaskGroup;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.RTMZWindowIndex;
 
 class Ms2SearchResult {
   private double score;
@@ -84,17 +86,22 @@ class Ms2SearchTask extends AbstractTask {
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
-  private int finishedRows, totalRows;
+  // Number of rows of feature list 1 compared by each sub task
+  private static final int ROWS_PER_SUB_TASK = 200;
+
   private PeakList peakList1;
   private PeakList peakList2;
 
   private MZTolerance mzTolerance;
+  private MZTolerance precursorMZTolerance;
   private ParameterSet parameters;
   private double scoreThreshold;
   private double intensityThreshold;
   private int minimumIonsMatched;
   private String massListName;
 
+  private SubTaskGroup<Ms2SearchRowsTask> subTasks;
+
   /**
    * @param parameters
    * @param peakList
@@ -107,6 +114,10 @@ class Ms2SearchTask extends AbstractTask {
 
     mzTolerance = parameters.getParameter(Ms2SearchParameters.mzTolerance).getValue();
 
+    if (parameters.getParameter(Ms2SearchParameters.precursorMZTolerance).getValue())
+      precursorMZTolerance = parameters.getParameter(Ms2SearchParameters.precursorMZTolerance)
+          .getEmbeddedParameter().getValue();
+
     scoreThreshold = parameters.getParameter(Ms2SearchParameters.scoreThreshold).getValue();
 
     intensityThreshold = parameters.getParameter(Ms2SearchParameters.intensityThreshold).getValue();
@@ -122,9 +133,9 @@ class Ms2SearchTask extends AbstractTask {
    * @see net.sf.mzmine.taskcontrol.Task#getFinishedPercentage()
    */
   public double getFinishedPercentage() {
-    if (totalRows == 0)
+    if (subTasks == null)
       return 0;
-    return ((double) finishedRows) / totalRows;
+    return subTasks.getFinishedPercentage();
   }
 
   /**
@@ -144,39 +155,42 @@ class Ms2SearchTask extends AbstractTask {
     logger.info("Starting MS2 similarity search between " + peakList1 + " and " + peakList2
         + " with mz tolerance:" + mzTolerance.getPpmTolerance());
 
-    Ms2SearchResult searchResult;
     PeakListRow rows1[] = peakList1.getRows();
     PeakListRow rows2[] = peakList2.getRows();
 
-    int rows1Length = rows1.length;
-    int rows2Length = rows2.length;
-
-    totalRows = rows1Length;
-
-    for (int i = 0; i < rows1Length; i++) {
-      for (int j = 0; j < rows2Length; j++) {
-        Feature featureA = rows1[i].getBestPeak();
-        Feature featureB = rows2[j].getBestPeak();
-        // Complication. The "best" peak, may not have the "best" fragmentation
-        Scan scanA = rows1[i].getBestFragmentation();
-        Scan scanB = rows2[j].getBestFragmentation();
-
-
-
-        searchResult =
-            simpleMS2similarity(scanA, scanB, intensityThreshold, mzTolerance, massListName);
-
-        // Report the final score to the peaklist identity
-        if (searchResult != null && searchResult.getScore() > scoreThreshold
-            && searchResult.getNumIonsMatched() >= minimumIonsMatched)
-          this.addMS2Identity(rows1[i], featureA, featureB, searchResult);
-
-        if (isCanceled())
-          return;
+    // Read the mass lists of the best fragmentation scans once, instead of once per pair of rows
+    FragmentSpectrum spectra1[] = readFragmentSpectra(rows1);
+    if (spectra1 == null)
+      return;
+    FragmentSpectrum spectra2[] = readFragmentSpectra(rows2);
+    if (spectra2 == null)
+      return;
+
+    // Index the rows of feature list 2 by precursor m/z, if only MS2 scans with similar precursors
+    // should be compared
+    RTMZWindowIndex precursorIndex = null;
+    if (precursorMZTolerance != null) {
+      double precursorMZValues[] = new double[rows2.length];
+      for (int j = 0; j < rows2.length; j++) {
+        precursorMZValues[j] =
+            (spectra2[j] == null) ? Double.NaN : spectra2[j].scan.getPrecursorMZ();
       }
+      precursorIndex = new RTMZWindowIndex(precursorMZValues, new double[rows2.length]);
+    }
 
-      // Update progress bar
-      finishedRows++;
+    // Compare the rows of feature list 1 in chunks, which are processed in parallel. Each row is
+    // compared by a single sub task, so its identities are added in the order of feature list 2.
+    subTasks = new SubTaskGroup<>(this);
+    subTasks.submitRanges(rows1.length, ROWS_PER_SUB_TASK,
+        (start, end) -> new Ms2SearchRowsTask(this, rows1, spectra1, start, end, spectra2,
+            precursorIndex));
+
+    if (!subTasks.join()) {
+      if (isCanceled())
+        return;
+      setStatus(TaskStatus.ERROR);
+      setErrorMessage(subTasks.getErrorMessage());
+      return;
     }
 
     // Add task description to peakList
@@ -194,82 +208,101 @@ class Ms2SearchTask extends AbstractTask {
 
   }
 
-  private Ms2SearchResult simpleMS2similarity(Scan scanMS2A, Scan scanMS2B,
-      double intensityThreshold, MZTolerance mzRange, String massList) {
+  /**
+   * @return fragment spectrum of each row, null for rows without a fragmentation scan or with an
+   *         empty mass list, or null if a fragmentation scan has no mass list
+   */
+  private FragmentSpectrum[] readFragmentSpectra(PeakListRow rows[]) {
 
-    double runningScoreTotal = 0.0;
-    double mzRangePPM = mzRange.getPpmTolerance();
+    FragmentSpectrum spectra[] = new FragmentSpectrum[rows.length];
 
-    List<DataPoint> matchedIons = new ArrayList<DataPoint>();
+    for (int i = 0; i < rows.length; i++) {
 
-    // Fetch 1st feature MS2 scan.
-    // int ms2ScanNumberA = featureA.getMostIntenseFragmentScanNumber();
-    // Scan scanMS2A = featureA.getDataFile().getScan(ms2ScanNumberA);
+      if (isCanceled())
+        return null;
 
+      // Complication. The "best" peak, may not have the "best" fragmentation
+      Scan scan = rows[i].getBestFragmentation();
+      if (scan == null)
+        continue;
 
-    // Fetch 2nd feature MS2 scan.
-    // int ms2ScanNumberB = featureB.getMostIntenseFragmentScanNumber();
-    // Scan scanMS2B = featureB.getDataFile().getScan(ms2ScanNumberB);
+      // Fetch centroided data
+      MassList massList = scan.getMassList(massListName);
+      if (massList == null) {
+        setStatus(TaskStatus.ERROR);
+        setErrorMessage("Scan " + scan.getDataFile().getName() + " #" + scan.getScanNumber()
+            + " does not have a mass list " + massListName);
+        return null;
+      }
+
+      DataPoint ions[] = massList.getDataPoints();
+      if (ions == null || ions.length == 0) {
+        // Fall back to profile data?
+        // Profile / raw data.
+        // ions = scan.getDataPointsOverIntensity(intensityThreshold);
+        continue;
+      }
 
-    if (scanMS2A == null || scanMS2B == null) {
-      return null;
+      spectra[i] = new FragmentSpectrum(rows[i].getBestPeak(), scan, ions);
     }
 
-    // Fetch centroided data
-    MassList massListA = scanMS2A.getMassList(massListName);
-    MassList massListB = scanMS2B.getMassList(massListName);
+    return spectra;
+  }
 
-    if (massListA == null) {
-      // Will this work properly? As this function isn't directly the task?
-      setStatus(TaskStatus.ERROR);
-      setErrorMessage("Scan " + scanMS2A.getDataFile().getName() + " #" + scanMS2A.getScanNumber()
-          + " does not have a mass list " + massListName);
-      return null;
-    }
+  MZTolerance getPrecursorMZTolerance() {
+    return precursorMZTolerance;
+  }
 
-    if (massListB == null) {
-      // Will this work properly? As this function isn't directly the task?
-      setStatus(TaskStatus.ERROR);
-      setErrorMessage("Scan " + scanMS2B.getDataFile().getName() + " #" + scanMS2B.getScanNumber()
-          + " does not have a mass list " + massListName);
-      return null;
-    }
+  /**
+   * @return true if the search result should be reported
+   */
+  boolean isReported(Ms2SearchResult searchResult) {
+    return searchResult != null && searchResult.getScore() > scoreThreshold
+        && searchResult.getNumIonsMatched() >= minimumIonsMatched;
+  }
 
-    DataPoint[] ionsA = null;
-    DataPoint[] ionsB = null;
+  /**
+   * Compares the ions of two fragment spectra. Both ion arrays are sorted by m/z, so the ions of
+   * spectrum B within the tolerance of each ion of spectrum A are found by a single merge pass.
+   */
+  Ms2SearchResult simpleMS2similarity(FragmentSpectrum spectrumA, FragmentSpectrum spectrumB) {
 
-    ionsA = massListA.getDataPoints();
-    ionsB = massListB.getDataPoints();
+    double runningScoreTotal = 0.0;
+    double mzRangePPM = mzTolerance.getPpmTolerance();
 
-    if (ionsA == null || ionsB == null || ionsA.length == 0 || ionsB.length == 0) {
-      // Fall back to profile data?
-      // Profile / raw data.
-      // ionsA = scanMS2A.getDataPointsOverIntensity(intensityThreshold);
-      // ionsB = scanMS2B.getDataPointsOverIntensity(intensityThreshold);
-      return null;
-    }
+    List<DataPoint> matchedIons = new ArrayList<DataPoint>();
+
+    final DataPoint ionsA[] = spectrumA.ions;
+    final double mzValuesA[] = spectrumA.mzValues, intensityValuesA[] = spectrumA.intensityValues;
+    final double mzValuesB[] = spectrumB.mzValues, intensityValuesB[] = spectrumB.intensityValues;
 
-    // Compare every ion peak in MS2 scan A, to every ion peak in MS2 scan B.
-    double ionsBMaxMZ = ionsB[ionsB.length - 1].getMZ();
-    for (int i = 0; i < ionsA.length; i++) {
+    // Compare every ion peak in MS2 scan A, to the ion peaks of MS2 scan B within the tolerance.
+    double ionsBMaxMZ = mzValuesB[mzValuesB.length - 1];
+    int fromIndex = 0;
+    for (int i = 0; i < mzValuesA.length; i++) {
 
-      double iMZ = ionsA[i].getMZ();
+      double iMZ = mzValuesA[i];
       double mzRangeAbsolute = iMZ * 1e-6 * mzRangePPM;
 
       if (iMZ - mzRangeAbsolute > ionsBMaxMZ)
         break; // Potential speedup heuristic. If any i is greater than the max of j, no more
                // matches are possible.
 
-      for (int j = 0; j < ionsB.length; j++) {
+      // The lower end of the tolerance window only increases with iMZ, so the ions of B below the
+      // window of this ion are also below the windows of all following ions
+      while (fromIndex < mzValuesB.length && mzValuesB[fromIndex] <= iMZ - mzRangeAbsolute)
+        fromIndex++;
+
+      for (int j = fromIndex; j < mzValuesB.length; j++) {
 
-        double jMZ = ionsB[j].getMZ();
+        double jMZ = mzValuesB[j];
 
         if (iMZ < jMZ - mzRangeAbsolute)
           break; // Potential speedup heuristic. iMZ smaller than jMZ. Skip the rest of the j's as
                  // they can only increase.
 
         if (Math.abs(iMZ - jMZ) < mzRangeAbsolute) {
-          runningScoreTotal += ionsA[i].getIntensity() * ionsB[j].getIntensity();
+          runningScoreTotal += intensityValuesA[i] * intensityValuesB[j];
           matchedIons.add(ionsA[i]);
         }
 
@@ -285,7 +318,7 @@ class Ms2SearchTask extends AbstractTask {
    * @param mainRow
    * @param fragmentRow
    */
-  private void addMS2Identity(PeakListRow row1, Feature featureA, Feature featureB,
+  void addMS2Identity(PeakListRow row1, Feature featureA, Feature featureB,
       Ms2SearchResult searchResult) {
     Ms2Identity newIdentity = new Ms2Identity(featureA, featureB, searchResult);
     row1.addPeakIdentity(newIdentity, false);
@@ -293,4 +326,29 @@ class Ms2SearchTask extends AbstractTask {
     // Notify the GUI about the change in the project
     MZmineCore.getProjectManager().getCurrentProject().notifyObjectChanged(row1, false);
   }
+
+  /**
+   * Mass list of the best fragmentation scan of a row, with the m/z and intensity values in
+   * primitive arrays
+   */
+  static class FragmentSpectrum {
+
+    final Feature bestPeak;
+    final Scan scan;
+    final DataPoint ions[];
+    final double mzValues[], intensityValues[];
+
+    FragmentSpectrum(Feature bestPeak, Scan scan, DataPoint ions[]) {
+      this.bestPeak = bestPeak;
+      this.scan = scan;
+      this.ions = ions;
+      mzValues = new double[ions.length];
+      intensityValues = new double[ions.length];
+      for (int i = 0; i < ions.length; i++) {
+        mzValues[i] = ions[i].getMZ();
+        intensityValues[i] = ions[i].getIntensity();
+      }
+    }
+
+  }
 }
@@ -19,8 +19,7 @@
 package net.sf.mzmine.modules.peaklistmethods.identification.spectraldbsearch;
 
 import java.io.File;
-import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -33,25 +32,24 @@ import net.sf.mzmine.desktop.impl.HeadLessDesktop;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.SubTaskGroup;
 import net.sf.mzmine.taskcontrol.TaskStatus;
-import net.sf.mzmine.util.spectraldb.entry.SpectralDBEntry;
-import net.sf.mzmine.util.spectraldb.parser.AutoLibraryParser;
-import net.sf.mzmine.util.spectraldb.parser.LibraryEntryProcessor;
-import net.sf.mzmine.util.spectraldb.parser.UnsupportedFormatException;
+import net.sf.mzmine.util.spectraldb.index.CompiledSpectralLibrary;
 
 class LocalSpectralDBSearchTask extends AbstractTask {
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
+  private static final int ROWS_PER_SUB_TASK = 100;
+
   private final PeakList peakList;
   private final @Nonnull String massListName;
   private final File dataBaseFile;
 
   private ParameterSet parameters;
 
-  private List<RowsSpectralMatchTask> tasks;
+  private SubTaskGroup<RowsSpectralMatchTask> subTasks;
 
-  private int totalTasks;
   private PeakListRow[] rows;
 
   public LocalSpectralDBSearchTask(PeakList peakList, ParameterSet parameters) {
@@ -67,9 +65,9 @@ class LocalSpectralDBSearchTask extends AbstractTask {
    */
   @Override
   public double getFinishedPercentage() {
-    if (totalTasks == 0 || tasks == null)
+    if (subTasks == null)
       return 0;
-    return ((double) totalTasks - tasks.size()) / totalTasks;
+    return subTasks.getFinishedPercentage();
   }
 
   /**
@@ -87,38 +85,37 @@ class LocalSpectralDBSearchTask extends AbstractTask {
   public void run() {
     setStatus(TaskStatus.PROCESSING);
     int count = 0;
+    subTasks = new SubTaskGroup<>(this);
     try {
-      tasks = parseFile(dataBaseFile);
-      totalTasks = tasks.size();
-      if (!tasks.isEmpty()) {
-        // wait for the tasks to finish
-        while (!isCanceled() && !tasks.isEmpty()) {
-          for (int i = 0; i < tasks.size(); i++) {
-            if (tasks.get(i).isFinished() || tasks.get(i).isCanceled()) {
-              count += tasks.get(i).getCount();
-              tasks.remove(i);
-              i--;
-            }
-          }
-          // wait for all sub tasks to finish
-          try {
-            Thread.sleep(100);
-          } catch (Exception e) {
-            cancel();
-          }
-        }
-        // cancelled
-        if (isCanceled()) {
-          tasks.stream().forEach(AbstractTask::cancel);
-        }
-      } else {
+      // compiled once, later runs map the cache file
+      CompiledSpectralLibrary library = CompiledSpectralLibrary.open(this, dataBaseFile);
+      if (library == null || isCanceled())
+        return;
+      if (library.getNumOfEntries() == 0) {
         setStatus(TaskStatus.ERROR);
         setErrorMessage("DB file was empty - or error while parsing " + dataBaseFile);
+        return;
       }
+
+      // each row is handled by one sub task only, which matches it against the whole library
+      List<RowsSpectralMatchTask> tasks = subTasks.submitRanges(rows.length, ROWS_PER_SUB_TASK,
+          (start, end) -> new RowsSpectralMatchTask(peakList.getName(),
+              Arrays.copyOfRange(rows, start, end), parameters, library));
+      // wait for the sub tasks to finish, canceling this task cancels them
+      if (!subTasks.join()) {
+        if (isCanceled())
+          return;
+        setStatus(TaskStatus.ERROR);
+        setErrorMessage(subTasks.getErrorMessage());
+        return;
+      }
+      for (RowsSpectralMatchTask task : tasks)
+        count += task.getCount();
     } catch (Exception e) {
       logger.log(Level.SEVERE, "Could not read file " + dataBaseFile, e);
       setStatus(TaskStatus.ERROR);
       setErrorMessage(e.toString());
+      return;
     }
     logger.info("Added " + count + " spectral library matches");
 
@@ -135,30 +132,4 @@ class LocalSpectralDBSearchTask extends AbstractTask {
 
   }
 
-  /**
-   * Load all library entries from data base file
-   * 
-   * @param dataBaseFile
-   * @return
-   */
-  private List<RowsSpectralMatchTask> parseFile(File dataBaseFile)
-      throws UnsupportedFormatException, IOException {
-    //
-    List<RowsSpectralMatchTask> tasks = new ArrayList<>();
-    AutoLibraryParser parser = new AutoLibraryParser(100, new LibraryEntryProcessor() {
-      @Override
-      public void processNextEntries(List<SpectralDBEntry> list, int alreadyProcessed) {
-        // start last task
-        RowsSpectralMatchTask task =
-            new RowsSpectralMatchTask(peakList.getName(), rows, parameters, alreadyProcessed + 1, list);
-        MZmineCore.getTaskController().addTask(task);
-        tasks.add(task);
-      }
-    });
-
-    // return tasks
-    parser.parse(this, dataBaseFile);
-    return tasks;
-  }
-
 }
@@ -21,11 +21,13 @@ package net.sf.mzmine.modules.peaklistmethods.identification.spectraldbsearch;
 import java.io.File;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.annotation.Nonnull;
+import com.google.common.collect.Range;
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.MassList;
 import net.sf.mzmine.datamodel.PeakListRow;
@@ -41,19 +43,22 @@ import net.sf.mzmine.modules.visualization.spectra.simplespectra.spectraidentifi
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import net.sf.mzmine.parameters.parametertypes.tolerances.RTTolerance;
-import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.RangeSubTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.exceptions.MissingMassListException;
 import net.sf.mzmine.util.scans.ScanAlignment;
 import net.sf.mzmine.util.scans.ScanUtils;
 import net.sf.mzmine.util.scans.similarity.SpectralSimilarity;
 import net.sf.mzmine.util.scans.similarity.SpectralSimilarityFunction;
+import net.sf.mzmine.util.scans.similarity.SpectralSimilarityKernel;
 import net.sf.mzmine.util.scans.sorting.ScanSortMode;
 import net.sf.mzmine.util.spectraldb.entry.DBEntryField;
 import net.sf.mzmine.util.spectraldb.entry.SpectralDBEntry;
 import net.sf.mzmine.util.spectraldb.entry.SpectralDBPeakIdentity;
+import net.sf.mzmine.util.spectraldb.index.CompiledSpectralLibrary;
+import net.sf.mzmine.util.spectraldb.index.CompiledSpectralLibrary.PeakFilter;
 
-public class RowsSpectralMatchTask extends AbstractTask {
+public class RowsSpectralMatchTask extends RangeSubTask {
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
@@ -68,8 +73,6 @@ public class RowsSpectralMatchTask extends AbstractTask {
   private final MZTolerance mzTolerancePrecursor;
   private final RTTolerance rtTolerance;
   private final boolean useRT;
-  private int finishedRows = 0;
-  private final int totalRows;
 
   private ParameterSet parameters;
 
@@ -77,6 +80,8 @@ public class RowsSpectralMatchTask extends AbstractTask {
   private final double noiseLevel;
   private final int minMatch;
   private List<SpectralDBEntry> list;
+  // compiled library, which is used instead of the list if set
+  private CompiledSpectralLibrary library;
 
   private int count = 0;
 
@@ -84,6 +89,8 @@ public class RowsSpectralMatchTask extends AbstractTask {
   private int startEntry;
   private int listsize;
   private MZmineProcessingStep<SpectralSimilarityFunction> simFunction;
+  // reused for all comparisons of this task
+  private final SpectralSimilarityKernel kernel;
 
   // remove 13C isotopes
   private boolean removeIsotopes;
@@ -105,9 +112,22 @@ public class RowsSpectralMatchTask extends AbstractTask {
     this(description, rows, parameters, startEntry, list, null);
   }
 
+  /**
+   * Matches the rows against all entries of the compiled library. Only the entries within the
+   * precursor m/z window (all entries for MS1) that pass the peak filter of a query scan are
+   * decoded and compared.
+   */
+  public RowsSpectralMatchTask(String description, @Nonnull PeakListRow[] rows,
+      ParameterSet parameters, @Nonnull CompiledSpectralLibrary library) {
+    this(description, rows, parameters, 1, Collections.emptyList(), null);
+    this.library = library;
+    listsize = library.getNumOfEntries();
+  }
+
   public RowsSpectralMatchTask(String description, @Nonnull PeakListRow[] rows,
       ParameterSet parameters, int startEntry, List<SpectralDBEntry> list,
       Consumer<SpectralDBPeakIdentity> matchListener) {
+    super(null, "rows", 0, rows.length);
     this.description = description;
     this.rows = rows;
     this.parameters = parameters;
@@ -129,6 +149,8 @@ public class RowsSpectralMatchTask extends AbstractTask {
     minMatch = parameters.getParameter(LocalSpectralDBSearchParameters.minMatch).getValue();
     simFunction =
         parameters.getParameter(LocalSpectralDBSearchParameters.similarityFunction).getValue();
+    kernel = simFunction.getModule().createKernel(simFunction.getParameterSet(),
+        mzToleranceSpectra, minMatch);
     needsIsotopePattern =
         parameters.getParameter(LocalSpectralDBSearchParameters.needsIsotopePattern).getValue();
     minMatchedIsoSignals = !needsIsotopePattern ? 0
@@ -147,18 +169,6 @@ public class RowsSpectralMatchTask extends AbstractTask {
       mzTolerancePrecursor = null;
 
     allMS2Scans = parameters.getParameter(LocalSpectralDBSearchParameters.allMS2Spectra).getValue();
-
-    totalRows = rows.length;
-  }
-
-  /**
-   * @see net.sf.mzmine.taskcontrol.Task#getFinishedPercentage()
-   */
-  @Override
-  public double getFinishedPercentage() {
-    if (totalRows == 0)
-      return 0;
-    return ((double) finishedRows) / totalRows;
   }
 
   /**
@@ -171,69 +181,47 @@ public class RowsSpectralMatchTask extends AbstractTask {
         dataBaseFile.getName(), startEntry, startEntry + listsize - 1);
   }
 
-  /**
-   * @see java.lang.Runnable#run()
-   */
   @Override
-  public void run() {
-    setStatus(TaskStatus.PROCESSING);
-    for (PeakListRow row : rows) {
-      if (isCanceled()) {
-        logger.info("Added " + count + " spectral library matches (before being cancelled)");
-        repaintWindow();
-        return;
+  protected void process(int index) {
+    final PeakListRow row = rows[index];
+    try {
+      // All MS2 or only best MS2 scan
+      // best MS1 scan
+      // check for MS1 or MSMS scan
+      List<Scan> scans = getScans(row);
+      List<DataPoint[]> rowMassLists = new ArrayList<>();
+      for (Scan scan : scans) {
+        // get mass list and perform deisotoping if active
+        DataPoint[] rowMassList = getDataPoints(scan, true);
+        if (removeIsotopes)
+          rowMassList = removeIsotopes(rowMassList);
+        rowMassLists.add(rowMassList);
       }
 
-      try {
-        // All MS2 or only best MS2 scan
-        // best MS1 scan
-        // check for MS1 or MSMS scan
-        List<Scan> scans = getScans(row);
-        List<DataPoint[]> rowMassLists = new ArrayList<>();
-        for (Scan scan : scans) {
-          // get mass list and perform deisotoping if active
-          DataPoint[] rowMassList = getDataPoints(scan, true);
-          if (removeIsotopes)
-            rowMassList = removeIsotopes(rowMassList);
-          rowMassLists.add(rowMassList);
-        }
-
-        // match against all library entries
-        for (SpectralDBEntry ident : list) {
-          SpectralDBPeakIdentity best = null;
-          // match all scans against this ident to find best match
-          for (int i = 0; i < scans.size(); i++) {
-            SpectralSimilarity sim = spectraDBMatch(row, rowMassLists.get(i), ident);
-            if (sim != null
-                && (!needsIsotopePattern || SpectralMatchTask.checkForIsotopePattern(sim,
-                    mzToleranceSpectra, minMatchedIsoSignals))
-                && (best == null || best.getSimilarity().getScore() < sim.getScore())) {
-              best = new SpectralDBPeakIdentity(scans.get(i), massListName, ident, sim, METHOD);
-            }
-          }
-          // has match?
-          if (best != null) {
-            addIdentity(row, best);
-            count++;
-          }
-        }
-        // sort identities based on similarity score
-        SortSpectralDBIdentitiesTask.sortIdentities(row);
-      } catch (MissingMassListException e) {
-        logger.log(Level.WARNING, "No mass list in spectrum for rowID=" + row.getID(), e);
-        errorCounter++;
-      }
-      // check for max error (missing masslist)
-      if (errorCounter > MAX_ERROR) {
-        logger.log(Level.WARNING, "Data base matching failed. To many missing mass lists ");
-        setStatus(TaskStatus.ERROR);
-        setErrorMessage("Data base matching failed. To many missing mass lists ");
-        list = null;
-        return;
+      // match against all library entries
+      if (library != null)
+        matchCompiledLibrary(row, scans, rowMassLists);
+      else {
+        for (SpectralDBEntry ident : list)
+          matchEntry(row, scans, rowMassLists, ident);
       }
-      // next row
-      finishedRows++;
+      // sort identities based on similarity score
+      SortSpectralDBIdentitiesTask.sortIdentities(row);
+    } catch (MissingMassListException e) {
+      logger.log(Level.WARNING, "No mass list in spectrum for rowID=" + row.getID(), e);
+      errorCounter++;
+    }
+    // check for max error (missing masslist)
+    if (errorCounter > MAX_ERROR) {
+      logger.log(Level.WARNING, "Data base matching failed. To many missing mass lists ");
+      setErrorMessage("Data base matching failed. To many missing mass lists ");
+      setStatus(TaskStatus.ERROR);
+      list = null;
     }
+  }
+
+  @Override
+  protected void finishRange() {
     if (count > 0)
       logger.info("Added " + count + " spectral library matches");
 
@@ -241,8 +229,65 @@ public class RowsSpectralMatchTask extends AbstractTask {
     repaintWindow();
 
     list = null;
+  }
 
-    setStatus(TaskStatus.FINISHED);
+  /**
+   * Matches all scans of the row against the library entry and adds the best match
+   */
+  private void matchEntry(PeakListRow row, List<Scan> scans, List<DataPoint[]> rowMassLists,
+      SpectralDBEntry ident) {
+    SpectralDBPeakIdentity best = null;
+    // match all scans against this ident to find best match
+    for (int i = 0; i < scans.size(); i++) {
+      SpectralSimilarity sim = spectraDBMatch(row, rowMassLists.get(i), ident);
+      if (sim != null
+          && (!needsIsotopePattern || SpectralMatchTask.checkForIsotopePattern(sim,
+              mzToleranceSpectra, minMatchedIsoSignals))
+          && (best == null || best.getSimilarity().getScore() < sim.getScore())) {
+        best = new SpectralDBPeakIdentity(scans.get(i), massListName, ident, sim, METHOD);
+      }
+    }
+    // has match?
+    if (best != null) {
+      addIdentity(row, best);
+      count++;
+    }
+  }
+
+  /**
+   * Matches the row against the compiled library. The precursor m/z window is widened to twice
+   * the tolerance, because the tolerance is applied to the library precursor m/z. The similarity
+   * needs at least minMatch matched signals, so entries with less signals within the peak filter of
+   * all scans are skipped without decoding them.
+   */
+  private void matchCompiledLibrary(PeakListRow row, List<Scan> scans,
+      List<DataPoint[]> rowMassLists) {
+    if (scans.isEmpty())
+      return;
+
+    final int candidates[];
+    if (msLevel == 1)
+      candidates = null;
+    else {
+      final double mz = row.getAverageMZ();
+      final double tolerance = 2 * mzTolerancePrecursor.getMzToleranceForMass(mz);
+      candidates = library.getEntryIndexes(Range.closed(mz - tolerance, mz + tolerance));
+    }
+
+    PeakFilter filters[] = new PeakFilter[scans.size()];
+    for (int i = 0; i < filters.length; i++)
+      filters[i] = new PeakFilter(rowMassLists.get(i), mzToleranceSpectra);
+
+    final int numOfCandidates = (candidates == null) ? listsize : candidates.length;
+    for (int c = 0; c < numOfCandidates; c++) {
+      final int index = (candidates == null) ? c : candidates[c];
+      for (PeakFilter filter : filters) {
+        if (library.checkPeakFilter(index, filter, minMatch)) {
+          matchEntry(row, scans, rowMassLists, library.getEntry(index));
+          break;
+        }
+      }
+    }
   }
 
   private void repaintWindow() {
@@ -302,8 +347,7 @@ public class RowsSpectralMatchTask extends AbstractTask {
    * @return positive match with similarity or null if criteria was not met
    */
   private SpectralSimilarity createSimilarity(DataPoint[] library, DataPoint[] query) {
-    return simFunction.getModule().getSimilarity(simFunction.getParameterSet(), mzToleranceSpectra,
-        minMatch, library, query);
+    return kernel.getSimilarity(simFunction.getModule().getName(), library, query);
   }
 
   private boolean checkPrecursorMZ(PeakListRow row, SpectralDBEntry ident) {
@@ -20,6 +20,7 @@ package net.sf.mzmine.modules.peaklistmethods.isotopes.isotopeprediction;
 
 import java.awt.Window;
 import java.util.ArrayList;
+import java.util.Objects;
 import javax.annotation.Nonnull;
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.IsotopePattern;
@@ -31,17 +32,31 @@ import net.sf.mzmine.datamodel.impl.SimpleIsotopePattern;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.modules.MZmineModule;
 import net.sf.mzmine.parameters.ParameterSet;
+import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.SubTaskGroup;
+import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.ExitCode;
 import org.openscience.cdk.formula.IsotopeContainer;
 import org.openscience.cdk.formula.IsotopePatternGenerator;
 import org.openscience.cdk.interfaces.IChemObjectBuilder;
+import org.openscience.cdk.interfaces.IIsotope;
 import org.openscience.cdk.interfaces.IMolecularFormula;
 import org.openscience.cdk.silent.SilentChemObjectBuilder;
 import org.openscience.cdk.tools.manipulator.MolecularFormulaManipulator;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 
 /**
  * The reason why we introduce this as a module, rather than simple utility class, is to remember
  * the parameter values.
+ * 
+ * Predicted isotope patterns are kept in a thread safe cache of limited size (least recently used
+ * patterns are evicted), because the same formulas are predicted many times by formula prediction,
+ * isotope pattern scoring and lipid search. The minimum abundance is part of the cache key, because
+ * the CDK generator prunes and merges isotopes during the prediction depending on it, so a pattern
+ * predicted with a lower minimum abundance and filtered afterwards may differ. Each caller gets a
+ * copy of the cached pattern and may change its data points.
  */
 public class IsotopePatternCalculator implements MZmineModule {
 
@@ -49,6 +64,17 @@ public class IsotopePatternCalculator implements MZmineModule {
 
   private static final String MODULE_NAME = "Isotope pattern prediction.";
 
+  private static final int MAX_CACHED_PATTERNS = 50000;
+
+  // patterns with a lower minimum abundance contain many isotopes and are not cached
+  private static final double MIN_CACHED_ABUNDANCE = 0.001;
+
+  // number of formulas predicted by one sub task of calculateIsotopePatterns()
+  private static final int FORMULAS_PER_SUB_TASK = 100;
+
+  private static final Cache<PatternKey, IsotopePattern> patternCache =
+      CacheBuilder.newBuilder().maximumSize(MAX_CACHED_PATTERNS).recordStats().build();
+
   @Override
   public @Nonnull String getName() {
     return MODULE_NAME;
@@ -89,7 +115,68 @@ public class IsotopePatternCalculator implements MZmineModule {
 
   public static IsotopePattern calculateIsotopePattern(IMolecularFormula cdkFormula,
       double minAbundance, double mergeWidth, int charge, PolarityType polarity,
-      boolean storeFormula) {    
+      boolean storeFormula) {
+
+    if (minAbundance < MIN_CACHED_ABUNDANCE)
+      return predictIsotopePattern(cdkFormula, minAbundance, mergeWidth, charge, polarity,
+          storeFormula);
+
+    PatternKey key = new PatternKey(getFormulaKey(cdkFormula), minAbundance, mergeWidth, charge,
+        polarity, storeFormula);
+    IsotopePattern pattern = patternCache.getIfPresent(key);
+    if (pattern == null) {
+      // concurrent callers may predict the same pattern, the last one is kept
+      pattern = predictIsotopePattern(cdkFormula, minAbundance, mergeWidth, charge, polarity,
+          storeFormula);
+      patternCache.put(key, pattern);
+    }
+    return copyIsotopePattern(pattern);
+  }
+
+  /**
+   * Calculates the isotope patterns of many formulas in parallel sub tasks of the given task.
+   * Cached patterns are reused.
+   * 
+   * @param task the task which runs the calculation, canceling it stops the calculation
+   * @return isotope patterns in the order of the formulas, or null if the task was canceled or a
+   *         sub task failed (the task is then set to error)
+   */
+  public static IsotopePattern[] calculateIsotopePatterns(AbstractTask task,
+      String molecularFormulas[], double minAbundance, double mergeWidth, int charge,
+      PolarityType polarity, boolean storeFormula) {
+
+    final IsotopePattern patterns[] = new IsotopePattern[molecularFormulas.length];
+    final SubTaskGroup<IsotopePatternsTask> subTasks = new SubTaskGroup<>(task);
+    subTasks.submitRanges(molecularFormulas.length, FORMULAS_PER_SUB_TASK,
+        (start, end) -> new IsotopePatternsTask(task, molecularFormulas, patterns, minAbundance,
+            mergeWidth, charge, polarity, storeFormula, start, end));
+    if (!subTasks.join()) {
+      if (!task.isCanceled()) {
+        task.setErrorMessage(subTasks.getErrorMessage());
+        task.setStatus(TaskStatus.ERROR);
+      }
+      return null;
+    }
+    return patterns;
+  }
+
+  /**
+   * @return statistics (hit rate, number of predictions, evictions) of the isotope pattern cache
+   */
+  public static CacheStats getCacheStats() {
+    return patternCache.stats();
+  }
+
+  /**
+   * Removes all cached isotope patterns
+   */
+  public static void clearCache() {
+    patternCache.invalidateAll();
+  }
+
+  private static IsotopePattern predictIsotopePattern(IMolecularFormula cdkFormula,
+      double minAbundance, double mergeWidth, int charge, PolarityType polarity,
+      boolean storeFormula) {
     // TODO: check if the formula is not too big (>100 of a single atom?).
     // if so, just cancel the prediction
 
@@ -135,6 +222,74 @@ public class IsotopePatternCalculator implements MZmineModule {
     else
       return new SimpleIsotopePattern(dataPoints, IsotopePatternStatus.PREDICTED, formulaString);
   }
+
+  /**
+   * Formula of the cache key. The isotopes are listed with their mass numbers, so formulas with
+   * labeled isotopes do not share a pattern with unlabeled ones.
+   */
+  private static String getFormulaKey(IMolecularFormula cdkFormula) {
+    StringBuilder key = new StringBuilder();
+    for (IIsotope isotope : cdkFormula.isotopes()) {
+      if (isotope.getMassNumber() != null)
+        key.append(isotope.getMassNumber());
+      key.append(isotope.getSymbol()).append(cdkFormula.getIsotopeCount(isotope)).append(' ');
+    }
+    return key.toString();
+  }
+
+  /**
+   * Copy of a cached pattern with its own data point (and isotope composition) arrays
+   */
+  private static IsotopePattern copyIsotopePattern(IsotopePattern pattern) {
+    final DataPoint dataPoints[] = pattern.getDataPoints().clone();
+    if (pattern instanceof ExtendedIsotopePattern) {
+      final String isotopeComposition[] =
+          ((ExtendedIsotopePattern) pattern).getIsotopeCompositions();
+      return new ExtendedIsotopePattern(dataPoints, pattern.getStatus(), pattern.getDescription(),
+          isotopeComposition == null ? null : isotopeComposition.clone());
+    }
+    return new SimpleIsotopePattern(dataPoints, pattern.getStatus(), pattern.getDescription());
+  }
+
+  /**
+   * Key of the isotope pattern cache
+   */
+  private static final class PatternKey {
+
+    private final String formula;
+    private final double minAbundance, mergeWidth;
+    private final int charge;
+    private final PolarityType polarity;
+    private final boolean storeFormula;
+
+    PatternKey(String formula, double minAbundance, double mergeWidth, int charge,
+        PolarityType polarity, boolean storeFormula) {
+      this.formula = formula;
+      this.minAbundance = minAbundance;
+      this.mergeWidth = mergeWidth;
+      this.charge = charge;
+      this.polarity = polarity;
+      this.storeFormula = storeFormula;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj)
+        return true;
+      if (!(obj instanceof PatternKey))
+        return false;
+      PatternKey other = (PatternKey) obj;
+      return formula.equals(other.formula)
+          && Double.compare(minAbundance, other.minAbundance) == 0
+          && Double.compare(mergeWidth, other.mergeWidth) == 0 && charge == other.charge
+          && polarity == other.polarity && storeFormula == other.storeFormula;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(formula, minAbundance, mergeWidth, charge, polarity, storeFormula);
+    }
+  }
   
   public static IsotopePattern removeDataPointsBelowIntensity(IsotopePattern pattern, double minIntensity) {
     
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package net.sf.mzmine.modules.peaklistmethods.isotopes.isotopeprediction;
+
+import net.sf.mzmine.datamodel.IsotopePattern;
+import net.sf.mzmine.datamodel.PolarityType;
+import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.RangeSubTask;
+
+/**
+ * Sub task of IsotopePatternCalculator.calculateIsotopePatterns(), calculates the isotope patterns
+ * of a range of formulas
+ */
+class IsotopePatternsTask extends RangeSubTask {
+
+  private final String molecularFormulas[];
+  private final IsotopePattern patterns[];
+  private final double minAbundance, mergeWidth;
+  private final int charge;
+  private final PolarityType polarity;
+  private final boolean storeFormula;
+
+  /**
+   * @param patterns receives the isotope pattern of each formula
+   * @param start first formula to calculate
+   * @param end end (exclusive) of the formulas to calculate
+   */
+  IsotopePatternsTask(AbstractTask parentTask, String molecularFormulas[],
+      IsotopePattern patterns[], double minAbundance, double mergeWidth, int charge,
+      PolarityType polarity, boolean storeFormula, int start, int end) {
+    super(parentTask, "formulas", start, end);
+    this.molecularFormulas = molecularFormulas;
+    this.patterns = patterns;
+    this.minAbundance = minAbundance;
+    this.mergeWidth = mergeWidth;
+    this.charge = charge;
+    this.polarity = polarity;
+    this.storeFormula = storeFormula;
+  }
+
+  @Override
+  protected void process(int index) {
+    patterns[index] = IsotopePatternCalculator.calculateIsotopePattern(molecularFormulas[index],
+        minAbundance, mergeWidth, charge, polarity, storeFormula);
+  }
+
+}
@@ -24,7 +24,7 @@ import javax.annotation.Nonnull;
 import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.modules.MZmineModuleCategory;
-import net.sf.mzmine.modules.MZmineProcessingModule;
+import net.sf.mzmine.modules.MZminePerFileProcessingModule;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.taskcontrol.Task;
 import net.sf.mzmine.util.ExitCode;
@@ -32,7 +32,7 @@ import net.sf.mzmine.util.maths.CenterFunction;
 import net.sf.mzmine.util.maths.CenterMeasure;
 import net.sf.mzmine.util.maths.Weighting;
 
-public class DeconvolutionModule implements MZmineProcessingModule {
+public class DeconvolutionModule implements MZminePerFileProcessingModule {
 
   private static final String MODULE_NAME = "Chromatogram deconvolution";
   private static final String MODULE_DESCRIPTION =
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.peakpicking.deconvolution;
+
+import net.sf.mzmine.datamodel.PeakListRow;
+import net.sf.mzmine.taskcontrol.RangeSubTask;
+import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.R.RSessionWrapper;
+import net.sf.mzmine.util.R.RSessionWrapperException;
+
+/**
+ * Sub task of the DeconvolutionTask, resolves the chromatograms of a range of rows. If the resolver
+ * requires R, the sub task opens its own R session.
+ */
+class DeconvolutionRowsTask extends RangeSubTask {
+
+  private final DeconvolutionTask deconvolutionTask;
+  private final PeakListRow rows[];
+  private final ResolvedPeak resolvedPeaks[][];
+
+  private volatile RSessionWrapper rSession;
+
+  /**
+   * @param resolvedPeaks receives the resolved peaks of each row
+   * @param start first row to resolve
+   * @param end end (exclusive) of the rows to resolve
+   */
+  DeconvolutionRowsTask(DeconvolutionTask deconvolutionTask, PeakListRow rows[],
+      ResolvedPeak resolvedPeaks[][], int start, int end) {
+    super(deconvolutionTask, "rows", start, end);
+    this.deconvolutionTask = deconvolutionTask;
+    this.rows = rows;
+    this.resolvedPeaks = resolvedPeaks;
+  }
+
+  @Override
+  protected void startRange() throws RSessionWrapperException {
+    rSession = deconvolutionTask.openRSession();
+  }
+
+  @Override
+  protected void process(int index) throws RSessionWrapperException {
+    resolvedPeaks[index] = deconvolutionTask.resolveChromatogram(rows[index], rSession);
+  }
+
+  @Override
+  protected void finishRange() throws RSessionWrapperException {
+    // Turn off R instance.
+    if (rSession != null)
+      rSession.close(false);
+  }
+
+  @Override
+  protected void handleError(Exception e) {
+    closeRSessionAfterError();
+    if (e instanceof RSessionWrapperException)
+      setErrorMessage("'R computing error' during CentWave detection. \n" + e.getMessage());
+    else
+      setErrorMessage("'Unknown error' during CentWave detection. \n" + e.getMessage());
+    setStatus(TaskStatus.ERROR);
+  }
+
+  /**
+   * Turns off the R instance, once the task ended ungracefully
+   */
+  private void closeRSessionAfterError() {
+    try {
+      if ((rSession != null) && !isCanceled())
+        rSession.close(false);
+    } catch (RSessionWrapperException e) {
+      // The error which made the task fail is reported
+    }
+  }
+
+  @Override
+  public void cancel() {
+
+    super.cancel();
+    // Turn off R instance, if already existing.
+    try {
+      RSessionWrapper currentSession = rSession;
+      if (currentSession != null)
+        currentSession.close(true);
+    } catch (RSessionWrapperException e) {
+      // Silent, always...
+    }
+  }
+
+}
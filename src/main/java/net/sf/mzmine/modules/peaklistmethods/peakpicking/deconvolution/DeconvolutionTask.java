@@ -38,31 +38,38 @@ import net.sf.mzmine.modules.MZmineProcessingStep;
 import net.sf.mzmine.modules.peaklistmethods.qualityparameters.QualityParameters;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.SubTaskGroup;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.R.REngineType;
 import net.sf.mzmine.util.R.RSessionWrapper;
 import net.sf.mzmine.util.R.RSessionWrapperException;
 import net.sf.mzmine.util.maths.CenterFunction;
 
+/**
+ * Resolves the chromatograms of a feature list into peaks. The chromatograms are resolved in
+ * parallel by DeconvolutionRowsTask sub tasks, each of them has its own R session if the resolver
+ * requires R. The resolved peaks are added to the new feature list in the order of the
+ * chromatograms, so the result does not depend on the order in which the sub tasks finish.
+ */
 public class DeconvolutionTask extends AbstractTask {
 
   // Logger.
   private static final Logger LOG = Logger.getLogger(DeconvolutionTask.class.getName());
 
+  // Number of chromatograms resolved by one sub task, if the resolver does not require R
+  private static final int ROWS_PER_SUB_TASK = 100;
+
   // Feature lists.
   private final MZmineProject project;
   private final PeakList originalPeakList;
   private PeakList newPeakList;
 
-  // Counters.
-  private int processedRows;
-  private int totalRows;
-
   // User parameters
   private final ParameterSet parameters;
 
-  private RSessionWrapper rSession;
-  private String errorMsg;
+  private MZmineProcessingStep<PeakResolver> resolver;
+  private RawDataFile dataFile;
+  private SubTaskGroup<DeconvolutionRowsTask> subTasks;
   private boolean setMSMSRange, setMSMSRT;
   private double msmsRange, RTRangeMSMS;
 
@@ -83,8 +90,6 @@ public class DeconvolutionTask extends AbstractTask {
     parameters = parameterSet;
     originalPeakList = list;
     newPeakList = null;
-    processedRows = 0;
-    totalRows = 0;
     this.mzCenterFunction = mzCenterFunction;
   }
 
@@ -97,14 +102,14 @@ public class DeconvolutionTask extends AbstractTask {
   @Override
   public double getFinishedPercentage() {
 
-    return totalRows == 0 ? 0.0 : (double) processedRows / (double) totalRows;
+    if (subTasks == null)
+      return 0.0;
+    return subTasks.getFinishedPercentage();
   }
 
   @Override
   public void run() {
 
-    errorMsg = null;
-
     if (!isCanceled()) {
 
       setStatus(TaskStatus.PROCESSING);
@@ -121,30 +126,10 @@ public class DeconvolutionTask extends AbstractTask {
 
         try {
 
-          // Peak resolver.
-          final MZmineProcessingStep<PeakResolver> resolver =
-              parameters.getParameter(PEAK_RESOLVER).getValue();
-
-          if (resolver.getModule().getRequiresR()) {
-            // Check R availability, by trying to open the
-            // connection.
-            String[] reqPackages = resolver.getModule().getRequiredRPackages();
-            String[] reqPackagesVersions = resolver.getModule().getRequiredRPackagesVersions();
-            String callerFeatureName = resolver.getModule().getName();
-
-            REngineType rEngineType =
-                resolver.getModule().getREngineType(resolver.getParameterSet());
-            this.rSession = new RSessionWrapper(rEngineType, callerFeatureName, reqPackages,
-                reqPackagesVersions);
-            this.rSession.open();
-          } else {
-            this.rSession = null;
-          }
-
           // Deconvolve peaks.
-          newPeakList = resolvePeaks(originalPeakList, this.rSession);
+          newPeakList = resolvePeaks(originalPeakList);
 
-          if (!isCanceled()) {
+          if ((newPeakList != null) && !isCanceled()) {
 
             // Add new peaklist to the project.
             project.addPeakList(newPeakList);
@@ -160,41 +145,13 @@ public class DeconvolutionTask extends AbstractTask {
             setStatus(TaskStatus.FINISHED);
             LOG.info("Finished peak recognition on " + originalPeakList);
           }
-          // Turn off R instance.
-          if (this.rSession != null)
-            this.rSession.close(false);
-
-        } catch (RSessionWrapperException e) {
-          errorMsg = "'R computing error' during CentWave detection. \n" + e.getMessage();
-        } catch (Exception e) {
-          errorMsg = "'Unknown error' during CentWave detection. \n" + e.getMessage();
+
         } catch (Throwable t) {
 
           setStatus(TaskStatus.ERROR);
           setErrorMessage(t.getMessage());
           LOG.log(Level.SEVERE, "Peak deconvolution error", t);
         }
-
-        // Turn off R instance, once task ended UNgracefully.
-        try {
-          if (this.rSession != null && !isCanceled())
-            rSession.close(isCanceled());
-        } catch (RSessionWrapperException e) {
-          if (!isCanceled()) {
-            // Do not override potential previous error message.
-            if (errorMsg == null) {
-              errorMsg = e.getMessage();
-            }
-          } else {
-            // User canceled: Silent.
-          }
-        }
-
-        // Report error.
-        if (errorMsg != null) {
-          setErrorMessage(errorMsg);
-          setStatus(TaskStatus.ERROR);
-        }
       }
     }
   }
@@ -203,19 +160,16 @@ public class DeconvolutionTask extends AbstractTask {
    * Deconvolve a chromatogram into separate peaks.
    * 
    * @param peakList holds the chromatogram to deconvolve.
-   * @param mzCenterFunction2
-   * @return a new feature list holding the resolved peaks.
-   * @throws RSessionWrapperException
+   * @return a new feature list holding the resolved peaks, or null if a sub task failed or this
+   *         task was canceled.
    */
-  private PeakList resolvePeaks(final PeakList peakList, RSessionWrapper rSession)
-      throws RSessionWrapperException {
+  private PeakList resolvePeaks(final PeakList peakList) {
 
     // Get data file information.
-    final RawDataFile dataFile = peakList.getRawDataFile(0);
+    dataFile = peakList.getRawDataFile(0);
 
     // Peak resolver.
-    final MZmineProcessingStep<PeakResolver> resolver =
-        parameters.getParameter(PEAK_RESOLVER).getValue();
+    resolver = parameters.getParameter(PEAK_RESOLVER).getValue();
     // set msms pairing range
     this.setMSMSRange = parameters.getParameter(mzRangeMSMS).getValue();
     if (setMSMSRange)
@@ -244,27 +198,37 @@ public class DeconvolutionTask extends AbstractTask {
     resolvedPeaks.addDescriptionOfAppliedTask(new SimplePeakListAppliedMethod(
         "Peak deconvolution by " + resolver, resolver.getParameterSet()));
 
-    // Initialise counters.
-    processedRows = 0;
-    totalRows = peakList.getNumberOfRows();
-    int peakId = 1;
-
-    // Process each chromatogram.
+    // Resolve the chromatograms in parallel. Each R session is opened and used by one sub task
+    // only, so resolvers which require R get one sub task per processor.
     final PeakListRow[] peakListRows = peakList.getRows();
     final int chromatogramCount = peakListRows.length;
-    for (int index = 0; !isCanceled() && index < chromatogramCount; index++) {
+    final ResolvedPeak[][] resolvedPeakArrays = new ResolvedPeak[chromatogramCount][];
+    final int rowsPerSubTask;
+    if (resolver.getModule().getRequiresR()) {
+      final int numOfProcessors = Runtime.getRuntime().availableProcessors();
+      rowsPerSubTask = Math.max(1, (chromatogramCount + numOfProcessors - 1) / numOfProcessors);
+    } else {
+      rowsPerSubTask = ROWS_PER_SUB_TASK;
+    }
 
-      final PeakListRow currentRow = peakListRows[index];
-      final Feature chromatogram = currentRow.getPeak(dataFile);
+    subTasks = new SubTaskGroup<>(this);
+    subTasks.submitRanges(chromatogramCount, rowsPerSubTask,
+        (start, end) -> new DeconvolutionRowsTask(this, peakListRows, resolvedPeakArrays, start,
+            end));
+    if (!subTasks.join()) {
+      if (isCanceled())
+        return null;
+      setStatus(TaskStatus.ERROR);
+      setErrorMessage(subTasks.getErrorMessage());
+      return null;
+    }
 
-      // Resolve peaks.
-      final PeakResolver resolverModule = resolver.getModule();
-      final ParameterSet resolverParams = resolver.getParameterSet();
-      final ResolvedPeak[] peaks = resolverModule.resolvePeaks(chromatogram, resolverParams, rSession,
-          mzCenterFunction, msmsRange, RTRangeMSMS);
+    // Add peaks to the new feature list, in the order of the chromatograms.
+    int peakId = 1;
+    for (int index = 0; !isCanceled() && index < chromatogramCount; index++) {
 
-      // Add peaks to the new feature list.
-      for (final ResolvedPeak peak : peaks) {
+      final PeakListRow currentRow = peakListRows[index];
+      for (final ResolvedPeak peak : resolvedPeakArrays[index]) {
 
         peak.setParentChromatogramRowID(currentRow.getID());
 
@@ -273,23 +237,40 @@ public class DeconvolutionTask extends AbstractTask {
         newRow.setPeakInformation(peak.getPeakInformation());
         resolvedPeaks.addRow(newRow);
       }
-
-      processedRows++;
     }
 
     return resolvedPeaks;
   }
 
-  @Override
-  public void cancel() {
-
-    super.cancel();
-    // Turn off R instance, if already existing.
-    try {
-      if (this.rSession != null)
-        this.rSession.close(true);
-    } catch (RSessionWrapperException e) {
-      // Silent, always...
-    }
+  /**
+   * Opens an R session for the resolver, if it requires R.
+   *
+   * @return the opened session, or null if the resolver does not require R
+   */
+  RSessionWrapper openRSession() throws RSessionWrapperException {
+
+    if (!resolver.getModule().getRequiresR())
+      return null;
+
+    String[] reqPackages = resolver.getModule().getRequiredRPackages();
+    String[] reqPackagesVersions = resolver.getModule().getRequiredRPackagesVersions();
+    String callerFeatureName = resolver.getModule().getName();
+
+    REngineType rEngineType = resolver.getModule().getREngineType(resolver.getParameterSet());
+    RSessionWrapper rSession =
+        new RSessionWrapper(rEngineType, callerFeatureName, reqPackages, reqPackagesVersions);
+    rSession.open();
+    return rSession;
+  }
+
+  /**
+   * Resolves the chromatogram of the row into peaks.
+   */
+  ResolvedPeak[] resolveChromatogram(final PeakListRow row, final RSessionWrapper rSession)
+      throws RSessionWrapperException {
+
+    final Feature chromatogram = row.getPeak(dataFile);
+    return resolver.getModule().resolvePeaks(chromatogram, resolver.getParameterSet(), rSession,
+        mzCenterFunction, msmsRange, RTRangeMSMS);
   }
 }
@@ -201,25 +201,10 @@ public class CentWaveDetector implements PeakResolver {
 
     final double[][] peaks;
 
-    // Set vectors.
-    rSession.assign("scantime", scanTime);
-    rSession.assign("intensity", intensity);
-
-    // Initialize.
-    rSession.eval("mz <- " + mz);
-    rSession.eval("numPoints <- length(intensity)");
-
-    // Construct xcmsRaw object
-    rSession.eval("xRaw <- new(\"xcmsRaw\")");
-    rSession.eval("xRaw@tic <- intensity");
-    rSession.eval("xRaw@scantime <- scantime * " + SECONDS_PER_MINUTE);
-    rSession.eval("xRaw@scanindex <- 0:(numPoints-1)");
-    rSession.eval("xRaw@env$mz <- rep(mz, numPoints)");
-    rSession.eval("xRaw@env$intensity <- intensity");
-
-    // Construct ROIs.
-    rSession.eval("ROIs <- list()");
-    int roi = 1;
+    // Find the ROIs (1-based scan ranges of the non-zero sections).
+    final double[] roiStarts = new double[intensity.length];
+    final double[] roiEnds = new double[intensity.length];
+    int numOfROIs = 0;
     for (int start = 0; start < intensity.length; start++) {
 
       // Found non-zero section.
@@ -232,17 +217,38 @@ public class CentWaveDetector implements PeakResolver {
           end++;
         }
 
-        // Add ROI to list.
-        rSession.eval("ROIs[[" + roi + "]] <- list('scmin'=" + (start + 1) + ", 'scmax'=" + end
-            + ", 'mzmin'=mz, 'mzmax'=mz)");
+        roiStarts[numOfROIs] = start + 1;
+        roiEnds[numOfROIs] = end;
 
         // Next ROI.
         start = end;
-        roi++;
+        numOfROIs++;
 
       }
     }
 
+    // Without ROIs, findPeaks.centWave finds no peaks.
+    if (numOfROIs == 0)
+      return null;
+
+    // Set vectors.
+    rSession.assign("scantime", scanTime);
+    rSession.assign("intensity", intensity);
+    rSession.assign("roiStarts", Arrays.copyOf(roiStarts, numOfROIs));
+    rSession.assign("roiEnds", Arrays.copyOf(roiEnds, numOfROIs));
+
+    // Initialize, construct xcmsRaw object and ROIs in one evaluation, each evaluation is a round
+    // trip to Rserve.
+    rSession.eval("{ mz <- " + mz + "; numPoints <- length(intensity); " //
+        + "xRaw <- new(\"xcmsRaw\"); " //
+        + "xRaw@tic <- intensity; " //
+        + "xRaw@scantime <- scantime * " + SECONDS_PER_MINUTE + "; " //
+        + "xRaw@scanindex <- 0:(numPoints-1); " //
+        + "xRaw@env$mz <- rep(mz, numPoints); " //
+        + "xRaw@env$intensity <- intensity; " //
+        + "ROIs <- lapply(seq_along(roiStarts), function(i) list('scmin'=roiStarts[i], "
+        + "'scmax'=roiEnds[i], 'mzmin'=mz, 'mzmax'=mz)) }");
+
     // Do peak picking.
     rSession.eval("mtx <- findPeaks.centWave(xRaw, ppm=0, mzdiff=0, verbose=TRUE" + ", peakwidth=c("
         + peakWidth.lowerEndpoint() * SECONDS_PER_MINUTE + ", "
@@ -253,7 +259,7 @@ public class CentWaveDetector implements PeakResolver {
     rSession.eval("mtx[is.na(mtx)] <- " + RSessionWrapper.NA_DOUBLE); // + "0");//
 
 
-    final Object centWave = roi <= 1 ? null : (double[][]) rSession.collect("mtx", false);
+    final Object centWave = (double[][]) rSession.collect("mtx", false);
 
     // Done: Refresh R code stack
     rSession.clearCode();
@@ -31,7 +31,7 @@ import javax.annotation.Nonnull;
 import net.sf.mzmine.datamodel.MZmineProject;
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.modules.MZmineModuleCategory;
-import net.sf.mzmine.modules.MZmineProcessingModule;
+import net.sf.mzmine.modules.MZminePerFileProcessingModule;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.taskcontrol.Task;
 import net.sf.mzmine.util.ExitCode;
@@ -41,7 +41,7 @@ import net.sf.mzmine.util.ExitCode;
  * 
  * @version $Revision$
  */
-public class SmoothingModule implements MZmineProcessingModule {
+public class SmoothingModule implements MZminePerFileProcessingModule {
 
   private static final String MODULE_NAME = "Smoothing";
   private static final String MODULE_DESCRIPTION =
@@ -21,7 +21,6 @@ package net.sf.mzmine.modules.projectmethods.projectload.version_2_0;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.TreeMap;
 import java.util.logging.Logger;
 
 import javax.xml.parsers.ParserConfigurationException;
@@ -33,6 +32,7 @@ import net.sf.mzmine.datamodel.PolarityType;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.modules.projectmethods.projectload.RawDataFileOpenHandler;
+import net.sf.mzmine.project.impl.DataPointsCodec;
 import net.sf.mzmine.project.impl.RawDataFileImpl;
 import net.sf.mzmine.project.impl.StorableScan;
 
@@ -76,6 +76,7 @@ public class RawDataFileOpenHandler_2_0 extends DefaultHandler implements RawDat
 
     newRawDataFile = (RawDataFileImpl) MZmineCore.createNewFile(null);
     newRawDataFile.openDataPointsFile(scansFile);
+    newRawDataFile.setDataPointsCodec(DataPointsCodec.NONE);
 
     // Reads the XML file (raw data description)
     SAXParserFactory factory = SAXParserFactory.newInstance();
@@ -183,20 +184,14 @@ public class RawDataFileOpenHandler_2_0 extends DefaultHandler implements RawDat
     if (qName.equals(RawDataElementName_2_0.SCAN.getElementName())) {
 
       try {
-        int newStorageID = 1;
-        TreeMap<Integer, Long> dataPointsOffsets = newRawDataFile.getDataPointsOffsets();
-        TreeMap<Integer, Integer> dataPointsLengths = newRawDataFile.getDataPointsLengths();
-        if (!dataPointsOffsets.isEmpty())
-          newStorageID = dataPointsOffsets.lastKey().intValue() + 1;
+        final int newStorageID =
+            newRawDataFile.addStoredDataPoints(storageFileOffset, dataPointsNumber);
 
         StorableScan storableScan = new StorableScan(newRawDataFile, newStorageID, dataPointsNumber,
             scanNumber, msLevel, retentionTime, precursorMZ, precursorCharge, fragmentScan,
             spectrumType, PolarityType.UNKNOWN, "", null);
         newRawDataFile.addScan(storableScan);
 
-        dataPointsOffsets.put(newStorageID, storageFileOffset);
-        dataPointsLengths.put(newStorageID, dataPointsNumber);
-
       } catch (IOException e) {
         throw new SAXException(e);
       }
@@ -22,7 +22,6 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.TreeMap;
 import java.util.logging.Logger;
 
 import javax.xml.parsers.ParserConfigurationException;
@@ -39,6 +38,7 @@ import net.sf.mzmine.datamodel.PolarityType;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.modules.projectmethods.projectload.RawDataFileOpenHandler;
+import net.sf.mzmine.project.impl.DataPointsCodec;
 import net.sf.mzmine.project.impl.RawDataFileImpl;
 import net.sf.mzmine.project.impl.StorableMassList;
 import net.sf.mzmine.project.impl.StorableScan;
@@ -62,8 +62,7 @@ public class RawDataFileOpenHandler_2_5 extends DefaultHandler implements RawDat
   private int currentStorageID;
   private int storedDataID;
   private int storedDataNumDP;
-  private TreeMap<Integer, Long> dataPointsOffsets;
-  private TreeMap<Integer, Integer> dataPointsLengths;
+  private int storedDataNumBytes;
   private ArrayList<StorableMassList> massLists;
   private PolarityType polarity = PolarityType.UNKNOWN;
   private String scanDescription = "";
@@ -88,8 +87,8 @@ public class RawDataFileOpenHandler_2_5 extends DefaultHandler implements RawDat
     newRawDataFile = (RawDataFileImpl) MZmineCore.createNewFile(null);
     newRawDataFile.openDataPointsFile(scansFile);
 
-    dataPointsOffsets = newRawDataFile.getDataPointsOffsets();
-    dataPointsLengths = newRawDataFile.getDataPointsLengths();
+    // Projects saved before the codec was recorded contain unencoded data points
+    newRawDataFile.setDataPointsCodec(DataPointsCodec.NONE);
 
     // Reads the XML file (raw data description)
     SAXParserFactory factory = SAXParserFactory.newInstance();
@@ -133,11 +132,25 @@ public class RawDataFileOpenHandler_2_5 extends DefaultHandler implements RawDat
           Integer.parseInt(attrs.getValue(RawDataElementName_2_5.STORAGE_ID.getElementName()));
     }
 
+    if (qName.equals(RawDataElementName_2_5.STORED_DATAPOINTS.getElementName())) {
+      String codec = attrs.getValue(RawDataElementName_2_5.CODEC.getElementName());
+      if (codec != null) {
+        try {
+          newRawDataFile.setDataPointsCodec(DataPointsCodec.valueOf(codec));
+        } catch (IllegalArgumentException e) {
+          throw new SAXException("Unknown data points codec " + codec);
+        }
+      }
+    }
+
     if (qName.equals(RawDataElementName_2_5.STORED_DATA.getElementName())) {
       storedDataID =
           Integer.parseInt(attrs.getValue(RawDataElementName_2_5.STORAGE_ID.getElementName()));
       storedDataNumDP = Integer
           .parseInt(attrs.getValue(RawDataElementName_2_5.QUANTITY_DATAPOINTS.getElementName()));
+      String numBytes = attrs.getValue(RawDataElementName_2_5.QUANTITY_BYTES.getElementName());
+      storedDataNumBytes =
+          (numBytes != null) ? Integer.parseInt(numBytes) : storedDataNumDP * 2 * 4;
     }
 
     if (qName.equals(RawDataElementName_2_5.MASS_LIST.getElementName())) {
@@ -178,8 +191,8 @@ public class RawDataFileOpenHandler_2_5 extends DefaultHandler implements RawDat
 
     if (qName.equals(RawDataElementName_2_5.STORED_DATA.getElementName())) {
       long offset = Long.parseLong(getTextOfElement());
-      dataPointsOffsets.put(storedDataID, offset);
-      dataPointsLengths.put(storedDataID, storedDataNumDP);
+      newRawDataFile.setStoredDataPoints(storedDataID, offset, storedDataNumDP,
+          storedDataNumBytes);
     }
 
     if (qName.equals(RawDataElementName_2_5.MS_LEVEL.getElementName())) {
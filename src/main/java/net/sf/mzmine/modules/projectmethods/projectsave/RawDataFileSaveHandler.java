@@ -21,8 +21,6 @@ package net.sf.mzmine.modules.projectmethods.projectsave;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
-import java.util.Map;
-import java.util.TreeMap;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -51,9 +49,10 @@ class RawDataFileSaveHandler {
   private int numOfScans, completedScans;
   private ZipOutputStream zipOutputStream;
   private boolean canceled = false;
-  private Map<Integer, Long> dataPointsOffsets;
-  private Map<Integer, Long> consolidatedDataPointsOffsets;
-  private Map<Integer, Integer> dataPointsLengths;
+  private int storageIDs[];
+  private long consolidatedDataPointsOffsets[];
+  private int dataPointsLengths[];
+  private int dataPointsBytes[];
   private double progress = 0;
 
   RawDataFileSaveHandler(ZipOutputStream zipOutputStream) {
@@ -77,9 +76,10 @@ class RawDataFileSaveHandler {
     numOfScans = rawDataFile.getNumOfScans();
 
     // Get the structure of the data points file
-    dataPointsOffsets = rawDataFile.getDataPointsOffsets();
-    dataPointsLengths = rawDataFile.getDataPointsLengths();
-    consolidatedDataPointsOffsets = new TreeMap<Integer, Long>();
+    storageIDs = rawDataFile.getStorageIDs();
+    dataPointsLengths = new int[storageIDs.length];
+    dataPointsBytes = new int[storageIDs.length];
+    consolidatedDataPointsOffsets = new long[storageIDs.length];
 
     // step 1 - save data file
     logger.info("Saving data points of: " + rawDataFile.getName());
@@ -94,16 +94,18 @@ class RawDataFileSaveHandler {
     long newOffset = 0;
     byte buffer[] = new byte[1 << 20];
     RandomAccessFile dataPointsFile = rawDataFile.getDataPointsFile();
-    for (Integer storageID : dataPointsOffsets.keySet()) {
+    for (int i = 0; i < storageIDs.length; i++) {
 
       if (canceled)
         return;
 
-      final long offset = dataPointsOffsets.get(storageID);
+      final long offset = rawDataFile.getStoredDataPointsOffset(storageIDs[i]);
       dataPointsFile.seek(offset);
 
-      final int bytes = dataPointsLengths.get(storageID) * 4 * 2;
-      consolidatedDataPointsOffsets.put(storageID, newOffset);
+      dataPointsLengths[i] = rawDataFile.getNumOfStoredDataPoints(storageIDs[i]);
+      final int bytes = rawDataFile.getStoredDataPointsSize(storageIDs[i]);
+      dataPointsBytes[i] = bytes;
+      consolidatedDataPointsOffsets[i] = newOffset;
       if (buffer.length < bytes) {
         buffer = new byte[bytes * 2];
       }
@@ -158,18 +160,23 @@ class RawDataFileSaveHandler {
 
     // <STORED_DATAPOINTS>
     atts.addAttribute("", "", RawDataElementName.QUANTITY.getElementName(), "CDATA",
-        String.valueOf(dataPointsOffsets.size()));
+        String.valueOf(storageIDs.length));
+    atts.addAttribute("", "", RawDataElementName.CODEC.getElementName(), "CDATA",
+        rawDataFile.getDataPointsCodec().name());
     hd.startElement("", "", RawDataElementName.STORED_DATAPOINTS.getElementName(), atts);
     atts.clear();
-    for (Integer storageID : dataPointsOffsets.keySet()) {
+    for (int i = 0; i < storageIDs.length; i++) {
       if (canceled)
         return;
-      int length = dataPointsLengths.get(storageID);
-      long offset = consolidatedDataPointsOffsets.get(storageID);
+      int storageID = storageIDs[i];
+      int length = dataPointsLengths[i];
+      long offset = consolidatedDataPointsOffsets[i];
       atts.addAttribute("", "", RawDataElementName.STORAGE_ID.getElementName(), "CDATA",
           String.valueOf(storageID));
       atts.addAttribute("", "", RawDataElementName.QUANTITY_DATAPOINTS.getElementName(), "CDATA",
           String.valueOf(length));
+      atts.addAttribute("", "", RawDataElementName.QUANTITY_BYTES.getElementName(), "CDATA",
+          String.valueOf(dataPointsBytes[i]));
       hd.startElement("", "", RawDataElementName.STORED_DATA.getElementName(), atts);
       atts.clear();
       hd.characters(String.valueOf(offset).toCharArray(), 0, String.valueOf(offset).length());
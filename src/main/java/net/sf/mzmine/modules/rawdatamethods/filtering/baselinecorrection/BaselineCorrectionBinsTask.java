@@ -0,0 +1,60 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package net.sf.mzmine.modules.rawdatamethods.filtering.baselinecorrection;
+
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.parameters.ParameterSet;
+import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.RangeSubTask;
+
+/**
+ * Sub task of the baseline correction, computes the baselines of a range of m/z bins in Java.
+ */
+class BaselineCorrectionBinsTask extends RangeSubTask {
+
+  private final BaselineCorrector baselineCorrector;
+  private final RawDataFile origDataFile;
+  private final double chromatograms[][];
+  private final ParameterSet parameters;
+  private final boolean normalize;
+
+  /**
+   * @param chromatograms the chromatograms, overwritten by the baselines
+   * @param start first m/z bin to process
+   * @param end end (exclusive) of the m/z bins to process
+   */
+  BaselineCorrectionBinsTask(AbstractTask baselineCorrectionTask,
+      BaselineCorrector baselineCorrector, RawDataFile origDataFile, double chromatograms[][],
+      ParameterSet parameters, boolean normalize, int start, int end) {
+    super(baselineCorrectionTask, "m/z bins", start, end);
+    this.baselineCorrector = baselineCorrector;
+    this.origDataFile = origDataFile;
+    this.chromatograms = chromatograms;
+    this.parameters = parameters;
+    this.normalize = normalize;
+  }
+
+  @Override
+  protected void process(int binIndex) {
+    baselineCorrector.computeBinBaseline(origDataFile, chromatograms, binIndex, parameters,
+        normalize);
+  }
+
+}
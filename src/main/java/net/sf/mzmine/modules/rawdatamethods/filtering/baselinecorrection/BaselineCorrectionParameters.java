@@ -30,6 +30,7 @@ import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.modules.rawdatamethods.filtering.baselinecorrection.correctors.AsymmetryCorrector;
 import net.sf.mzmine.modules.rawdatamethods.filtering.baselinecorrection.correctors.LocMinLoessCorrector;
 import net.sf.mzmine.modules.rawdatamethods.filtering.baselinecorrection.correctors.PeakDetectionCorrector;
+import net.sf.mzmine.modules.rawdatamethods.filtering.baselinecorrection.correctors.PeakRemovalCorrector;
 import net.sf.mzmine.modules.rawdatamethods.filtering.baselinecorrection.correctors.RollingBallCorrector;
 import net.sf.mzmine.modules.rawdatamethods.filtering.baselinecorrection.correctors.RubberBandCorrector;
 import net.sf.mzmine.parameters.Parameter;
@@ -87,6 +88,7 @@ public class BaselineCorrectionParameters extends SimpleParameterSet {
                                   // http://cran.r-project.org/web/packages/baseline/baseline.pdf)
       new PeakDetectionCorrector(), // (Package R "baseline" -
                                     // http://cran.r-project.org/web/packages/baseline/baseline.pdf)
+      new PeakRemovalCorrector(), // (Java only)
       new RubberBandCorrector(), // (Package R "hyperSpec" -
                                  // http://cran.r-project.org/web/packages/hyperSpec/vignettes/baseline.pdf)
       new LocMinLoessCorrector() // (Package R/Bioc. "PROcess" -
@@ -126,19 +128,27 @@ public class BaselineCorrectionParameters extends SimpleParameterSet {
       new BooleanParameter("Remove source file after baseline correction",
           "If checked, original file will be replaced by the corrected version", true);
 
+  /**
+   * Compute the baselines in R.
+   */
+  public static final BooleanParameter USE_R = new BooleanParameter("Compute baselines in R",
+      "If checked, the baseline of each m/z bin is computed by the original R package of the correction method, one bin after another. Otherwise, the baselines are computed in parallel by the Java implementation of the method, which does not require R. The PeakDetection corrector is always computed in R, the PeakRemoval corrector always in Java.",
+      true);
+
   /**
    * R engine type.
    */
   public static final ComboParameter<REngineType> RENGINE_TYPE = new ComboParameter<REngineType>(
-      "R engine", "The R engine to be used for communicating with R.", REngineType.values(),
-      REngineType.RCALLER);
+      "R engine", "The R engine to be used for communicating with R (if \"" + USE_R.getName()
+          + "\" is checked).",
+      REngineType.values(), REngineType.RCALLER);
 
   /**
    * Create the parameter set.
    */
   public BaselineCorrectionParameters() {
     super(new Parameter[] {dataFiles, SUFFIX, CHROMOTAGRAM_TYPE, MS_LEVEL, USE_MZ_BINS,
-        MZ_BIN_WIDTH, BASELINE_CORRECTORS, RENGINE_TYPE, REMOVE_ORIGINAL});
+        MZ_BIN_WIDTH, BASELINE_CORRECTORS, USE_R, RENGINE_TYPE, REMOVE_ORIGINAL});
     thisParameters = null;
   }
 
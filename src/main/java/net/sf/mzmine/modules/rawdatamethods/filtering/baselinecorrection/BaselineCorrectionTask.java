@@ -68,6 +68,7 @@ public class BaselineCorrectionTask extends AbstractTask {
   private RSessionWrapper rSession;
   private String errorMsg;
 
+  private final boolean useR;
   private REngineType rEngineType;
 
   /**
@@ -88,6 +89,8 @@ public class BaselineCorrectionTask extends AbstractTask {
     this.baselineCorrectorProcStep =
         parameters.getParameter(BaselineCorrectionParameters.BASELINE_CORRECTORS).getValue();
 
+    this.useR = baselineCorrectorProcStep.getModule()
+        .isUsingR(parameters.getParameter(BaselineCorrectionParameters.USE_R).getValue());
     this.rEngineType =
         parameters.getParameter(BaselineCorrectionParameters.RENGINE_TYPE).getValue();
 
@@ -114,18 +117,21 @@ public class BaselineCorrectionTask extends AbstractTask {
 
     try {
 
-      // Check R availability, by trying to open the connection.
-      String[] reqPackages = this.baselineCorrectorProcStep.getModule().getRequiredRPackages();
-      String callerFeatureName = this.baselineCorrectorProcStep.getModule().getName();
-      this.rSession = new RSessionWrapper(rEngineType, callerFeatureName, reqPackages, null);
+      // Check R availability, by trying to open the connection. Without R, the baselines are
+      // computed in Java.
+      if (useR) {
+        String[] reqPackages = this.baselineCorrectorProcStep.getModule().getRequiredRPackages();
+        String callerFeatureName = this.baselineCorrectorProcStep.getModule().getName();
+        this.rSession = new RSessionWrapper(rEngineType, callerFeatureName, reqPackages, null);
 
-      this.rSession.open();
+        this.rSession.open();
+      }
 
       this.baselineCorrectorProcStep.getModule().initProgress(origDataFile);
 
       final RawDataFile correctedDataFile =
-          this.baselineCorrectorProcStep.getModule().correctDatafile(this.rSession, origDataFile,
-              baselineCorrectorProcStep.getParameterSet(), this.commonParameters);
+          this.baselineCorrectorProcStep.getModule().correctDatafile(this, this.rSession,
+              origDataFile, baselineCorrectorProcStep.getParameterSet(), this.commonParameters);
 
       // If this task was canceled, stop processing.
       if (!isCanceled() && correctedDataFile != null) {
@@ -146,7 +152,7 @@ public class BaselineCorrectionTask extends AbstractTask {
         LOG.info("Baseline corrected " + origDataFile.getName());
       }
       // Turn off R instance, once task ended gracefully.
-      if (!isCanceled())
+      if (this.rSession != null && !isCanceled())
         this.rSession.close(false);
 
     } catch (IOException | RSessionWrapperException e) {
@@ -163,7 +169,7 @@ public class BaselineCorrectionTask extends AbstractTask {
 
     // Turn off R instance, once task ended UNgracefully.
     try {
-      if (!isCanceled())
+      if (this.rSession != null && !isCanceled())
         this.rSession.close(isCanceled());
     } catch (RSessionWrapperException e) {
       if (!isCanceled()) {
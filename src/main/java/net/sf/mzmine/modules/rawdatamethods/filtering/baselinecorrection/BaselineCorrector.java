@@ -31,6 +31,9 @@ import net.sf.mzmine.datamodel.impl.SimpleScan;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.modules.MZmineModule;
 import net.sf.mzmine.parameters.ParameterSet;
+import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.SubTaskGroup;
+import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.RangeUtils;
 import net.sf.mzmine.util.R.REngineType;
 import net.sf.mzmine.util.R.RSessionWrapper;
@@ -48,6 +51,9 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
   // Logger.
   protected static final Logger LOG = Logger.getLogger(BaselineCorrector.class.getName());
 
+  // Number of m/z bins whose baselines are computed by one sub task.
+  private static final int BINS_PER_SUB_TASK = 10;
+
   // Processing info storage
   /**
    * String: dataFile being processed. int[]: 3 values array => { progress, progressMax, isAborted }
@@ -58,6 +64,7 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
   private String suffix;
 
   // General parameters (common to all baseline correction methods).
+  private boolean useR;
   private REngineType rEgineType;
   private ChromatogramType chromatogramType;
   private double binWidth;
@@ -92,6 +99,7 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
       generalParameters = BaselineCorrectionParameters.getBaselineCorrectionParameters();
     }
     // Get common parameters.
+    useR = generalParameters.getParameter(BaselineCorrectionParameters.USE_R).getValue();
     rEgineType =
         generalParameters.getParameter(BaselineCorrectionParameters.RENGINE_TYPE).getValue();
     suffix = generalParameters.getParameter(BaselineCorrectionParameters.SUFFIX).getValue();
@@ -102,11 +110,18 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
     msLevel = generalParameters.getParameter(BaselineCorrectionParameters.MS_LEVEL).getValue();
   }
 
-  public final RawDataFile correctDatafile(final RSessionWrapper rSession,
+  /**
+   * Creates the baseline corrected data file.
+   * 
+   * @param task the task correcting the data file, whose sub tasks compute the baselines in Java,
+   *        or null to compute them in the calling thread.
+   * @param rSession the R session to compute the baselines in, or null to compute them in Java.
+   */
+  public final RawDataFile correctDatafile(final AbstractTask task, final RSessionWrapper rSession,
       final RawDataFile dataFile, final ParameterSet parameters,
       final ParameterSet commonParameters) throws IOException, RSessionWrapperException {
 
-    if (isAborted(dataFile) || !rSession.isSessionRunning())
+    if (isAborted(dataFile) || (rSession != null && !rSession.isSessionRunning()))
       return null;
     // Get very last information from root module setup
     // this.setGeneralParameters(MZmineCore.getConfiguration().getModuleParameters(BaselineCorrectionModule.class));
@@ -162,11 +177,11 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
 
           // Correct baseline for this MS-level.
           if (useTIC) {
-            correctTICBaselines(rSession, origDataFile, rawDataFileWriter, level, numBins,
+            correctTICBaselines(task, rSession, origDataFile, rawDataFileWriter, level, numBins,
                 parameters);
           } else {
-            correctBasePeakBaselines(rSession, origDataFile, rawDataFileWriter, level, numBins,
-                parameters);
+            correctBasePeakBaselines(task, rSession, origDataFile, rawDataFileWriter, level,
+                numBins, parameters);
           }
         } else {
 
@@ -239,7 +254,7 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
    * @throws BaselineCorrectionException
    * @throws InterruptedException
    */
-  private void correctBasePeakBaselines(final RSessionWrapper rSession,
+  private void correctBasePeakBaselines(final AbstractTask task, final RSessionWrapper rSession,
       final RawDataFile origDataFile, final RawDataFileWriter writer, final int level,
       final int numBins, final ParameterSet parameters)
       throws IOException, RSessionWrapperException {
@@ -255,11 +270,7 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
     // Calculate baselines: done in-place, i.e. overwrite chromatograms to
     // save memory.
     LOG.finest("Calculating baselines.");
-    for (int binIndex = 0; !isAborted(origDataFile) && binIndex < numBins; binIndex++) {
-      baseChrom[binIndex] =
-          computeBaseline(rSession, origDataFile, baseChrom[binIndex], parameters);
-      progressMap.get(origDataFile)[0]++;
-    }
+    computeBaselines(task, rSession, origDataFile, baseChrom, parameters, false);
 
     // Subtract baselines.
     LOG.finest("Subtracting baselines.");
@@ -292,9 +303,10 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
    * @throws RSessionWrapperException
    * @throws BaselineCorrectionException
    */
-  private void correctTICBaselines(final RSessionWrapper rSession, final RawDataFile origDataFile,
-      final RawDataFileWriter writer, final int level, final int numBins,
-      final ParameterSet parameters) throws IOException, RSessionWrapperException {
+  private void correctTICBaselines(final AbstractTask task, final RSessionWrapper rSession,
+      final RawDataFile origDataFile, final RawDataFileWriter writer, final int level,
+      final int numBins, final ParameterSet parameters)
+      throws IOException, RSessionWrapperException {
 
     // Get scan numbers from original file.
     final int[] scanNumbers = origDataFile.getScanNumbers(level);
@@ -305,24 +317,9 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
     final double[][] baseChrom = buildTICChromatograms(origDataFile, level, numBins);
 
     // Calculate baselines: done in-place, i.e. overwrite chromatograms to
-    // save memory.
+    // save memory. The baselines are normalized w.r.t. chromatogram (TIC).
     LOG.finest("Calculating baselines.");
-    for (int binIndex = 0; !isAborted(origDataFile) && binIndex < numBins; binIndex++) {
-
-      // Calculate baseline.
-      // final double[] baseline = asymBaseline(baseChrom[binIndex]);
-      final double[] baseline =
-          computeBaseline(rSession, origDataFile, baseChrom[binIndex], parameters);
-
-      // Normalize the baseline w.r.t. chromatogram (TIC).
-      for (int scanIndex = 0; !isAborted(origDataFile) && scanIndex < numScans; scanIndex++) {
-        final double bc = baseChrom[binIndex][scanIndex];
-        if (bc != 0.0) {
-          baseChrom[binIndex][scanIndex] = baseline[scanIndex] / bc;
-        }
-      }
-      progressMap.get(origDataFile)[0]++;
-    }
+    computeBaselines(task, rSession, origDataFile, baseChrom, parameters, true);
 
     // Subtract baselines.
     LOG.finest("Subtracting baselines.");
@@ -344,6 +341,98 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
 
   }
 
+  /**
+   * Calculates the baselines of the chromatograms of all m/z bins, in-place. In R, the bins are
+   * processed one after another in the given session. In Java (no session), they are processed in
+   * parallel by sub tasks of the given task.
+   * 
+   * @param task the task correcting the data file, or null to process the bins one after another.
+   * @param rSession the R session, or null to compute the baselines in Java.
+   * @param origDataFile dataFile of concern.
+   * @param chromatograms the chromatograms, overwritten by the baselines.
+   * @param parameters parameters specific to the actual method for baseline computing.
+   * @param normalize whether to normalize the baselines w.r.t. the chromatograms (TIC).
+   * @throws RSessionWrapperException
+   */
+  private void computeBaselines(final AbstractTask task, final RSessionWrapper rSession,
+      final RawDataFile origDataFile, final double[][] chromatograms,
+      final ParameterSet parameters, final boolean normalize) throws RSessionWrapperException {
+
+    final int[] progress = progressMap.get(origDataFile);
+
+    if (rSession != null) {
+      for (int binIndex = 0; !isAborted(origDataFile)
+          && binIndex < chromatograms.length; binIndex++) {
+        final double[] chromatogram = chromatograms[binIndex];
+        chromatograms[binIndex] = toBaseline(chromatogram,
+            computeBaseline(rSession, origDataFile, chromatogram, parameters), normalize);
+        progress[0]++;
+      }
+      return;
+    }
+
+    if (task == null) {
+      for (int binIndex = 0; !isAborted(origDataFile)
+          && binIndex < chromatograms.length; binIndex++) {
+        computeBinBaseline(origDataFile, chromatograms, binIndex, parameters, normalize);
+      }
+      return;
+    }
+
+    final SubTaskGroup<BaselineCorrectionBinsTask> subTasks = new SubTaskGroup<>(task);
+    subTasks.submitRanges(chromatograms.length, BINS_PER_SUB_TASK,
+        (start, end) -> new BaselineCorrectionBinsTask(task, this, origDataFile, chromatograms,
+            parameters, normalize, start, end));
+    if (!subTasks.join()) {
+      if (!task.isCanceled()) {
+        task.setErrorMessage(subTasks.getErrorMessage());
+        task.setStatus(TaskStatus.ERROR);
+      }
+      setAbortProcessing(origDataFile, true);
+    }
+  }
+
+  /**
+   * Calculates the baseline of the chromatogram of an m/z bin in Java, in-place.
+   * 
+   * @param origDataFile dataFile of concern.
+   * @param chromatograms the chromatograms, the one of the bin is overwritten by its baseline.
+   * @param binIndex the m/z bin.
+   * @param parameters parameters specific to the actual method for baseline computing.
+   * @param normalize whether to normalize the baseline w.r.t. the chromatogram (TIC).
+   */
+  void computeBinBaseline(final RawDataFile origDataFile, final double[][] chromatograms,
+      final int binIndex, final ParameterSet parameters, final boolean normalize) {
+
+    final double[] chromatogram = chromatograms[binIndex];
+    chromatograms[binIndex] =
+        toBaseline(chromatogram, computeBaseline(chromatogram, parameters), normalize);
+
+    final int[] progress = progressMap.get(origDataFile);
+    synchronized (progress) {
+      progress[0]++;
+    }
+  }
+
+  /**
+   * @return the baseline, or the baseline normalized w.r.t. chromatogram (stored in the
+   *         chromatogram array).
+   */
+  private static double[] toBaseline(final double[] chromatogram, final double[] baseline,
+      final boolean normalize) {
+
+    if (!normalize)
+      return baseline;
+
+    for (int scanIndex = 0; scanIndex < chromatogram.length; scanIndex++) {
+      final double bc = chromatogram[scanIndex];
+      if (bc != 0.0) {
+        chromatogram[scanIndex] = baseline[scanIndex] / bc;
+      }
+    }
+    return chromatogram;
+  }
+
   /**
    * Constructs base peak (max) chromatograms - one for each m/z bin.
    * 
@@ -552,6 +641,38 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
   }
 
 
+  /**
+   * @return whether the baselines are computed in R (true) or in Java (false).
+   */
+  public boolean isUsingR() {
+    return isUsingR(this.useR);
+  }
+
+  /**
+   * @param useR whether the baselines should be computed in R ("Compute baselines in R").
+   * @return whether the baselines are computed in R (true) or in Java (false). Correctors which are
+   *         only implemented in R or only in Java ignore the setting.
+   */
+  public boolean isUsingR(final boolean useR) {
+    return hasRImplementation() && (useR || !hasJavaImplementation());
+  }
+
+  /**
+   * @return whether the baselines can be computed in R, by
+   *         {@link #computeBaseline(RSessionWrapper, RawDataFile, double[], ParameterSet)}.
+   */
+  public boolean hasRImplementation() {
+    return true;
+  }
+
+  /**
+   * @return whether the baselines can be computed in Java, by
+   *         {@link #computeBaseline(double[], ParameterSet)}.
+   */
+  public boolean hasJavaImplementation() {
+    return true;
+  }
+
   public REngineType getRengineType() {
     return this.rEgineType;
   }
@@ -216,16 +216,19 @@ public class BaselineCorrectorSetupDialog extends ParameterSetupDialogWithChroma
         // Get parent module parameters
         baselineCorrector.collectCommonParameters(null);
 
-        // Check R availability, by trying to open the connection
-        try {
-          String[] reqPackages = baselineCorrector.getRequiredRPackages();
-          this.rSession = new RSessionWrapper(baselineCorrector.getRengineType(),
-              baselineCorrector.getName(), reqPackages, null);
-          this.rSession.open();
-        } catch (RSessionWrapperException e) {
-          errorMsg = e.getMessage();
-          updateStatus(TaskStatus.ERROR);
-          return;
+        // Check R availability, by trying to open the connection (if the baselines are computed
+        // in R)
+        if (baselineCorrector.isUsingR()) {
+          try {
+            String[] reqPackages = baselineCorrector.getRequiredRPackages();
+            this.rSession = new RSessionWrapper(baselineCorrector.getRengineType(),
+                baselineCorrector.getName(), reqPackages, null);
+            this.rSession.open();
+          } catch (RSessionWrapperException e) {
+            errorMsg = e.getMessage();
+            updateStatus(TaskStatus.ERROR);
+            return;
+          }
         }
 
         // Set VK_ESCAPE KeyEvent listeners
@@ -251,7 +254,8 @@ public class BaselineCorrectorSetupDialog extends ParameterSetupDialogWithChroma
 
           // Create a new corrected raw data file
           RawDataFile newDataFile =
-              baselineCorrector.correctDatafile(this.rSession, dataFile, correctorParameters, null);
+              baselineCorrector.correctDatafile(null, this.rSession, dataFile, correctorParameters,
+                  null);
 
           // If successful, add the new data file
           if (newDataFile != null) {
@@ -272,7 +276,7 @@ public class BaselineCorrectorSetupDialog extends ParameterSetupDialogWithChroma
 
         // Turn off R instance.
         try {
-          if (!this.userCanceled)
+          if (this.rSession != null && !this.userCanceled)
             this.rSession.close(false);
         } catch (RSessionWrapperException e) {
           if (!this.userCanceled) {
@@ -42,4 +42,11 @@ public interface BaselineProvider {
   public double[] computeBaseline(final RSessionWrapper rSession, final RawDataFile origDataFile,
       final double[] chromatogram, ParameterSet parameters) throws RSessionWrapperException;
 
+  /**
+   * Returns a baseline for correcting the given chromatogram, computed in Java. Must not modify the
+   * chromatogram and must be thread-safe: the chromatograms of the m/z bins are processed in
+   * parallel.
+   */
+  public double[] computeBaseline(final double[] chromatogram, ParameterSet parameters);
+
 }
@@ -18,6 +18,8 @@
 
 package net.sf.mzmine.modules.rawdatamethods.filtering.baselinecorrection.correctors;
 
+import java.util.Arrays;
+
 import javax.annotation.Nonnull;
 
 import net.sf.mzmine.datamodel.RawDataFile;
@@ -29,11 +31,15 @@ import net.sf.mzmine.util.R.RSessionWrapperException;
 /**
  * @description Asymmetric baseline corrector. Estimates a trend based on asymmetric least squares.
  *              Uses "asysm" feature from "ptw" R-package
- *              (http://cran.r-project.org/web/packages/ptw/ptw.pdf).
+ *              (http://cran.r-project.org/web/packages/ptw/ptw.pdf), or its Java implementation
+ *              (iteratively reweighted Whittaker smoother, as "asysm" does).
  * 
  */
 public class AsymmetryCorrector extends BaselineCorrector {
 
+  // Maximum number of reweighting iterations (as in "asysm").
+  private static final int MAX_ITERATIONS = 25;
+
   @Override
   public String[] getRequiredRPackages() {
     return new String[] { /* "rJava", "Rserve", */"ptw"};
@@ -74,6 +80,38 @@ public class AsymmetryCorrector extends BaselineCorrector {
     return baseline;
   }
 
+  @Override
+  public double[] computeBaseline(final double[] chromatogram, ParameterSet parameters) {
+
+    // Smoothing and asymmetry parameters.
+    final double smoothing =
+        parameters.getParameter(AsymmetryCorrectorParameters.SMOOTHING).getValue();
+    final double asymmetry =
+        parameters.getParameter(AsymmetryCorrectorParameters.ASYMMETRY).getValue();
+
+    // Smooth with weights p above and 1 - p below the trend, until the weights do not change.
+    final double[] weights = new double[chromatogram.length];
+    Arrays.fill(weights, 1.0);
+    double[] baseline = chromatogram.clone();
+    for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+
+      baseline = BaselineFunctions.whittakerSmooth(chromatogram, weights, smoothing);
+
+      boolean changed = false;
+      for (int i = 0; i < chromatogram.length; i++) {
+        final double weight = (chromatogram[i] > baseline[i]) ? asymmetry : 1.0 - asymmetry;
+        if (weight != weights[i]) {
+          weights[i] = weight;
+          changed = true;
+        }
+      }
+      if (!changed)
+        break;
+    }
+
+    return baseline;
+  }
+
   @Override
   public @Nonnull String getName() {
     return "Asymmetric baseline corrector";
@@ -0,0 +1,326 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.rawdatamethods.filtering.baselinecorrection.correctors;
+
+import java.util.Arrays;
+
+/**
+ * @description Numerical building blocks of the Java baseline correctors. All functions work on
+ *              primitive arrays indexed by scan, keep no state and are safe to call from parallel
+ *              threads.
+ * 
+ */
+final class BaselineFunctions {
+
+  private BaselineFunctions() {}
+
+  /**
+   * Minimum of the values within [i - halfWidth, i + halfWidth] for each index i (O(n), using a
+   * monotonic deque).
+   */
+  static double[] movingMinimum(final double[] values, final int halfWidth) {
+    return movingExtremum(values, halfWidth, true);
+  }
+
+  /**
+   * Maximum of the values within [i - halfWidth, i + halfWidth] for each index i (O(n), using a
+   * monotonic deque).
+   */
+  static double[] movingMaximum(final double[] values, final int halfWidth) {
+    return movingExtremum(values, halfWidth, false);
+  }
+
+  private static double[] movingExtremum(final double[] values, final int halfWidth,
+      final boolean minimum) {
+
+    final int n = values.length;
+    final double[] result = new double[n];
+    final int[] deque = new int[n];
+    int head = 0, tail = 0;
+
+    // Index of the next value entering the window.
+    int next = 0;
+    for (int i = 0; i < n; i++) {
+
+      final int last = Math.min(n - 1, i + halfWidth);
+      while (next <= last) {
+        final double v = values[next];
+        while (tail > head && (minimum ? values[deque[tail - 1]] >= v
+            : values[deque[tail - 1]] <= v)) {
+          tail--;
+        }
+        deque[tail++] = next++;
+      }
+      while (deque[head] < i - halfWidth) {
+        head++;
+      }
+      result[i] = values[deque[head]];
+    }
+    return result;
+  }
+
+  /**
+   * Mean of the values within [i - halfWidth, i + halfWidth] (clipped to the array) for each index
+   * i.
+   */
+  static double[] movingMean(final double[] values, final int halfWidth) {
+
+    final int n = values.length;
+    final double[] cumulative = new double[n + 1];
+    for (int i = 0; i < n; i++) {
+      cumulative[i + 1] = cumulative[i] + values[i];
+    }
+
+    final double[] result = new double[n];
+    for (int i = 0; i < n; i++) {
+      final int from = Math.max(0, i - halfWidth);
+      final int to = Math.min(n, i + halfWidth + 1);
+      result[i] = (cumulative[to] - cumulative[from]) / (to - from);
+    }
+    return result;
+  }
+
+  /**
+   * Median of the values within [i - halfWidth, i + halfWidth] (clipped to the array) for each
+   * index i. The window is kept sorted, each step costs O(halfWidth).
+   */
+  static double[] movingMedian(final double[] values, final int halfWidth) {
+
+    final int n = values.length;
+    final double[] result = new double[n];
+    if (n == 0)
+      return result;
+
+    final double[] window = new double[Math.min(n, 2 * halfWidth + 1)];
+    int size = 0;
+    int next = 0;
+    for (int i = 0; i < n; i++) {
+
+      // Remove the leaving value, add the entering ones.
+      final int leaving = i - halfWidth - 1;
+      if (leaving >= 0) {
+        size = removeSorted(window, size, values[leaving]);
+      }
+      final int last = Math.min(n - 1, i + halfWidth);
+      while (next <= last) {
+        size = insertSorted(window, size, values[next++]);
+      }
+
+      result[i] = (size % 2 == 1) ? window[size / 2]
+          : (window[size / 2 - 1] + window[size / 2]) / 2.0;
+    }
+    return result;
+  }
+
+  private static int insertSorted(final double[] window, final int size, final double value) {
+    int pos = Arrays.binarySearch(window, 0, size, value);
+    if (pos < 0)
+      pos = -pos - 1;
+    System.arraycopy(window, pos, window, pos + 1, size - pos);
+    window[pos] = value;
+    return size + 1;
+  }
+
+  private static int removeSorted(final double[] window, final int size, final double value) {
+    final int pos = Arrays.binarySearch(window, 0, size, value);
+    System.arraycopy(window, pos + 1, window, pos, size - pos - 1);
+    return size - 1;
+  }
+
+  /**
+   * Weighted Whittaker smoother with second order differences: solves (W + lambda D'D) z = W y,
+   * which is a symmetric pentadiagonal system, by a banded LDL' decomposition in O(n).
+   * 
+   * @param values the values y.
+   * @param weights the (positive) weights W.
+   * @param lambda the smoothing factor.
+   * @return the smoothed values z.
+   */
+  static double[] whittakerSmooth(final double[] values, final double[] weights,
+      final double lambda) {
+
+    final int n = values.length;
+
+    // Diagonal (d), first (e) and second (f) off-diagonals of W + lambda D'D.
+    final double[] d = new double[n];
+    final double[] e = new double[Math.max(0, n - 1)];
+    final double[] f = new double[Math.max(0, n - 2)];
+    for (int i = 0; i < n; i++) {
+      d[i] = weights[i];
+    }
+    for (int k = 0; k + 2 < n; k++) {
+      // Row k of D is (1, -2, 1) at columns k, k + 1, k + 2.
+      d[k] += lambda;
+      d[k + 1] += 4.0 * lambda;
+      d[k + 2] += lambda;
+      e[k] -= 2.0 * lambda;
+      e[k + 1] -= 2.0 * lambda;
+      f[k] += lambda;
+    }
+
+    // LDL' decomposition: l1[i] = L(i, i-1), l2[i] = L(i, i-2).
+    final double[] diag = new double[n];
+    final double[] l1 = new double[n];
+    final double[] l2 = new double[n];
+    for (int i = 0; i < n; i++) {
+      double di = d[i];
+      if (i >= 2) {
+        l2[i] = f[i - 2] / diag[i - 2];
+        di -= l2[i] * l2[i] * diag[i - 2];
+      }
+      if (i >= 1) {
+        double a = e[i - 1];
+        if (i >= 2)
+          a -= l2[i] * l1[i - 1] * diag[i - 2];
+        l1[i] = a / diag[i - 1];
+        di -= l1[i] * l1[i] * diag[i - 1];
+      }
+      diag[i] = di;
+    }
+
+    // Forward substitution (L), scaling (D) and back substitution (L').
+    final double[] z = new double[n];
+    for (int i = 0; i < n; i++) {
+      double v = weights[i] * values[i];
+      if (i >= 1)
+        v -= l1[i] * z[i - 1];
+      if (i >= 2)
+        v -= l2[i] * z[i - 2];
+      z[i] = v;
+    }
+    for (int i = 0; i < n; i++) {
+      z[i] /= diag[i];
+    }
+    for (int i = n - 1; i >= 0; i--) {
+      double v = z[i];
+      if (i + 1 < n)
+        v -= l1[i + 1] * z[i + 1];
+      if (i + 2 < n)
+        v -= l2[i + 2] * z[i + 2];
+      z[i] = v;
+    }
+    return z;
+  }
+
+  /**
+   * Indices of the points of the lower convex hull of (i, values[i]), in ascending order. The
+   * first and last index are always part of the hull (monotone chain).
+   */
+  static int[] lowerConvexHull(final double[] values) {
+
+    final int n = values.length;
+    final int[] hull = new int[n];
+    int size = 0;
+    for (int i = 0; i < n; i++) {
+      while (size >= 2) {
+        final int a = hull[size - 2], b = hull[size - 1];
+        // Remove b if it is not strictly below the segment from a to i.
+        final double cross =
+            (b - a) * (values[i] - values[a]) - (values[b] - values[a]) * (double) (i - a);
+        if (cross > 0.0)
+          break;
+        size--;
+      }
+      hull[size++] = i;
+    }
+    return Arrays.copyOf(hull, size);
+  }
+
+  /**
+   * Piecewise linear interpolation of the support points (x, y) at each index 0..n-1. Constant
+   * extrapolation beyond the first and last support points.
+   * 
+   * @param x the (ascending) support point positions.
+   * @param y the support point values.
+   * @param n the number of indexes to interpolate.
+   */
+  static double[] linearInterpolation(final double[] x, final double[] y, final int n) {
+
+    final double[] result = new double[n];
+    final int m = x.length;
+    if (m == 0)
+      return result;
+
+    int k = 0;
+    for (int i = 0; i < n; i++) {
+      while (k + 1 < m && x[k + 1] <= i) {
+        k++;
+      }
+      if (i <= x[0]) {
+        result[i] = y[0];
+      } else if (k + 1 >= m) {
+        result[i] = y[m - 1];
+      } else {
+        final double t = (i - x[k]) / (x[k + 1] - x[k]);
+        result[i] = y[k] + t * (y[k + 1] - y[k]);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Locally weighted linear regression (LOESS, degree 1, tricube weights) of the support points
+   * (x, y), evaluated at the support points.
+   * 
+   * @param x the (ascending) support point positions.
+   * @param y the support point values.
+   * @param span fraction of the support points used for each local regression.
+   */
+  static double[] loess(final double[] x, final double[] y, final double span) {
+
+    final int m = x.length;
+    final double[] fitted = new double[m];
+    final int q = Math.min(m, Math.max(2, (int) Math.ceil(span * m)));
+    if (m < 2) {
+      System.arraycopy(y, 0, fitted, 0, m);
+      return fitted;
+    }
+
+    // The q nearest neighbors of x[i] form the window [from, from + q).
+    int from = 0;
+    for (int i = 0; i < m; i++) {
+
+      while (from + q < m && x[i] - x[from] > x[from + q] - x[i]) {
+        from++;
+      }
+      final int to = from + q;
+      final double maxDistance =
+          Math.max(x[i] - x[from], x[to - 1] - x[i]) * (1.0 + 1e-10) + Double.MIN_VALUE;
+
+      double sw = 0.0, swx = 0.0, swy = 0.0, swxx = 0.0, swxy = 0.0;
+      for (int j = from; j < to; j++) {
+        final double u = Math.abs(x[j] - x[i]) / maxDistance;
+        final double t = 1.0 - u * u * u;
+        final double w = t * t * t;
+        sw += w;
+        swx += w * x[j];
+        swy += w * y[j];
+        swxx += w * x[j] * x[j];
+        swxy += w * x[j] * y[j];
+      }
+
+      final double meanX = swx / sw, meanY = swy / sw;
+      final double varX = swxx / sw - meanX * meanX;
+      final double slope = (varX > 0.0) ? (swxy / sw - meanX * meanY) / varX : 0.0;
+      fitted[i] = meanY + slope * (x[i] - meanX);
+    }
+    return fitted;
+  }
+
+}
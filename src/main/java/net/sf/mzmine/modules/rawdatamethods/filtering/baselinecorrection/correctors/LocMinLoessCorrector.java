@@ -18,6 +18,8 @@
 
 package net.sf.mzmine.modules.rawdatamethods.filtering.baselinecorrection.correctors;
 
+import java.util.Arrays;
+
 import javax.annotation.Nonnull;
 
 import net.sf.mzmine.datamodel.RawDataFile;
@@ -30,6 +32,8 @@ import net.sf.mzmine.util.R.RSessionWrapperException;
  * @description Local Minima + LOESS (smoothed low-percentile intensity) baseline corrector. Uses
  *              "bslnoff" feature from "PROcess" R/Bioconductor package
  *              (http://bioconductor.org/packages/release/ bioc/manuals/PROcess/man/PROcess.pdf).
+ *              The Java implementation finds the same local minima (or quantiles) per break and
+ *              interpolates them by a local linear regression ("loess") or linearly ("approx").
  * 
  */
 public class LocMinLoessCorrector extends BaselineCorrector {
@@ -79,6 +83,58 @@ public class LocMinLoessCorrector extends BaselineCorrector {
     return baseline;
   }
 
+  @Override
+  public double[] computeBaseline(final double[] chromatogram, ParameterSet parameters) {
+
+    // Local Minima parameters.
+    String method = parameters.getParameter(LocMinLoessCorrectorParameters.METHOD).getValue();
+    double bw = parameters.getParameter(LocMinLoessCorrectorParameters.BW).getValue();
+    int breaks = parameters.getParameter(LocMinLoessCorrectorParameters.BREAKS).getValue();
+    int breaks_width =
+        parameters.getParameter(LocMinLoessCorrectorParameters.BREAK_WIDTH).getValue();
+    double qntl = parameters.getParameter(LocMinLoessCorrectorParameters.QNTL).getValue();
+
+    final int n = chromatogram.length;
+    if (n == 0)
+      return new double[0];
+
+    // Breaks
+    if (breaks_width > 0)
+      breaks = (int) Math.round((double) (n - 1) / (double) breaks_width);
+    breaks = Math.max(1, Math.min(n, breaks));
+
+    // Local minimum (or quantile) of each break.
+    final double[] x = new double[breaks];
+    final double[] y = new double[breaks];
+    for (int b = 0; b < breaks; b++) {
+      final int from = (int) ((long) b * n / breaks);
+      final int to = (int) ((long) (b + 1) * n / breaks);
+      if (qntl == 0.0) {
+        int minIndex = from;
+        for (int i = from + 1; i < to; i++) {
+          if (chromatogram[i] < chromatogram[minIndex])
+            minIndex = i;
+        }
+        x[b] = minIndex;
+        y[b] = chromatogram[minIndex];
+      } else {
+        final double[] sorted = Arrays.copyOfRange(chromatogram, from, to);
+        Arrays.sort(sorted);
+        final double position = qntl * (sorted.length - 1);
+        final int lower = (int) Math.floor(position);
+        final int upper = Math.min(sorted.length - 1, lower + 1);
+        x[b] = (from + to - 1) / 2.0;
+        y[b] = sorted[lower] + (position - lower) * (sorted[upper] - sorted[lower]);
+      }
+    }
+
+    // Calculate baseline.
+    // + Seems like "loess" method doesn't support "bw=0.0"
+    final double[] support = method.equals("approx") ? y
+        : BaselineFunctions.loess(x, y, (bw >= BW_MIN_VAL) ? bw : BW_MIN_VAL);
+    return BaselineFunctions.linearInterpolation(x, support, n);
+  }
+
   @Override
   public @Nonnull String getName() {
     return "Local minima + LOESS baseline corrector";
@@ -33,6 +33,8 @@ import net.sf.mzmine.util.R.RSessionWrapperException;
  *              "peakDetection" feature from "baseline" R-package
  *              (http://cran.r-project.org/web/packages/baseline/baseline.pdf). (A translation from
  *              Kevin R. Coombes et al.'s MATLAB code for detecting peaks and removing baselines).
+ *              There is no Java implementation, the baselines are always computed in R. See
+ *              {@link PeakRemovalCorrector} for a Java corrector based on the same idea.
  * 
  */
 public class PeakDetectionCorrector extends BaselineCorrector {
@@ -90,6 +92,16 @@ public class PeakDetectionCorrector extends BaselineCorrector {
     return baseline;
   }
 
+  @Override
+  public boolean hasJavaImplementation() {
+    return false;
+  }
+
+  @Override
+  public double[] computeBaseline(final double[] chromatogram, ParameterSet parameters) {
+    throw new UnsupportedOperationException(getName() + " can only be computed in R");
+  }
+
   @Override
   public @Nonnull String getName() {
     return "PeakDetection baseline corrector";
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package net.sf.mzmine.modules.rawdatamethods.filtering.baselinecorrection.correctors;
+
+import javax.annotation.Nonnull;
+
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.modules.rawdatamethods.filtering.baselinecorrection.BaselineCorrector;
+import net.sf.mzmine.parameters.ParameterSet;
+import net.sf.mzmine.util.R.RSessionWrapper;
+
+/**
+ * @description Peak Removal baseline corrector. A Java corrector based on the idea of the
+ *              "peakDetection" feature from "baseline" R-package: peaks are replaced by straight
+ *              lines between their bounds, then moving minimums and medians of the peak removed
+ *              chromatogram give the baseline. The peaks are found by a simple descent from each
+ *              local maximum, not by the criteria of "peakDetection", so the baselines differ from
+ *              those of {@link PeakDetectionCorrector}. There is no R implementation, the baselines
+ *              are always computed in Java.
+ * 
+ */
+public class PeakRemovalCorrector extends BaselineCorrector {
+
+  @Override
+  public String[] getRequiredRPackages() {
+    return new String[0];
+  }
+
+  @Override
+  public boolean hasRImplementation() {
+    return false;
+  }
+
+  @Override
+  public double[] computeBaseline(final RSessionWrapper rSession, final RawDataFile origDataFile,
+      double[] chromatogram, ParameterSet parameters) {
+    return computeBaseline(chromatogram, parameters);
+  }
+
+  @Override
+  public double[] computeBaseline(final double[] chromatogram, ParameterSet parameters) {
+
+    // Peak Removal parameters.
+    final int minWidth =
+        parameters.getParameter(PeakRemovalCorrectorParameters.MIN_WIDTH).getValue();
+    final int maxHalfWidth =
+        parameters.getParameter(PeakRemovalCorrectorParameters.MAX_HALF_WIDTH).getValue();
+    final double minHeight =
+        parameters.getParameter(PeakRemovalCorrectorParameters.MIN_HEIGHT).getValue();
+    final int minWindow =
+        parameters.getParameter(PeakRemovalCorrectorParameters.MIN_WINDOW).getValue();
+    final int medianWindow =
+        parameters.getParameter(PeakRemovalCorrectorParameters.MEDIAN_WINDOW).getValue();
+    final boolean mono = parameters.getParameter(PeakRemovalCorrectorParameters.MONO).getValue();
+
+    final int n = chromatogram.length;
+    final double[] peakFree = chromatogram.clone();
+
+    // Remove peaks: descend from each local maximum to its bounds (at most "maxHalfWidth" scans
+    // away). Peaks at least "minWidth" scans wide whose height above the higher bound is at least
+    // "minHeight" times their apex intensity are replaced by a line between the bounds.
+    for (int apex = 1; apex < n - 1; apex++) {
+
+      final double intensity = chromatogram[apex];
+      if (intensity <= chromatogram[apex - 1] || intensity < chromatogram[apex + 1])
+        continue;
+
+      int start = apex;
+      while (start > 0 && apex - start < maxHalfWidth
+          && chromatogram[start - 1] <= chromatogram[start])
+        start--;
+      int end = apex;
+      while (end < n - 1 && end - apex < maxHalfWidth && chromatogram[end + 1] <= chromatogram[end])
+        end++;
+
+      final double bound = Math.max(chromatogram[start], chromatogram[end]);
+      if (end - start < minWidth || intensity - bound < minHeight * intensity)
+        continue;
+
+      for (int i = start + 1; i < end; i++) {
+        final double line = chromatogram[start]
+            + (chromatogram[end] - chromatogram[start]) * (i - start) / (end - start);
+        peakFree[i] = Math.min(peakFree[i], line);
+      }
+      apex = end - 1;
+    }
+
+    // Calculate baseline: minimums, then medians of the peak removed chromatogram.
+    final double[] baseline = BaselineFunctions
+        .movingMedian(BaselineFunctions.movingMinimum(peakFree, minWindow), medianWindow);
+
+    // Monotonically decreasing baseline.
+    if (mono) {
+      for (int i = 1; i < n; i++)
+        baseline[i] = Math.min(baseline[i], baseline[i - 1]);
+    }
+
+    return baseline;
+  }
+
+  @Override
+  public @Nonnull String getName() {
+    return "PeakRemoval baseline corrector (Java)";
+  }
+
+  @Override
+  public @Nonnull Class<? extends ParameterSet> getParameterSetClass() {
+    return PeakRemovalCorrectorParameters.class;
+  }
+
+}
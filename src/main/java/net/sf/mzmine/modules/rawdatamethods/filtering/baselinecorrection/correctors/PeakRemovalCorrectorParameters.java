@@ -0,0 +1,93 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package net.sf.mzmine.modules.rawdatamethods.filtering.baselinecorrection.correctors;
+
+import java.awt.Window;
+import java.text.DecimalFormat;
+
+import net.sf.mzmine.modules.rawdatamethods.filtering.baselinecorrection.BaselineCorrectorSetupDialog;
+import net.sf.mzmine.parameters.UserParameter;
+import net.sf.mzmine.parameters.impl.SimpleParameterSet;
+import net.sf.mzmine.parameters.parametertypes.BooleanParameter;
+import net.sf.mzmine.parameters.parametertypes.DoubleParameter;
+import net.sf.mzmine.parameters.parametertypes.IntegerParameter;
+import net.sf.mzmine.util.ExitCode;
+
+/**
+ * @description Peak Removal baseline corrector parameters.
+ * 
+ */
+public class PeakRemovalCorrectorParameters extends SimpleParameterSet {
+
+  /**
+   * Smallest peak width.
+   */
+  public static final IntegerParameter MIN_WIDTH =
+      new IntegerParameter("minimum peak width (number of scans)",
+          "Peaks narrower than this (in number of scans) are not removed.", 5, 0, null);
+
+  /**
+   * Largest distance of the peak bounds from the apex.
+   */
+  public static final IntegerParameter MAX_HALF_WIDTH =
+      new IntegerParameter("maximum peak half width (number of scans)",
+          "Peak bounds are searched at most this many scans away from the apex.", 50, 1, null);
+
+  /**
+   * Minimum peak height.
+   */
+  public static final DoubleParameter MIN_HEIGHT = new DoubleParameter("minimum relative height",
+      "Peaks whose height above the higher bound is less than this fraction of the apex intensity are not removed.",
+      DecimalFormat.getNumberInstance(), 0.1, 0.0, 1.0);
+
+  /**
+   * Moving minimum window.
+   */
+  public static final IntegerParameter MIN_WINDOW =
+      new IntegerParameter("minimum window (number of scans)",
+          "Half width of the window for minimums in the peak removed chromatogram (in number of scans).",
+          10, 0, null);
+
+  /**
+   * Moving median window.
+   */
+  public static final IntegerParameter MEDIAN_WINDOW =
+      new IntegerParameter("median window (number of scans)",
+          "Half width of the window for medians of the minimums (in number of scans).", 10, 0,
+          null);
+
+  /**
+   * Monotonically decreasing baseline.
+   */
+  public static final BooleanParameter MONO = new BooleanParameter("monotonically decreasing",
+      "Make the baseline monotonically decreasing.", false);
+
+  public PeakRemovalCorrectorParameters() {
+    super(new UserParameter[] {MIN_WIDTH, MAX_HALF_WIDTH, MIN_HEIGHT, MIN_WINDOW, MEDIAN_WINDOW,
+        MONO});
+  }
+
+  public ExitCode showSetupDialog(Window parent, boolean valueCheckRequired) {
+    BaselineCorrectorSetupDialog dialog = new BaselineCorrectorSetupDialog(parent,
+        valueCheckRequired, this, PeakRemovalCorrector.class);
+    dialog.setVisible(true);
+    return dialog.getExitCode();
+  }
+}
@@ -31,7 +31,8 @@ import net.sf.mzmine.util.R.RSessionWrapperException;
  *              Uses "rollingBall" feature from "baseline" R-package
  *              (http://cran.r-project.org/web/packages/baseline/baseline.pdf). (Ideas from Rolling
  *              Ball algorithm for X-ray spectra by M.A.Kneen and H.J. Annegarn. Variable window
- *              width has been left out).
+ *              width has been left out). The Java implementation computes the same three moving
+ *              windows (minimum, maximum of the minima, mean) in linear time.
  * 
  */
 public class RollingBallCorrector extends BaselineCorrector {
@@ -83,6 +84,22 @@ public class RollingBallCorrector extends BaselineCorrector {
     return baseline;
   }
 
+  @Override
+  public double[] computeBaseline(final double[] chromatogram, ParameterSet parameters) {
+
+    // Rolling Ball parameters.
+    final int wm =
+        parameters.getParameter(RollingBallCorrectorParameters.MIN_MAX_WIDTH).getValue();
+    final int ws = parameters.getParameter(RollingBallCorrectorParameters.SMOOTHING).getValue();
+
+    // Roll the ball below the chromatogram: local minima, then local maxima of those minima.
+    final double[] minima = BaselineFunctions.movingMinimum(chromatogram, wm);
+    final double[] maxima = BaselineFunctions.movingMaximum(minima, wm);
+
+    // Smooth.
+    return BaselineFunctions.movingMean(maxima, ws);
+  }
+
   @Override
   public @Nonnull String getName() {
     return "RollingBall baseline corrector";
@@ -18,8 +18,13 @@
 
 package net.sf.mzmine.modules.rawdatamethods.filtering.baselinecorrection.correctors;
 
+import java.util.Arrays;
+
 import javax.annotation.Nonnull;
 
+import org.apache.commons.math3.analysis.interpolation.SplineInterpolator;
+import org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction;
+
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.modules.rawdatamethods.filtering.baselinecorrection.BaselineCorrector;
 import net.sf.mzmine.parameters.ParameterSet;
@@ -30,7 +35,12 @@ import net.sf.mzmine.util.R.RSessionWrapperException;
  * @description Rubber Band baseline corrector. Estimates a trend based on Rubber Band algorithm
  *              (which determines a convex envelope for the spectra - underneath side). Uses
  *              "spc.rubberband" feature from "hyperSpec" R-package
- *              (http://cran.r-project.org/web/packages /hyperSpec/vignettes/baseline.pdf).
+ *              (http://cran.r-project.org/web/packages /hyperSpec/vignettes/baseline.pdf). As in
+ *              "spc.rubberband", the baseline is the linear interpolation of the lower convex hull.
+ *              With "spline", the points at most "noise" above it are the support points of a
+ *              spline. The Java implementation interpolates at most "df" of these points with a
+ *              natural cubic spline, instead of fitting a smoothing spline with "df" degrees of
+ *              freedom, so only its baselines without "spline" are the same as those of R.
  * 
  */
 public class RubberBandCorrector extends BaselineCorrector {
@@ -79,6 +89,101 @@ public class RubberBandCorrector extends BaselineCorrector {
     return baseline;
   }
 
+  @Override
+  public double[] computeBaseline(final double[] chromatogram, ParameterSet parameters) {
+
+    // Rubber Band parameters.
+    final double noise = parameters.getParameter(RubberBandCorrectorParameters.NOISE).getValue();
+    final boolean autoNoise =
+        parameters.getParameter(RubberBandCorrectorParameters.AUTO_NOISE).getValue();
+    final double df = parameters.getParameter(RubberBandCorrectorParameters.DF).getValue();
+    final boolean spline =
+        parameters.getParameter(RubberBandCorrectorParameters.SPLINE).getValue();
+    final double bend =
+        parameters.getParameter(RubberBandCorrectorParameters.BEND_FACTOR).getValue();
+
+    return computeBaseline(chromatogram, noise, autoNoise, df, spline, bend);
+  }
+
+  /**
+   * Rubber band baseline of the chromatogram, see "spc.rubberband".
+   */
+  static double[] computeBaseline(final double[] chromatogram, final double noise,
+      final boolean autoNoise, final double df, final boolean spline, final double bend) {
+
+    final int n = chromatogram.length;
+    if (n == 0)
+      return new double[0];
+
+    // Auto noise ?
+    double noiseLevel = noise;
+    if (autoNoise) {
+      noiseLevel = Double.MAX_VALUE;
+      for (final double intensity : chromatogram)
+        noiseLevel = Math.min(noiseLevel, intensity);
+    }
+
+    // Bend: bend * x^2, for x normalized to [0, 1].
+    final double[] bendValues = new double[n];
+    final double[] bent = new double[n];
+    for (int i = 0; i < n; i++) {
+      final double x = (n > 1) ? (double) i / (n - 1) : 0.0;
+      bendValues[i] = bend * x * x;
+      bent[i] = chromatogram[i] + bendValues[i];
+    }
+
+    // Linear interpolation of the lower convex hull.
+    final int[] hull = BaselineFunctions.lowerConvexHull(bent);
+    double[] baseline = BaselineFunctions.linearInterpolation(toDoubles(hull),
+        getValues(bent, hull), n);
+
+    // Spline through the points at most "noise" above the hull. For more than 3 of them, use at
+    // most "df" evenly picked points (always keeping both ends).
+    if (spline) {
+      int[] supportPoints = new int[n];
+      int numOfSupportPoints = 0;
+      for (int i = 0; i < n; i++) {
+        if (bent[i] <= baseline[i] + noiseLevel)
+          supportPoints[numOfSupportPoints++] = i;
+      }
+      supportPoints = Arrays.copyOf(supportPoints, numOfSupportPoints);
+      final int maxSupportPoints = Math.max(3, (int) Math.round(df));
+      if (numOfSupportPoints > 3 && maxSupportPoints < numOfSupportPoints) {
+        final int[] reduced = new int[maxSupportPoints];
+        final double step = (double) (numOfSupportPoints - 1) / (maxSupportPoints - 1);
+        for (int k = 0; k < maxSupportPoints; k++)
+          reduced[k] = supportPoints[(int) Math.round(k * step)];
+        supportPoints = reduced;
+      }
+      if (supportPoints.length >= 3) {
+        final PolynomialSplineFunction function = new SplineInterpolator()
+            .interpolate(toDoubles(supportPoints), getValues(bent, supportPoints));
+        baseline = new double[n];
+        for (int i = 0; i < n; i++)
+          baseline[i] = function.value(i);
+      }
+    }
+
+    for (int i = 0; i < n; i++)
+      baseline[i] -= bendValues[i];
+
+    return baseline;
+  }
+
+  private static double[] toDoubles(final int[] indexes) {
+    final double[] values = new double[indexes.length];
+    for (int k = 0; k < indexes.length; k++)
+      values[k] = indexes[k];
+    return values;
+  }
+
+  private static double[] getValues(final double[] values, final int[] indexes) {
+    final double[] result = new double[indexes.length];
+    for (int k = 0; k < indexes.length; k++)
+      result[k] = values[indexes[k]];
+    return result;
+  }
+
   @Override
   public @Nonnull String getName() {
     return "RubberBand baseline corrector";
@@ -38,7 +38,7 @@ public class RubberBandCorrectorParameters extends SimpleParameterSet {
    * Noise level.
    */
   public static final DoubleParameter NOISE = new DoubleParameter("noise",
-      "Ignored if \"auto noise\" is checked. Noise level to be taken into account.",
+      "Ignored if \"auto noise\" is checked. Only used with \"spline\": the points at most this far above the convex hull are the support points of the spline.",
       DecimalFormat.getNumberInstance(), 0.0, 0.0, null);
 
   /**
@@ -30,6 +30,7 @@ import net.sf.mzmine.datamodel.impl.SimpleMassList;
 import net.sf.mzmine.desktop.impl.projecttree.RawDataTreeModel;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.modules.MZmineProcessingStep;
+import net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.centroid.CentroidMassDetector;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.selectors.ScanSelection;
 import net.sf.mzmine.project.impl.MZmineProjectImpl;
@@ -124,6 +125,9 @@ public class MassDetectionTask extends AbstractTask {
     double curTotalIntensity;
     int lastPointCount = 0;
 
+    // Reused for the m/z and intensity values of all scans
+    double mzValues[] = new double[0], intensityValues[] = new double[0];
+
     startIndex.add(0);
 
     try {
@@ -142,7 +146,21 @@ public class MassDetectionTask extends AbstractTask {
           return;
 
         MassDetector detector = massDetector.getModule();
-        DataPoint mzPeaks[] = detector.getMassValues(scan, massDetector.getParameterSet());
+        DataPoint mzPeaks[];
+        if (detector instanceof CentroidMassDetector) {
+          // Centroid detection only filters by intensity, so we read the scan into primitive
+          // arrays and avoid creating an object for each of its data points
+          final int numOfDataPoints = scan.getNumberOfDataPoints();
+          if (mzValues.length < numOfDataPoints) {
+            mzValues = new double[numOfDataPoints];
+            intensityValues = new double[numOfDataPoints];
+          }
+          final int numOfReadDataPoints = scan.getDataPoints(mzValues, intensityValues);
+          mzPeaks = ((CentroidMassDetector) detector).getMassValues(mzValues, intensityValues,
+              numOfReadDataPoints, massDetector.getParameterSet());
+        } else {
+          mzPeaks = detector.getMassValues(scan, massDetector.getParameterSet());
+        }
 
         SimpleMassList newMassList = new SimpleMassList(name, scan, mzPeaks);
 
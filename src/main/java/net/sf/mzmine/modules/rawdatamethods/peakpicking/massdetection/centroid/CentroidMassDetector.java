@@ -20,6 +20,7 @@ package net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.centroid;
 
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.MassDetector;
 import net.sf.mzmine.parameters.ParameterSet;
 
@@ -56,6 +57,31 @@ public class CentroidMassDetector implements MassDetector {
     return mzPeaks.toArray(new DataPoint[0]);
   }
 
+  /**
+   * Same as getMassValues(DataPoint[], ParameterSet), but the data points are given as primitive
+   * arrays. Data point objects are only created for the detected masses.
+   */
+  public DataPoint[] getMassValues(double mzValues[], double intensityValues[],
+      int numOfDataPoints, ParameterSet parameters) {
+
+    double noiseLevel =
+        parameters.getParameter(CentroidMassDetectorParameters.noiseLevel).getValue();
+
+    int numOfPeaks = 0;
+    for (int j = 0; j < numOfDataPoints; j++) {
+      if (intensityValues[j] >= noiseLevel)
+        numOfPeaks++;
+    }
+
+    DataPoint mzPeaks[] = new DataPoint[numOfPeaks];
+    int peak = 0;
+    for (int j = 0; j < numOfDataPoints; j++) {
+      if (intensityValues[j] >= noiseLevel)
+        mzPeaks[peak++] = new SimpleDataPoint(mzValues[j], intensityValues[j]);
+    }
+    return mzPeaks;
+  }
+
   public @Nonnull String getName() {
     return "Centroid";
   }
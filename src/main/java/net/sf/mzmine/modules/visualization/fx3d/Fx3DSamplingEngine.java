@@ -0,0 +1,393 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.visualization.fx3d;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.google.common.collect.Range;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.MZmineProject;
+import net.sf.mzmine.datamodel.MZmineProjectListener;
+import net.sf.mzmine.datamodel.MassSpectrumType;
+import net.sf.mzmine.datamodel.PeakList;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.project.ProjectManager;
+import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.SubTaskGroup;
+import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.scans.ScanUtils;
+import net.sf.mzmine.util.scans.ScanUtils.BinningType;
+
+/**
+ * Samples the scans of a raw data file on a retention time x m/z grid for the 3D visualizer. The
+ * binned intensities of the sampled scans are kept in direct (off-heap) buffers, so scans which are
+ * sampled again (another retention time range or level of detail) are not read and binned again.
+ * The buffers are allocated on first use, for blocks of SCANS_PER_BLOCK consecutive scans of the
+ * data file. One engine is kept per data file, m/z range and m/z resolution. The buffers of all
+ * engines are limited to MAX_CACHED_BYTES; the least recently used engines are released to make
+ * room for new buffers, and the engines of a data file are released when it is removed from the
+ * project. A released engine drops its buffers, which are reclaimed by the garbage collector.
+ */
+public class Fx3DSamplingEngine {
+
+    // Maximum size of the buffers of all engines (in bytes)
+    private static final long MAX_CACHED_BYTES = 256L * 1024 * 1024;
+
+    // Number of consecutive scans whose binned intensities share one buffer
+    private static final int SCANS_PER_BLOCK = 64;
+
+    // Engines of the recently sampled data files, least recently used first
+    private static final LinkedHashMap<List<Object>, Fx3DSamplingEngine> engines =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    // Size of the buffers of all engines (in bytes), guarded by engines
+    private static long cachedBytes;
+
+    // Releases the engines of the data files removed from the project
+    private static final MZmineProjectListener projectListener = new MZmineProjectListener() {
+
+        @Override
+        public void dataFileAdded(RawDataFile newFile) {
+        }
+
+        @Override
+        public void peakListAdded(PeakList newPeakList) {
+        }
+
+        @Override
+        public void dataFileRemoved(RawDataFile removedFile) {
+            invalidate(removedFile);
+        }
+
+        @Override
+        public void peakListRemoved(PeakList removedPeakList) {
+        }
+    };
+
+    private static MZmineProject listenedProject;
+
+    private final RawDataFile dataFile;
+    private final Range<Double> mzRange;
+    private final int mzResolution;
+
+    // All scan numbers of the data file, the binned intensities of a scan are
+    // stored at its index
+    private final int scanNumbers[];
+    private final AtomicReferenceArray<FloatBuffer> blocks;
+    private final AtomicIntegerArray binnedScans;
+
+    // Size of the buffers of this engine (in bytes) and whether it was
+    // released, guarded by engines
+    private long allocatedBytes;
+    private boolean released;
+
+    private Fx3DSamplingEngine(RawDataFile dataFile, Range<Double> mzRange,
+            int mzResolution) {
+        this.dataFile = dataFile;
+        this.mzRange = mzRange;
+        this.mzResolution = mzResolution;
+        scanNumbers = dataFile.getScanNumbers();
+        blocks = new AtomicReferenceArray<>(
+                (scanNumbers.length + SCANS_PER_BLOCK - 1) / SCANS_PER_BLOCK);
+        binnedScans = new AtomicIntegerArray(scanNumbers.length);
+    }
+
+    /**
+     * @return engine of the data file, m/z range and m/z resolution
+     */
+    static Fx3DSamplingEngine getEngine(RawDataFile dataFile,
+            Range<Double> mzRange, int mzResolution) {
+        listenToCurrentProject();
+        final List<Object> key = Arrays.asList(dataFile, mzRange, mzResolution);
+        synchronized (engines) {
+            Fx3DSamplingEngine engine = engines.get(key);
+            if (engine == null) {
+                engine = new Fx3DSamplingEngine(dataFile, mzRange, mzResolution);
+                engines.put(key, engine);
+            }
+            return engine;
+        }
+    }
+
+    /**
+     * Moves the project listener to the current project, when another project
+     * was activated
+     */
+    private static synchronized void listenToCurrentProject() {
+        final ProjectManager projectManager = MZmineCore.getProjectManager();
+        final MZmineProject project = (projectManager == null) ? null
+                : projectManager.getCurrentProject();
+        if ((project == null) || (project == listenedProject))
+            return;
+        if (listenedProject != null)
+            listenedProject.removeProjectListener(projectListener);
+        project.addProjectListener(projectListener);
+        listenedProject = project;
+    }
+
+    /**
+     * Releases the engines of the data file
+     */
+    private static void invalidate(RawDataFile dataFile) {
+        synchronized (engines) {
+            final Iterator<Fx3DSamplingEngine> iterator = engines.values()
+                    .iterator();
+            while (iterator.hasNext()) {
+                final Fx3DSamplingEngine engine = iterator.next();
+                if (engine.dataFile == dataFile) {
+                    iterator.remove();
+                    engine.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the buffers of the engine, must be called while holding the lock
+     * of engines. Scans sampled by a released engine are binned again.
+     */
+    private void release() {
+        released = true;
+        cachedBytes -= allocatedBytes;
+        allocatedBytes = 0;
+        for (int block = 0; block < blocks.length(); block++)
+            blocks.set(block, null);
+    }
+
+    /**
+     * @return buffer of the binned intensities of the block of scans, which is
+     *         allocated on first use, or null if the engine was released or
+     *         the buffer does not fit in the memory limit
+     */
+    private FloatBuffer getBlock(int block) {
+        FloatBuffer buffer = blocks.get(block);
+        if (buffer != null)
+            return buffer;
+        final long blockBytes = (long) SCANS_PER_BLOCK * mzResolution * 4;
+        synchronized (engines) {
+            buffer = blocks.get(block);
+            if ((buffer != null) || released)
+                return buffer;
+            // Release the least recently used engines until the buffer fits
+            final Iterator<Fx3DSamplingEngine> iterator = engines.values()
+                    .iterator();
+            while ((cachedBytes + blockBytes > MAX_CACHED_BYTES)
+                    && iterator.hasNext()) {
+                final Fx3DSamplingEngine engine = iterator.next();
+                if (engine == this)
+                    continue;
+                iterator.remove();
+                engine.release();
+            }
+            if (cachedBytes + blockBytes > MAX_CACHED_BYTES)
+                return null;
+            buffer = ByteBuffer.allocateDirect((int) blockBytes)
+                    .asFloatBuffer();
+            blocks.set(block, buffer);
+            allocatedBytes += blockBytes;
+            cachedBytes += blockBytes;
+            return buffer;
+        }
+    }
+
+    /**
+     * Samples the maximum intensities of the scans on a grid of rtResolution
+     * rows and mzResolution / mzFactor columns, mzFactor adjacent m/z bins are
+     * combined into one column. The rows are filled by Fx3DSamplingRowsTask
+     * sub tasks of the task, so the scans of different rows are binned in
+     * parallel. Rows without scans are interpolated from their neighbours.
+     *
+     * @return sampled grid, or null if the task was canceled or failed
+     */
+    SampledGrid sample(Scan scans[], Range<Double> rtRange, int rtResolution,
+            int mzFactor, AbstractTask task, AtomicInteger processedScans) {
+
+        final int columns = (mzResolution + mzFactor - 1) / mzFactor;
+        final double rtStep = (rtRange.upperEndpoint()
+                - rtRange.lowerEndpoint()) / rtResolution;
+
+        final List<List<Scan>> scansByRow = new ArrayList<>(rtResolution);
+        for (int row = 0; row < rtResolution; row++)
+            scansByRow.add(new ArrayList<>());
+        for (Scan scan : scans) {
+            int row = (int) ((scan.getRetentionTime()
+                    - rtRange.lowerEndpoint()) / rtStep);
+            // last scan falls into last row
+            row = Math.max(0, Math.min(row, rtResolution - 1));
+            scansByRow.get(row).add(scan);
+        }
+
+        final FloatBuffer grid = ByteBuffer
+                .allocateDirect(rtResolution * columns * 4).asFloatBuffer();
+
+        final int numOfSubTasks = Math.min(rtResolution,
+                Runtime.getRuntime().availableProcessors());
+        final int rowsPerSubTask = (rtResolution + numOfSubTasks - 1)
+                / numOfSubTasks;
+        final SubTaskGroup<Fx3DSamplingRowsTask> subTasks = new SubTaskGroup<>(
+                task);
+        subTasks.submitRanges(rtResolution, rowsPerSubTask,
+                (start, end) -> new Fx3DSamplingRowsTask(this, task, scansByRow,
+                        grid, columns, mzFactor, start, end, processedScans));
+        if (!subTasks.join()) {
+            if (!task.isCanceled()) {
+                task.setErrorMessage(subTasks.getErrorMessage());
+                task.setStatus(TaskStatus.ERROR);
+            }
+            return null;
+        }
+
+        float maxIntensity = 0;
+        for (int index = 0; index < grid.capacity(); index++)
+            maxIntensity = Math.max(maxIntensity, grid.get(index));
+
+        // Interpolate missing values on the RT-axis
+        for (int row = 1; row < rtResolution - 1; row++) {
+
+            // If the data was set, go to next RT line
+            if (!scansByRow.get(row).isEmpty())
+                continue;
+            int prevRow, nextRow;
+            for (prevRow = row - 1; prevRow >= 0; prevRow--) {
+                if (!scansByRow.get(prevRow).isEmpty())
+                    break;
+            }
+            for (nextRow = row + 1; nextRow < rtResolution; nextRow++) {
+                if (!scansByRow.get(nextRow).isEmpty())
+                    break;
+            }
+
+            // If no neighboring data was found, give up
+            if ((prevRow < 0) || (nextRow >= rtResolution))
+                continue;
+
+            for (int column = 0; column < columns; column++) {
+                double prevValue = grid.get(prevRow * columns + column);
+                double nextValue = grid.get(nextRow * columns + column);
+                double slope = (nextValue - prevValue) / (nextRow - prevRow);
+                grid.put(row * columns + column,
+                        (float) (prevValue + (slope * (row - prevRow))));
+            }
+        }
+
+        final float values[][] = new float[rtResolution][columns];
+        if (maxIntensity > 0) {
+            for (int row = 0; row < rtResolution; row++) {
+                for (int column = 0; column < columns; column++) {
+                    values[row][column] = grid.get(row * columns + column)
+                            / maxIntensity;
+                }
+            }
+        }
+
+        return new SampledGrid(values, rtResolution, columns, maxIntensity);
+
+    }
+
+    /**
+     * Adds the binned intensities of the scan to the grid row starting at the
+     * offset, mzFactor adjacent m/z bins are combined into one column
+     */
+    void addScan(Scan scan, FloatBuffer grid, int offset, int mzFactor) {
+        final float intensities[] = getBinnedIntensities(scan);
+        for (int mzIndex = 0; mzIndex < mzResolution; mzIndex++) {
+            final int index = offset + mzIndex / mzFactor;
+            if (intensities[mzIndex] > grid.get(index))
+                grid.put(index, intensities[mzIndex]);
+        }
+    }
+
+    /**
+     * @return intensities of the scan binned on the m/z axis, from the cache
+     *         if the scan was binned before
+     */
+    private float[] getBinnedIntensities(Scan scan) {
+
+        final float intensities[] = new float[mzResolution];
+        final int scanIndex = (scan.getDataFile() != dataFile) ? -1
+                : Arrays.binarySearch(scanNumbers, scan.getScanNumber());
+        final FloatBuffer block = (scanIndex < 0) ? null
+                : getBlock(scanIndex / SCANS_PER_BLOCK);
+        final int position = (scanIndex % SCANS_PER_BLOCK) * mzResolution;
+
+        if ((block != null) && (binnedScans.get(scanIndex) == 1)) {
+            FloatBuffer buffer = block.duplicate();
+            buffer.position(position);
+            buffer.get(intensities);
+            return intensities;
+        }
+
+        DataPoint dataPoints[] = scan.getDataPoints();
+        double[] scanMZValues = new double[dataPoints.length];
+        double[] scanIntensityValues = new double[dataPoints.length];
+        for (int dp = 0; dp < dataPoints.length; dp++) {
+            scanMZValues[dp] = dataPoints[dp].getMZ();
+            scanIntensityValues[dp] = dataPoints[dp].getIntensity();
+        }
+
+        double[] binned = ScanUtils.binValues(scanMZValues, scanIntensityValues,
+                mzRange, mzResolution,
+                scan.getSpectrumType() != MassSpectrumType.CENTROIDED,
+                BinningType.MAX);
+        for (int mzIndex = 0; mzIndex < mzResolution; mzIndex++)
+            intensities[mzIndex] = (float) binned[mzIndex];
+
+        if (block != null) {
+            FloatBuffer buffer = block.duplicate();
+            buffer.position(position);
+            buffer.put(intensities);
+            binnedScans.set(scanIndex, 1);
+        }
+
+        return intensities;
+
+    }
+
+    /**
+     * Intensities sampled on the grid, normalized to the maximum intensity
+     */
+    static class SampledGrid {
+
+        final float values[][];
+        final int rtResolution, mzResolution;
+        final double maxIntensity;
+
+        SampledGrid(float values[][], int rtResolution, int mzResolution,
+                double maxIntensity) {
+            this.values = values;
+            this.rtResolution = rtResolution;
+            this.mzResolution = mzResolution;
+            this.maxIntensity = maxIntensity;
+        }
+
+    }
+
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.visualization.fx3d;
+
+import java.nio.FloatBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.RangeSubTask;
+
+/**
+ * Sub task of the 3D sampling, fills a range of rows of the sampled grid.
+ */
+class Fx3DSamplingRowsTask extends RangeSubTask {
+
+    private final Fx3DSamplingEngine engine;
+    private final List<List<Scan>> scansByRow;
+    private final FloatBuffer grid;
+    private final int columns, mzFactor;
+    private final AtomicInteger processedScans;
+
+    /**
+     * @param start
+     *            first row to fill
+     * @param end
+     *            end (exclusive) of the rows to fill
+     */
+    Fx3DSamplingRowsTask(Fx3DSamplingEngine engine, AbstractTask parentTask,
+            List<List<Scan>> scansByRow, FloatBuffer grid, int columns,
+            int mzFactor, int start, int end, AtomicInteger processedScans) {
+        super(parentTask, "rows", start, end);
+        this.engine = engine;
+        this.scansByRow = scansByRow;
+        this.grid = grid;
+        this.columns = columns;
+        this.mzFactor = mzFactor;
+        this.processedScans = processedScans;
+    }
+
+    @Override
+    protected void process(int row) {
+        final int offset = row * columns;
+        for (Scan scan : scansByRow.get(row)) {
+            if (isCanceled())
+                return;
+            engine.addScan(scan, grid, offset, mzFactor);
+            processedScans.incrementAndGet();
+        }
+    }
+
+}
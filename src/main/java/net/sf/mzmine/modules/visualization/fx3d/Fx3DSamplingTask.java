@@ -18,28 +18,30 @@
 
 package net.sf.mzmine.modules.visualization.fx3d;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import com.google.common.collect.Range;
 
 import javafx.application.Platform;
 import javafx.scene.paint.Color;
-import net.sf.mzmine.datamodel.DataPoint;
-import net.sf.mzmine.datamodel.MassSpectrumType;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.Scan;
 import net.sf.mzmine.desktop.Desktop;
 import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.modules.visualization.fx3d.Fx3DSamplingEngine.SampledGrid;
 import net.sf.mzmine.parameters.parametertypes.selectors.ScanSelection;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.ExceptionUtils;
 import net.sf.mzmine.util.scans.ScanUtils;
-import net.sf.mzmine.util.scans.ScanUtils.BinningType;
 
 /**
- * Sampling task which loads the raw data and feeds them to Fx3DDisplay
+ * Sampling task which loads the raw data and feeds them to Fx3DDisplay. The
+ * plot is shown at a coarse level of detail first and refined afterwards.
  */
 class Fx3DSamplingTask extends AbstractTask {
 
@@ -52,10 +54,14 @@ class Fx3DSamplingTask extends AbstractTask {
     // Data resolution on m/z and retention time axis
     private int rtResolution, mzResolution;
     private Random random = new Random();
-    private int retrievedScans = 0;
+    private final AtomicInteger retrievedScans = new AtomicInteger();
+    private int totalScans;
 
-    // maximum value on Z axis
-    private double maxBinnedIntensity;
+    // Levels of detail, 1/n of the scans and resolution, sampled one after the other
+    private static final int LEVELS_OF_DETAIL[] = { 16, 4, 1 };
+
+    // Minimum number of scans of a preview level
+    private static final int MIN_PREVIEW_SCANS = 8;
 
     private Fx3DStageController controller;
     private static final Color[] PEAK_COLORS = { Color.BLUE, Color.GREEN,
@@ -95,7 +101,8 @@ class Fx3DSamplingTask extends AbstractTask {
      * @see net.sf.mzmine.taskcontrol.Task#getFinishedPercentage()
      */
     public double getFinishedPercentage() {
-        return (double) retrievedScans / scans.length;
+        return (totalScans == 0) ? 0.0
+                : (double) retrievedScans.get() / totalScans;
     }
 
     /**
@@ -109,125 +116,59 @@ class Fx3DSamplingTask extends AbstractTask {
 
         try {
 
-            final double rtStep = (rtRange.upperEndpoint()
-                    - rtRange.lowerEndpoint()) / rtResolution;
-
-            // create an array for all data points
-            float[][] intensityValues = new float[1][mzResolution
-                    * rtResolution];
-            boolean rtDataSet[] = new boolean[rtResolution];
-
-            // load scans
-            for (int scanIndex = 0; scanIndex < scans.length; scanIndex++) {
-
-                if (isCanceled())
-                    return;
-
-                Scan scan = scans[scanIndex];
+            // Check scan numbers.
+            if (scans.length == 0) {
                 final Desktop desktop = MZmineCore.getDesktop();
-
-                // Check scan numbers.
-                if (scans.length == 0) {
-                    desktop.displayErrorMessage(
-                            MZmineCore.getDesktop().getMainWindow(),
-                            "No scans found");
-                    return;
-                }
-
-                DataPoint dataPoints[] = scan.getDataPoints();
-                double[] scanMZValues = new double[dataPoints.length];
-                double[] scanIntensityValues = new double[dataPoints.length];
-                for (int dp = 0; dp < dataPoints.length; dp++) {
-                    scanMZValues[dp] = dataPoints[dp].getMZ();
-                    scanIntensityValues[dp] = dataPoints[dp].getIntensity();
-                }
-
-                double[] binnedIntensities = ScanUtils.binValues(scanMZValues,
-                        scanIntensityValues, mzRange, mzResolution,
-                        scan.getSpectrumType() != MassSpectrumType.CENTROIDED,
-                        BinningType.MAX);
-
-                int scanBinIndex;
-
-                double rt = scan.getRetentionTime();
-                scanBinIndex = (int) ((rt - rtRange.lowerEndpoint()) / rtStep);
-
-                // last scan falls into last bin
-                if (scanBinIndex == rtResolution) {
-                    scanBinIndex--;
-                }
-
-                for (int mzIndex = 0; mzIndex < mzResolution; mzIndex++) {
-
-                    int intensityValuesIndex = (rtResolution * mzIndex)
-                            + scanBinIndex;
-                    if (binnedIntensities[mzIndex] > intensityValues[0][intensityValuesIndex]) {
-                        intensityValues[0][intensityValuesIndex] = (float) binnedIntensities[mzIndex];
-                    }
-                    if (intensityValues[0][intensityValuesIndex] > maxBinnedIntensity)
-                        maxBinnedIntensity = (double) binnedIntensities[mzIndex];
-                }
-
-                rtDataSet[scanBinIndex] = true;
-
-                retrievedScans++;
-
+                desktop.displayErrorMessage(
+                        MZmineCore.getDesktop().getMainWindow(),
+                        "No scans found");
+                setStatus(TaskStatus.FINISHED);
+                return;
             }
 
-            // Interpolate missing values on the RT-axis
-            for (int rtIndex = 1; rtIndex < rtResolution - 1; rtIndex++) {
-
-                // If the data was set, go to next RT line
-                if (rtDataSet[rtIndex])
-                    continue;
-                int prevIndex, nextIndex;
-                for (prevIndex = rtIndex - 1; prevIndex >= 0; prevIndex--) {
-                    if (rtDataSet[prevIndex])
-                        break;
-                }
-                for (nextIndex = rtIndex
-                        + 1; nextIndex < rtResolution; nextIndex++) {
-                    if (rtDataSet[nextIndex])
-                        break;
+            final Fx3DSamplingEngine engine = Fx3DSamplingEngine
+                    .getEngine(dataFile, mzRange, mzResolution);
+            final Color peakColor = PEAK_COLORS[random.nextInt(14)];
+
+            // Sample every n-th scan at 1/n of the resolution first, the
+            // binned scans are reused by the next level
+            List<Integer> levels = new ArrayList<>();
+            for (int level : LEVELS_OF_DETAIL) {
+                if ((level == 1) || ((scans.length >= level * MIN_PREVIEW_SCANS)
+                        && (rtResolution >= 2 * level)
+                        && (mzResolution >= 2 * level))) {
+                    levels.add(level);
+                    totalScans += (scans.length + level - 1) / level;
                 }
+            }
 
-                // If no neighboring data was found, give up
-                if ((prevIndex < 0) || (nextIndex >= rtResolution))
-                    continue;
-
-                for (int mzIndex = 0; mzIndex < mzResolution; mzIndex++) {
-
-                    int valueIndex = (rtResolution * mzIndex) + rtIndex;
-                    int nextValueIndex = (rtResolution * mzIndex) + nextIndex;
-                    int prevValueIndex = (rtResolution * mzIndex) + prevIndex;
-
-                    double prevValue = intensityValues[0][prevValueIndex];
-                    double nextValue = intensityValues[0][nextValueIndex];
+            Fx3DRawDataFileDataset shownMesh = null;
+            for (int level : levels) {
 
-                    double slope = (nextValue - prevValue)
-                            / (nextIndex - prevIndex);
-                    intensityValues[0][valueIndex] = (float) (prevValue
-                            + (slope * (rtIndex - prevIndex)));
+                Scan levelScans[] = new Scan[(scans.length + level - 1) / level];
+                for (int i = 0; i < levelScans.length; i++)
+                    levelScans[i] = scans[i * level];
 
-                }
-            }
+                SampledGrid grid = engine.sample(levelScans, rtRange,
+                        rtResolution / level, level, this,
+                        retrievedScans);
+                if (grid == null)
+                    return;
 
-            float[][] finalIntensityValues = new float[rtResolution][mzResolution];
-            for (int rtIndex = 0; rtIndex < rtResolution; rtIndex++) {
-                for (int mzIndex = 0; mzIndex < mzResolution; mzIndex++) {
-                    int valueIndex = (rtResolution * mzIndex) + rtIndex;
-                    finalIntensityValues[rtIndex][mzIndex] = (float) (intensityValues[0][valueIndex]
-                            / maxBinnedIntensity);
-                }
+                Fx3DRawDataFileDataset plotMesh = new Fx3DRawDataFileDataset(
+                        dataFile, grid.values, grid.rtResolution,
+                        grid.mzResolution, grid.maxIntensity,
+                        dataFile.toString(), peakColor);
+
+                final Fx3DRawDataFileDataset previousMesh = shownMesh;
+                Platform.runLater(() -> {
+                    if (previousMesh == null)
+                        controller.addDataset(plotMesh);
+                    else
+                        controller.replaceDataset(previousMesh, plotMesh);
+                });
+                shownMesh = plotMesh;
             }
-            Fx3DRawDataFileDataset plotMesh = new Fx3DRawDataFileDataset(
-                    dataFile, finalIntensityValues, rtResolution, mzResolution,
-                    maxBinnedIntensity, dataFile.toString(),
-                    PEAK_COLORS[random.nextInt(14)]);
-
-            Platform.runLater(() -> {
-                controller.addDataset(plotMesh);
-            });
 
         } catch (Throwable e) {
             setStatus(TaskStatus.ERROR);
@@ -280,6 +280,30 @@ public class Fx3DStageController {
         updateLabel();
     }
 
+    /**
+     * @param oldDataset
+     * @param newDataset
+     *            Replaces the dataset by a refined version of it. The color,
+     *            opacity and visibility of the old dataset are kept. Nothing
+     *            is replaced if the old dataset was removed from the plot.
+     */
+    public synchronized void replaceDataset(Fx3DAbstractDataset oldDataset,
+            Fx3DAbstractDataset newDataset) {
+        int index = visualizedMeshPlots.indexOf(oldDataset);
+        if (index < 0)
+            return;
+        visualizedMeshPlots.set(index, newDataset);
+        addColorListener(newDataset);
+        addOpacityListener(newDataset);
+        newDataset.setColor(oldDataset.getColor());
+        newDataset.setOpacity(oldDataset.getOpacity());
+        newDataset.visibilityProperty()
+                .bindBidirectional(newDataset.getNode().visibleProperty());
+        newDataset.setVisibility(oldDataset.getVisibility());
+        updateGraph();
+        addMenuItems();
+    }
+
     private void updateGraph() {
         maxOfAllBinnedIntensity = Double.NEGATIVE_INFINITY;
         for (Fx3DAbstractDataset mesh : visualizedMeshPlots) {
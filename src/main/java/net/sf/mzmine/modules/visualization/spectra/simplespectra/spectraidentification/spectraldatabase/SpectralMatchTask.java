@@ -48,6 +48,7 @@ import net.sf.mzmine.util.scans.ScanAlignment;
 import net.sf.mzmine.util.scans.ScanUtils;
 import net.sf.mzmine.util.scans.similarity.SpectralSimilarity;
 import net.sf.mzmine.util.scans.similarity.SpectralSimilarityFunction;
+import net.sf.mzmine.util.scans.similarity.SpectralSimilarityKernel;
 import net.sf.mzmine.util.spectraldb.entry.DBEntryField;
 import net.sf.mzmine.util.spectraldb.entry.SpectralDBEntry;
 import net.sf.mzmine.util.spectraldb.entry.SpectralDBPeakIdentity;
@@ -94,6 +95,8 @@ public class SpectralMatchTask extends AbstractTask {
   private boolean usePrecursorMZ;
 
   private MZmineProcessingStep<SpectralSimilarityFunction> simFunction;
+  // reused for all comparisons of this task
+  private final SpectralSimilarityKernel kernel;
   // deisotoping of masslists
   private boolean removeIsotopes;
   private MassListDeisotoperParameters deisotopeParam;
@@ -138,6 +141,8 @@ public class SpectralMatchTask extends AbstractTask {
     simFunction =
         parameters.getParameter(SpectraIdentificationSpectralDatabaseParameters.similarityFunction)
             .getValue();
+    kernel = simFunction.getModule().createKernel(simFunction.getParameterSet(),
+        mzToleranceSpectra, minMatch);
     needsIsotopePattern =
         parameters.getParameter(SpectraIdentificationSpectralDatabaseParameters.needsIsotopePattern)
             .getValue();
@@ -335,8 +340,7 @@ public class SpectralMatchTask extends AbstractTask {
    * @return positive match with similarity or null if criteria was not met
    */
   private SpectralSimilarity createSimilarity(DataPoint[] library, DataPoint[] query) {
-    return simFunction.getModule().getSimilarity(simFunction.getParameterSet(), mzToleranceSpectra,
-        minMatch, library, query);
+    return kernel.getSimilarity(simFunction.getModule().getName(), library, query);
   }
 
   private boolean checkPrecursorMZ(double precursorMZ, SpectralDBEntry ident) {
@@ -34,6 +34,8 @@ import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.taskcontrol.Task;
 import net.sf.mzmine.taskcontrol.TaskPriority;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.chromatogram.ChromatogramExtractionService;
+import net.sf.mzmine.util.chromatogram.ExtractedChromatogram;
 import net.sf.mzmine.util.scans.ScanUtils;
 
 /**
@@ -318,6 +320,59 @@ public class TICDataSet extends AbstractXYZDataset implements Task {
 
   private void calculateValues() {
 
+    // Scans of one MS level of the data file are taken from the shared chromatogram of their
+    // retention time range
+    final int msLevel = (totalScans == 0) ? 0 : scans[0].getMSLevel();
+    boolean extractable = totalScans > 0;
+    double rtMin = Double.MAX_VALUE, rtMax = -Double.MAX_VALUE;
+    for (Scan scan : scans) {
+      if ((scan.getDataFile() != dataFile) || (scan.getMSLevel() != msLevel)) {
+        extractable = false;
+        break;
+      }
+      rtMin = Math.min(rtMin, scan.getRetentionTime());
+      rtMax = Math.max(rtMax, scan.getRetentionTime());
+    }
+
+    if (!extractable) {
+      calculateValuesFromScans();
+      return;
+    }
+
+    final ExtractedChromatogram chromatogram = ChromatogramExtractionService.getChromatogram(
+        dataFile, msLevel, Range.closed(rtMin, rtMax), mzRange, this::chromatogramUpdated, this);
+    if (chromatogram != null)
+      chromatogramUpdated(chromatogram);
+  }
+
+  /**
+   * Copies the values of the processed scans of the chromatogram. The scans of this data set are
+   * in scan number order, like the scans of the chromatogram.
+   */
+  private void chromatogramUpdated(final ExtractedChromatogram chromatogram) {
+
+    final int chromatogramScans = chromatogram.getProcessedScans();
+    while (status != TaskStatus.CANCELED && processedScans < totalScans) {
+
+      final int index = processedScans;
+      final int chromatogramIndex = chromatogram.indexOf(scans[index].getScanNumber());
+      if (chromatogramIndex >= chromatogramScans)
+        break;
+
+      double basePeakMZ = 0.0, intensity = 0.0;
+      if (chromatogramIndex >= 0) {
+        basePeakMZ = chromatogram.getBasePeakMZ(chromatogramIndex);
+        if (plotType == TICPlotType.TIC)
+          intensity = chromatogram.getTotalIntensity(chromatogramIndex);
+        else if (plotType == TICPlotType.BASEPEAK)
+          intensity = chromatogram.getBasePeakIntensity(chromatogramIndex);
+      }
+      setValues(index, basePeakMZ, intensity);
+    }
+  }
+
+  private void calculateValuesFromScans() {
+
     // Determine plot type (now done from constructor).
     final TICPlotType plotType = this.plotType;
 
@@ -331,10 +386,7 @@ public class TICDataSet extends AbstractXYZDataset implements Task {
       final DataPoint basePeak =
           mzRange.encloses(scan.getDataPointMZRange()) ? scan.getHighestDataPoint()
               : ScanUtils.findBasePeak(scan, mzRange);
-      if (basePeak != null) {
-
-        basePeakValues[index] = basePeak.getMZ();
-      }
+      final double basePeakMZ = (basePeak != null) ? basePeak.getMZ() : 0.0;
 
       // Determine peak intensity.
       double intensity = 0.0;
@@ -349,31 +401,40 @@ public class TICDataSet extends AbstractXYZDataset implements Task {
         intensity = basePeak.getIntensity();
       }
 
-      intensityValues[index] = intensity;
-      rtValues[index] = scan.getRetentionTime();
+      setValues(index, basePeakMZ, intensity);
+    }
+  }
 
-      // Update min and max.
-      if (index == 0) {
+  /**
+   * Sets the values of the next scan and redraws every REDRAW_INTERVAL ms.
+   */
+  private void setValues(final int index, final double basePeakMZ, final double intensity) {
 
-        intensityMin = intensity;
-        intensityMax = intensity;
+    basePeakValues[index] = basePeakMZ;
+    intensityValues[index] = intensity;
+    rtValues[index] = scans[index].getRetentionTime();
 
-      } else {
+    // Update min and max.
+    if (index == 0) {
 
-        intensityMin = Math.min(intensity, intensityMin);
-        intensityMax = Math.max(intensity, intensityMax);
-      }
+      intensityMin = intensity;
+      intensityMax = intensity;
+
+    } else {
 
-      processedScans++;
+      intensityMin = Math.min(intensity, intensityMin);
+      intensityMax = Math.max(intensity, intensityMax);
+    }
+
+    processedScans++;
 
-      // Refresh every REDRAW_INTERVAL ms.
-      synchronized (TICDataSet.class) {
+    // Refresh every REDRAW_INTERVAL ms.
+    synchronized (TICDataSet.class) {
 
-        if (System.currentTimeMillis() - lastRedrawTime > REDRAW_INTERVAL) {
+      if (System.currentTimeMillis() - lastRedrawTime > REDRAW_INTERVAL) {
 
-          refresh();
-          lastRedrawTime = System.currentTimeMillis();
-        }
+        refresh();
+        lastRedrawTime = System.currentTimeMillis();
       }
     }
   }
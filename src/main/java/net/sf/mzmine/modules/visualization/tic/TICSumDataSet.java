@@ -28,14 +28,13 @@ import javax.annotation.Nonnull;
 import javax.swing.SwingUtilities;
 import org.jfree.data.xy.AbstractXYZDataset;
 import com.google.common.collect.Range;
-import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.RawDataFile;
-import net.sf.mzmine.datamodel.Scan;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.taskcontrol.Task;
 import net.sf.mzmine.taskcontrol.TaskPriority;
 import net.sf.mzmine.taskcontrol.TaskStatus;
-import net.sf.mzmine.util.scans.ScanUtils;
+import net.sf.mzmine.util.chromatogram.ChromatogramExtractionService;
+import net.sf.mzmine.util.chromatogram.ExtractedChromatogram;
 
 /**
  * TIC visualizer data set. Sum of all TIC
@@ -230,35 +229,29 @@ public class TICSumDataSet extends AbstractXYZDataset implements Task {
     // all raw data files
     for (int r = 0; r < dataFiles.length; r++) {
       RawDataFile raw = dataFiles[r];
-      int[] scans = raw.getScanNumbers(1, rangeRT);
+      final ExtractedChromatogram chromatogram =
+          ChromatogramExtractionService.getChromatogram(raw, 1, rangeRT, mzRange, null, this);
+      if (chromatogram == null)
+        return;
       // Process each scan.
-      for (int index = 0; status != TaskStatus.CANCELED && index < scans.length; index++) {
-        // Current scan.
-        final Scan scan = raw.getScan(scans[index]);
-        double rt = scan.getRetentionTime();
-        double mzBasePeak = 0;
-        double intensityBasePeak = 0;
+      for (int index = 0; status != TaskStatus.CANCELED
+          && index < chromatogram.getNumOfScans(); index++) {
+        double rt = chromatogram.getRetentionTime(index);
+        if (!rangeRT.contains(rt))
+          continue;
+        double mzBasePeak = chromatogram.getBasePeakMZ(index);
+        double intensityBasePeak = chromatogram.getBasePeakIntensity(index);
         double intensity = 0.0;
 
-        // Determine base peak value.
-        final DataPoint basePeak =
-            mzRange.encloses(scan.getDataPointMZRange()) ? scan.getHighestDataPoint()
-                : ScanUtils.findBasePeak(scan, mzRange);
-        if (basePeak != null) {
-          mzBasePeak = basePeak.getMZ();
-          intensityBasePeak = basePeak.getIntensity();
-        }
-
         // Determine peak intensity.
         if (plotType == TICPlotType.TIC) {
 
           // Total ion count.
-          intensity = mzRange.encloses(scan.getDataPointMZRange()) ? scan.getTIC()
-              : ScanUtils.calculateTIC(scan, mzRange);
+          intensity = chromatogram.getTotalIntensity(index);
 
-        } else if (plotType == TICPlotType.BASEPEAK && basePeak != null) {
+        } else if (plotType == TICPlotType.BASEPEAK) {
 
-          intensity = basePeak.getIntensity();
+          intensity = intensityBasePeak;
         }
 
         // search for fitting value to calc sum
@@ -45,6 +45,9 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
   private double basePeaks[];
   private SoftReference<DataPoint[]> dataPointMatrix[];
 
+  // Set when all scans have been processed
+  private volatile TwoDIntensityPyramid intensityPyramid;
+
   private final Range<Double> totalRTRange, totalMZRange;
   private int totalScans, processedScans;
   private final Scan scans[];
@@ -82,6 +85,8 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
 
     status = TaskStatus.PROCESSING;
 
+    TwoDIntensityPyramid pyramid = new TwoDIntensityPyramid(totalScans, totalMZRange);
+
     for (int index = 0; index < totalScans; index++) {
 
       // Cancel?
@@ -92,11 +97,13 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
       DataPoint scanBasePeak = scan.getHighestDataPoint();
       retentionTimes[index] = scan.getRetentionTime();
       basePeaks[index] = (scanBasePeak == null ? 0 : scanBasePeak.getIntensity());
-      DataPoint scanDataPoints[] = scan.getDataPoints();
-      dataPointMatrix[index] = new SoftReference<DataPoint[]>(scanDataPoints);
+      pyramid.addScan(index, scan.getDataPoints());
       processedScans++;
     }
 
+    pyramid.buildLevels();
+    intensityPyramid = pyramid;
+
     fireDatasetChanged();
 
     status = TaskStatus.FINISHED;
@@ -185,8 +192,23 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
         return upperEndpointIntensity(startScanIndex, mzRange, plotMode);
     }
 
-    for (int scanIndex = startScanIndex; ((scanIndex < searchRetentionTimes.length)
-        && (searchRetentionTimes[scanIndex] <= rtRange.upperEndpoint())); scanIndex++) {
+    int endScanIndex = startScanIndex;
+    while ((endScanIndex + 1 < searchRetentionTimes.length)
+        && (searchRetentionTimes[endScanIndex + 1] <= rtRange.upperEndpoint()))
+      endScanIndex++;
+
+    // The pyramid only contains the data points inside of the m/z bins. The continuous modes also
+    // show the nearest data point of scans without a data point in the m/z range, so they are
+    // always answered from the scans.
+    final TwoDIntensityPyramid pyramid = intensityPyramid;
+    if ((pyramid != null) && (plotMode == PlotMode.CENTROID)) {
+      double pyramidMaxIntensity = pyramid.getMaxIntensity(startScanIndex, endScanIndex, mzRange,
+          scanIndex -> upperEndpointIntensity(scanIndex, mzRange, PlotMode.CENTROID));
+      if (!Double.isNaN(pyramidMaxIntensity))
+        return pyramidMaxIntensity;
+    }
+
+    for (int scanIndex = startScanIndex; scanIndex <= endScanIndex; scanIndex++) {
 
       // ignore scans where all peaks are smaller than current max
       if (basePeaks[scanIndex] < maxIntensity)
@@ -243,7 +265,7 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
     for (int scanIndex = startScanIndex; ((scanIndex < searchRetentionTimes.length)
         && (searchRetentionTimes[scanIndex] <= rtRange.upperEndpoint())); scanIndex++) {
       // get the list of data points
-      DataPoint dataPoints[] = dataPointMatrix[scanIndex].get();
+      DataPoint dataPoints[] = getDataPoints(scanIndex);
       // Binary search for the mz values in the range you want
 
       DataPoint searchMZ = new SimpleDataPoint(mzRange.lowerEndpoint(), 0);
@@ -285,13 +307,23 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
 
   private double upperEndpointIntensity(int dataPointMatrixIndex, Range<Double> mzRange,
       PlotMode plotMode) {
-    DataPoint dataPoints[] = dataPointMatrix[dataPointMatrixIndex].get();
+    DataPoint dataPoints[] = getDataPoints(dataPointMatrixIndex);
+    return upperEndpointIntensity(dataPoints, mzRange, plotMode);
+  }
+
+  /**
+   * Loads the data points of the scan on first use. Only the scans of zoomed in areas, which are
+   * not answered from the intensity pyramid, are loaded.
+   */
+  private DataPoint[] getDataPoints(int dataPointMatrixIndex) {
+    SoftReference<DataPoint[]> reference = dataPointMatrix[dataPointMatrixIndex];
+    DataPoint dataPoints[] = (reference == null) ? null : reference.get();
     if (dataPoints == null) {
       Scan scan = scans[dataPointMatrixIndex];
       dataPoints = scan.getDataPoints();
       dataPointMatrix[dataPointMatrixIndex] = new SoftReference<DataPoint[]>(dataPoints);
     }
-    return upperEndpointIntensity(dataPoints, mzRange, plotMode);
+    return dataPoints;
   }
 
   private double upperEndpointIntensity(DataPoint dataPoints[], Range<Double> mzRange,
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.modules.visualization.twod;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.BitSet;
+import java.util.function.IntToDoubleFunction;
+import com.google.common.collect.Range;
+import net.sf.mzmine.datamodel.DataPoint;
+
+/**
+ * Maximum intensities of the scans of the 2D visualizer on a retention time x m/z grid, at several
+ * resolutions. A cell of level k covers 2^k consecutive scans and 2^k adjacent m/z bins, so each
+ * level has half the rows and columns of the previous one. The levels are kept in direct (off-heap)
+ * buffers, which are not reclaimed while the visualizer is open. Levels that do not fit in the
+ * memory budget are not stored and queries at their resolution are answered from the scans.
+ *
+ * The cells are aligned to powers of 2, so they usually extend beyond the queried area. Only cells
+ * inside the query are used directly. Partly covered cells are split into their finer cells, as long
+ * as they could raise the maximum, and partly covered cells of the finest stored level are answered
+ * from the scans. So the maximum never contains intensities from outside of the queried area.
+ */
+class TwoDIntensityPyramid {
+
+  // Number of m/z bins of level 0
+  private static final int MZ_BINS = 4096;
+
+  // Level at which all m/z bins are combined into one column
+  private static final int TOP_LEVEL = Integer.numberOfTrailingZeros(MZ_BINS);
+
+  // Maximum number of cells of all stored levels, 4 bytes each
+  private static final long MAX_CELLS = 16L * 1024 * 1024;
+
+  private final double mzMin, mzMax, binWidth;
+  private final int numOfScans;
+  private final int firstLevel;
+  private final int rows[], columns[];
+  private final FloatBuffer levels[];
+
+  TwoDIntensityPyramid(int numOfScans, Range<Double> mzRange) {
+
+    this.numOfScans = numOfScans;
+    mzMin = mzRange.lowerEndpoint();
+    mzMax = mzRange.upperEndpoint();
+    binWidth = Math.max(mzMax - mzMin, Double.MIN_NORMAL) / MZ_BINS;
+
+    // Skip the finest levels until the remaining ones fit in the budget
+    int level = 0;
+    while ((level < TOP_LEVEL) && (getNumOfCells(numOfScans, level) > MAX_CELLS))
+      level++;
+    firstLevel = level;
+
+    final int numOfLevels = TOP_LEVEL - firstLevel + 1;
+    rows = new int[numOfLevels];
+    columns = new int[numOfLevels];
+    levels = new FloatBuffer[numOfLevels];
+    for (int i = 0; i < numOfLevels; i++) {
+      rows[i] = Math.max(1, getSize(numOfScans, firstLevel + i));
+      columns[i] = getSize(MZ_BINS, firstLevel + i);
+      levels[i] = ByteBuffer.allocateDirect(rows[i] * columns[i] * 4).asFloatBuffer();
+    }
+
+  }
+
+  /**
+   * Adds the data points of the scan with the given index to the finest stored level. The scans may
+   * be added in any order, the coarser levels are built by {@link #buildLevels()}.
+   */
+  void addScan(int scanIndex, DataPoint dataPoints[]) {
+    final FloatBuffer level = levels[0];
+    final int offset = (scanIndex >> firstLevel) * columns[0];
+    for (DataPoint dataPoint : dataPoints) {
+      final double mz = dataPoint.getMZ();
+      if ((mz < mzMin) || (mz > mzMax))
+        continue;
+      final int index = offset + (getBin(mz) >> firstLevel);
+      final float intensity = (float) dataPoint.getIntensity();
+      if (intensity > level.get(index))
+        level.put(index, intensity);
+    }
+  }
+
+  /**
+   * Builds each coarser level from the maxima of 2 x 2 cells of the previous level.
+   */
+  void buildLevels() {
+    for (int i = 1; i < levels.length; i++) {
+      final FloatBuffer source = levels[i - 1], target = levels[i];
+      final int sourceRows = rows[i - 1], sourceColumns = columns[i - 1];
+      for (int row = 0; row < sourceRows; row++) {
+        final int sourceOffset = row * sourceColumns;
+        final int targetOffset = (row >> 1) * columns[i];
+        for (int column = 0; column < sourceColumns; column++) {
+          final float intensity = source.get(sourceOffset + column);
+          final int index = targetOffset + (column >> 1);
+          if (intensity > target.get(index))
+            target.put(index, intensity);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the maximum intensity of the scans fromScan to toScan (inclusive) within the m/z range,
+   * starting at the coarsest level whose cells are not larger than the queried area. The m/z range
+   * is clipped to the m/z range of the pyramid.
+   *
+   * @param scanIntensity maximum intensity of a scan within the m/z range, for the partly covered
+   *        cells of the finest stored level
+   * @return maximum intensity, or NaN if the stored levels are too coarse for the query or the m/z
+   *         range is outside of the pyramid
+   */
+  double getMaxIntensity(int fromScan, int toScan, Range<Double> mzRange,
+      IntToDoubleFunction scanIntensity) {
+
+    final double queryMZMin = Math.max(mzRange.lowerEndpoint(), mzMin);
+    final double queryMZMax = Math.min(mzRange.upperEndpoint(), mzMax);
+    if (queryMZMin > queryMZMax)
+      return Double.NaN;
+
+    // floor(log2) of the queried number of scans and m/z bins
+    final int rtLevel = 31 - Integer.numberOfLeadingZeros(toScan - fromScan + 1);
+    final int mzLevel = Math.getExponent((queryMZMax - queryMZMin) / binWidth);
+    final int level = Math.min(Math.min(rtLevel, mzLevel), TOP_LEVEL);
+    if (level < firstLevel)
+      return Double.NaN;
+
+    CellQuery query = new CellQuery(fromScan, toScan, queryMZMin, queryMZMax, scanIntensity);
+    query.addCells(level, fromScan >> level, toScan >> level, getBin(queryMZMin) >> level,
+        getBin(queryMZMax) >> level);
+    return query.maxIntensity;
+
+  }
+
+  /**
+   * Maximum intensity of one query. Fully covered cells are added first, so the partly covered
+   * cells, whose intensity is an upper bound of their part inside the query, can be skipped if they
+   * cannot raise the maximum.
+   */
+  private final class CellQuery {
+
+    private final int fromScan, toScan;
+    private final double queryMZMin, queryMZMax;
+    private final IntToDoubleFunction scanIntensity;
+    // scans (relative to fromScan), which were already added by scanIntensity
+    private final BitSet addedScans = new BitSet();
+    private double maxIntensity = 0;
+
+    private CellQuery(int fromScan, int toScan, double queryMZMin, double queryMZMax,
+        IntToDoubleFunction scanIntensity) {
+      this.fromScan = fromScan;
+      this.toScan = toScan;
+      this.queryMZMin = queryMZMin;
+      this.queryMZMax = queryMZMax;
+      this.scanIntensity = scanIntensity;
+    }
+
+    /**
+     * Adds the cells of the level within the rows and columns, which overlap the query
+     */
+    private void addCells(int level, int fromRow, int toRow, int fromColumn, int toColumn) {
+      final int i = level - firstLevel;
+      final FloatBuffer buffer = levels[i];
+      final int firstRow = Math.max(fromRow, fromScan >> level);
+      final int lastRow = Math.min(Math.min(toRow, toScan >> level), rows[i] - 1);
+      final int firstColumn = Math.max(fromColumn, getBin(queryMZMin) >> level);
+      final int lastColumn = Math.min(toColumn, getBin(queryMZMax) >> level);
+
+      boolean partlyCovered = false;
+      for (int row = firstRow; row <= lastRow; row++) {
+        final int offset = row * columns[i];
+        for (int column = firstColumn; column <= lastColumn; column++) {
+          if (!isCovered(level, row, column)) {
+            partlyCovered = true;
+            continue;
+          }
+          final float intensity = buffer.get(offset + column);
+          if (intensity > maxIntensity)
+            maxIntensity = intensity;
+        }
+      }
+      if (!partlyCovered)
+        return;
+
+      for (int row = firstRow; row <= lastRow; row++) {
+        final int offset = row * columns[i];
+        for (int column = firstColumn; column <= lastColumn; column++) {
+          if (isCovered(level, row, column) || (buffer.get(offset + column) <= maxIntensity))
+            continue;
+          if (level > firstLevel)
+            addCells(level - 1, 2 * row, 2 * row + 1, 2 * column, 2 * column + 1);
+          else
+            addScans(row << level, ((row + 1) << level) - 1);
+        }
+      }
+    }
+
+    private void addScans(int firstScan, int lastScan) {
+      for (int scan = Math.max(firstScan, fromScan); scan <= Math.min(lastScan, toScan); scan++) {
+        if (addedScans.get(scan - fromScan))
+          continue;
+        addedScans.set(scan - fromScan);
+        final double intensity = scanIntensity.applyAsDouble(scan);
+        if (intensity > maxIntensity)
+          maxIntensity = intensity;
+      }
+    }
+
+    /**
+     * @return true if the scans and m/z bins of the cell are inside the query
+     */
+    private boolean isCovered(int level, int row, int column) {
+      final int firstCellScan = row << level;
+      final int lastCellScan = Math.min(((row + 1) << level) - 1, numOfScans - 1);
+      if ((firstCellScan < fromScan) || (lastCellScan > toScan))
+        return false;
+      final int firstBin = column << level, lastBin = ((column + 1) << level) - 1;
+      if (queryMZMin > mzMin + firstBin * binWidth)
+        return false;
+      // the last bin contains mzMax
+      return (lastBin >= MZ_BINS - 1) ? (queryMZMax >= mzMax)
+          : (mzMin + (lastBin + 1) * binWidth <= queryMZMax);
+    }
+  }
+
+  private int getBin(double mz) {
+    return Math.min((int) ((mz - mzMin) / binWidth), MZ_BINS - 1);
+  }
+
+  private static int getSize(int size, int level) {
+    return (size + (1 << level) - 1) >> level;
+  }
+
+  private static long getNumOfCells(int numOfScans, int firstLevel) {
+    long numOfCells = 0;
+    for (int level = firstLevel; level <= TOP_LEVEL; level++)
+      numOfCells += (long) Math.max(1, getSize(numOfScans, level)) * getSize(MZ_BINS, level);
+    return numOfCells;
+  }
+
+}
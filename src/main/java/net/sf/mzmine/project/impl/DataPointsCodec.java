@@ -0,0 +1,173 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.project.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encoding of the data points in the data points file (.scans) of a RawDataFileImpl.
+ *
+ * NONE stores each data point as a pair of big-endian 32-bit floats (m/z, intensity). This is the
+ * format of all projects saved by earlier versions.
+ *
+ * DELTA_DEFLATE stores the same 32-bit float values losslessly: the bit patterns of consecutive m/z
+ * and intensity values are delta-encoded as zigzag variable-length integers and the result is
+ * compressed by Deflate. For m/z sorted spectra the m/z deltas mostly take one or two bytes.
+ */
+public enum DataPointsCodec {
+
+  NONE("None (32-bit floats)"), //
+  DELTA_DEFLATE("Delta + Deflate (lossless, smaller files)");
+
+  private final String name;
+
+  DataPointsCodec(String name) {
+    this.name = name;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+
+  /**
+   * Encodes the data points. The values are stored with float precision.
+   *
+   * @return encoded data points
+   */
+  public byte[] encode(double mzValues[], double intensityValues[], int numOfDataPoints) {
+
+    if (this == NONE) {
+      ByteBuffer buffer = ByteBuffer.allocate(numOfDataPoints * 2 * 4);
+      for (int i = 0; i < numOfDataPoints; i++) {
+        buffer.putFloat((float) mzValues[i]);
+        buffer.putFloat((float) intensityValues[i]);
+      }
+      return buffer.array();
+    }
+
+    // Each zigzag varint of a 32-bit value takes at most 5 bytes
+    final byte varints[] = new byte[numOfDataPoints * 2 * 5];
+    int length = 0;
+    int previousMZ = 0, previousIntensity = 0;
+    for (int i = 0; i < numOfDataPoints; i++) {
+      final int mz = Float.floatToIntBits((float) mzValues[i]);
+      final int intensity = Float.floatToIntBits((float) intensityValues[i]);
+      length = putVarint(varints, length, mz - previousMZ);
+      length = putVarint(varints, length, intensity - previousIntensity);
+      previousMZ = mz;
+      previousIntensity = intensity;
+    }
+
+    final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      deflater.setInput(varints, 0, length);
+      deflater.finish();
+      byte encoded[] = new byte[length / 2 + 64];
+      int encodedLength = 0;
+      while (!deflater.finished()) {
+        if (encodedLength == encoded.length)
+          encoded = Arrays.copyOf(encoded, encoded.length * 2);
+        encodedLength +=
+            deflater.deflate(encoded, encodedLength, encoded.length - encodedLength);
+      }
+      return Arrays.copyOf(encoded, encodedLength);
+    } finally {
+      deflater.end();
+    }
+
+  }
+
+  /**
+   * Decodes numOfDataPoints data points from the first numOfBytes bytes of data into the given
+   * arrays.
+   */
+  public void decode(byte data[], int numOfBytes, double mzValues[], double intensityValues[],
+      int numOfDataPoints) throws IOException {
+
+    if (this == NONE) {
+      if (numOfBytes < numOfDataPoints * 2 * 4)
+        throw new IOException("Stored data points are truncated");
+      ByteBuffer buffer = ByteBuffer.wrap(data, 0, numOfBytes);
+      for (int i = 0; i < numOfDataPoints; i++) {
+        mzValues[i] = buffer.getFloat();
+        intensityValues[i] = buffer.getFloat();
+      }
+      return;
+    }
+
+    final byte varints[] = new byte[numOfDataPoints * 2 * 5];
+    int length = 0;
+    final Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(data, 0, numOfBytes);
+      while (!inflater.finished() && (length < varints.length)) {
+        final int inflated = inflater.inflate(varints, length, varints.length - length);
+        if ((inflated == 0) && (inflater.needsInput() || inflater.needsDictionary()))
+          throw new IOException("Stored data points are truncated");
+        length += inflated;
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("Stored data points are corrupted", e);
+    } finally {
+      inflater.end();
+    }
+
+    int position = 0;
+    int mz = 0, intensity = 0;
+    for (int i = 0; i < numOfDataPoints; i++) {
+      // Read the two zigzag varints of the data point
+      for (int value = 0; value < 2; value++) {
+        int result = 0, shift = 0;
+        byte b;
+        do {
+          if (position >= length)
+            throw new IOException("Stored data points are truncated");
+          b = varints[position++];
+          result |= (b & 0x7f) << shift;
+          shift += 7;
+        } while (b < 0);
+        final int delta = (result >>> 1) ^ -(result & 1);
+        if (value == 0)
+          mz += delta;
+        else
+          intensity += delta;
+      }
+      mzValues[i] = Float.intBitsToFloat(mz);
+      intensityValues[i] = Float.intBitsToFloat(intensity);
+    }
+
+  }
+
+  private static int putVarint(byte data[], int position, int value) {
+    int zigzag = (value << 1) ^ (value >> 31);
+    while ((zigzag & ~0x7f) != 0) {
+      data[position++] = (byte) ((zigzag & 0x7f) | 0x80);
+      zigzag >>>= 7;
+    }
+    data[position++] = (byte) zigzag;
+    return position;
+  }
+
+}
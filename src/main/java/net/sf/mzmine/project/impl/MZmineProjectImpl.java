@@ -176,11 +176,28 @@ public class MZmineProjectImpl implements MZmineProject {
       e.printStackTrace();
     }
 
+    // Notify listeners
+    for (MZmineProjectListener listener : listeners) {
+      listener.dataFileRemoved(file);
+    }
+
     // Close the data file, which also removed the temporary data
     file.close();
 
   }
 
+  /**
+   * Closes all data files, when this project is replaced by another one
+   */
+  void closeDataFiles() {
+    for (RawDataFile file : getDataFiles()) {
+      for (MZmineProjectListener listener : listeners) {
+        listener.dataFileRemoved(file);
+      }
+      file.close();
+    }
+  }
+
   public RawDataFile[] getDataFiles() {
     return rawDataTreeModel.getDataFiles();
   }
@@ -230,6 +247,11 @@ public class MZmineProjectImpl implements MZmineProject {
     } catch (Exception e) {
       e.printStackTrace();
     }
+
+    // Notify listeners
+    for (MZmineProjectListener listener : listeners) {
+      listener.peakListRemoved(peakList);
+    }
   }
 
   public PeakList[] getPeakLists(RawDataFile file) {
@@ -21,7 +21,6 @@ package net.sf.mzmine.project.impl;
 import java.io.File;
 
 import net.sf.mzmine.datamodel.MZmineProject;
-import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.modules.projectmethods.projectload.ProjectLoadModule;
 import net.sf.mzmine.modules.projectmethods.projectload.ProjectLoaderParameters;
@@ -56,10 +55,7 @@ public class ProjectManagerImpl implements ProjectManager {
 
     // Close previous data files
     if (currentProject != null) {
-      RawDataFile prevDataFiles[] = currentProject.getDataFiles();
-      for (RawDataFile prevDataFile : prevDataFiles) {
-        prevDataFile.close();
-      }
+      ((MZmineProjectImpl) currentProject).closeDataFiles();
     }
 
     this.currentProject = project;
@@ -18,43 +18,63 @@
 
 package net.sf.mzmine.project.impl;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Enumeration;
-import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
-import java.util.Set;
-import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import com.google.common.collect.Range;
-import com.google.common.primitives.Ints;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.MassList;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.RawDataFileWriter;
 import net.sf.mzmine.datamodel.Scan;
 import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
+import net.sf.mzmine.desktop.preferences.MZminePreferences;
+import net.sf.mzmine.main.MZmineConfiguration;
+import net.sf.mzmine.main.MZmineCore;
 
 /**
  * RawDataFile implementation. It provides storage of data points for scans and mass lists using the
  * storeDataPoints() and readDataPoints() methods. The data points are stored in a temporary file
- * (dataPointsFile) and the structure of the file is stored in two TreeMaps. The dataPointsOffsets
- * maps storage ID to the offset in the dataPointsFile. The dataPointsLength maps the storage ID to
- * the number of data points stored under this ID. When stored data points are deleted using
- * removeStoredDataPoints(), the dataPointsFile is not modified, the storage ID is just deleted from
- * the two TreeMaps. When the project is saved, the contents of the dataPointsFile are consolidated
- * - only data points referenced by the TreeMaps are saved (see the RawDataFileSaveHandler class).
+ * (dataPointsFile) and the structure of the file is stored in primitive arrays indexed by the
+ * storage ID, which is allocated sequentially. The dataPointsOffsets array holds the offset of each
+ * storage ID in the dataPointsFile, the dataPointsLengths array holds the number of data points
+ * stored under this ID (or -1, if there are none). When stored data points are deleted using
+ * removeStoredDataPoints(), the dataPointsFile is not modified, the length of the storage ID is
+ * just set to -1. When the project is saved, the contents of the dataPointsFile are consolidated -
+ * only data points of storage IDs returned by getStorageIDs() are saved (see the
+ * RawDataFileSaveHandler class).
+ * 
+ * For data points sorted by m/z, the m/z value of every MZ_INDEX_STEP-th data point is kept in the
+ * dataPointsMZIndex. readDataPoints(int, Range) uses this sparse index to read and decode only the
+ * part of the stored data points which covers the requested m/z range.
+ * 
+ * The data points are encoded by the DataPointsCodec selected in the preferences when the file is
+ * created. The number of bytes of each storage ID is kept in the dataPointsStoredBytes array. With
+ * a codec other than NONE, the data points of a storage ID are always decoded as a whole.
+ * The codec is saved with the project, so a loaded file keeps the encoding of its data points.
+ * 
+ * When the memory-mapped storage is enabled in the preferences, the completely written segments of
+ * the dataPointsFile are mapped to memory and readDataPoints() reads from these mappings under a
+ * shared lock only, so many threads can read the data points of the same file in parallel.
  */
 public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
@@ -63,40 +83,79 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
   // Name of this raw data file - may be changed by the user
   private String dataFileName;
 
+  // Data ranges set explicitly by setMZRange() and setRTRange(), these take precedence over the
+  // ranges of the scan index
   private final Hashtable<Integer, Range<Double>> dataMZRange, dataRTRange;
-  private final Hashtable<Integer, Double> dataMaxBasePeakIntensity, dataMaxTIC;
-  private final Hashtable<Integer, int[]> scanNumbersCache;
+
+  // Retention time index of the scans, built in finishWriting() and dropped when scans are added
+  private volatile ScanIndex scanIndex;
 
   private ByteBuffer buffer = ByteBuffer.allocate(20000);
-  private final TreeMap<Integer, Long> dataPointsOffsets;
-  private final TreeMap<Integer, Integer> dataPointsLengths;
+
+  // Storage tables indexed by storage ID. The arrays are only modified and replaced by larger
+  // copies under the lock of this object, the length of a storage ID is always set last.
+  private volatile long dataPointsOffsets[] = new long[0];
+  private volatile int dataPointsLengths[] = new int[0];
+  private volatile int dataPointsStoredBytes[] = new int[0];
+  private volatile float dataPointsMZIndex[][] = new float[0][];
+
+  // Next storage ID to be allocated
+  private int nextStorageID = 1;
+
+  // Number of data points per entry of the sparse m/z index
+  private static final int MZ_INDEX_STEP = 64;
+
+  // Approximate size of an array object without its elements, used for the memory usage estimate
+  private static final long ARRAY_HEADER_SIZE = 16;
 
   // Temporary file for scan data storage
   private File dataPointsFileName;
   private RandomAccessFile dataPointsFile;
 
+  // Size of one memory-mapped segment of the data points file (256 MB)
+  private static final long MAPPED_SEGMENT_SIZE = 1L << 28;
+
+  // Read data points from memory-mapped segments instead of the synchronized RandomAccessFile
+  private final boolean memoryMapped;
+
+  // Encoding of the data points in the dataPointsFile
+  private DataPointsCodec dataPointsCodec = DataPointsCodec.NONE;
+
+  // Read-only mappings of the completely written segments of the data points file
+  private volatile MappedByteBuffer mappedSegments[] = new MappedByteBuffer[0];
+
+  // Held (shared) by the reads which may be using the mapped segments, close() acquires it
+  // exclusively to wait for them before unmapping
+  private final ReadWriteLock mappedReadsLock = new ReentrantReadWriteLock();
+
   // To store mass lists that have been added but not yet reflected in the GUI by the
   // notifyUpdatedMassLists() method
   private final List<MassList> newMassLists = new ArrayList<>();
 
   /**
-   * Scans
+   * Scans, accessed only under the lock of this object. Other threads look up scans in the scan
+   * index.
    */
-  private final Hashtable<Integer, StorableScan> scans;
+  private final Int2ObjectOpenHashMap<StorableScan> scans;
 
   public RawDataFileImpl(String dataFileName) throws IOException {
 
     this.dataFileName = dataFileName;
 
-    // Prepare the hashtables for scan numbers and data limits.
-    scanNumbersCache = new Hashtable<Integer, int[]>();
+    // Prepare the hashtables for data limits.
     dataMZRange = new Hashtable<Integer, Range<Double>>();
     dataRTRange = new Hashtable<Integer, Range<Double>>();
-    dataMaxBasePeakIntensity = new Hashtable<Integer, Double>();
-    dataMaxTIC = new Hashtable<Integer, Double>();
-    scans = new Hashtable<Integer, StorableScan>();
-    dataPointsOffsets = new TreeMap<Integer, Long>();
-    dataPointsLengths = new TreeMap<Integer, Integer>();
+    scans = new Int2ObjectOpenHashMap<StorableScan>();
+
+    MZmineConfiguration configuration = MZmineCore.getConfiguration();
+    memoryMapped = (configuration != null) && Boolean.TRUE.equals(configuration.getPreferences()
+        .getParameter(MZminePreferences.memoryMappedStorage).getValue());
+    if (configuration != null) {
+      DataPointsCodec preferredCodec = configuration.getPreferences()
+          .getParameter(MZminePreferences.scanStorageCodec).getValue();
+      if (preferredCodec != null)
+        dataPointsCodec = preferredCodec;
+    }
 
   }
 
@@ -112,6 +171,25 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
     return File.createTempFile("mzmine", ".scans");
   }
 
+  /**
+   * Returns the encoding of the data points in the data points file
+   */
+  public synchronized DataPointsCodec getDataPointsCodec() {
+    return dataPointsCodec;
+  }
+
+  /**
+   * Sets the encoding of the data points in the data points file. The codec can only be changed
+   * before any data points are stored, e.g. when loading a project.
+   */
+  public synchronized void setDataPointsCodec(DataPointsCodec dataPointsCodec) {
+    if (nextStorageID > 1) {
+      throw new IllegalStateException(
+          "Cannot change the data points codec, because data points are already stored");
+    }
+    this.dataPointsCodec = dataPointsCodec;
+  }
+
   /**
    * Returns the (already opened) data points file. Warning: may return null in case no scans have
    * been added yet to this RawDataFileImpl instance
@@ -122,8 +200,8 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
   /**
    * Opens the given file as a data points file for this RawDataFileImpl instance. If the file is
-   * not empty, the TreeMaps supplied as parameters have to describe the mapping of storage IDs to
-   * data points in the file.
+   * not empty, the data points in the file have to be registered by setStoredDataPoints() or
+   * addStoredDataPoints().
    */
   public synchronized void openDataPointsFile(File dataPointsFileName) throws IOException {
 
@@ -149,6 +227,34 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
     // shutdown hook registered in the main.ShutDownHook class
     dataPointsFileName.deleteOnExit();
 
+    // The file may already contain data points (e.g. when loading a project)
+    mapCompletedSegments();
+
+  }
+
+  /**
+   * Maps the segments of the data points file which have been completely written since the last
+   * call. Only complete segments are mapped, because mapping beyond the end of the file would
+   * extend it.
+   */
+  private synchronized void mapCompletedSegments() throws IOException {
+
+    if (!memoryMapped)
+      return;
+
+    final MappedByteBuffer currentSegments[] = mappedSegments;
+    final int completedSegments = (int) (dataPointsFile.length() / MAPPED_SEGMENT_SIZE);
+    if (completedSegments <= currentSegments.length)
+      return;
+
+    final FileChannel fileChannel = dataPointsFile.getChannel();
+    final MappedByteBuffer newSegments[] = Arrays.copyOf(currentSegments, completedSegments);
+    for (int i = currentSegments.length; i < completedSegments; i++) {
+      newSegments[i] = fileChannel.map(MapMode.READ_ONLY, i * MAPPED_SEGMENT_SIZE,
+          MAPPED_SEGMENT_SIZE);
+    }
+    mappedSegments = newSegments;
+
   }
 
   /**
@@ -156,7 +262,12 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
    */
   @Override
   public int getNumOfScans() {
-    return scans.size();
+    ScanIndex index = scanIndex;
+    if (index != null)
+      return index.getNumOfScans();
+    synchronized (this) {
+      return scans.size();
+    }
   }
 
   /**
@@ -164,7 +275,30 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
    */
   @Override
   public @Nullable Scan getScan(int scanNumber) {
-    return scans.get(scanNumber);
+    // Use the immutable scan index if available, so the lookup does not need any lock
+    ScanIndex index = scanIndex;
+    if (index != null)
+      return index.getScan(scanNumber);
+    synchronized (this) {
+      return scans.get(scanNumber);
+    }
+  }
+
+  /**
+   * Returns the scan index, building it if the scans changed since it was last built
+   */
+  private ScanIndex getScanIndex() {
+    ScanIndex index = scanIndex;
+    if (index == null) {
+      synchronized (this) {
+        index = scanIndex;
+        if (index == null) {
+          index = new ScanIndex(scans.values());
+          scanIndex = index;
+        }
+      }
+    }
+    return index;
   }
 
   /**
@@ -172,12 +306,7 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
    */
   @Override
   public @Nonnull int[] getScanNumbers(int msLevel) {
-    if (scanNumbersCache.containsKey(msLevel))
-      return scanNumbersCache.get(msLevel);
-    Range<Double> all = Range.all();
-    int scanNumbers[] = getScanNumbers(msLevel, all);
-    scanNumbersCache.put(msLevel, scanNumbers);
-    return scanNumbers;
+    return getScanIndex().getScanNumbers(msLevel);
   }
 
   /**
@@ -188,192 +317,465 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
     assert rtRange != null;
 
-    ArrayList<Integer> eligibleScanNumbers = new ArrayList<Integer>();
-
-    Enumeration<StorableScan> scansEnum = scans.elements();
-    while (scansEnum.hasMoreElements()) {
-      Scan scan = scansEnum.nextElement();
+    return getScanIndex().getScanNumbers(msLevel, rtRange);
+  }
 
-      if ((scan.getMSLevel() == msLevel) && (rtRange.contains(scan.getRetentionTime())))
-        eligibleScanNumbers.add(scan.getScanNumber());
-    }
+  /**
+   * @see net.sf.mzmine.datamodel.RawDataFile#getScanNumbers()
+   */
+  @Override
+  public @Nonnull int[] getScanNumbers() {
+    return getScanIndex().getScanNumbers();
+  }
 
-    int[] numbersArray = Ints.toArray(eligibleScanNumbers);
-    Arrays.sort(numbersArray);
+  /**
+   * @see net.sf.mzmine.datamodel.RawDataFile#getMSLevels()
+   */
+  @Override
+  public @Nonnull int[] getMSLevels() {
+    return getScanIndex().getMSLevels();
+  }
 
-    return numbersArray;
+  /**
+   * @see net.sf.mzmine.datamodel.RawDataFile#getDataMaxBasePeakIntensity()
+   */
+  @Override
+  public double getDataMaxBasePeakIntensity(int msLevel) {
+    return getScanIndex().getMaxBasePeakIntensity(msLevel);
   }
 
   /**
-   * @see net.sf.mzmine.datamodel.RawDataFile#getScanNumbers()
+   * @see net.sf.mzmine.datamodel.RawDataFile#getDataMaxTotalIonCurrent()
    */
   @Override
-  public @Nonnull int[] getScanNumbers() {
+  public double getDataMaxTotalIonCurrent(int msLevel) {
+    return getScanIndex().getMaxTIC(msLevel);
+  }
 
-    if (scanNumbersCache.containsKey(0))
-      return scanNumbersCache.get(0);
+  public synchronized int storeDataPoints(DataPoint dataPoints[]) throws IOException {
 
-    Set<Integer> allScanNumbers = scans.keySet();
-    int[] numbersArray = Ints.toArray(allScanNumbers);
-    Arrays.sort(numbersArray);
+    if (dataPointsFile == null) {
+      File newFile = RawDataFileImpl.createNewDataPointsFile();
+      openDataPointsFile(newFile);
+    }
+
+    final long currentOffset = dataPointsFile.length();
+
+    final int currentID = nextStorageID;
+
+    final int numOfDataPoints = dataPoints.length;
+
+    boolean sortedByMZ = true;
+    float previousMZ = Float.NEGATIVE_INFINITY;
+    for (DataPoint dp : dataPoints) {
+      final float mz = (float) dp.getMZ();
+      if (mz < previousMZ) {
+        sortedByMZ = false;
+        break;
+      }
+      previousMZ = mz;
+    }
+
+    final int numOfBytes;
+    if (dataPointsCodec == DataPointsCodec.NONE) {
 
-    scanNumbersCache.put(0, numbersArray);
+      // Convert the dataPoints into a byte array. Each float takes 4 bytes,
+      // so we get the current float offset by dividing the size of the file
+      // by 4
+      numOfBytes = numOfDataPoints * 2 * 4;
 
-    return numbersArray;
+      if (buffer.capacity() < numOfBytes) {
+        buffer = ByteBuffer.allocate(numOfBytes * 2);
+      } else {
+        // JDK 9 breaks compatibility with JRE8: need to cast
+        // https://stackoverflow.com/questions/48693695/java-nio-buffer-not-loading-clear-method-on-runtime
+        ((Buffer) buffer).clear();
+      }
+
+      FloatBuffer floatBuffer = buffer.asFloatBuffer();
+      for (DataPoint dp : dataPoints) {
+        floatBuffer.put((float) dp.getMZ());
+        floatBuffer.put((float) dp.getIntensity());
+      }
+
+      dataPointsFile.seek(currentOffset);
+      dataPointsFile.write(buffer.array(), 0, numOfBytes);
+
+    } else {
+
+      final double mzValues[] = new double[numOfDataPoints];
+      final double intensityValues[] = new double[numOfDataPoints];
+      for (int i = 0; i < numOfDataPoints; i++) {
+        mzValues[i] = dataPoints[i].getMZ();
+        intensityValues[i] = dataPoints[i].getIntensity();
+      }
+      final byte encoded[] = dataPointsCodec.encode(mzValues, intensityValues, numOfDataPoints);
+      numOfBytes = encoded.length;
+
+      dataPointsFile.seek(currentOffset);
+      dataPointsFile.write(encoded, 0, numOfBytes);
+
+    }
+
+    float mzIndex[] = null;
+    if (sortedByMZ && (numOfDataPoints > MZ_INDEX_STEP)) {
+      mzIndex = new float[(numOfDataPoints - 1) / MZ_INDEX_STEP + 1];
+      for (int i = 0; i < mzIndex.length; i++)
+        mzIndex[i] = (float) dataPoints[i * MZ_INDEX_STEP].getMZ();
+    }
+
+    setStoredDataPoints(currentID, currentOffset, numOfDataPoints, numOfBytes, mzIndex);
+
+    mapCompletedSegments();
+
+    return currentID;
 
   }
 
-  /**
-   * @see net.sf.mzmine.datamodel.RawDataFile#getMSLevels()
-   */
-  @Override
-  public @Nonnull int[] getMSLevels() {
+  public DataPoint[] readDataPoints(int ID) throws IOException {
 
-    Set<Integer> msLevelsSet = new HashSet<Integer>();
+    final int numOfDataPoints = getNumOfStoredDataPoints(ID);
+    final double mzValues[] = new double[numOfDataPoints];
+    final double intensityValues[] = new double[numOfDataPoints];
+    readDataPoints(ID, mzValues, intensityValues);
 
-    Enumeration<StorableScan> scansEnum = scans.elements();
-    while (scansEnum.hasMoreElements()) {
-      Scan scan = scansEnum.nextElement();
-      msLevelsSet.add(scan.getMSLevel());
+    DataPoint dataPoints[] = new DataPoint[numOfDataPoints];
+    for (int i = 0; i < numOfDataPoints; i++) {
+      dataPoints[i] = new SimpleDataPoint(mzValues[i], intensityValues[i]);
     }
 
-    int[] msLevels = Ints.toArray(msLevelsSet);
-    Arrays.sort(msLevels);
-    return msLevels;
+    return dataPoints;
 
   }
 
   /**
-   * @see net.sf.mzmine.datamodel.RawDataFile#getDataMaxBasePeakIntensity()
+   * Registers data points which are already present in the data points file (e.g. when loading a
+   * project) under the given storage ID. The data points must be stored without encoding
+   * (DataPointsCodec.NONE).
    */
-  @Override
-  public double getDataMaxBasePeakIntensity(int msLevel) {
-
-    // check if we have this value already cached
-    Double maxBasePeak = dataMaxBasePeakIntensity.get(msLevel);
-    if (maxBasePeak != null)
-      return maxBasePeak;
+  public synchronized void setStoredDataPoints(int ID, long offset, int numOfDataPoints) {
+    setStoredDataPoints(ID, offset, numOfDataPoints, numOfDataPoints * 2 * 4, null);
+  }
 
-    // find the value
-    Enumeration<StorableScan> scansEnum = scans.elements();
-    while (scansEnum.hasMoreElements()) {
-      Scan scan = scansEnum.nextElement();
+  /**
+   * Registers data points which are already present in the data points file (e.g. when loading a
+   * project) under the given storage ID. The data points take numOfBytes bytes, encoded by the
+   * codec of this file.
+   */
+  public synchronized void setStoredDataPoints(int ID, long offset, int numOfDataPoints,
+      int numOfBytes) {
+    setStoredDataPoints(ID, offset, numOfDataPoints, numOfBytes, null);
+  }
 
-      // ignore scans of other ms levels
-      if (scan.getMSLevel() != msLevel)
-        continue;
+  /**
+   * Registers data points which are already present in the data points file under a new storage ID.
+   * The data points must be stored without encoding (DataPointsCodec.NONE).
+   * 
+   * @return the new storage ID
+   */
+  public synchronized int addStoredDataPoints(long offset, int numOfDataPoints) {
+    final int ID = nextStorageID;
+    setStoredDataPoints(ID, offset, numOfDataPoints, numOfDataPoints * 2 * 4, null);
+    return ID;
+  }
 
-      DataPoint scanBasePeak = scan.getHighestDataPoint();
-      if (scanBasePeak == null)
-        continue;
+  private synchronized void setStoredDataPoints(int ID, long offset, int numOfDataPoints,
+      int numOfBytes, float mzIndex[]) {
 
-      if ((maxBasePeak == null) || (scanBasePeak.getIntensity() > maxBasePeak))
-        maxBasePeak = scanBasePeak.getIntensity();
+    if (ID < 1) {
+      throw new IllegalArgumentException("Invalid storage ID " + ID);
+    }
 
+    // Grow the storage tables, the new arrays are published after they have been filled
+    if (ID >= dataPointsLengths.length) {
+      final int newCapacity = Math.max(ID + 1, dataPointsLengths.length * 3 / 2 + 16);
+      final int newLengths[] = Arrays.copyOf(dataPointsLengths, newCapacity);
+      Arrays.fill(newLengths, dataPointsLengths.length, newCapacity, -1);
+      dataPointsOffsets = Arrays.copyOf(dataPointsOffsets, newCapacity);
+      dataPointsStoredBytes = Arrays.copyOf(dataPointsStoredBytes, newCapacity);
+      dataPointsMZIndex = Arrays.copyOf(dataPointsMZIndex, newCapacity);
+      dataPointsLengths = newLengths;
     }
 
-    // return -1 if no scan at this MS level
-    if (maxBasePeak == null)
-      maxBasePeak = -1d;
+    dataPointsOffsets[ID] = offset;
+    dataPointsStoredBytes[ID] = numOfBytes;
+    dataPointsMZIndex[ID] = mzIndex;
+    dataPointsLengths[ID] = numOfDataPoints;
 
-    // cache the value
-    dataMaxBasePeakIntensity.put(msLevel, maxBasePeak);
+    if (ID >= nextStorageID)
+      nextStorageID = ID + 1;
 
-    return maxBasePeak;
+  }
 
+  /**
+   * Returns the number of data points stored under the given storage ID
+   */
+  public int getNumOfStoredDataPoints(int ID) {
+    final int lengths[] = dataPointsLengths;
+    if ((ID < 0) || (ID >= lengths.length) || (lengths[ID] < 0)) {
+      throw new IllegalArgumentException("Unknown storage ID " + ID);
+    }
+    return lengths[ID];
   }
 
   /**
-   * @see net.sf.mzmine.datamodel.RawDataFile#getDataMaxTotalIonCurrent()
+   * Returns the offset of the data points stored under the given storage ID in the data points
+   * file
    */
-  @Override
-  public double getDataMaxTotalIonCurrent(int msLevel) {
+  public long getStoredDataPointsOffset(int ID) {
+    getNumOfStoredDataPoints(ID);
+    return dataPointsOffsets[ID];
+  }
 
-    // check if we have this value already cached
-    Double maxTIC = dataMaxTIC.get(msLevel);
-    if (maxTIC != null)
-      return maxTIC.doubleValue();
+  /**
+   * Returns the number of bytes taken by the data points stored under the given storage ID in the
+   * data points file
+   */
+  public int getStoredDataPointsSize(int ID) {
+    getNumOfStoredDataPoints(ID);
+    return dataPointsStoredBytes[ID];
+  }
 
-    // find the value
-    Enumeration<StorableScan> scansEnum = scans.elements();
-    while (scansEnum.hasMoreElements()) {
-      Scan scan = scansEnum.nextElement();
+  /**
+   * Returns sorted array of the storage IDs which have data points stored
+   */
+  public synchronized int[] getStorageIDs() {
+    int numOfIDs = 0;
+    for (int length : dataPointsLengths) {
+      if (length >= 0)
+        numOfIDs++;
+    }
+    final int storageIDs[] = new int[numOfIDs];
+    int i = 0;
+    for (int ID = 0; ID < dataPointsLengths.length; ID++) {
+      if (dataPointsLengths[ID] >= 0)
+        storageIDs[i++] = ID;
+    }
+    return storageIDs;
+  }
 
-      // ignore scans of other ms levels
-      if (scan.getMSLevel() != msLevel)
-        continue;
+  /**
+   * Creates the sparse m/z index of the given storage ID from its m/z values, if it does not have
+   * one yet. Used for data points which were stored before the index was available, e.g. loaded
+   * from a project.
+   */
+  synchronized void updateMZIndex(int ID, double mzValues[], int numOfDataPoints) {
 
-      if ((maxTIC == null) || (scan.getTIC() > maxTIC))
-        maxTIC = scan.getTIC();
+    if ((numOfDataPoints <= MZ_INDEX_STEP) || (ID < 0) || (ID >= dataPointsLengths.length)
+        || (dataPointsLengths[ID] != numOfDataPoints) || (dataPointsMZIndex[ID] != null))
+      return;
 
+    for (int i = 1; i < numOfDataPoints; i++) {
+      if (mzValues[i] < mzValues[i - 1])
+        return;
     }
 
-    // return -1 if no scan at this MS level
-    if (maxTIC == null)
-      maxTIC = -1d;
+    final float mzIndex[] = new float[(numOfDataPoints - 1) / MZ_INDEX_STEP + 1];
+    for (int i = 0; i < mzIndex.length; i++)
+      mzIndex[i] = (float) mzValues[i * MZ_INDEX_STEP];
+    dataPointsMZIndex[ID] = mzIndex;
 
-    // cache the value
-    dataMaxTIC.put(msLevel, maxTIC);
+  }
 
-    return maxTIC;
+  /**
+   * Reads the data points stored under the given storage ID into the given m/z and intensity
+   * arrays, which must hold at least getNumOfStoredDataPoints(ID) values. Unlike
+   * readDataPoints(int), no object is created per data point.
+   * 
+   * @return number of data points read
+   */
+  public int readDataPoints(int ID, double mzValues[], double intensityValues[])
+      throws IOException {
+
+    final int numOfDataPoints = getNumOfStoredDataPoints(ID);
+
+    if ((mzValues.length < numOfDataPoints) || (intensityValues.length < numOfDataPoints)) {
+      throw new IllegalArgumentException(
+          "Arrays are too small for " + numOfDataPoints + " data points of storage ID " + ID);
+    }
+
+    readDataPoints(ID, 0, numOfDataPoints, mzValues, intensityValues);
+    return numOfDataPoints;
 
   }
 
-  public synchronized int storeDataPoints(DataPoint dataPoints[]) throws IOException {
+  /**
+   * Reads the data points stored under the given storage ID which are within the given m/z range.
+   * The data points must be sorted by m/z. If a sparse m/z index exists for the storage ID, only
+   * the index blocks overlapping the m/z range are read from the file.
+   * 
+   * @return data points with m/z >= lower endpoint and m/z <= upper endpoint of mzRange
+   */
+  public DataPoint[] readDataPoints(int ID, Range<Double> mzRange) throws IOException {
+
+    final int numOfDataPoints = getNumOfStoredDataPoints(ID);
+    final double lowerMZ = mzRange.lowerEndpoint(), upperMZ = mzRange.upperEndpoint();
+
+    final float mzIndex[] = dataPointsMZIndex[ID];
+    int fromIndex = 0, toIndex = numOfDataPoints;
+    if (mzIndex != null) {
+      // The first block to read is the last one starting below the range, the blocks after the
+      // first block starting above the range contain only larger m/z values
+      int firstBlock = 0, lastBlock = mzIndex.length;
+      while (firstBlock < lastBlock) {
+        final int mid = (firstBlock + lastBlock) >>> 1;
+        if (mzIndex[mid] < lowerMZ)
+          firstBlock = mid + 1;
+        else
+          lastBlock = mid;
+      }
+      fromIndex = Math.max(0, firstBlock - 1) * MZ_INDEX_STEP;
+      int endBlock = firstBlock, blocks = mzIndex.length;
+      while (endBlock < blocks) {
+        final int mid = (endBlock + blocks) >>> 1;
+        if (mzIndex[mid] <= upperMZ)
+          endBlock = mid + 1;
+        else
+          blocks = mid;
+      }
+      toIndex = Math.min(numOfDataPoints, endBlock * MZ_INDEX_STEP);
+    }
 
-    if (dataPointsFile == null) {
-      File newFile = RawDataFileImpl.createNewDataPointsFile();
-      openDataPointsFile(newFile);
+    final int numToRead = toIndex - fromIndex;
+    final double mzValues[] = new double[numToRead];
+    final double intensityValues[] = new double[numToRead];
+    readDataPoints(ID, fromIndex, numToRead, mzValues, intensityValues);
+
+    int startIndex, endIndex;
+    for (startIndex = 0; startIndex < numToRead; startIndex++) {
+      if (mzValues[startIndex] >= lowerMZ)
+        break;
+    }
+    for (endIndex = startIndex; endIndex < numToRead; endIndex++) {
+      if (mzValues[endIndex] > upperMZ)
+        break;
     }
 
-    final long currentOffset = dataPointsFile.length();
+    DataPoint pointsWithinRange[] = new DataPoint[endIndex - startIndex];
+    for (int i = startIndex; i < endIndex; i++) {
+      pointsWithinRange[i - startIndex] = new SimpleDataPoint(mzValues[i], intensityValues[i]);
+    }
 
-    final int currentID;
-    if (!dataPointsOffsets.isEmpty())
-      currentID = dataPointsOffsets.lastKey() + 1;
-    else
-      currentID = 1;
+    return pointsWithinRange;
 
-    final int numOfDataPoints = dataPoints.length;
+  }
 
-    // Convert the dataPoints into a byte array. Each float takes 4 bytes,
-    // so we get the current float offset by dividing the size of the file
-    // by 4
-    final int numOfBytes = numOfDataPoints * 2 * 4;
+  /**
+   * Reads numOfDataPoints data points starting at data point fromIndex of the given storage ID into
+   * the beginning of the given arrays.
+   */
+  private void readDataPoints(int ID, int fromIndex, int numOfDataPoints, double mzValues[],
+      double intensityValues[]) throws IOException {
 
-    if (buffer.capacity() < numOfBytes) {
-      buffer = ByteBuffer.allocate(numOfBytes * 2);
-    } else {
-      // JDK 9 breaks compatibility with JRE8: need to cast
-      // https://stackoverflow.com/questions/48693695/java-nio-buffer-not-loading-clear-method-on-runtime
-      ((Buffer) buffer).clear();
+    if (getDataPointsCodec() != DataPointsCodec.NONE) {
+      readEncodedDataPoints(ID, fromIndex, numOfDataPoints, mzValues, intensityValues);
+      return;
     }
 
-    FloatBuffer floatBuffer = buffer.asFloatBuffer();
-    for (DataPoint dp : dataPoints) {
-      floatBuffer.put((float) dp.getMZ());
-      floatBuffer.put((float) dp.getIntensity());
+    final long currentOffset = getStoredDataPointsOffset(ID) + fromIndex * 2L * 4L;
+
+    if (!memoryMapped) {
+      synchronized (this) {
+        readDataPointsFromFile(currentOffset, numOfDataPoints, mzValues, intensityValues);
+      }
+      return;
     }
 
-    dataPointsFile.seek(currentOffset);
-    dataPointsFile.write(buffer.array(), 0, numOfBytes);
+    final int numOfBytes = numOfDataPoints * 2 * 4;
 
-    dataPointsOffsets.put(currentID, currentOffset);
-    dataPointsLengths.put(currentID, numOfDataPoints);
+    // Use the mapped segment if the data points lie completely inside of it. Data points in the
+    // not yet mapped tail of the file or crossing a segment boundary are read by a positional read,
+    // which does not use the file pointer and therefore needs no locking either.
+    mappedReadsLock.readLock().lock();
+    try {
+      final MappedByteBuffer segments[] = mappedSegments;
+      final int segment = (int) (currentOffset / MAPPED_SEGMENT_SIZE);
+      int position = (int) (currentOffset % MAPPED_SEGMENT_SIZE);
+      final ByteBuffer data;
+      if ((segment < segments.length) && (position + numOfBytes <= MAPPED_SEGMENT_SIZE)) {
+        data = segments[segment];
+      } else {
+        data = ByteBuffer.allocate(numOfBytes);
+        final FileChannel fileChannel = dataPointsFile.getChannel();
+        while (data.hasRemaining()) {
+          if (fileChannel.read(data, currentOffset + data.position()) < 0)
+            throw new EOFException("Data points of storage ID " + ID + " exceed the file length");
+        }
+        position = 0;
+      }
 
-    return currentID;
+      // Absolute reads do not modify the shared buffer, so they are safe from multiple threads
+      for (int i = 0; i < numOfDataPoints; i++) {
+        mzValues[i] = data.getFloat(position);
+        intensityValues[i] = data.getFloat(position + 4);
+        position += 8;
+      }
+    } finally {
+      mappedReadsLock.readLock().unlock();
+    }
 
   }
 
-  public synchronized DataPoint[] readDataPoints(int ID) throws IOException {
-
-    final Long currentOffset = dataPointsOffsets.get(ID);
-    final Integer numOfDataPoints = dataPointsLengths.get(ID);
+  /**
+   * Reads and decodes the encoded data points of the given storage ID. The encoded data points can
+   * only be decoded as a whole, so the requested part is copied from the decoded data points.
+   */
+  private void readEncodedDataPoints(int ID, int fromIndex, int numOfDataPoints,
+      double mzValues[], double intensityValues[]) throws IOException {
+
+    final int numOfStoredDataPoints = getNumOfStoredDataPoints(ID);
+    final long offset = getStoredDataPointsOffset(ID);
+    final int numOfBytes = getStoredDataPointsSize(ID);
+    final byte encoded[] = new byte[numOfBytes];
+
+    if (!memoryMapped) {
+      synchronized (this) {
+        dataPointsFile.seek(offset);
+        dataPointsFile.readFully(encoded);
+      }
+    } else {
+      mappedReadsLock.readLock().lock();
+      try {
+        final MappedByteBuffer segments[] = mappedSegments;
+        final int segment = (int) (offset / MAPPED_SEGMENT_SIZE);
+        final int position = (int) (offset % MAPPED_SEGMENT_SIZE);
+        if ((segment < segments.length) && (position + numOfBytes <= MAPPED_SEGMENT_SIZE)) {
+          // A duplicate has its own position, so the shared mapping is not modified
+          ByteBuffer data = segments[segment].duplicate();
+          data.position(position);
+          data.get(encoded);
+        } else {
+          final ByteBuffer data = ByteBuffer.wrap(encoded);
+          final FileChannel fileChannel = dataPointsFile.getChannel();
+          while (data.hasRemaining()) {
+            if (fileChannel.read(data, offset + data.position()) < 0)
+              throw new EOFException(
+                  "Data points of storage ID " + ID + " exceed the file length");
+          }
+        }
+      } finally {
+        mappedReadsLock.readLock().unlock();
+      }
+    }
 
-    if ((currentOffset == null) || (numOfDataPoints == null)) {
-      throw new IllegalArgumentException("Unknown storage ID " + ID);
+    final DataPointsCodec codec = getDataPointsCodec();
+    if ((fromIndex == 0) && (numOfDataPoints == numOfStoredDataPoints)) {
+      codec.decode(encoded, numOfBytes, mzValues, intensityValues, numOfStoredDataPoints);
+      return;
     }
 
+    final double storedMZValues[] = new double[numOfStoredDataPoints];
+    final double storedIntensityValues[] = new double[numOfStoredDataPoints];
+    codec.decode(encoded, numOfBytes, storedMZValues, storedIntensityValues,
+        numOfStoredDataPoints);
+    System.arraycopy(storedMZValues, fromIndex, mzValues, 0, numOfDataPoints);
+    System.arraycopy(storedIntensityValues, fromIndex, intensityValues, 0, numOfDataPoints);
+
+  }
+
+  private void readDataPointsFromFile(long currentOffset, int numOfDataPoints,
+      double mzValues[], double intensityValues[]) throws IOException {
+
     final int numOfBytes = numOfDataPoints * 2 * 4;
 
     if (buffer.capacity() < numOfBytes) {
@@ -389,21 +791,18 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
     FloatBuffer floatBuffer = buffer.asFloatBuffer();
 
-    DataPoint dataPoints[] = new DataPoint[numOfDataPoints];
-
     for (int i = 0; i < numOfDataPoints; i++) {
-      float mz = floatBuffer.get();
-      float intensity = floatBuffer.get();
-      dataPoints[i] = new SimpleDataPoint(mz, intensity);
+      mzValues[i] = floatBuffer.get();
+      intensityValues[i] = floatBuffer.get();
     }
 
-    return dataPoints;
-
   }
 
   public synchronized void removeStoredDataPoints(int ID) throws IOException {
-    dataPointsOffsets.remove(ID);
-    dataPointsLengths.remove(ID);
+    if ((ID < 0) || (ID >= dataPointsLengths.length))
+      return;
+    dataPointsLengths[ID] = -1;
+    dataPointsMZIndex[ID] = null;
   }
 
   @Override
@@ -413,6 +812,7 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
     // and we just need store the reference
     if (newScan instanceof StorableScan) {
       scans.put(newScan.getScanNumber(), (StorableScan) newScan);
+      scanIndex = null;
       return;
     }
 
@@ -422,6 +822,7 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
     StorableScan storedScan = new StorableScan(newScan, this, dataPoints.length, storageID);
 
     scans.put(newScan.getScanNumber(), storedScan);
+    scanIndex = null;
 
   }
 
@@ -433,6 +834,7 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
     for (StorableScan scan : scans.values()) {
       scan.updateValues();
     }
+    scanIndex = new ScanIndex(scans.values());
     logger.finest("Writing of scans to file " + dataPointsFileName + " finished");
     return this;
   }
@@ -445,29 +847,13 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
   @Override
   public @Nonnull Range<Double> getDataMZRange(int msLevel) {
 
-    // check if we have this value already cached
+    // check if the range was set explicitly
     Range<Double> mzRange = dataMZRange.get(msLevel);
     if (mzRange != null)
       return mzRange;
 
-    // find the value
-    for (Scan scan : scans.values()) {
-
-      // ignore scans of other ms levels
-      if ((msLevel != 0) && (scan.getMSLevel() != msLevel))
-        continue;
-
-      if (mzRange == null)
-        mzRange = scan.getDataPointMZRange();
-      else
-        mzRange = mzRange.span(scan.getDataPointMZRange());
-
-    }
-
-    // cache the value, if we found any
-    if (mzRange != null)
-      dataMZRange.put(msLevel, mzRange);
-    else
+    mzRange = getScanIndex().getMZRange(msLevel);
+    if (mzRange == null)
       mzRange = Range.singleton(0.0);
 
     return mzRange;
@@ -482,29 +868,13 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
   @Override
   public @Nonnull Range<Double> getDataRTRange(int msLevel) {
 
-    // check if we have this value already cached
+    // check if the range was set explicitly
     Range<Double> rtRange = dataRTRange.get(msLevel);
     if (rtRange != null)
       return rtRange;
 
-    // find the value
-    for (Scan scan : scans.values()) {
-
-      // ignore scans of other ms levels
-      if ((msLevel != 0) && (scan.getMSLevel() != msLevel))
-        continue;
-
-      if (rtRange == null)
-        rtRange = Range.singleton(scan.getRetentionTime());
-      else
-        rtRange = rtRange.span(Range.singleton(scan.getRetentionTime()));
-
-    }
-
-    // cache the value
-    if (rtRange != null)
-      dataRTRange.put(msLevel, rtRange);
-    else
+    rtRange = getScanIndex().getRTRange(msLevel);
+    if (rtRange == null)
       rtRange = Range.singleton(0.0);
 
     return rtRange;
@@ -524,20 +894,73 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
     return getScanNumbers(msLevel).length;
   }
 
-  public synchronized TreeMap<Integer, Long> getDataPointsOffsets() {
-    return dataPointsOffsets;
+  /**
+   * @see net.sf.mzmine.datamodel.RawDataFile#getMemoryUsage()
+   */
+  @Override
+  public synchronized long getMemoryUsage() {
+
+    // Storage tables: one long, two ints and one reference per storage ID, plus the m/z indexes
+    long memoryUsage = 4 * ARRAY_HEADER_SIZE + 20L * dataPointsLengths.length;
+    for (float mzIndex[] : dataPointsMZIndex) {
+      if (mzIndex != null)
+        memoryUsage += ARRAY_HEADER_SIZE + 4L * mzIndex.length;
+    }
+
+    // Scan map: one int key and one reference per slot (the load factor keeps at most 3/4 used)
+    memoryUsage += 2 * ARRAY_HEADER_SIZE + 12L * scans.size() * 4 / 3;
+
+    ScanIndex index = scanIndex;
+    if (index != null)
+      memoryUsage += index.getMemoryUsage();
+
+    return memoryUsage;
+
   }
 
-  public synchronized TreeMap<Integer, Integer> getDataPointsLengths() {
-    return dataPointsLengths;
+  /**
+   * Releases the mapping of the buffer immediately instead of when it is garbage collected. The
+   * buffer must not be used any more.
+   * 
+   * The JDK offers no public API to unmap a buffer, so this requires the JDK-internal
+   * sun.misc.Unsafe.invokeCleaner() (jdk.unsupported module), accessed by reflection. Without it
+   * the mapping is only released by the garbage collector, and on Windows the data points file can
+   * not be deleted until then.
+   */
+  private void unmap(MappedByteBuffer buffer) {
+    try {
+      final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      final Field unsafeField = unsafeClass.getDeclaredField("theUnsafe");
+      unsafeField.setAccessible(true);
+      unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(unsafeField.get(null),
+          buffer);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // The mapping is released by the garbage collector instead
+      logger.log(Level.WARNING, "Could not unmap the data points file " + dataPointsFileName
+          + ", it may not be deleted until the mapping is garbage collected", e);
+    }
   }
 
   @Override
   public synchronized void close() {
     try {
       if (dataPointsFileName != null) {
+        // New reads do not get the mapped segments any more. The segments are unmapped when the
+        // running reads are finished, because a mapped file can not be deleted on Windows.
+        final MappedByteBuffer segments[] = mappedSegments;
+        mappedSegments = new MappedByteBuffer[0];
         dataPointsFile.close();
-        dataPointsFileName.delete();
+        mappedReadsLock.writeLock().lock();
+        try {
+          for (MappedByteBuffer segment : segments)
+            unmap(segment);
+        } finally {
+          mappedReadsLock.writeLock().unlock();
+        }
+        if (!dataPointsFileName.delete()) {
+          // The file is deleted on exit, see openDataPointsFile()
+          logger.warning("Could not delete file " + dataPointsFileName);
+        }
       }
     } catch (IOException e) {
       logger.warning("Could not close file " + dataPointsFileName + ": " + e.toString());
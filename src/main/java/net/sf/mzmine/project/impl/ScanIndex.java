@@ -0,0 +1,294 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.project.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.common.collect.BoundType;
+import com.google.common.collect.Range;
+import com.google.common.primitives.Ints;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.Scan;
+
+/**
+ * Immutable index of the scans of a RawDataFileImpl. For each MS level, the retention times and
+ * scan numbers are kept in retention time order in primitive arrays, so the scans within a
+ * retention time range are found by two binary searches. The index also holds the m/z and
+ * retention time ranges and the maximum base peak intensity and TIC of each MS level, and the scans
+ * themselves in scan number order, so they can be looked up without locking the data file.
+ */
+final class ScanIndex {
+
+  private final Map<Integer, MSLevelIndex> msLevelIndexes;
+  private final MSLevelIndex allScansIndex;
+  private final int msLevels[];
+
+  // Scans in scan number order. If the scan numbers are consecutive, the scan is found directly at
+  // (scanNumber - firstScanNumber), otherwise by binary search in the allScansIndex scan numbers.
+  private final Scan scansByNumber[];
+  private final boolean consecutiveScanNumbers;
+
+  ScanIndex(Collection<? extends Scan> scans) {
+
+    List<Scan> sortedScans = new ArrayList<>(scans);
+    sortedScans.sort(Comparator.comparingDouble(Scan::getRetentionTime)
+        .thenComparingInt(Scan::getScanNumber));
+
+    Map<Integer, List<Scan>> scansByMSLevel = new TreeMap<>();
+    for (Scan scan : sortedScans) {
+      scansByMSLevel.computeIfAbsent(scan.getMSLevel(), msLevel -> new ArrayList<>()).add(scan);
+    }
+
+    msLevelIndexes = new TreeMap<>();
+    for (Map.Entry<Integer, List<Scan>> entry : scansByMSLevel.entrySet()) {
+      msLevelIndexes.put(entry.getKey(), new MSLevelIndex(entry.getValue()));
+    }
+    allScansIndex = new MSLevelIndex(sortedScans);
+    msLevels = Ints.toArray(scansByMSLevel.keySet());
+
+    scansByNumber = sortedScans.toArray(new Scan[0]);
+    Arrays.sort(scansByNumber, Comparator.comparingInt(Scan::getScanNumber));
+    final int numOfScans = scansByNumber.length;
+    consecutiveScanNumbers = (numOfScans == 0) || (scansByNumber[numOfScans - 1].getScanNumber()
+        - scansByNumber[0].getScanNumber() == numOfScans - 1);
+
+  }
+
+  /**
+   * @return number of scans
+   */
+  int getNumOfScans() {
+    return scansByNumber.length;
+  }
+
+  /**
+   * @return scan with the given scan number, or null if there is no such scan
+   */
+  Scan getScan(int scanNumber) {
+    if (scansByNumber.length == 0)
+      return null;
+    final int index;
+    if (consecutiveScanNumbers)
+      index = scanNumber - scansByNumber[0].getScanNumber();
+    else
+      index = Arrays.binarySearch(allScansIndex.scanNumbers, scanNumber);
+    if ((index < 0) || (index >= scansByNumber.length))
+      return null;
+    return scansByNumber[index];
+  }
+
+  /**
+   * @return estimate of the heap memory used by the index arrays in bytes
+   */
+  long getMemoryUsage() {
+    long memoryUsage = 4L * scansByNumber.length + 4L * msLevels.length;
+    memoryUsage += allScansIndex.getMemoryUsage();
+    for (MSLevelIndex index : msLevelIndexes.values())
+      memoryUsage += index.getMemoryUsage();
+    return memoryUsage;
+  }
+
+  /**
+   * @return sorted array of all MS levels
+   */
+  int[] getMSLevels() {
+    return msLevels.clone();
+  }
+
+  /**
+   * @return sorted array of all scan numbers
+   */
+  int[] getScanNumbers() {
+    return allScansIndex.scanNumbers;
+  }
+
+  /**
+   * @return sorted array of the scan numbers of the given MS level
+   */
+  int[] getScanNumbers(int msLevel) {
+    MSLevelIndex index = msLevelIndexes.get(msLevel);
+    if (index == null)
+      return new int[0];
+    return index.scanNumbers;
+  }
+
+  /**
+   * @return sorted array of the scan numbers of the given MS level within the retention time range
+   */
+  int[] getScanNumbers(int msLevel, Range<Double> rtRange) {
+    MSLevelIndex index = msLevelIndexes.get(msLevel);
+    if (index == null)
+      return new int[0];
+    return index.getScanNumbers(rtRange);
+  }
+
+  /**
+   * @return m/z range of the given MS level (all scans for MS level 0), or null if there are no
+   *         such scans
+   */
+  Range<Double> getMZRange(int msLevel) {
+    MSLevelIndex index = (msLevel == 0) ? allScansIndex : msLevelIndexes.get(msLevel);
+    return (index == null) ? null : index.mzRange;
+  }
+
+  /**
+   * @return retention time range of the given MS level (all scans for MS level 0), or null if there
+   *         are no such scans
+   */
+  Range<Double> getRTRange(int msLevel) {
+    MSLevelIndex index = (msLevel == 0) ? allScansIndex : msLevelIndexes.get(msLevel);
+    return (index == null) ? null : index.rtRange;
+  }
+
+  /**
+   * @return maximum base peak intensity of the given MS level, or -1 if there are no such scans
+   */
+  double getMaxBasePeakIntensity(int msLevel) {
+    MSLevelIndex index = msLevelIndexes.get(msLevel);
+    return (index == null) ? -1d : index.maxBasePeakIntensity;
+  }
+
+  /**
+   * @return maximum total ion current of the given MS level, or -1 if there are no such scans
+   */
+  double getMaxTIC(int msLevel) {
+    MSLevelIndex index = msLevelIndexes.get(msLevel);
+    return (index == null) ? -1d : index.maxTIC;
+  }
+
+  private static final class MSLevelIndex {
+
+    // Retention times and scan numbers in retention time order
+    private final double retentionTimes[];
+    private final int rtOrderedScanNumbers[];
+
+    // Scan numbers in ascending order
+    private final int scanNumbers[];
+
+    // True if the retention time order is also the scan number order, which is the usual case
+    private final boolean scanNumbersInRTOrder;
+
+    private final Range<Double> mzRange, rtRange;
+    private final double maxBasePeakIntensity, maxTIC;
+
+    /**
+     * @param scans scans sorted by retention time, must not be empty
+     */
+    MSLevelIndex(List<Scan> scans) {
+
+      final int numOfScans = scans.size();
+      retentionTimes = new double[numOfScans];
+      rtOrderedScanNumbers = new int[numOfScans];
+
+      Range<Double> scansMZRange = null;
+      double maxBasePeak = -1d, maxTotalIonCurrent = -1d;
+      boolean inRTOrder = true;
+
+      for (int i = 0; i < numOfScans; i++) {
+        Scan scan = scans.get(i);
+        retentionTimes[i] = scan.getRetentionTime();
+        rtOrderedScanNumbers[i] = scan.getScanNumber();
+        if ((i > 0) && (rtOrderedScanNumbers[i] < rtOrderedScanNumbers[i - 1]))
+          inRTOrder = false;
+
+        if (scansMZRange == null)
+          scansMZRange = scan.getDataPointMZRange();
+        else
+          scansMZRange = scansMZRange.span(scan.getDataPointMZRange());
+
+        DataPoint basePeak = scan.getHighestDataPoint();
+        if ((basePeak != null) && (basePeak.getIntensity() > maxBasePeak))
+          maxBasePeak = basePeak.getIntensity();
+
+        if (scan.getTIC() > maxTotalIonCurrent)
+          maxTotalIonCurrent = scan.getTIC();
+      }
+
+      scanNumbersInRTOrder = inRTOrder;
+      if (inRTOrder) {
+        scanNumbers = rtOrderedScanNumbers;
+      } else {
+        scanNumbers = rtOrderedScanNumbers.clone();
+        Arrays.sort(scanNumbers);
+      }
+
+      mzRange = scansMZRange;
+      rtRange = Range.closed(retentionTimes[0], retentionTimes[numOfScans - 1]);
+      maxBasePeakIntensity = maxBasePeak;
+      maxTIC = maxTotalIonCurrent;
+
+    }
+
+    int[] getScanNumbers(Range<Double> range) {
+
+      int fromIndex = 0, toIndex = retentionTimes.length;
+
+      if (range.hasLowerBound()) {
+        final double lower = range.lowerEndpoint();
+        final boolean open = range.lowerBoundType() == BoundType.OPEN;
+        int high = toIndex;
+        while (fromIndex < high) {
+          final int mid = (fromIndex + high) >>> 1;
+          if (retentionTimes[mid] < lower || (open && retentionTimes[mid] == lower))
+            fromIndex = mid + 1;
+          else
+            high = mid;
+        }
+      }
+
+      if (range.hasUpperBound()) {
+        final double upper = range.upperEndpoint();
+        final boolean open = range.upperBoundType() == BoundType.OPEN;
+        int low = fromIndex;
+        while (low < toIndex) {
+          final int mid = (low + toIndex) >>> 1;
+          if (retentionTimes[mid] < upper || (!open && retentionTimes[mid] == upper))
+            low = mid + 1;
+          else
+            toIndex = mid;
+        }
+      }
+
+      if (fromIndex >= toIndex)
+        return new int[0];
+
+      int result[] = Arrays.copyOfRange(rtOrderedScanNumbers, fromIndex, toIndex);
+      if (!scanNumbersInRTOrder)
+        Arrays.sort(result);
+      return result;
+
+    }
+
+    long getMemoryUsage() {
+      long memoryUsage = 12L * retentionTimes.length;
+      if (!scanNumbersInRTOrder)
+        memoryUsage += 4L * scanNumbers.length;
+      return memoryUsage;
+    }
+
+  }
+
+}
@@ -21,7 +21,6 @@ package net.sf.mzmine.project.impl;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Vector;
 import java.util.logging.Logger;
 
 import javax.annotation.Nonnull;
@@ -35,6 +34,7 @@ import net.sf.mzmine.datamodel.MassSpectrumType;
 import net.sf.mzmine.datamodel.PolarityType;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.desktop.impl.projecttree.RawDataTreeModel;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.util.scans.ScanUtils;
@@ -128,48 +128,58 @@ public class StorableScan implements Scan {
   }
 
   /**
-   * @return Returns scan datapoints within a given range
+   * Reads the scan's data points from the temporary file directly into the given arrays.
    */
-  public @Nonnull DataPoint[] getDataPointsByMass(@Nonnull Range<Double> mzRange) {
-
-    DataPoint dataPoints[] = getDataPoints();
+  @Override
+  public int getDataPoints(@Nonnull double mzValues[], @Nonnull double intensityValues[]) {
 
-    int startIndex, endIndex;
-    for (startIndex = 0; startIndex < dataPoints.length; startIndex++) {
-      if (dataPoints[startIndex].getMZ() >= mzRange.lowerEndpoint()) {
-        break;
-      }
+    try {
+      return rawDataFile.readDataPoints(storageID, mzValues, intensityValues);
+    } catch (IOException e) {
+      logger.severe("Could not read data from temporary file " + e.toString());
+      return 0;
     }
 
-    for (endIndex = startIndex; endIndex < dataPoints.length; endIndex++) {
-      if (dataPoints[endIndex].getMZ() > mzRange.upperEndpoint()) {
-        break;
-      }
-    }
+  }
 
-    DataPoint pointsWithinRange[] = new DataPoint[endIndex - startIndex];
+  /**
+   * @return Returns scan datapoints within a given range. Only the part of the stored data points
+   *         covering the range is read from the temporary file.
+   */
+  public @Nonnull DataPoint[] getDataPointsByMass(@Nonnull Range<Double> mzRange) {
 
-    // Copy the relevant points
-    System.arraycopy(dataPoints, startIndex, pointsWithinRange, 0, endIndex - startIndex);
+    try {
+      DataPoint result[] = rawDataFile.readDataPoints(storageID, mzRange);
+      return result;
+    } catch (IOException e) {
+      logger.severe("Could not read data from temporary file " + e.toString());
+      return new DataPoint[0];
+    }
 
-    return pointsWithinRange;
   }
 
   /**
    * @return Returns scan datapoints over certain intensity
    */
   public @Nonnull DataPoint[] getDataPointsOverIntensity(double intensity) {
-    int index;
-    Vector<DataPoint> points = new Vector<DataPoint>();
-    DataPoint dataPoints[] = getDataPoints();
 
-    for (index = 0; index < dataPoints.length; index++) {
-      if (dataPoints[index].getIntensity() >= intensity) {
-        points.add(dataPoints[index]);
-      }
+    final int numOfStoredDataPoints = rawDataFile.getNumOfStoredDataPoints(storageID);
+    double mzValues[] = new double[numOfStoredDataPoints];
+    double intensityValues[] = new double[numOfStoredDataPoints];
+    final int numOfDataPoints = getDataPoints(mzValues, intensityValues);
+
+    int numOverIntensity = 0;
+    for (int index = 0; index < numOfDataPoints; index++) {
+      if (intensityValues[index] >= intensity)
+        numOverIntensity++;
     }
 
-    DataPoint pointsOverIntensity[] = points.toArray(new DataPoint[0]);
+    DataPoint pointsOverIntensity[] = new DataPoint[numOverIntensity];
+    int point = 0;
+    for (int index = 0; index < numOfDataPoints; index++) {
+      if (intensityValues[index] >= intensity)
+        pointsOverIntensity[point++] = new SimpleDataPoint(mzValues[index], intensityValues[index]);
+    }
 
     return pointsOverIntensity;
   }
@@ -225,32 +235,43 @@ public class StorableScan implements Scan {
   }
 
   void updateValues() {
-    DataPoint dataPoints[] = getDataPoints();
+    final int numOfStoredDataPoints = rawDataFile.getNumOfStoredDataPoints(storageID);
+    final double mzValues[] = new double[numOfStoredDataPoints];
+    final double intensityValues[] = new double[numOfStoredDataPoints];
+    final int numOfDataPoints = getDataPoints(mzValues, intensityValues);
 
     // find m/z range and base peak
-    if (dataPoints.length > 0) {
+    if (numOfDataPoints > 0) {
 
-      basePeak = dataPoints[0];
-      mzRange = Range.singleton(dataPoints[0].getMZ());
+      int basePeakIndex = 0;
+      double minMZ = mzValues[0], maxMZ = mzValues[0];
       double tic = 0;
 
-      for (DataPoint dp : dataPoints) {
+      for (int i = 0; i < numOfDataPoints; i++) {
 
-        if (dp.getIntensity() > basePeak.getIntensity())
-          basePeak = dp;
+        if (intensityValues[i] > intensityValues[basePeakIndex])
+          basePeakIndex = i;
 
-        mzRange = mzRange.span(Range.singleton(dp.getMZ()));
+        if (mzValues[i] < minMZ)
+          minMZ = mzValues[i];
+        if (mzValues[i] > maxMZ)
+          maxMZ = mzValues[i];
 
-        tic += dp.getIntensity();
+        tic += intensityValues[i];
 
       }
 
+      basePeak = new SimpleDataPoint(mzValues[basePeakIndex], intensityValues[basePeakIndex]);
+      mzRange = Range.closed(minMZ, maxMZ);
       totalIonCurrent = new Double(tic);
 
     } else {
       mzRange = Range.singleton(0.0);
       totalIonCurrent = new Double(0);
     }
+
+    // Data points loaded from a project have no m/z index yet
+    rawDataFile.updateMZIndex(storageID, mzValues, numOfDataPoints);
   }
 
   /**
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package net.sf.mzmine.taskcontrol;
+
+import javax.annotation.Nullable;
+
+/**
+ * Sub task which processes the items start to end - 1 of a range, e.g. a chunk of the rows of a
+ * feature list, one after the other. Subclasses implement process(int) and may prepare and clean
+ * up in startRange() and finishRange(). The run loop stops as soon as the task is canceled or
+ * fails, and reports the progress as the ratio of processed items.
+ * 
+ * Chunks of a range are usually submitted to a SubTaskGroup by submitRanges().
+ */
+public abstract class RangeSubTask extends AbstractTask {
+
+  private final @Nullable Task parentTask;
+  private final String itemsName;
+  protected final int start, end;
+
+  private volatile int finishedItems = 0;
+
+  /**
+   * @param parentTask task which submits this sub task, used for the description, may be null if
+   *        the task overrides getTaskDescription()
+   * @param itemsName name of the processed items in the description, e.g. "rows"
+   * @param start first item to process
+   * @param end end (exclusive) of the items to process
+   */
+  protected RangeSubTask(@Nullable Task parentTask, String itemsName, int start, int end) {
+    this.parentTask = parentTask;
+    this.itemsName = itemsName;
+    this.start = start;
+    this.end = end;
+  }
+
+  /**
+   * Processes one item of the range. Canceling this task or setting its status to ERROR stops the
+   * processing of the range.
+   */
+  protected abstract void process(int index) throws Exception;
+
+  /**
+   * Called before the first item is processed
+   */
+  protected void startRange() throws Exception {}
+
+  /**
+   * Called after the last item was processed, unless the task was canceled or failed
+   */
+  protected void finishRange() throws Exception {}
+
+  /**
+   * Marks this task as failed because of the exception
+   */
+  protected void handleError(Exception e) {
+    setErrorMessage("'Unknown error' during " + getTaskDescription() + ": " + e.getMessage());
+    setStatus(TaskStatus.ERROR);
+  }
+
+  @Override
+  public double getFinishedPercentage() {
+    if (end == start)
+      return 0;
+    return ((double) finishedItems) / (end - start);
+  }
+
+  @Override
+  public String getTaskDescription() {
+    return parentTask.getTaskDescription() + " (" + itemsName + " " + (start + 1) + "-" + end
+        + ")";
+  }
+
+  @Override
+  public void run() {
+
+    setStatus(TaskStatus.PROCESSING);
+
+    try {
+
+      startRange();
+
+      for (int index = start; index < end; index++) {
+
+        if (isCanceled())
+          return;
+
+        process(index);
+        if (isCanceled())
+          return;
+
+        finishedItems++;
+      }
+
+      finishRange();
+
+      setStatus(TaskStatus.FINISHED);
+
+    } catch (Exception e) {
+      handleError(e);
+    }
+
+  }
+
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.taskcontrol;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.sf.mzmine.main.MZmineCore;
+
+/**
+ * Group of sub tasks which a parent task distributes its work to. The sub tasks are processed in
+ * parallel by the task controller. The group provides the aggregated progress of the sub tasks,
+ * cancels them when the parent task is canceled (and cancels the remaining sub tasks when one of
+ * them fails) and lets the parent task wait for all of them by join().
+ * 
+ * While the parent task waits in join(), it processes sub tasks which have not been started by the
+ * task controller yet. Therefore the parent task does not block a worker thread while its sub tasks
+ * are waiting for one.
+ * 
+ * Example:
+ * 
+ * <pre>
+ * SubTaskGroup&lt;MyRowsTask&gt; subTasks = new SubTaskGroup&lt;&gt;(this);
+ * subTasks.submitRanges(rows.length, ROWS_PER_SUB_TASK,
+ *     (start, end) -&gt; new MyRowsTask(this, rows, start, end));
+ * if (!subTasks.join()) {
+ *   ...
+ * }
+ * </pre>
+ * 
+ * @see RangeSubTask
+ */
+public class SubTaskGroup<T extends AbstractTask> {
+
+  private Logger logger = Logger.getLogger(this.getClass().getName());
+
+  private final AbstractTask parentTask;
+
+  private final List<T> subTasks = new ArrayList<>();
+  private final List<SubTaskRunner> runners = new ArrayList<>();
+
+  /**
+   * Creates the sub task processing the items start to end - 1 of a range
+   */
+  @FunctionalInterface
+  public interface RangeTaskFactory<T> {
+    T createTask(int start, int end);
+  }
+
+  /**
+   * @param parentTask task which submits the sub tasks, canceling it cancels the sub tasks
+   */
+  public SubTaskGroup(AbstractTask parentTask) {
+    this.parentTask = parentTask;
+    parentTask.addTaskStatusListener((task, newStatus, oldStatus) -> {
+      if ((newStatus == TaskStatus.CANCELED) || (newStatus == TaskStatus.ERROR))
+        cancel();
+    });
+  }
+
+  /**
+   * Adds the sub task to the group and hands it to the task controller for processing
+   */
+  public void submit(T subTask) {
+    submitAll(List.of(subTask));
+  }
+
+  /**
+   * Adds the sub tasks to the group and hands them to the task controller for processing
+   */
+  public void submitAll(Collection<? extends T> newSubTasks) {
+
+    if (newSubTasks.isEmpty())
+      return;
+
+    final Task tasks[] = new Task[newSubTasks.size()];
+    int i = 0;
+    synchronized (this) {
+      for (T subTask : newSubTasks) {
+        subTask.addTaskStatusListener(
+            (task, newStatus, oldStatus) -> subTaskStatusChanged(newStatus));
+        SubTaskRunner runner = new SubTaskRunner(subTask);
+        subTasks.add(subTask);
+        runners.add(runner);
+        tasks[i++] = runner;
+      }
+    }
+
+    // Sub tasks submitted after the parent task was canceled are not processed at all
+    if (parentTask.isCanceled()) {
+      cancel();
+      return;
+    }
+
+    MZmineCore.getTaskController().addTasks(tasks);
+
+  }
+
+  /**
+   * Splits the items 0 to size - 1 into consecutive chunks of chunkSize items (the last chunk may be
+   * smaller) and submits a sub task for each chunk
+   * 
+   * @return the submitted sub tasks, in the order of their chunks
+   */
+  public List<T> submitRanges(int size, int chunkSize, RangeTaskFactory<? extends T> factory) {
+    if (chunkSize <= 0)
+      throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+    final List<T> newSubTasks = new ArrayList<>();
+    for (int start = 0; start < size; start += chunkSize)
+      newSubTasks.add(factory.createTask(start, Math.min(size, start + chunkSize)));
+    submitAll(newSubTasks);
+    return newSubTasks;
+  }
+
+  /**
+   * @return sub tasks submitted so far
+   */
+  public synchronized List<T> getSubTasks() {
+    return new ArrayList<>(subTasks);
+  }
+
+  /**
+   * @return average finished percentage of the sub tasks
+   */
+  public synchronized double getFinishedPercentage() {
+    if (subTasks.isEmpty())
+      return 0.0;
+    double finished = 0.0;
+    for (T subTask : subTasks) {
+      if (subTask.isFinished())
+        finished += 1.0;
+      else
+        finished += Math.max(0.0, Math.min(1.0, subTask.getFinishedPercentage()));
+    }
+    return finished / subTasks.size();
+  }
+
+  /**
+   * @return error message of the first sub task which failed, or null
+   */
+  public synchronized String getErrorMessage() {
+    for (T subTask : subTasks) {
+      if ((subTask.getStatus() == TaskStatus.ERROR) && (subTask.getErrorMessage() != null))
+        return subTask.getErrorMessage();
+    }
+    return null;
+  }
+
+  /**
+   * Cancels all sub tasks which are not finished yet
+   */
+  public void cancel() {
+    for (T subTask : getSubTasks()) {
+      if ((subTask.getStatus() == TaskStatus.WAITING)
+          || (subTask.getStatus() == TaskStatus.PROCESSING))
+        subTask.cancel();
+    }
+  }
+
+  /**
+   * Waits until all submitted sub tasks are finished, canceled or failed. Sub tasks which have not
+   * been started yet are processed by the calling thread.
+   * 
+   * @return true if all sub tasks finished successfully
+   */
+  public boolean join() {
+
+    // Help processing the sub tasks still waiting for a worker thread
+    final List<SubTaskRunner> currentRunners;
+    synchronized (this) {
+      currentRunners = new ArrayList<>(runners);
+    }
+    for (SubTaskRunner runner : currentRunners) {
+      if (parentTask.isCanceled())
+        break;
+      try {
+        runner.run();
+      } catch (RuntimeException e) {
+        // The sub task has been marked as failed by the runner, which cancels the other sub tasks
+        logger.log(Level.SEVERE, "Unhandled exception " + e + " while processing sub task "
+            + runner.getTaskDescription(), e);
+      }
+    }
+
+    synchronized (this) {
+      while (!allSubTasksDone()) {
+        try {
+          // The timeout guards against sub tasks which do not report their status change
+          this.wait(500);
+        } catch (InterruptedException e) {
+          cancel();
+          Thread.currentThread().interrupt();
+          return false;
+        }
+      }
+      for (T subTask : subTasks) {
+        if (!subTask.isFinished())
+          return false;
+      }
+      return true;
+    }
+
+  }
+
+  private synchronized boolean allSubTasksDone() {
+    for (T subTask : subTasks) {
+      final TaskStatus status = subTask.getStatus();
+      if ((status == TaskStatus.WAITING) || (status == TaskStatus.PROCESSING)) {
+        // Sub tasks canceled before they were started never change their status again
+        if ((status == TaskStatus.WAITING) && parentTask.isCanceled())
+          continue;
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void subTaskStatusChanged(TaskStatus newStatus) {
+
+    if (newStatus == TaskStatus.ERROR)
+      cancel();
+
+    synchronized (this) {
+      this.notifyAll();
+    }
+
+  }
+
+  /**
+   * Runs the sub task exactly once, either in a worker thread of the task controller or in the
+   * thread of the parent task waiting in join(). The task controller sees the status and progress
+   * of the sub task.
+   */
+  private class SubTaskRunner implements Task {
+
+    private final T subTask;
+    private final AtomicBoolean started = new AtomicBoolean(false);
+
+    SubTaskRunner(T subTask) {
+      this.subTask = subTask;
+    }
+
+    @Override
+    public void run() {
+      if (!started.compareAndSet(false, true))
+        return;
+      if (subTask.getStatus() != TaskStatus.WAITING)
+        return;
+      try {
+        subTask.run();
+      } catch (RuntimeException | Error e) {
+        // Mark the sub task as failed, otherwise join() would wait for it forever
+        subTask.setErrorMessage(e.toString());
+        subTask.setStatus(TaskStatus.ERROR);
+        throw e;
+      }
+    }
+
+    @Override
+    public String getTaskDescription() {
+      return subTask.getTaskDescription();
+    }
+
+    @Override
+    public double getFinishedPercentage() {
+      return subTask.getFinishedPercentage();
+    }
+
+    @Override
+    public TaskStatus getStatus() {
+      return subTask.getStatus();
+    }
+
+    @Override
+    public String getErrorMessage() {
+      return subTask.getErrorMessage();
+    }
+
+    @Override
+    public TaskPriority getTaskPriority() {
+      return subTask.getTaskPriority();
+    }
+
+    @Override
+    public void cancel() {
+      subTask.cancel();
+    }
+
+  }
+
+}
@@ -20,7 +20,8 @@ package net.sf.mzmine.taskcontrol;
 
 /**
  * 
- * This enum defines task priority. High priority tasks are always executed immediately. Normal
+ * This enum defines task priority. High priority tasks are executed immediately, unless there are
+ * already many of them running, and always before waiting normal priority tasks. Normal
  * priority tasks may wait until a thread is available.
  * 
  */
@@ -20,10 +20,13 @@ package net.sf.mzmine.taskcontrol.impl;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Set;
-import java.util.Vector;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 import net.sf.mzmine.desktop.preferences.MZminePreferences;
 import net.sf.mzmine.desktop.preferences.NumOfThreadsParameter;
@@ -33,10 +36,15 @@ import net.sf.mzmine.taskcontrol.Task;
 import net.sf.mzmine.taskcontrol.TaskControlListener;
 import net.sf.mzmine.taskcontrol.TaskController;
 import net.sf.mzmine.taskcontrol.TaskPriority;
-import net.sf.mzmine.taskcontrol.TaskStatus;
 
 /**
- * Task controller implementation
+ * Task controller implementation. Tasks are dispatched to pooled worker threads as soon as they are
+ * added. Tasks of NORMAL priority are processed by a thread pool limited to the number of threads
+ * set in the preferences, the others wait in the queue of that pool. Tasks of HIGH priority are
+ * processed immediately by a second pool of at most MAX_HIGH_PRIORITY_THREADS threads. When all of
+ * them are busy, further HIGH priority tasks wait in the queue of the first pool, which is ordered
+ * by priority and then by the order in which the tasks were added. The task controller thread only
+ * updates the Tasks in progress window and the TaskControlListeners.
  */
 public class TaskControllerImpl implements TaskController, Runnable {
 
@@ -51,13 +59,36 @@ public class TaskControllerImpl implements TaskController, Runnable {
 
   private Thread taskControllerThread;
 
+  /**
+   * Idle worker threads are terminated after this time (in seconds)
+   */
+  private final long WORKER_THREAD_KEEP_ALIVE = 60;
+
+  /**
+   * Maximum number of concurrent threads of the HIGH priority pool
+   */
+  private final int MAX_HIGH_PRIORITY_THREADS =
+      Math.max(8, 2 * Runtime.getRuntime().availableProcessors());
+
+  /**
+   * Order of the waiting tasks: HIGH priority first, then in the order in which they were added
+   */
+  private static final Comparator<Runnable> WAITING_TASKS_ORDER =
+      Comparator.comparing((Runnable task) -> ((WrappedTask) task).getPriority())
+          .thenComparingLong(task -> ((WrappedTask) task).getSequenceNumber());
+
   private TaskQueue taskQueue;
 
   /**
-   * This vector contains references to all running threads of NORMAL priority. Maximum number of
-   * concurrent threads is specified in the preferences dialog.
+   * Thread pool for tasks of NORMAL priority. Maximum number of concurrent threads is specified in
+   * the preferences dialog.
    */
-  private Vector<WorkerThread> runningThreads;
+  private ThreadPoolExecutor normalPriorityExecutor;
+
+  /**
+   * Thread pool for tasks of HIGH priority, which are started immediately if there is a free thread
+   */
+  private ThreadPoolExecutor highPriorityExecutor;
 
   /**
    * Initialize the task controller
@@ -66,10 +97,20 @@ public class TaskControllerImpl implements TaskController, Runnable {
 
     taskQueue = new TaskQueue();
 
-    runningThreads = new Vector<WorkerThread>();
+    final int maxRunningThreads = getMaxRunningThreads();
+    normalPriorityExecutor = new ThreadPoolExecutor(maxRunningThreads, maxRunningThreads,
+        WORKER_THREAD_KEEP_ALIVE, TimeUnit.SECONDS,
+        new PriorityBlockingQueue<Runnable>(11, WAITING_TASKS_ORDER),
+        new WorkerThread.Factory("Normal priority"));
+    normalPriorityExecutor.allowCoreThreadTimeOut(true);
 
-    // Create a low-priority thread that will manage the queue and start
-    // worker threads for tasks
+    // HIGH priority tasks which find no free thread wait at the head of the NORMAL priority queue
+    highPriorityExecutor = new ThreadPoolExecutor(0, MAX_HIGH_PRIORITY_THREADS,
+        WORKER_THREAD_KEEP_ALIVE, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+        new WorkerThread.Factory("High priority"),
+        (task, executor) -> normalPriorityExecutor.execute(task));
+
+    // Create a low-priority thread that will update the task progress
     taskControllerThread = new Thread(this, "Task controller thread");
     taskControllerThread.setPriority(Thread.MIN_PRIORITY);
     taskControllerThread.start();
@@ -111,6 +152,9 @@ public class TaskControllerImpl implements TaskController, Runnable {
     if ((tasks == null) || (tasks.length == 0))
       return;
 
+    // The number of threads may have been changed in the preferences
+    updateMaxRunningThreads();
+
     Set<String> uniqueTaskClasses = new HashSet<String>();
     String taskClassName;
     for (int i = 0; i < tasks.length; i++) {
@@ -121,6 +165,7 @@ public class TaskControllerImpl implements TaskController, Runnable {
       uniqueTaskClasses.add(taskClassName);
       WrappedTask newQueueEntry = new WrappedTask(task, priority);
       taskQueue.addWrappedTask(newQueueEntry);
+      execute(newQueueEntry);
     }
 
     // Track module usage
@@ -178,47 +223,6 @@ public class TaskControllerImpl implements TaskController, Runnable {
         continue;
       }
 
-      // Remove already finished threads from runningThreads
-      Iterator<WorkerThread> threadIterator = runningThreads.iterator();
-      while (threadIterator.hasNext()) {
-        WorkerThread thread = threadIterator.next();
-        if (thread.isFinished())
-          threadIterator.remove();
-      }
-
-      // Get a snapshot of the queue
-      WrappedTask[] queueSnapshot = taskQueue.getQueueSnapshot();
-
-      // Obtain the settings of max concurrent threads
-      NumOfThreadsParameter parameter = MZmineCore.getConfiguration().getPreferences()
-          .getParameter(MZminePreferences.numOfThreads);
-      int maxRunningThreads;
-      if (parameter.isAutomatic() || (parameter.getValue() == null))
-        maxRunningThreads = Runtime.getRuntime().availableProcessors();
-      else
-        maxRunningThreads = parameter.getValue();
-
-      // Check all tasks in the queue
-      for (WrappedTask task : queueSnapshot) {
-
-        // Skip assigned and canceled tasks
-        if (task.isAssigned() || (task.getActualTask().getStatus() == TaskStatus.CANCELED))
-          continue;
-
-        // Create a new thread if the task is high-priority or if we
-        // have less then maximum # of threads running
-        if ((task.getPriority() == TaskPriority.HIGH)
-            || (runningThreads.size() < maxRunningThreads)) {
-          WorkerThread newThread = new WorkerThread(task);
-
-          if (task.getPriority() == TaskPriority.NORMAL) {
-            runningThreads.add(newThread);
-          }
-
-          newThread.start();
-        }
-      }
-
       // Tell the queue to refresh the Task progress window
       taskQueue.refresh();
 
@@ -233,6 +237,45 @@ public class TaskControllerImpl implements TaskController, Runnable {
 
   }
 
+  /**
+   * @return maximum number of concurrently processed tasks of NORMAL priority
+   */
+  private int getMaxRunningThreads() {
+    NumOfThreadsParameter parameter =
+        MZmineCore.getConfiguration().getPreferences().getParameter(MZminePreferences.numOfThreads);
+    if (parameter.isAutomatic() || (parameter.getValue() == null))
+      return Runtime.getRuntime().availableProcessors();
+    else
+      return Math.max(1, parameter.getValue());
+  }
+
+  /**
+   * Applies the number of threads from the preferences to the thread pool of NORMAL priority tasks
+   */
+  private synchronized void updateMaxRunningThreads() {
+    final int maxRunningThreads = getMaxRunningThreads();
+    if (maxRunningThreads == normalPriorityExecutor.getMaximumPoolSize())
+      return;
+    // The core pool size must never exceed the maximum pool size
+    if (maxRunningThreads > normalPriorityExecutor.getMaximumPoolSize()) {
+      normalPriorityExecutor.setMaximumPoolSize(maxRunningThreads);
+      normalPriorityExecutor.setCorePoolSize(maxRunningThreads);
+    } else {
+      normalPriorityExecutor.setCorePoolSize(maxRunningThreads);
+      normalPriorityExecutor.setMaximumPoolSize(maxRunningThreads);
+    }
+  }
+
+  /**
+   * Dispatches the task to the thread pool of its priority
+   */
+  private void execute(WrappedTask wrappedTask) {
+    if (wrappedTask.getPriority() == TaskPriority.HIGH)
+      highPriorityExecutor.execute(wrappedTask);
+    else
+      normalPriorityExecutor.execute(wrappedTask);
+  }
+
   @Override
   public void setTaskPriority(Task task, TaskPriority priority) {
 
@@ -245,7 +288,14 @@ public class TaskControllerImpl implements TaskController, Runnable {
       if (wrappedTask.getActualTask() == task) {
         logger.finest(
             "Setting priority of task \"" + task.getTaskDescription() + "\" to " + priority);
+
+        // The waiting tasks are ordered by priority, so a waiting task is taken out of the queue
+        // before its priority changes. Raised to HIGH priority, it is started immediately if
+        // there is a free thread.
+        final boolean waiting = normalPriorityExecutor.remove(wrappedTask);
         wrappedTask.setPriority(priority);
+        if (waiting)
+          execute(wrappedTask);
 
         // Call refresh to re-sort the queue according to new priority
         // and update the Task progress window
@@ -18,97 +18,37 @@
 
 package net.sf.mzmine.taskcontrol.impl;
 
-import java.util.logging.Level;
-import java.util.logging.Logger;
-
-import net.sf.mzmine.main.MZmineCore;
-import net.sf.mzmine.taskcontrol.Task;
-import net.sf.mzmine.taskcontrol.TaskStatus;
-import net.sf.mzmine.util.ExceptionUtils;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Task controller worker thread, this thread will process one task and then finish
+ * Task controller worker thread. Worker threads are kept in the thread pools of the task controller
+ * and process one WrappedTask after another.
  */
 class WorkerThread extends Thread {
 
-  private Logger logger = Logger.getLogger(this.getClass().getName());
-
-  private WrappedTask wrappedTask;
-  private boolean finished = false;
-
-  WorkerThread(WrappedTask wrappedTask) {
-    super("Thread executing task " + wrappedTask);
-    this.wrappedTask = wrappedTask;
-    wrappedTask.assignTo(this);
+  WorkerThread(Runnable target, String name) {
+    super(target, name);
   }
 
   /**
-   * @see java.lang.Runnable#run()
+   * Creates the worker threads of one thread pool of the task controller
    */
-  public void run() {
-
-    Task actualTask = wrappedTask.getActualTask();
-
-    try {
-
-      // Log the start (INFO level events go to the Status bar, too)
-      logger.info("Starting processing of task " + actualTask.getTaskDescription());
-
-      // Process the actual task
-      actualTask.run();
-
-      // Check if task finished with an error
-      if (actualTask.getStatus() == TaskStatus.ERROR) {
-
-        String errorMsg = actualTask.getErrorMessage();
-        if (errorMsg == null)
-          errorMsg = "Unspecified error";
-
-        // Log the error
-        logger.severe("Error of task " + actualTask.getTaskDescription() + ": " + errorMsg);
+  static class Factory implements ThreadFactory {
 
-        MZmineCore.getDesktop().displayErrorMessage(MZmineCore.getDesktop().getMainWindow(),
-            "Error of task " + actualTask.getTaskDescription(), errorMsg);
-      } else {
-        // Log the finish
-        logger.info("Processing of task " + actualTask.getTaskDescription() + " done, status "
-            + actualTask.getStatus());
-      }
-
-      /*
-       * This is important to allow the garbage collector to remove the task, while keeping the task
-       * description in the "Tasks in progress" window
-       */
-      wrappedTask.removeTaskReference();
-
-    } catch (Throwable e) {
-
-      /*
-       * This should never happen, it means the task did not handle its exception properly, or there
-       * was some severe error, like OutOfMemoryError
-       */
-
-      logger.log(Level.SEVERE,
-          "Unhandled exception " + e + " while processing task " + actualTask.getTaskDescription(),
-          e);
-
-      e.printStackTrace();
-
-      MZmineCore.getDesktop().displayErrorMessage(MZmineCore.getDesktop().getMainWindow(),
-          "Unhandled exception in task " + actualTask.getTaskDescription() + ": "
-              + ExceptionUtils.exceptionToString(e));
+    private final String poolName;
+    private final AtomicInteger threadCounter = new AtomicInteger();
 
+    Factory(String poolName) {
+      this.poolName = poolName;
     }
 
-    /*
-     * Mark this thread as finished
-     */
-    finished = true;
-
-  }
+    @Override
+    public Thread newThread(Runnable target) {
+      return new WorkerThread(target,
+          poolName + " worker thread " + threadCounter.incrementAndGet());
+    }
 
-  boolean isFinished() {
-    return finished;
   }
 
 }
@@ -18,56 +18,77 @@
 
 package net.sf.mzmine.taskcontrol.impl;
 
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.taskcontrol.Task;
 import net.sf.mzmine.taskcontrol.TaskPriority;
+import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.ExceptionUtils;
 
 /**
- * Wrapper class for Tasks that stores additional information
+ * Wrapper class for Tasks that stores additional information. The wrapped task is processed by
+ * running this wrapper in one of the worker threads of the task controller.
  */
-public class WrappedTask {
+public class WrappedTask implements Runnable {
+
+  private static final AtomicLong sequenceCounter = new AtomicLong();
+
+  private Logger logger = Logger.getLogger(this.getClass().getName());
 
+  private final long sequenceNumber = sequenceCounter.getAndIncrement();
   private Task task;
   private TaskPriority priority;
-  private WorkerThread assignedTo;
+  private Thread assignedTo;
+  private boolean assigned = false;
 
   WrappedTask(Task task, TaskPriority priority) {
     this.task = task;
     this.priority = priority;
   }
 
+  /**
+   * @return Number of this task in the order in which the tasks were created
+   */
+  long getSequenceNumber() {
+    return sequenceNumber;
+  }
+
   /**
    * @return Returns the priority.
    */
-  TaskPriority getPriority() {
+  synchronized TaskPriority getPriority() {
     return priority;
   }
 
   /**
    * @param priority The priority to set.
    */
-  void setPriority(TaskPriority priority) {
+  synchronized void setPriority(TaskPriority priority) {
     this.priority = priority;
-    if (assignedTo != null) {
-      switch (priority) {
-        case HIGH:
-          assignedTo.setPriority(Thread.MAX_PRIORITY);
-          break;
-        case NORMAL:
-          assignedTo.setPriority(Thread.NORM_PRIORITY);
-          break;
-      }
-    }
+    if (assignedTo != null)
+      assignedTo.setPriority(getThreadPriority(priority));
   }
 
   /**
-   * @return Returns the assigned.
+   * @return Returns true if processing of the task has started.
    */
-  boolean isAssigned() {
-    return assignedTo != null;
+  synchronized boolean isAssigned() {
+    return assigned;
   }
 
-  void assignTo(WorkerThread thread) {
+  private synchronized void assignTo(Thread thread) {
     assignedTo = thread;
+    if (thread != null) {
+      assigned = true;
+      thread.setPriority(getThreadPriority(priority));
+    }
+  }
+
+  private static int getThreadPriority(TaskPriority priority) {
+    return (priority == TaskPriority.HIGH) ? Thread.MAX_PRIORITY : Thread.NORM_PRIORITY;
   }
 
   /**
@@ -85,4 +106,85 @@ public class WrappedTask {
     task = new FinishedTask(task);
   }
 
+  /**
+   * Processes the task in the current worker thread
+   * 
+   * @see java.lang.Runnable#run()
+   */
+  @Override
+  public void run() {
+
+    Task actualTask = getActualTask();
+
+    // Tasks canceled while waiting in the queue are not started at all
+    if (actualTask.getStatus() == TaskStatus.CANCELED) {
+      removeTaskReference();
+      return;
+    }
+
+    final Thread currentThread = Thread.currentThread();
+    final String threadName = currentThread.getName();
+    currentThread.setName("Thread executing task " + actualTask.getTaskDescription());
+    assignTo(currentThread);
+
+    try {
+
+      // Log the start (INFO level events go to the Status bar, too)
+      logger.info("Starting processing of task " + actualTask.getTaskDescription());
+
+      // Process the actual task
+      actualTask.run();
+
+      // Check if task finished with an error
+      if (actualTask.getStatus() == TaskStatus.ERROR) {
+
+        String errorMsg = actualTask.getErrorMessage();
+        if (errorMsg == null)
+          errorMsg = "Unspecified error";
+
+        // Log the error
+        logger.severe("Error of task " + actualTask.getTaskDescription() + ": " + errorMsg);
+
+        MZmineCore.getDesktop().displayErrorMessage(MZmineCore.getDesktop().getMainWindow(),
+            "Error of task " + actualTask.getTaskDescription(), errorMsg);
+      } else {
+        // Log the finish
+        logger.info("Processing of task " + actualTask.getTaskDescription() + " done, status "
+            + actualTask.getStatus());
+      }
+
+      /*
+       * This is important to allow the garbage collector to remove the task, while keeping the task
+       * description in the "Tasks in progress" window
+       */
+      removeTaskReference();
+
+    } catch (Throwable e) {
+
+      /*
+       * This should never happen, it means the task did not handle its exception properly, or there
+       * was some severe error, like OutOfMemoryError
+       */
+
+      logger.log(Level.SEVERE,
+          "Unhandled exception " + e + " while processing task " + actualTask.getTaskDescription(),
+          e);
+
+      e.printStackTrace();
+
+      MZmineCore.getDesktop().displayErrorMessage(MZmineCore.getDesktop().getMainWindow(),
+          "Unhandled exception in task " + actualTask.getTaskDescription() + ": "
+              + ExceptionUtils.exceptionToString(e));
+
+    } finally {
+
+      // The worker thread is reused for the next task
+      assignTo(null);
+      currentThread.setPriority(Thread.NORM_PRIORITY);
+      currentThread.setName(threadName);
+
+    }
+
+  }
+
 }
@@ -0,0 +1,408 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.IntStream;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import net.sf.mzmine.datamodel.Feature;
+import net.sf.mzmine.datamodel.MZmineProject;
+import net.sf.mzmine.datamodel.MZmineProjectListener;
+import net.sf.mzmine.datamodel.PeakList;
+import net.sf.mzmine.datamodel.PeakListRow;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.parameters.UserParameter;
+import net.sf.mzmine.project.ProjectManager;
+
+/**
+ * Immutable matrix of the feature intensities (height or area) of selected rows of a feature list
+ * in selected data files. The values are kept column-major in one primitive array, i.e. the values
+ * of all rows in one data file are consecutive, and the cells without a feature are marked in a
+ * separate mask (their value is NaN). The matrices are cached per feature list, rows, data files
+ * and measurement type, so analyses of the same feature list share one extraction. A cached
+ * matrix is extracted again when the modification count of its feature list has changed since, and
+ * the cache entries of a feature list are dropped when it is removed from the project.
+ */
+public final class FeatureMatrix {
+
+  // Maximum number of values of all cached matrices (8 bytes each)
+  private static final long MAX_CACHED_VALUES = 16L * 1024 * 1024;
+
+  private static final Cache<MatrixKey, FeatureMatrix> matrixCache = CacheBuilder.newBuilder()
+      .maximumWeight(MAX_CACHED_VALUES)
+      .weigher((MatrixKey key, FeatureMatrix matrix) -> matrix.values.length).build();
+
+  // Drops the matrices of the feature lists removed from the project
+  private static final MZmineProjectListener projectListener = new MZmineProjectListener() {
+
+    @Override
+    public void dataFileAdded(RawDataFile newFile) {}
+
+    @Override
+    public void peakListAdded(PeakList newPeakList) {}
+
+    @Override
+    public void dataFileRemoved(RawDataFile removedFile) {}
+
+    @Override
+    public void peakListRemoved(PeakList removedPeakList) {
+      invalidate(removedPeakList);
+    }
+  };
+
+  private static MZmineProject listenedProject;
+
+  private final PeakList peakList;
+  private final PeakListRow rows[];
+  private final RawDataFile dataFiles[];
+  private final PeakMeasurementType measurementType;
+
+  // Modification count of the feature list before the values were extracted
+  private final long modificationCount;
+
+  // Value of row r in data file f is stored at f * rows.length + r
+  private final double values[];
+  private final boolean missing[];
+  private final int numOfPresentValues[];
+
+  private FeatureMatrix(PeakList peakList, PeakListRow rows[], RawDataFile dataFiles[],
+      PeakMeasurementType measurementType) {
+
+    this.peakList = peakList;
+    this.rows = rows;
+    this.dataFiles = dataFiles;
+    this.measurementType = measurementType;
+    this.modificationCount = peakList.getModificationCount();
+
+    final int numOfRows = rows.length;
+    values = new double[numOfRows * dataFiles.length];
+    missing = new boolean[values.length];
+    numOfPresentValues = new int[numOfRows];
+
+    final boolean useArea = (measurementType == PeakMeasurementType.AREA);
+    for (int row = 0; row < numOfRows; row++) {
+      for (int file = 0; file < dataFiles.length; file++) {
+        final int index = file * numOfRows + row;
+        Feature feature = rows[row].getPeak(dataFiles[file]);
+        if (feature == null) {
+          values[index] = Double.NaN;
+          missing[index] = true;
+        } else {
+          values[index] = useArea ? feature.getArea() : feature.getHeight();
+          numOfPresentValues[row]++;
+        }
+      }
+    }
+
+  }
+
+  /**
+   * Returns the matrix of all rows of the feature list in the given data files.
+   *
+   * @see #getMatrix(PeakList, PeakListRow[], RawDataFile[], PeakMeasurementType)
+   */
+  public static @Nonnull FeatureMatrix getMatrix(@Nonnull PeakList peakList,
+      @Nonnull RawDataFile dataFiles[], @Nonnull PeakMeasurementType measurementType) {
+    return getMatrix(peakList, peakList.getRows(), dataFiles, measurementType);
+  }
+
+  /**
+   * Returns the matrix of the given rows of the feature list in the given data files. The matrix is
+   * taken from the cache, or extracted and cached if there is none or the feature list was modified
+   * after the cached one was extracted.
+   *
+   * @param rows rows of the matrix, in this order
+   * @param dataFiles data files (columns) of the matrix, in this order
+   */
+  public static @Nonnull FeatureMatrix getMatrix(@Nonnull PeakList peakList,
+      @Nonnull PeakListRow rows[], @Nonnull RawDataFile dataFiles[],
+      @Nonnull PeakMeasurementType measurementType) {
+    listenToCurrentProject();
+    final MatrixKey key = new MatrixKey(peakList, rows, dataFiles, measurementType);
+    FeatureMatrix matrix = matrixCache.getIfPresent(key);
+    if ((matrix == null) || (matrix.modificationCount != peakList.getModificationCount())) {
+      matrix = new FeatureMatrix(peakList, key.rows, key.dataFiles, measurementType);
+      matrixCache.put(key, matrix);
+    }
+    return matrix;
+  }
+
+  /**
+   * Registers the project listener with the current project. The matrices of the previous project
+   * are dropped, as its feature lists are not removed one by one when it is replaced.
+   */
+  private static synchronized void listenToCurrentProject() {
+    final ProjectManager projectManager = MZmineCore.getProjectManager();
+    final MZmineProject project =
+        (projectManager == null) ? null : projectManager.getCurrentProject();
+    if ((project == null) || (project == listenedProject))
+      return;
+    if (listenedProject != null) {
+      listenedProject.removeProjectListener(projectListener);
+      matrixCache.invalidateAll();
+    }
+    project.addProjectListener(projectListener);
+    listenedProject = project;
+  }
+
+  /**
+   * Drops the cached matrices of the feature list
+   */
+  public static void invalidate(@Nonnull PeakList peakList) {
+    matrixCache.asMap().keySet().removeIf(key -> key.peakList == peakList);
+  }
+
+  /**
+   * Groups the data files by the value of the project parameter.
+   */
+  public static @Nonnull SampleGroups groupDataFiles(@Nonnull MZmineProject project,
+      @Nonnull UserParameter<?, ?> parameter, @Nonnull RawDataFile dataFiles[]) {
+    final int groups[] = new int[dataFiles.length];
+    final List<Object> groupValues = new ArrayList<>();
+    for (int file = 0; file < dataFiles.length; file++) {
+      Object value = project.getParameterValue(parameter, dataFiles[file]);
+      int group = groupValues.indexOf(value);
+      if (group < 0) {
+        group = groupValues.size();
+        groupValues.add(value);
+      }
+      groups[file] = group;
+    }
+    return new SampleGroups(groups, groupValues.toArray());
+  }
+
+  public PeakList getPeakList() {
+    return peakList;
+  }
+
+  public PeakMeasurementType getMeasurementType() {
+    return measurementType;
+  }
+
+  public int getNumberOfRows() {
+    return rows.length;
+  }
+
+  public int getNumberOfDataFiles() {
+    return dataFiles.length;
+  }
+
+  public PeakListRow getRow(int row) {
+    return rows[row];
+  }
+
+  public PeakListRow[] getRows() {
+    return rows.clone();
+  }
+
+  public RawDataFile getDataFile(int file) {
+    return dataFiles[file];
+  }
+
+  public RawDataFile[] getDataFiles() {
+    return dataFiles.clone();
+  }
+
+  /**
+   * @return indexes of the given data files in the matrix, -1 for the files which are not in it
+   */
+  public int[] getDataFileIndexes(RawDataFile files[]) {
+    final List<RawDataFile> matrixFiles = Arrays.asList(dataFiles);
+    final int indexes[] = new int[files.length];
+    for (int i = 0; i < files.length; i++)
+      indexes[i] = matrixFiles.indexOf(files[i]);
+    return indexes;
+  }
+
+  /**
+   * @return height or area of the feature of the row in the data file, or NaN if there is none
+   */
+  public double getValue(int row, int file) {
+    return values[file * rows.length + row];
+  }
+
+  public boolean isMissing(int row, int file) {
+    return missing[file * rows.length + row];
+  }
+
+  /**
+   * @return number of data files in which the row has a feature
+   */
+  public int getNumberOfPresentValues(int row) {
+    return numOfPresentValues[row];
+  }
+
+  /**
+   * Returns all values in column-major order: the value of row r in data file f is at index f *
+   * getNumberOfRows() + r. The array is shared by all users of the matrix and must not be modified.
+   */
+  public double[] getValues() {
+    return values;
+  }
+
+  /**
+   * Returns the mask of missing values, in the same order as getValues(). The array is shared by
+   * all users of the matrix and must not be modified.
+   */
+  public boolean[] getMissingMask() {
+    return missing;
+  }
+
+  /**
+   * @return values of the row in the given data files in which it has a feature
+   */
+  public double[] getPresentValues(int row, int fileIndexes[]) {
+    double rowValues[] = new double[fileIndexes.length];
+    int numOfValues = 0;
+    for (int file : fileIndexes) {
+      final int index = file * rows.length + row;
+      if (!missing[index])
+        rowValues[numOfValues++] = values[index];
+    }
+    return (numOfValues == rowValues.length) ? rowValues : Arrays.copyOf(rowValues, numOfValues);
+  }
+
+  /**
+   * @return new [data file][row] array of the values, missing values replaced by missingValue
+   */
+  public double[][] toSampleMatrix(double missingValue) {
+    final double matrix[][] = new double[dataFiles.length][];
+    for (int file = 0; file < dataFiles.length; file++) {
+      final int offset = file * rows.length;
+      matrix[file] = Arrays.copyOfRange(values, offset, offset + rows.length);
+      for (int row = 0; row < rows.length; row++) {
+        if (missing[offset + row])
+          matrix[file][row] = missingValue;
+      }
+    }
+    return matrix;
+  }
+
+  /**
+   * @return new [row][data file] array of the values, missing values replaced by missingValue
+   */
+  public double[][] toRowMatrix(double missingValue) {
+    final double matrix[][] = new double[rows.length][dataFiles.length];
+    for (int file = 0; file < dataFiles.length; file++) {
+      final int offset = file * rows.length;
+      for (int row = 0; row < rows.length; row++)
+        matrix[row][file] = missing[offset + row] ? missingValue : values[offset + row];
+    }
+    return matrix;
+  }
+
+  /**
+   * Groups the data files of the matrix by the value of the project parameter.
+   */
+  public @Nonnull SampleGroups getSampleGroups(@Nonnull MZmineProject project,
+      @Nonnull UserParameter<?, ?> parameter) {
+    return groupDataFiles(project, parameter, dataFiles);
+  }
+
+  /**
+   * Assignment of data files to sample groups. The groups are numbered in the order in which their
+   * first data file appears.
+   */
+  public static final class SampleGroups {
+
+    private final int groups[];
+    private final Object groupValues[];
+
+    private SampleGroups(int groups[], Object groupValues[]) {
+      this.groups = groups;
+      this.groupValues = groupValues;
+    }
+
+    public int getNumberOfGroups() {
+      return groupValues.length;
+    }
+
+    /**
+     * @return group of each data file
+     */
+    public int[] getGroups() {
+      return groups.clone();
+    }
+
+    public int getGroup(int file) {
+      return groups[file];
+    }
+
+    /**
+     * @return parameter value of the group, may be null
+     */
+    public @Nullable Object getGroupValue(int group) {
+      return groupValues[group];
+    }
+
+    public Object[] getGroupValues() {
+      return groupValues.clone();
+    }
+
+    /**
+     * @return indexes of the data files of the group
+     */
+    public int[] getDataFileIndexes(int group) {
+      return IntStream.range(0, groups.length).filter(file -> groups[file] == group).toArray();
+    }
+
+  }
+
+  private static final class MatrixKey {
+
+    private final PeakList peakList;
+    private final PeakListRow rows[];
+    private final RawDataFile dataFiles[];
+    private final PeakMeasurementType measurementType;
+    private final int hashCode;
+
+    MatrixKey(PeakList peakList, PeakListRow rows[], RawDataFile dataFiles[],
+        PeakMeasurementType measurementType) {
+      this.peakList = peakList;
+      this.rows = rows.clone();
+      this.dataFiles = dataFiles.clone();
+      this.measurementType = measurementType;
+      hashCode = Objects.hash(System.identityHashCode(peakList), Arrays.hashCode(rows),
+          Arrays.hashCode(dataFiles), measurementType);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof MatrixKey))
+        return false;
+      MatrixKey other = (MatrixKey) obj;
+      return (peakList == other.peakList) && (measurementType == other.measurementType)
+          && Arrays.equals(dataFiles, other.dataFiles) && Arrays.equals(rows, other.rows);
+    }
+
+  }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.util;
+
+import java.util.Arrays;
+import com.google.common.collect.BoundType;
+import com.google.common.collect.Range;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+
+/**
+ * Immutable index of items (e.g. feature list rows) by m/z and retention time for window queries.
+ * The item positions are kept sorted by m/z and by retention time. A query finds the items within
+ * the m/z range and within the retention time range by binary searches and filters the smaller of
+ * the two windows by the other range, so the cost depends on the window size and not on the number
+ * of items.
+ */
+public final class RTMZWindowIndex {
+
+  private final double mzValues[], rtValues[];
+
+  // Item positions in m/z and retention time order, and the corresponding sorted values
+  private final int mzOrder[], rtOrder[];
+  private final double sortedMZValues[], sortedRTValues[];
+
+  /**
+   * @param mzValues m/z value of each item
+   * @param rtValues retention time of each item
+   */
+  public RTMZWindowIndex(double mzValues[], double rtValues[]) {
+    if (mzValues.length != rtValues.length)
+      throw new IllegalArgumentException("The number of m/z and retention time values differs");
+    this.mzValues = mzValues;
+    this.rtValues = rtValues;
+    mzOrder = sortedOrder(mzValues);
+    rtOrder = sortedOrder(rtValues);
+    sortedMZValues = new double[mzValues.length];
+    sortedRTValues = new double[rtValues.length];
+    for (int i = 0; i < mzValues.length; i++) {
+      sortedMZValues[i] = mzValues[mzOrder[i]];
+      sortedRTValues[i] = rtValues[rtOrder[i]];
+    }
+  }
+
+  /**
+   * @return number of indexed items
+   */
+  public int size() {
+    return mzValues.length;
+  }
+
+  /**
+   * @return positions of the items inside both ranges, in ascending order
+   */
+  public int[] getIndexesInside(Range<Double> rtRange, Range<Double> mzRange) {
+
+    final int mzFrom = lowerIndex(sortedMZValues, mzRange);
+    final int mzTo = upperIndex(sortedMZValues, mzRange, mzFrom);
+    final int rtFrom = lowerIndex(sortedRTValues, rtRange);
+    final int rtTo = upperIndex(sortedRTValues, rtRange, rtFrom);
+
+    int inside[] = new int[Math.max(0, Math.min(mzTo - mzFrom, rtTo - rtFrom))];
+    int numOfInside = 0;
+    if (mzTo - mzFrom <= rtTo - rtFrom) {
+      for (int i = mzFrom; i < mzTo; i++) {
+        if (rtRange.contains(rtValues[mzOrder[i]]))
+          inside[numOfInside++] = mzOrder[i];
+      }
+    } else {
+      for (int i = rtFrom; i < rtTo; i++) {
+        if (mzRange.contains(mzValues[rtOrder[i]]))
+          inside[numOfInside++] = rtOrder[i];
+      }
+    }
+
+    inside = Arrays.copyOf(inside, numOfInside);
+    Arrays.sort(inside);
+    return inside;
+
+  }
+
+  private static int[] sortedOrder(double values[]) {
+    final int order[] = new int[values.length];
+    for (int i = 0; i < order.length; i++)
+      order[i] = i;
+    IntArrays.quickSort(order, (a, b) -> Double.compare(values[a], values[b]));
+    return order;
+  }
+
+  /**
+   * @return index of the first sorted value which is not below the range
+   */
+  private static int lowerIndex(double sortedValues[], Range<Double> range) {
+    int low = 0, high = sortedValues.length;
+    if (!range.hasLowerBound())
+      return low;
+    final double lower = range.lowerEndpoint();
+    final boolean open = range.lowerBoundType() == BoundType.OPEN;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (sortedValues[mid] < lower || (open && sortedValues[mid] == lower))
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+
+  /**
+   * @return index after the last sorted value which is not above the range
+   */
+  private static int upperIndex(double sortedValues[], Range<Double> range, int fromIndex) {
+    int low = fromIndex, high = sortedValues.length;
+    if (!range.hasUpperBound())
+      return high;
+    final double upper = range.upperEndpoint();
+    final boolean open = range.upperBoundType() == BoundType.OPEN;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (sortedValues[mid] < upper || (!open && sortedValues[mid] == upper))
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+
+}
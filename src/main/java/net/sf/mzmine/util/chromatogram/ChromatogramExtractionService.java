@@ -0,0 +1,381 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.util.chromatogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Logger;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Range;
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.MZmineProject;
+import net.sf.mzmine.datamodel.MZmineProjectListener;
+import net.sf.mzmine.datamodel.PeakList;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.project.ProjectManager;
+import net.sf.mzmine.taskcontrol.Task;
+import net.sf.mzmine.taskcontrol.TaskStatus;
+
+/**
+ * Extracts chromatograms (summed intensity and base peak of m/z windows) of raw data files. All
+ * windows requested together for a file, MS level and retention time range are extracted in one pass
+ * over the scans of the range, which reads only the data points within the span of the windows. The
+ * chromatograms are cached per file, MS level, retention time range and m/z window, until the cache
+ * holds more than MAX_CACHED_SCANS scans in total (least recently used are evicted) or the file is
+ * removed from the project. A cached chromatogram of an enclosing retention time range is reused for
+ * a sub-range, so the returned chromatogram may contain more scans than requested.
+ *
+ * A pass runs in the thread of the caller. A chromatogram requested while another caller is
+ * extracting it is not extracted again; the caller waits for it instead. The number of passes
+ * running at the same time is limited to the number of processors, so opening many files at once
+ * does not read all of them at once.
+ */
+public class ChromatogramExtractionService {
+
+  private static final Logger logger =
+      Logger.getLogger(ChromatogramExtractionService.class.getName());
+
+  // Maximum number of scans of all cached chromatograms (24 bytes each)
+  private static final long MAX_CACHED_SCANS = 4_000_000;
+
+  // Interval in which waiting callers check whether their task was canceled (in milliseconds)
+  private static final long WAIT_INTERVAL = 100L;
+
+  private static final Cache<ChromatogramKey, ExtractedChromatogram> chromatogramCache =
+      CacheBuilder.newBuilder().maximumWeight(MAX_CACHED_SCANS)
+          .weigher((ChromatogramKey key, ExtractedChromatogram chromatogram) -> chromatogram
+              .getNumOfScans())
+          .build();
+
+  private static final Semaphore passes =
+      new Semaphore(Math.max(1, Runtime.getRuntime().availableProcessors()));
+
+  // Drops the chromatograms of the data files removed from the project
+  private static final MZmineProjectListener projectListener = new MZmineProjectListener() {
+
+    @Override
+    public void dataFileAdded(RawDataFile newFile) {}
+
+    @Override
+    public void peakListAdded(PeakList newPeakList) {}
+
+    @Override
+    public void dataFileRemoved(RawDataFile removedFile) {
+      invalidate(removedFile);
+    }
+
+    @Override
+    public void peakListRemoved(PeakList removedPeakList) {}
+  };
+
+  private static MZmineProject listenedProject;
+
+  private ChromatogramExtractionService() {}
+
+  /**
+   * Returns the chromatogram of the m/z window over all scans of the MS level.
+   *
+   * @see #getChromatograms(RawDataFile, int, Range, List, ChromatogramListener, Task)
+   */
+  public static @Nullable ExtractedChromatogram getChromatogram(@Nonnull RawDataFile dataFile,
+      int msLevel, @Nonnull Range<Double> mzRange, @Nullable ChromatogramListener listener,
+      @Nullable Task task) {
+    return getChromatogram(dataFile, msLevel, Range.all(), mzRange, listener, task);
+  }
+
+  /**
+   * Returns the chromatogram of the m/z window over the scans of the MS level within the retention
+   * time range.
+   *
+   * @see #getChromatograms(RawDataFile, int, Range, List, ChromatogramListener, Task)
+   */
+  public static @Nullable ExtractedChromatogram getChromatogram(@Nonnull RawDataFile dataFile,
+      int msLevel, @Nonnull Range<Double> rtRange, @Nonnull Range<Double> mzRange,
+      @Nullable ChromatogramListener listener, @Nullable Task task) {
+    ExtractedChromatogram chromatograms[] =
+        getChromatograms(dataFile, msLevel, rtRange, List.of(mzRange), listener, task);
+    return (chromatograms == null) ? null : chromatograms[0];
+  }
+
+  /**
+   * Returns the chromatograms of the m/z windows over the scans of the MS level within the retention
+   * time range. Chromatograms which are not cached, for this range or an enclosing one, are
+   * extracted in one pass over the scans of the range. This method returns when all chromatograms
+   * are complete; the partial results are passed to the listener in the meantime.
+   *
+   * @param rtRange retention time range of the scans, Range.all() for all scans of the MS level
+   * @param listener receives partial results, may be null
+   * @param task the extraction stops when this task is canceled, may be null
+   * @return chromatograms in the order of the m/z windows, or null if the task was canceled. A
+   *         chromatogram may contain scans outside of the retention time range.
+   */
+  public static @Nullable ExtractedChromatogram[] getChromatograms(@Nonnull RawDataFile dataFile,
+      int msLevel, @Nonnull Range<Double> rtRange, @Nonnull List<Range<Double>> mzRanges,
+      @Nullable ChromatogramListener listener, @Nullable Task task) {
+
+    listenToCurrentProject();
+
+    // A range enclosing all scans of the MS level shares the chromatograms of all scans
+    final Range<Double> levelRTRange = dataFile.getDataRTRange(msLevel);
+    if ((levelRTRange == null) || rtRange.encloses(levelRTRange))
+      rtRange = Range.all();
+
+    final int scanNumbers[] = rtRange.equals(Range.all()) ? dataFile.getScanNumbers(msLevel)
+        : dataFile.getScanNumbers(msLevel, rtRange);
+    final Scan scans[] = new Scan[scanNumbers.length];
+    final double retentionTimes[] = new double[scanNumbers.length];
+    for (int i = 0; i < scanNumbers.length; i++) {
+      scans[i] = dataFile.getScan(scanNumbers[i]);
+      retentionTimes[i] = (scans[i] == null) ? 0 : scans[i].getRetentionTime();
+    }
+
+    // Look up the cached chromatograms and register the missing ones for this pass
+    final ExtractedChromatogram chromatograms[] = new ExtractedChromatogram[mzRanges.size()];
+    final List<ExtractedChromatogram> passChromatograms = new ArrayList<>();
+    synchronized (chromatogramCache) {
+      for (int i = 0; i < chromatograms.length; i++) {
+        final Range<Double> mzRange = mzRanges.get(i);
+        final ChromatogramKey key = new ChromatogramKey(dataFile, msLevel, rtRange, mzRange);
+        ExtractedChromatogram chromatogram = chromatogramCache.getIfPresent(key);
+        if ((chromatogram == null) || chromatogram.isAbandoned())
+          chromatogram = findEnclosingChromatogram(key);
+        if (chromatogram == null) {
+          chromatogram = new ExtractedChromatogram(dataFile, msLevel, rtRange, mzRange,
+              scanNumbers, retentionTimes);
+          chromatogramCache.put(key, chromatogram);
+          passChromatograms.add(chromatogram);
+        }
+        chromatograms[i] = chromatogram;
+      }
+    }
+
+    if (!passChromatograms.isEmpty()) {
+      boolean finished = false;
+      try {
+        passes.acquire();
+        try {
+          finished = extract(scans, passChromatograms, listener, task);
+        } finally {
+          passes.release();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        if (!finished) {
+          for (ExtractedChromatogram chromatogram : passChromatograms) {
+            chromatogram.abandon();
+            chromatogramCache.asMap().remove(new ChromatogramKey(dataFile, msLevel,
+                chromatogram.getRTRange(), chromatogram.getMZRange()), chromatogram);
+          }
+        }
+      }
+      if (!finished)
+        return null;
+    }
+
+    // Wait for the chromatograms extracted by other callers
+    for (int i = 0; i < chromatograms.length; i++) {
+      int knownScans = 0;
+      while (!chromatograms[i].isComplete()) {
+        if (isCanceled(task))
+          return null;
+        if (chromatograms[i].isAbandoned()) {
+          // The other caller was canceled, extract the chromatogram here
+          ExtractedChromatogram chromatogram = getChromatogram(dataFile, msLevel, rtRange,
+              chromatograms[i].getMZRange(), listener, task);
+          if (chromatogram == null)
+            return null;
+          chromatograms[i] = chromatogram;
+          break;
+        }
+        try {
+          final int processedScans = chromatograms[i].awaitProgress(knownScans, WAIT_INTERVAL);
+          if ((processedScans > knownScans) && (listener != null))
+            listener.chromatogramUpdated(chromatograms[i]);
+          knownScans = processedScans;
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return null;
+        }
+      }
+    }
+
+    return chromatograms;
+
+  }
+
+  /**
+   * @return a cached chromatogram of the file, MS level and m/z window of the key, whose retention
+   *         time range encloses the one of the key, or null if there is none
+   */
+  private static @Nullable ExtractedChromatogram findEnclosingChromatogram(ChromatogramKey key) {
+    for (ExtractedChromatogram chromatogram : chromatogramCache.asMap().values()) {
+      if ((chromatogram.getDataFile() == key.dataFile) && (chromatogram.getMSLevel() == key.msLevel)
+          && chromatogram.getMZRange().equals(key.mzRange)
+          && chromatogram.getRTRange().encloses(key.rtRange) && !chromatogram.isAbandoned())
+        return chromatogram;
+    }
+    return null;
+  }
+
+  /**
+   * Moves the project listener to the current project, when another project was activated
+   */
+  private static synchronized void listenToCurrentProject() {
+    final ProjectManager projectManager = MZmineCore.getProjectManager();
+    final MZmineProject project =
+        (projectManager == null) ? null : projectManager.getCurrentProject();
+    if ((project == null) || (project == listenedProject))
+      return;
+    if (listenedProject != null)
+      listenedProject.removeProjectListener(projectListener);
+    project.addProjectListener(projectListener);
+    listenedProject = project;
+  }
+
+  /**
+   * Removes all cached chromatograms of the data file
+   */
+  public static void invalidate(@Nonnull RawDataFile dataFile) {
+    chromatogramCache.asMap().keySet().removeIf(key -> key.dataFile == dataFile);
+  }
+
+  /**
+   * Removes all cached chromatograms
+   */
+  public static void clearCache() {
+    chromatogramCache.invalidateAll();
+  }
+
+  /**
+   * Extracts the chromatograms in one pass over the scans.
+   *
+   * @return false if the task was canceled
+   */
+  private static boolean extract(Scan scans[], List<ExtractedChromatogram> chromatograms,
+      @Nullable ChromatogramListener listener, @Nullable Task task) {
+
+    Range<Double> span = chromatograms.get(0).getMZRange();
+    for (ExtractedChromatogram chromatogram : chromatograms)
+      span = span.span(chromatogram.getMZRange());
+
+    for (int index = 0; index < scans.length; index++) {
+
+      if (isCanceled(task))
+        return false;
+
+      // Data points are sorted by m/z
+      final DataPoint dataPoints[] =
+          (scans[index] == null) ? new DataPoint[0] : scans[index].getDataPointsByMass(span);
+
+      for (ExtractedChromatogram chromatogram : chromatograms) {
+        final Range<Double> mzRange = chromatogram.getMZRange();
+        double totalIntensity = 0, basePeakMZ = 0, basePeakIntensity = 0;
+        DataPoint basePeak = null;
+        final int fromIndex =
+            mzRange.hasLowerBound() ? getFirstIndex(dataPoints, mzRange.lowerEndpoint()) : 0;
+        for (int i = fromIndex; i < dataPoints.length; i++) {
+          if (!mzRange.contains(dataPoints[i].getMZ())) {
+            if (mzRange.hasUpperBound() && (dataPoints[i].getMZ() > mzRange.upperEndpoint()))
+              break;
+            continue;
+          }
+          totalIntensity += dataPoints[i].getIntensity();
+          if ((basePeak == null) || (dataPoints[i].getIntensity() > basePeak.getIntensity()))
+            basePeak = dataPoints[i];
+        }
+        if (basePeak != null) {
+          basePeakMZ = basePeak.getMZ();
+          basePeakIntensity = basePeak.getIntensity();
+        }
+        chromatogram.setValues(index, totalIntensity, basePeakMZ, basePeakIntensity);
+        chromatogram.setProcessedScans(index + 1);
+        if (listener != null)
+          listener.chromatogramUpdated(chromatogram);
+      }
+    }
+
+    logger.finest("Extracted " + chromatograms.size() + " chromatograms of "
+        + chromatograms.get(0).getDataFile() + " in one pass");
+    return true;
+
+  }
+
+  /**
+   * @return index of the first data point with m/z not below the given m/z
+   */
+  private static int getFirstIndex(DataPoint dataPoints[], double mz) {
+    int low = 0, high = dataPoints.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (dataPoints[mid].getMZ() < mz)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+
+  private static boolean isCanceled(@Nullable Task task) {
+    return (task != null) && (task.getStatus() == TaskStatus.CANCELED);
+  }
+
+  /**
+   * Key of the chromatogram cache. Data files are compared by identity.
+   */
+  private static final class ChromatogramKey {
+
+    private final RawDataFile dataFile;
+    private final int msLevel;
+    private final Range<Double> rtRange, mzRange;
+
+    ChromatogramKey(RawDataFile dataFile, int msLevel, Range<Double> rtRange,
+        Range<Double> mzRange) {
+      this.dataFile = dataFile;
+      this.msLevel = msLevel;
+      this.rtRange = rtRange;
+      this.mzRange = mzRange;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj)
+        return true;
+      if (!(obj instanceof ChromatogramKey))
+        return false;
+      ChromatogramKey other = (ChromatogramKey) obj;
+      return (dataFile == other.dataFile) && (msLevel == other.msLevel)
+          && rtRange.equals(other.rtRange) && mzRange.equals(other.mzRange);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(System.identityHashCode(dataFile), msLevel, rtRange, mzRange);
+    }
+
+  }
+
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.util.chromatogram;
+
+import java.util.Arrays;
+import javax.annotation.Nonnull;
+import com.google.common.collect.Range;
+import net.sf.mzmine.datamodel.RawDataFile;
+
+/**
+ * Chromatogram of one m/z window over the scans of one MS level of a raw data file within a
+ * retention time range, extracted by {@link ChromatogramExtractionService}. For each scan, the
+ * summed intensity and the base peak within the window are stored. The scans are processed in scan
+ * number order and the values of the first {@link #getProcessedScans()} scans may be read while the
+ * extraction is still running.
+ */
+public class ExtractedChromatogram {
+
+  private final RawDataFile dataFile;
+  private final int msLevel;
+  private final Range<Double> rtRange, mzRange;
+
+  private final int scanNumbers[];
+  private final double retentionTimes[];
+  private final double totalIntensities[], basePeakMZValues[], basePeakIntensities[];
+
+  // Values of the scans below processedScans are final
+  private volatile int processedScans;
+
+  // Set when the extraction was canceled before all scans were processed
+  private volatile boolean abandoned;
+
+  ExtractedChromatogram(RawDataFile dataFile, int msLevel, Range<Double> rtRange,
+      Range<Double> mzRange, int scanNumbers[], double retentionTimes[]) {
+    this.dataFile = dataFile;
+    this.msLevel = msLevel;
+    this.rtRange = rtRange;
+    this.mzRange = mzRange;
+    this.scanNumbers = scanNumbers;
+    this.retentionTimes = retentionTimes;
+    totalIntensities = new double[scanNumbers.length];
+    basePeakMZValues = new double[scanNumbers.length];
+    basePeakIntensities = new double[scanNumbers.length];
+  }
+
+  public @Nonnull RawDataFile getDataFile() {
+    return dataFile;
+  }
+
+  public int getMSLevel() {
+    return msLevel;
+  }
+
+  /**
+   * @return retention time range of the scans, Range.all() for all scans of the MS level
+   */
+  public @Nonnull Range<Double> getRTRange() {
+    return rtRange;
+  }
+
+  public @Nonnull Range<Double> getMZRange() {
+    return mzRange;
+  }
+
+  /**
+   * @return number of scans of the MS level within the retention time range
+   */
+  public int getNumOfScans() {
+    return scanNumbers.length;
+  }
+
+  /**
+   * @return number of scans whose values are available
+   */
+  public int getProcessedScans() {
+    return processedScans;
+  }
+
+  public boolean isComplete() {
+    return processedScans == scanNumbers.length;
+  }
+
+  public int getScanNumber(int index) {
+    return scanNumbers[index];
+  }
+
+  /**
+   * @return index of the scan with the given number, or a negative value if the scan is not part of
+   *         this chromatogram
+   */
+  public int indexOf(int scanNumber) {
+    return Arrays.binarySearch(scanNumbers, scanNumber);
+  }
+
+  public double getRetentionTime(int index) {
+    return retentionTimes[index];
+  }
+
+  /**
+   * @return sum of the intensities within the m/z window
+   */
+  public double getTotalIntensity(int index) {
+    return totalIntensities[index];
+  }
+
+  /**
+   * @return m/z of the most intense data point within the m/z window, or 0 if there is none
+   */
+  public double getBasePeakMZ(int index) {
+    return basePeakMZValues[index];
+  }
+
+  /**
+   * @return intensity of the most intense data point within the m/z window, or 0 if there is none
+   */
+  public double getBasePeakIntensity(int index) {
+    return basePeakIntensities[index];
+  }
+
+  void setValues(int index, double totalIntensity, double basePeakMZ, double basePeakIntensity) {
+    totalIntensities[index] = totalIntensity;
+    basePeakMZValues[index] = basePeakMZ;
+    basePeakIntensities[index] = basePeakIntensity;
+  }
+
+  /**
+   * Makes the values of the first processedScans scans available to the readers
+   */
+  synchronized void setProcessedScans(int processedScans) {
+    this.processedScans = processedScans;
+    notifyAll();
+  }
+
+  boolean isAbandoned() {
+    return abandoned;
+  }
+
+  synchronized void abandon() {
+    abandoned = true;
+    notifyAll();
+  }
+
+  /**
+   * Waits until more than knownScans scans are processed, the extraction is abandoned or the
+   * timeout elapses.
+   *
+   * @return number of processed scans
+   */
+  synchronized int awaitProgress(int knownScans, long timeout) throws InterruptedException {
+    if ((processedScans <= knownScans) && !abandoned)
+      wait(timeout);
+    return processedScans;
+  }
+
+}
@@ -40,6 +40,7 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.BoundType;
 import com.google.common.collect.Range;
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.Feature;
@@ -354,18 +355,49 @@ public class ScanUtils {
    * @return index of datapoint or -1, if no datapoint is in range
    */
   public static int findFirstPeakWithin(DataPoint[] dataPoints, Range<Double> mzRange) {
-    final int insertionPoint =
-        Arrays.binarySearch(dataPoints, new SimpleDataPoint(mzRange.lowerEndpoint(), 0d),
-            (u, v) -> Double.compare(u.getMZ(), v.getMZ()));
-    if (insertionPoint < 0) {
-      final int k = -insertionPoint - 1;
-      if (k < dataPoints.length && mzRange.contains(dataPoints[k].getMZ()))
-        return k;
+    final boolean openLower = mzRange.lowerBoundType() == BoundType.OPEN;
+    final double lowerMZ = mzRange.lowerEndpoint();
+    // binary search for the first data point which is not below the range
+    int low = 0, high = dataPoints.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      final double mz = dataPoints[mid].getMZ();
+      if (mz < lowerMZ || (openLower && mz == lowerMZ))
+        low = mid + 1;
       else
-        return -1;
-    } else {
-      return insertionPoint;
+        high = mid;
+    }
+    if (low < dataPoints.length && mzRange.contains(dataPoints[low].getMZ()))
+      return low;
+    else
+      return -1;
+  }
+
+  /**
+   * Returns the index of the lowest m/z value within the given mass range
+   * 
+   * @param mzValues sorted(!) m/z values
+   * @param numOfDataPoints number of valid values in mzValues
+   * @param mzRange m/z range to search in
+   * @return index of the m/z value or -1, if no value is in range
+   */
+  public static int findFirstPeakWithin(double[] mzValues, int numOfDataPoints,
+      Range<Double> mzRange) {
+    final boolean openLower = mzRange.lowerBoundType() == BoundType.OPEN;
+    final double lowerMZ = mzRange.lowerEndpoint();
+    int low = 0, high = numOfDataPoints;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      final double mz = mzValues[mid];
+      if (mz < lowerMZ || (openLower && mz == lowerMZ))
+        low = mid + 1;
+      else
+        high = mid;
     }
+    if (low < numOfDataPoints && mzRange.contains(mzValues[low]))
+      return low;
+    else
+      return -1;
   }
 
   /**
@@ -377,18 +409,51 @@ public class ScanUtils {
    * @return index of datapoint or -1, if no datapoint is in range
    */
   public static int findLastPeakWithin(DataPoint[] dataPoints, Range<Double> mzRange) {
-    final int insertionPoint =
-        Arrays.binarySearch(dataPoints, new SimpleDataPoint(mzRange.upperEndpoint(), 0d),
-            (u, v) -> Double.compare(u.getMZ(), v.getMZ()));
-    if (insertionPoint < 0) {
-      final int k = -insertionPoint - 2;
-      if (k >= 0 && mzRange.contains(dataPoints[k].getMZ()))
-        return k;
+    final boolean openUpper = mzRange.upperBoundType() == BoundType.OPEN;
+    final double upperMZ = mzRange.upperEndpoint();
+    // binary search for the first data point which is above the range
+    int low = 0, high = dataPoints.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      final double mz = dataPoints[mid].getMZ();
+      if (mz < upperMZ || (!openUpper && mz == upperMZ))
+        low = mid + 1;
       else
-        return -1;
-    } else {
-      return insertionPoint;
+        high = mid;
+    }
+    final int k = low - 1;
+    if (k >= 0 && mzRange.contains(dataPoints[k].getMZ()))
+      return k;
+    else
+      return -1;
+  }
+
+  /**
+   * Returns the index of the largest m/z value within the given mass range
+   * 
+   * @param mzValues sorted(!) m/z values
+   * @param numOfDataPoints number of valid values in mzValues
+   * @param mzRange m/z range to search in
+   * @return index of the m/z value or -1, if no value is in range
+   */
+  public static int findLastPeakWithin(double[] mzValues, int numOfDataPoints,
+      Range<Double> mzRange) {
+    final boolean openUpper = mzRange.upperBoundType() == BoundType.OPEN;
+    final double upperMZ = mzRange.upperEndpoint();
+    int low = 0, high = numOfDataPoints;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      final double mz = mzValues[mid];
+      if (mz < upperMZ || (!openUpper && mz == upperMZ))
+        low = mid + 1;
+      else
+        high = mid;
     }
+    final int k = low - 1;
+    if (k >= 0 && mzRange.contains(mzValues[k]))
+      return k;
+    else
+      return -1;
   }
 
   /**
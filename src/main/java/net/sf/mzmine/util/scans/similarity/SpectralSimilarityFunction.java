@@ -43,6 +43,8 @@ public abstract class SpectralSimilarityFunction implements MZmineModule {
       new WeightedCosineSpectralSimilarity(), new CompositeCosineSpectralSimilarity()};
 
   /**
+   * Creates a new kernel for every call. Tasks comparing many spectra should create one kernel
+   * with {@link #createKernel(ParameterSet, MZTolerance, int)} and reuse it.
    * 
    * @param parameters
    * @param mzTol
@@ -55,6 +57,17 @@ public abstract class SpectralSimilarityFunction implements MZmineModule {
   public abstract SpectralSimilarity getSimilarity(ParameterSet parameters, MZTolerance mzTol,
       int minMatch, DataPoint[] library, DataPoint[] query);
 
+  /**
+   * Creates a kernel to calculate this similarity on primitive m/z sorted spectra without
+   * allocations. Kernels are not thread safe.
+   * 
+   * @param parameters
+   * @param mzTol
+   * @param minMatch minimum overlap in signals
+   * @return
+   */
+  public abstract SpectralSimilarityKernel createKernel(ParameterSet parameters, MZTolerance mzTol,
+      int minMatch);
 
   /**
    * Align two mass lists. Override if alignement is changed in a specific spectral similarity
@@ -0,0 +1,401 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.util.scans.similarity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.annotation.Nullable;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.ints.IntComparator;
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import net.sf.mzmine.util.DataPointSorter;
+import net.sf.mzmine.util.SortingDirection;
+import net.sf.mzmine.util.SortingProperty;
+import net.sf.mzmine.util.scans.ScanAlignment;
+
+/**
+ * Spectral similarity of spectra given as primitive m/z and intensity arrays, sorted by ascending
+ * m/z. A kernel reuses its scratch buffers, so it does not allocate after the buffers reached the
+ * size of the largest spectra. It is not thread safe, use one kernel per thread.
+ * 
+ * Signals are aligned like in {@link ScanAlignment#align(MZTolerance, DataPoint[], DataPoint[])}:
+ * the library signals are matched in descending intensity order to the most intense unmatched query
+ * signal within m/z tolerance. The aligned weighted intensities are kept in the order of the
+ * aligned list, so the scores equal those of the {@link DataPoint} based implementation.
+ * 
+ * The query can be set once and compared to many library spectra, see
+ * {@link #getScores(double[], double[], double[][], double[][], double[], int[])}.
+ */
+public abstract class SpectralSimilarityKernel {
+
+  private static final DataPointSorter mzSorter =
+      new DataPointSorter(SortingProperty.MZ, SortingDirection.Ascending);
+
+  protected final MZTolerance mzTol;
+  protected final int minMatch;
+  private final double weightIntensity, weightMZ;
+  private final boolean removeUnmatched;
+
+  // query spectrum, order and rank by descending intensity, and weighted intensities
+  private double queryMZ[], queryIntensity[];
+  private int queryN;
+  private int queryOrder[] = new int[0], queryRank[] = new int[0];
+  private double queryWeighted[] = new double[0];
+  private boolean queryMatched[] = new boolean[0];
+
+  // library spectrum, order by descending intensity and the matched query signal (or -1)
+  private double libraryMZ[], libraryIntensity[];
+  private int libraryN;
+  private int libraryOrder[] = new int[0], libraryMatches[] = new int[0];
+
+  // weighted intensities of the aligned signals (library, query)
+  private double alignedLibrary[] = new double[0], alignedQuery[] = new double[0];
+  private int alignedN;
+  private int overlap;
+
+  // matched signals (library, query) in alignment order and their minimum m/z
+  private int pairLibrary[] = new int[0], pairQuery[] = new int[0], pairOrder[] = new int[0];
+  private double pairMinMZ[] = new double[0];
+
+  // m/z and intensity values of the data point spectra (query, library)
+  private double dataPointsQueryMZ[] = new double[0], dataPointsQueryIntensity[] = new double[0];
+  private double dataPointsLibraryMZ[] = new double[0],
+      dataPointsLibraryIntensity[] = new double[0];
+
+  // descending intensity, equal intensities by descending m/z like ScanAlignment.sorter
+  private final IntComparator libraryComparator = (a, b) -> {
+    final int result = Double.compare(libraryIntensity[b], libraryIntensity[a]);
+    return (result != 0) ? result : Integer.compare(b, a);
+  };
+  private final IntComparator queryComparator = (a, b) -> {
+    final int result = Double.compare(queryIntensity[b], queryIntensity[a]);
+    return (result != 0) ? result : Integer.compare(b, a);
+  };
+  // ascending minimum m/z, equal values in alignment order
+  private final IntComparator pairComparator = (a, b) -> {
+    final int result = Double.compare(pairMinMZ[a], pairMinMZ[b]);
+    return (result != 0) ? result : Integer.compare(a, b);
+  };
+
+  /**
+   * 
+   * @param mzTol m/z tolerance to match signals
+   * @param minMatch minimum overlap in signals
+   * @param weights intensity and m/z weights of the cosine similarity
+   * @param removeUnmatched use only matched signals for the cosine similarity
+   */
+  protected SpectralSimilarityKernel(MZTolerance mzTol, int minMatch, Weights weights,
+      boolean removeUnmatched) {
+    this.mzTol = mzTol;
+    this.minMatch = minMatch;
+    this.weightIntensity = weights.getIntensity();
+    this.weightMZ = weights.getMz();
+    this.removeUnmatched = removeUnmatched;
+  }
+
+  /**
+   * Score of the aligned spectra. Called after the alignment, if at least minMatch signals were
+   * matched.
+   * 
+   * @return the score or NaN if the criteria were not met
+   */
+  protected abstract double calcScore();
+
+  /**
+   * Sets the query spectrum of the following {@link #getScore(double[], double[], int)} calls. The
+   * arrays are not copied and must not be changed while they are in use.
+   * 
+   * @param mz m/z values in ascending order
+   * @param intensity intensity values
+   * @param n number of signals
+   */
+  public void setQuery(double mz[], double intensity[], int n) {
+    queryMZ = mz;
+    queryIntensity = intensity;
+    queryN = n;
+    if (queryOrder.length < n) {
+      queryOrder = new int[n];
+      queryRank = new int[n];
+      queryWeighted = new double[n];
+      queryMatched = new boolean[n];
+    }
+
+    for (int i = 0; i < n; i++)
+      queryOrder[i] = i;
+    IntArrays.quickSort(queryOrder, 0, n, queryComparator);
+    for (int i = 0; i < n; i++)
+      queryRank[queryOrder[i]] = i;
+
+    for (int i = 0; i < n; i++)
+      queryWeighted[i] = weight(mz[i], intensity[i]);
+  }
+
+  /**
+   * Similarity of the library spectrum and the current query spectrum
+   * 
+   * @param mz m/z values in ascending order
+   * @param intensity intensity values
+   * @param n number of signals
+   * @return the score or NaN if the criteria (minimum overlap, minimum score) were not met
+   */
+  public double getScore(double mz[], double intensity[], int n) {
+    align(mz, intensity, n);
+    if (overlap < minMatch)
+      return Double.NaN;
+    return calcScore();
+  }
+
+  /**
+   * Similarity of two spectra
+   * 
+   * @return the score or NaN if the criteria (minimum overlap, minimum score) were not met
+   */
+  public double getScore(double libraryMZ[], double libraryIntensity[], int libraryN,
+      double queryMZ[], double queryIntensity[], int queryN) {
+    setQuery(queryMZ, queryIntensity, queryN);
+    return getScore(libraryMZ, libraryIntensity, libraryN);
+  }
+
+  /**
+   * Similarity of one query spectrum to many library spectra. The query is prepared only once.
+   * 
+   * @param libraryMZ m/z values of the library spectra, each in ascending order
+   * @param libraryIntensity intensity values of the library spectra
+   * @param scores receives the score of each library spectrum or NaN if the criteria were not met
+   * @param overlaps receives the number of matched signals of each library spectrum (may be null)
+   * @return number of library spectra which met the criteria
+   */
+  public int getScores(double queryMZ[], double queryIntensity[], double libraryMZ[][],
+      double libraryIntensity[][], double scores[], @Nullable int overlaps[]) {
+    setQuery(queryMZ, queryIntensity, queryMZ.length);
+    int matches = 0;
+    for (int i = 0; i < libraryMZ.length; i++) {
+      scores[i] = getScore(libraryMZ[i], libraryIntensity[i], libraryMZ[i].length);
+      if (overlaps != null)
+        overlaps[i] = overlap;
+      if (!Double.isNaN(scores[i]))
+        matches++;
+    }
+    return matches;
+  }
+
+  /**
+   * Similarity of two data point arrays, which do not need to be sorted. The aligned data points
+   * are only created for a positive match.
+   * 
+   * @param functionName name of the similarity function
+   * @return positive match with similarity or null if criteria was not met
+   */
+  @Nullable
+  public SpectralSimilarity getSimilarity(String functionName, DataPoint[] library,
+      DataPoint[] query) {
+    DataPoint sortedLibrary[] = sortByMZ(library);
+    DataPoint sortedQuery[] = sortByMZ(query);
+
+    if (dataPointsQueryMZ.length < sortedQuery.length) {
+      dataPointsQueryMZ = new double[sortedQuery.length];
+      dataPointsQueryIntensity = new double[sortedQuery.length];
+    }
+    for (int i = 0; i < sortedQuery.length; i++) {
+      dataPointsQueryMZ[i] = sortedQuery[i].getMZ();
+      dataPointsQueryIntensity[i] = sortedQuery[i].getIntensity();
+    }
+    setQuery(dataPointsQueryMZ, dataPointsQueryIntensity, sortedQuery.length);
+
+    if (dataPointsLibraryMZ.length < sortedLibrary.length) {
+      dataPointsLibraryMZ = new double[sortedLibrary.length];
+      dataPointsLibraryIntensity = new double[sortedLibrary.length];
+    }
+    for (int i = 0; i < sortedLibrary.length; i++) {
+      dataPointsLibraryMZ[i] = sortedLibrary[i].getMZ();
+      dataPointsLibraryIntensity[i] = sortedLibrary[i].getIntensity();
+    }
+    final double score =
+        getScore(dataPointsLibraryMZ, dataPointsLibraryIntensity, sortedLibrary.length);
+    if (Double.isNaN(score))
+      return null;
+
+    List<DataPoint[]> aligned = new ArrayList<>(overlap);
+    for (int i = 0; i < libraryN; i++) {
+      final int l = libraryOrder[i];
+      if (libraryMatches[l] >= 0)
+        aligned.add(new DataPoint[] {sortedLibrary[l], sortedQuery[libraryMatches[l]]});
+    }
+    return new SpectralSimilarity(functionName, score, overlap, library, query, aligned);
+  }
+
+  private static DataPoint[] sortByMZ(DataPoint[] dps) {
+    for (int i = 1; i < dps.length; i++) {
+      if (mzSorter.compare(dps[i - 1], dps[i]) > 0) {
+        DataPoint sorted[] = dps.clone();
+        Arrays.sort(sorted, mzSorter);
+        return sorted;
+      }
+    }
+    return dps;
+  }
+
+  /**
+   * Number of matched signals of the last compared spectra
+   */
+  public int getOverlap() {
+    return overlap;
+  }
+
+  /**
+   * Number of signals of the current query spectrum
+   */
+  protected int getQueryN() {
+    return queryN;
+  }
+
+  private double weight(double mz, double intensity) {
+    return Math.pow(intensity, weightIntensity) * Math.pow(mz, weightMZ);
+  }
+
+  /**
+   * Matches the library signals to the query signals and fills the aligned weighted intensities
+   */
+  private void align(double mz[], double intensity[], int n) {
+    libraryMZ = mz;
+    libraryIntensity = intensity;
+    libraryN = n;
+    if (libraryOrder.length < n) {
+      libraryOrder = new int[n];
+      libraryMatches = new int[n];
+    }
+    final int maxAligned = n + queryN;
+    if (alignedLibrary.length < maxAligned) {
+      alignedLibrary = new double[maxAligned];
+      alignedQuery = new double[maxAligned];
+    }
+
+    for (int i = 0; i < n; i++)
+      libraryOrder[i] = i;
+    IntArrays.quickSort(libraryOrder, 0, n, libraryComparator);
+    Arrays.fill(queryMatched, 0, queryN, false);
+
+    overlap = 0;
+    alignedN = 0;
+    for (int i = 0; i < n; i++) {
+      final int l = libraryOrder[i];
+      // most intense unmatched query signal within the tolerance range of the library signal
+      final double tolerance = mzTol.getMzToleranceForMass(mz[l]);
+      final double lower = mz[l] - tolerance;
+      final double upper = mz[l] + tolerance;
+      int match = -1;
+      for (int q = lowerBound(lower); q < queryN && queryMZ[q] <= upper; q++) {
+        if (!queryMatched[q] && (match == -1 || queryRank[q] < queryRank[match]))
+          match = q;
+      }
+      libraryMatches[l] = match;
+
+      if (match != -1) {
+        queryMatched[match] = true;
+        overlap++;
+      }
+      if (match != -1 || !removeUnmatched) {
+        alignedLibrary[alignedN] = weight(mz[l], intensity[l]);
+        alignedQuery[alignedN] = (match != -1) ? queryWeighted[match] : 0d;
+        alignedN++;
+      }
+    }
+
+    // remaining query signals in descending intensity order
+    if (!removeUnmatched) {
+      for (int i = 0; i < queryN; i++) {
+        final int q = queryOrder[i];
+        if (!queryMatched[q]) {
+          alignedLibrary[alignedN] = 0d;
+          alignedQuery[alignedN] = queryWeighted[q];
+          alignedN++;
+        }
+      }
+    }
+  }
+
+  /**
+   * @return index of the first query signal with m/z >= mz
+   */
+  private int lowerBound(double mz) {
+    int low = 0, high = queryN;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (queryMZ[mid] < mz)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+
+  /**
+   * Cosine similarity of the aligned weighted intensities
+   */
+  protected double calcCosine() {
+    final double a[] = alignedLibrary, b[] = alignedQuery;
+    final int n = alignedN;
+    double dot = 0, normA = 0, normB = 0;
+    for (int i = 0; i < n; i++) {
+      dot += a[i] * b[i];
+      normA += a[i] * a[i];
+      normB += b[i] * b[i];
+    }
+    return dot / (Math.sqrt(normA) * Math.sqrt(normB));
+  }
+
+  /**
+   * Sum of the relative intensity ratios of neighbouring matched signals (sorted by m/z) in both
+   * spectra, divided by the overlap. Ranges from 0 to 1.
+   */
+  protected double calcRelativeNeighbourFactor() {
+    if (pairOrder.length < overlap) {
+      pairLibrary = new int[overlap];
+      pairQuery = new int[overlap];
+      pairOrder = new int[overlap];
+      pairMinMZ = new double[overlap];
+    }
+    int pairs = 0;
+    for (int i = 0; i < libraryN; i++) {
+      final int l = libraryOrder[i];
+      final int q = libraryMatches[l];
+      if (q >= 0) {
+        pairLibrary[pairs] = l;
+        pairQuery[pairs] = q;
+        pairMinMZ[pairs] = Math.min(libraryMZ[l], queryMZ[q]);
+        pairOrder[pairs] = pairs;
+        pairs++;
+      }
+    }
+    IntArrays.quickSort(pairOrder, 0, pairs, pairComparator);
+
+    double factor = 0;
+    for (int i = 1; i < pairs; i++) {
+      final int p1 = pairOrder[i - 1], p2 = pairOrder[i];
+      final double ratioLibrary =
+          libraryIntensity[pairLibrary[p2]] / libraryIntensity[pairLibrary[p1]];
+      final double ratioQuery = queryIntensity[pairQuery[p2]] / queryIntensity[pairQuery[p1]];
+      factor += Math.min(ratioLibrary, ratioQuery) / Math.max(ratioLibrary, ratioQuery);
+    }
+    return factor / overlap;
+  }
+
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.util.scans.similarity.impl.cosine;
+
+import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import net.sf.mzmine.util.scans.similarity.SpectralSimilarityKernel;
+import net.sf.mzmine.util.scans.similarity.Weights;
+
+/**
+ * Primitive kernel of the {@link WeightedCosineSpectralSimilarity}
+ */
+public class WeightedCosineSimilarityKernel extends SpectralSimilarityKernel {
+
+  private final double minCos;
+
+  public WeightedCosineSimilarityKernel(MZTolerance mzTol, int minMatch, Weights weights,
+      boolean removeUnmatched, double minCos) {
+    super(mzTol, minMatch, weights, removeUnmatched);
+    this.minCos = minCos;
+  }
+
+  @Override
+  protected double calcScore() {
+    // weighted cosine
+    double diffCosine = calcCosine();
+    return diffCosine >= minCos ? diffCosine : Double.NaN;
+  }
+
+}
@@ -18,16 +18,14 @@
 
 package net.sf.mzmine.util.scans.similarity.impl.cosine;
 
-import java.util.List;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
-import net.sf.mzmine.util.maths.similarity.Similarity;
-import net.sf.mzmine.util.scans.ScanAlignment;
 import net.sf.mzmine.util.scans.similarity.SpectralSimilarity;
 import net.sf.mzmine.util.scans.similarity.SpectralSimilarityFunction;
+import net.sf.mzmine.util.scans.similarity.SpectralSimilarityKernel;
 import net.sf.mzmine.util.scans.similarity.Weights;
 
 /**
@@ -44,32 +42,19 @@ public class WeightedCosineSpectralSimilarity extends SpectralSimilarityFunction
   @Override
   public SpectralSimilarity getSimilarity(ParameterSet parameters, MZTolerance mzTol, int minMatch,
       DataPoint[] library, DataPoint[] query) {
+    return createKernel(parameters, mzTol, minMatch).getSimilarity(getName(), library, query);
+  }
+
+  @Override
+  public SpectralSimilarityKernel createKernel(ParameterSet parameters, MZTolerance mzTol,
+      int minMatch) {
     Weights weights =
         parameters.getParameter(WeightedCosineSpectralSimilarityParameters.weight).getValue();
     double minCos =
         parameters.getParameter(WeightedCosineSpectralSimilarityParameters.minCosine).getValue();
     boolean removeUnmatched = parameters
         .getParameter(WeightedCosineSpectralSimilarityParameters.removeUnmatched).getValue();
-
-    // align
-    List<DataPoint[]> aligned = alignDataPoints(mzTol, library, query);
-    // removes all signals which were not found in both masslists
-    if (removeUnmatched)
-      aligned = removeUnaligned(aligned);
-    // overlapping within mass tolerance
-    int overlap = calcOverlap(aligned);
-
-    if (overlap >= minMatch) {
-      // weighted cosine
-      double[][] diffArray =
-          ScanAlignment.toIntensityMatrixWeighted(aligned, weights.getIntensity(), weights.getMz());
-      double diffCosine = Similarity.COSINE.calc(diffArray);
-      if (diffCosine >= minCos)
-        return new SpectralSimilarity(getName(), diffCosine, overlap, library, query, aligned);
-      else
-        return null;
-    }
-    return null;
+    return new WeightedCosineSimilarityKernel(mzTol, minMatch, weights, removeUnmatched, minCos);
   }
 
   @Override
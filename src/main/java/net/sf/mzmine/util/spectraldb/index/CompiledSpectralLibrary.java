@@ -0,0 +1,526 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package net.sf.mzmine.util.spectraldb.index;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.BoundType;
+import com.google.common.collect.Range;
+import com.google.common.io.CountingOutputStream;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
+import net.sf.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.util.spectraldb.entry.DBEntryField;
+import net.sf.mzmine.util.spectraldb.entry.SpectralDBEntry;
+import net.sf.mzmine.util.spectraldb.parser.AutoLibraryParser;
+import net.sf.mzmine.util.spectraldb.parser.UnsupportedFormatException;
+
+/**
+ * Spectral library compiled into a binary cache file. The library file is parsed once and written
+ * to a cache file next to it (or to the temporary directory, if the library directory is not
+ * writable). Later runs memory-map the cache file, as long as the length and modification time of
+ * the library file did not change.
+ *
+ * The entries are indexed by precursor m/z, so the entries within a precursor m/z window are found
+ * by two binary searches. The signal m/z values of an entry are read directly from the mapped file,
+ * so entries can be rejected by a {@link PeakFilter} before they are decoded.
+ *
+ * Cache file layout: header (magic, version, library file length and modification time, number of
+ * entries, index offset), the entries in library order (data points, then fields) and the index
+ * (precursor m/z values in ascending order, entries without precursor m/z last, and the offsets of
+ * the entries in the same order).
+ */
+public class CompiledSpectralLibrary {
+
+  private static final Logger logger = Logger.getLogger(CompiledSpectralLibrary.class.getName());
+
+  private static final String CACHE_FILE_SUFFIX = ".mzminelib";
+  private static final int MAGIC = 0x4d5a4c42;
+  private static final int VERSION = 1;
+  // position of the number of entries in the header
+  private static final int NUM_OF_ENTRIES_POSITION = 4 + 4 + 8 + 8;
+  private static final int HEADER_SIZE = NUM_OF_ENTRIES_POSITION + 4 + 8;
+  private static final long MAX_SEGMENT_SIZE = Integer.MAX_VALUE;
+
+  private static final byte TYPE_STRING = 0;
+  private static final byte TYPE_DOUBLE = 1;
+  private static final byte TYPE_FLOAT = 2;
+  private static final byte TYPE_INTEGER = 3;
+  private static final byte TYPE_LONG = 4;
+
+  // compiled libraries and locks by cache file, so concurrent tasks compile a library only once.
+  // The values are weak, so a library is unmapped when no search task uses it any more
+  private static final Cache<File, CompiledSpectralLibrary> openLibraries =
+      CacheBuilder.newBuilder().weakValues().build();
+  private static final Map<File, Object> locks = new ConcurrentHashMap<>();
+
+  private final File libraryFile;
+  private final long libraryLength, libraryLastModified;
+
+  // precursor m/z values in ascending order (NaN at the end) and the offsets of the entries
+  private final double precursorMZValues[];
+  private final long entryOffsets[];
+
+  // mapped parts of the cache file, each of them starts at an entry
+  private final long segmentOffsets[];
+  private final ByteBuffer segments[];
+
+  private CompiledSpectralLibrary(File libraryFile, File cacheFile) throws IOException {
+    this.libraryFile = libraryFile;
+
+    try (FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ)) {
+      final long fileSize = channel.size();
+      if (fileSize < HEADER_SIZE)
+        throw new IOException("Spectral library cache file " + cacheFile + " is truncated");
+      ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+      if ((header.getInt() != MAGIC) || (header.getInt() != VERSION))
+        throw new IOException("Unsupported spectral library cache file " + cacheFile);
+      libraryLength = header.getLong();
+      libraryLastModified = header.getLong();
+      final int numOfEntries = header.getInt();
+      final long indexOffset = header.getLong();
+      if ((numOfEntries < 0) || (indexOffset < HEADER_SIZE)
+          || (indexOffset + 16L * numOfEntries != fileSize))
+        throw new IOException("Spectral library cache file " + cacheFile + " is truncated");
+
+      ByteBuffer index =
+          channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, 16L * numOfEntries);
+      precursorMZValues = new double[numOfEntries];
+      index.asDoubleBuffer().get(precursorMZValues);
+      index.position(8 * numOfEntries);
+      entryOffsets = new long[numOfEntries];
+      index.asLongBuffer().get(entryOffsets);
+
+      // map the entries in segments of at most 2 GB, without splitting an entry
+      final long fileOrder[] = entryOffsets.clone();
+      Arrays.sort(fileOrder);
+      List<Long> offsets = new ArrayList<>();
+      List<ByteBuffer> buffers = new ArrayList<>();
+      int first = 0;
+      while (first < numOfEntries) {
+        final long start = fileOrder[first];
+        int last = first + 1;
+        while ((last < numOfEntries)
+            && (getEnd(fileOrder, last, indexOffset) - start <= MAX_SEGMENT_SIZE))
+          last++;
+        final long end = getEnd(fileOrder, last - 1, indexOffset);
+        offsets.add(start);
+        buffers.add(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+        first = last;
+      }
+      segmentOffsets = offsets.stream().mapToLong(Long::longValue).toArray();
+      segments = buffers.toArray(new ByteBuffer[0]);
+    }
+  }
+
+  /**
+   * @return end offset of the entry at the given position of the sorted entry offsets
+   */
+  private static long getEnd(long fileOrder[], int i, long indexOffset) {
+    return (i + 1 < fileOrder.length) ? fileOrder[i + 1] : indexOffset;
+  }
+
+  /**
+   * Opens the compiled spectral library of the library file. The library is compiled first, if
+   * there is no cache file or if the library file changed since it was compiled.
+   *
+   * @param task the task, which is checked for cancellation while compiling
+   * @param libraryFile spectral library file in any format supported by {@link AutoLibraryParser}
+   * @return the compiled library or null if the task was canceled
+   */
+  public static CompiledSpectralLibrary open(AbstractTask task, File libraryFile)
+      throws UnsupportedFormatException, IOException {
+    final File cacheFile = getCacheFile(libraryFile);
+    final Object lock = locks.computeIfAbsent(cacheFile, f -> new Object());
+    synchronized (lock) {
+      CompiledSpectralLibrary library = openLibraries.getIfPresent(cacheFile);
+      if ((library != null) && library.isUpToDate())
+        return library;
+      openLibraries.invalidate(cacheFile);
+
+      library = null;
+      if (cacheFile.exists()) {
+        try {
+          library = new CompiledSpectralLibrary(libraryFile, cacheFile);
+        } catch (IOException e) {
+          logger.warning("Cannot read spectral library cache file " + cacheFile + ": " + e);
+        }
+      }
+
+      if ((library == null) || !library.isUpToDate()) {
+        if (!compile(task, libraryFile, cacheFile))
+          return null;
+        library = new CompiledSpectralLibrary(libraryFile, cacheFile);
+      }
+
+      openLibraries.put(cacheFile, library);
+      return library;
+    }
+  }
+
+  /**
+   * @return cache file next to the library file or, if the directory is not writable, in the
+   *         temporary directory
+   */
+  private static File getCacheFile(File libraryFile) {
+    final File absoluteFile = libraryFile.getAbsoluteFile();
+    final File directory = absoluteFile.getParentFile();
+    final File cacheFile = new File(directory, absoluteFile.getName() + CACHE_FILE_SUFFIX);
+    if (cacheFile.exists() ? cacheFile.canWrite() : directory.canWrite())
+      return cacheFile;
+    final String name = absoluteFile.getName() + "_"
+        + Integer.toHexString(absoluteFile.getPath().hashCode()) + CACHE_FILE_SUFFIX;
+    return new File(System.getProperty("java.io.tmpdir"), name);
+  }
+
+  /**
+   * Parses the library file and writes the cache file
+   *
+   * @return false if the task was canceled
+   */
+  private static boolean compile(AbstractTask task, File libraryFile, File cacheFile)
+      throws UnsupportedFormatException, IOException {
+    logger.info("Compiling spectral library " + libraryFile + " to " + cacheFile);
+
+    final long libraryLength = libraryFile.length();
+    final long libraryLastModified = libraryFile.lastModified();
+    final File tmpFile =
+        File.createTempFile(cacheFile.getName(), ".tmp", cacheFile.getParentFile());
+    boolean compiled = false;
+    try {
+      final DoubleArrayList precursorMZs = new DoubleArrayList();
+      final LongArrayList offsets = new LongArrayList();
+      long indexOffset;
+
+      try (CountingOutputStream counter =
+          new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+          DataOutputStream out = new DataOutputStream(counter)) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(libraryLength);
+        out.writeLong(libraryLastModified);
+        // number of entries and index offset are written at the end
+        out.writeInt(0);
+        out.writeLong(0L);
+
+        AutoLibraryParser parser = new AutoLibraryParser(1000, (list, alreadyProcessed) -> {
+          try {
+            for (SpectralDBEntry entry : list) {
+              offsets.add(counter.getCount());
+              Double precursorMZ = entry.getPrecursorMZ();
+              precursorMZs.add(precursorMZ == null ? Double.NaN : precursorMZ);
+              writeEntry(out, entry);
+            }
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+        try {
+          if (!parser.parse(task, libraryFile) || task.isCanceled())
+            return false;
+        } catch (UncheckedIOException e) {
+          throw e.getCause();
+        }
+
+        // index in precursor m/z order, NaN values are sorted to the end
+        final int numOfEntries = offsets.size();
+        final double mzValues[] = precursorMZs.toDoubleArray();
+        final int order[] = new int[numOfEntries];
+        for (int i = 0; i < numOfEntries; i++)
+          order[i] = i;
+        IntArrays.mergeSort(order, (a, b) -> Double.compare(mzValues[a], mzValues[b]));
+
+        indexOffset = counter.getCount();
+        for (int i : order)
+          out.writeDouble(mzValues[i]);
+        for (int i : order)
+          out.writeLong(offsets.getLong(i));
+      }
+
+      try (RandomAccessFile file = new RandomAccessFile(tmpFile, "rw")) {
+        file.seek(NUM_OF_ENTRIES_POSITION);
+        file.writeInt(offsets.size());
+        file.writeLong(indexOffset);
+      }
+
+      try {
+        Files.move(tmpFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tmpFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      compiled = true;
+      logger.info("Compiled " + offsets.size() + " spectral library entries");
+      return true;
+    } finally {
+      if (!compiled)
+        tmpFile.delete();
+    }
+  }
+
+  private static void writeEntry(DataOutputStream out, SpectralDBEntry entry) throws IOException {
+    DataPoint dps[] = entry.getDataPoints();
+    out.writeInt(dps.length);
+    for (DataPoint dp : dps) {
+      out.writeDouble(dp.getMZ());
+      out.writeDouble(dp.getIntensity());
+    }
+
+    Map<DBEntryField, Object> fields = new EnumMap<>(DBEntryField.class);
+    for (DBEntryField field : DBEntryField.values())
+      entry.getField(field).ifPresent(value -> fields.put(field, value));
+    out.writeInt(fields.size());
+    for (Map.Entry<DBEntryField, Object> field : fields.entrySet()) {
+      writeString(out, field.getKey().name());
+      Object value = field.getValue();
+      if (value instanceof Double) {
+        out.writeByte(TYPE_DOUBLE);
+        out.writeDouble((Double) value);
+      } else if (value instanceof Float) {
+        out.writeByte(TYPE_FLOAT);
+        out.writeFloat((Float) value);
+      } else if (value instanceof Integer) {
+        out.writeByte(TYPE_INTEGER);
+        out.writeInt((Integer) value);
+      } else if (value instanceof Long) {
+        out.writeByte(TYPE_LONG);
+        out.writeLong((Long) value);
+      } else {
+        out.writeByte(TYPE_STRING);
+        writeString(out, value.toString());
+      }
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte bytes[] = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    byte bytes[] = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @return true if the library file did not change since it was compiled
+   */
+  public boolean isUpToDate() {
+    return (libraryFile.length() == libraryLength)
+        && (libraryFile.lastModified() == libraryLastModified);
+  }
+
+  /**
+   * @return number of library entries
+   */
+  public int getNumOfEntries() {
+    return entryOffsets.length;
+  }
+
+  /**
+   * @return indexes of the entries with a precursor m/z within the range, in precursor m/z order
+   */
+  public int[] getEntryIndexes(Range<Double> precursorMZRange) {
+
+    // NaN values are at the end and never within the range
+    int fromIndex = 0, toIndex = precursorMZValues.length;
+    while ((toIndex > 0) && Double.isNaN(precursorMZValues[toIndex - 1]))
+      toIndex--;
+
+    if (precursorMZRange.hasLowerBound()) {
+      final double lower = precursorMZRange.lowerEndpoint();
+      final boolean open = precursorMZRange.lowerBoundType() == BoundType.OPEN;
+      int high = toIndex;
+      while (fromIndex < high) {
+        final int mid = (fromIndex + high) >>> 1;
+        if (precursorMZValues[mid] < lower || (open && precursorMZValues[mid] == lower))
+          fromIndex = mid + 1;
+        else
+          high = mid;
+      }
+    }
+
+    if (precursorMZRange.hasUpperBound()) {
+      final double upper = precursorMZRange.upperEndpoint();
+      final boolean open = precursorMZRange.upperBoundType() == BoundType.OPEN;
+      int low = fromIndex;
+      while (low < toIndex) {
+        final int mid = (low + toIndex) >>> 1;
+        if (precursorMZValues[mid] < upper || (!open && precursorMZValues[mid] == upper))
+          low = mid + 1;
+        else
+          toIndex = mid;
+      }
+    }
+
+    if (fromIndex >= toIndex)
+      return new int[0];
+    int indexes[] = new int[toIndex - fromIndex];
+    for (int i = 0; i < indexes.length; i++)
+      indexes[i] = fromIndex + i;
+    return indexes;
+  }
+
+  /**
+   * @return mapped segment containing the entry, positioned at the start of the entry
+   */
+  private ByteBuffer getEntryBuffer(int index) {
+    final long offset = entryOffsets[index];
+    int segment = Arrays.binarySearch(segmentOffsets, offset);
+    if (segment < 0)
+      segment = -segment - 2;
+    ByteBuffer buffer = segments[segment].duplicate();
+    buffer.position((int) (offset - segmentOffsets[segment]));
+    return buffer;
+  }
+
+  /**
+   * Decodes the library entry. This method is thread safe.
+   *
+   * @param index entry index in precursor m/z order
+   */
+  public SpectralDBEntry getEntry(int index) {
+    ByteBuffer buffer = getEntryBuffer(index);
+
+    DataPoint dps[] = new DataPoint[buffer.getInt()];
+    for (int i = 0; i < dps.length; i++) {
+      final double mz = buffer.getDouble();
+      final double intensity = buffer.getDouble();
+      dps[i] = new SimpleDataPoint(mz, intensity);
+    }
+
+    Map<DBEntryField, Object> fields = new EnumMap<>(DBEntryField.class);
+    final int numOfFields = buffer.getInt();
+    for (int i = 0; i < numOfFields; i++) {
+      final String name = readString(buffer);
+      final Object value;
+      switch (buffer.get()) {
+        case TYPE_DOUBLE:
+          value = buffer.getDouble();
+          break;
+        case TYPE_FLOAT:
+          value = buffer.getFloat();
+          break;
+        case TYPE_INTEGER:
+          value = buffer.getInt();
+          break;
+        case TYPE_LONG:
+          value = buffer.getLong();
+          break;
+        default:
+          value = readString(buffer);
+      }
+      fields.put(DBEntryField.valueOf(name), value);
+    }
+    return new SpectralDBEntry(fields, dps);
+  }
+
+  /**
+   * Checks if at least minMatch signals of the entry are within the filter, without decoding the
+   * entry. This method is thread safe.
+   *
+   * @param index entry index in precursor m/z order
+   * @return false if the entry cannot have minMatch signals within m/z tolerance of the query
+   */
+  public boolean checkPeakFilter(int index, PeakFilter filter, int minMatch) {
+    if (minMatch <= 0)
+      return true;
+    ByteBuffer buffer = getEntryBuffer(index);
+    final int start = buffer.position() + 4;
+    final int numOfDataPoints = buffer.getInt(buffer.position());
+    int matched = 0;
+    for (int i = 0; i < numOfDataPoints; i++) {
+      if (filter.contains(buffer.getDouble(start + 16 * i)) && (++matched >= minMatch))
+        return true;
+      // not enough signals left
+      if (matched + numOfDataPoints - i - 1 < minMatch)
+        return false;
+    }
+    return false;
+  }
+
+  /**
+   * Set of m/z bins covering the signals of a query spectrum, widened by twice the m/z tolerance.
+   * Every library signal that can be matched to a query signal within the m/z tolerance falls into
+   * one of the bins, so the number of library signals within the bins is an upper bound of the
+   * number of matched signals.
+   */
+  public static final class PeakFilter {
+
+    private static final double BIN_WIDTH = 0.01;
+
+    private final BitSet bins = new BitSet();
+
+    public PeakFilter(DataPoint query[], MZTolerance mzTolerance) {
+      for (DataPoint dp : query) {
+        final double mz = dp.getMZ();
+        final double tolerance = 2 * mzTolerance.getMzToleranceForMass(mz);
+        final int first = getBin(Math.max(0d, mz - tolerance));
+        final int last = getBin(mz + tolerance);
+        if ((first >= 0) && (last >= first))
+          bins.set(first, last + 1);
+      }
+    }
+
+    /**
+     * @return bin index or -1 if the m/z value is out of range
+     */
+    private static int getBin(double mz) {
+      final double bin = Math.floor(mz / BIN_WIDTH);
+      if (!(bin >= 0) || (bin >= Integer.MAX_VALUE))
+        return -1;
+      return (int) bin;
+    }
+
+    public boolean contains(double mz) {
+      final int bin = getBin(mz);
+      return (bin >= 0) && bins.get(bin);
+    }
+
+  }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package net.sf.mzmine.modules.rawdatamethods.filtering.baselinecorrection.correctors;
+
+import static org.junit.Assert.assertArrayEquals;
+import org.junit.Test;
+
+/**
+ * Compares the Java rubber band baseline with the one of "spc.rubberband" (hyperSpec), which is
+ * the linear interpolation of the lower convex hull if "spline" is not used. The noise level only
+ * selects the support points of the spline.
+ */
+public class RubberBandCorrectorTest {
+
+  private static final double[] CHROMATOGRAM = {5, 3, 8, 1, 4, 6, 2, 7};
+
+  // Lower convex hull: scans 0, 1, 3, 6 and 7
+  private static final double[] HULL_BASELINE = {5, 3, 2, 1, 4.0 / 3, 5.0 / 3, 2, 7};
+
+  @Test
+  public void testHull() {
+    assertArrayEquals(HULL_BASELINE,
+        RubberBandCorrector.computeBaseline(CHROMATOGRAM, 0, false, 5, false, 0), 1e-12);
+  }
+
+  @Test
+  public void testNoiseWithoutSpline() {
+    assertArrayEquals(HULL_BASELINE,
+        RubberBandCorrector.computeBaseline(CHROMATOGRAM, 10, false, 5, false, 0), 1e-12);
+    assertArrayEquals(HULL_BASELINE,
+        RubberBandCorrector.computeBaseline(CHROMATOGRAM, 0, true, 5, false, 0), 1e-12);
+  }
+
+  @Test
+  public void testBend() {
+    // The bend is added before the hull is computed and subtracted from the baseline. Bending by
+    // 49 * (i / 7)^2 = i^2 turns the chromatogram into 5, 4, 12, 10, 20, 31, 38, 56, whose lower
+    // convex hull is scans 0, 1, 3, 6 and 7.
+    final double[] bent = {5, 4, 7, 10, 58.0 / 3, 86.0 / 3, 38, 56};
+    final double[] expected = new double[bent.length];
+    for (int i = 0; i < bent.length; i++)
+      expected[i] = bent[i] - i * i;
+    assertArrayEquals(expected,
+        RubberBandCorrector.computeBaseline(CHROMATOGRAM, 0, false, 5, false, 49), 1e-9);
+  }
+
+  @Test
+  public void testSplineThroughTwoPoints() {
+    // Without points below the line between the ends, the spline is that line
+    final double[] chromatogram = {1, 5, 6, 4, 3};
+    final double[] expected = {1, 1.5, 2, 2.5, 3};
+    assertArrayEquals(expected,
+        RubberBandCorrector.computeBaseline(chromatogram, 0, false, 5, true, 0), 1e-12);
+  }
+
+}
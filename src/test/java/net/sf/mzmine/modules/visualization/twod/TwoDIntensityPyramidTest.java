@@ -0,0 +1,100 @@
+/*
+ * Copyright 2006-2018 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine 2; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+
+package net.sf.mzmine.modules.visualization.twod;
+
+import static org.junit.Assert.assertEquals;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import com.google.common.collect.Range;
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
+
+/**
+ * Compares the maxima of {@link TwoDIntensityPyramid} with the maxima of the data points of the
+ * scans.
+ */
+public class TwoDIntensityPyramidTest {
+
+  private static final Range<Double> MZ_RANGE = Range.closed(100.0, 1100.0);
+
+  @Test
+  public void testAllLevels() {
+    testRandomQueries(200, 50, 1);
+  }
+
+  @Test
+  public void testSkippedLevels() {
+    // the finest levels of so many scans do not fit in the memory budget
+    testRandomQueries(6000, 5, 2);
+  }
+
+  private void testRandomQueries(int numOfScans, int pointsPerScan, long seed) {
+
+    final Random random = new Random(seed);
+    final DataPoint scans[][] = new DataPoint[numOfScans][];
+    final TwoDIntensityPyramid pyramid = new TwoDIntensityPyramid(numOfScans, MZ_RANGE);
+    for (int scan = 0; scan < numOfScans; scan++) {
+      scans[scan] = new DataPoint[pointsPerScan];
+      for (int i = 0; i < pointsPerScan; i++) {
+        double mz = MZ_RANGE.lowerEndpoint() + random.nextDouble() * 1000.0;
+        // whole numbers, which are not changed by the float cells
+        double intensity = random.nextInt(1000000);
+        scans[scan][i] = new SimpleDataPoint(mz, intensity);
+      }
+      Arrays.sort(scans[scan], (a, b) -> Double.compare(a.getMZ(), b.getMZ()));
+      pyramid.addScan(scan, scans[scan]);
+    }
+    pyramid.buildLevels();
+
+    int answeredQueries = 0;
+    for (int query = 0; query < 2000; query++) {
+      int fromScan = random.nextInt(numOfScans);
+      int toScan = fromScan + random.nextInt(numOfScans - fromScan);
+      double mzMin = 50.0 + random.nextDouble() * 1100.0;
+      double mzMax = mzMin + random.nextDouble() * random.nextDouble() * 1000.0;
+      Range<Double> mzRange = Range.closed(mzMin, mzMax);
+
+      double maxIntensity = pyramid.getMaxIntensity(fromScan, toScan, mzRange,
+          scan -> getMaxIntensity(scans[scan], mzRange));
+      if (Double.isNaN(maxIntensity))
+        continue;
+      answeredQueries++;
+
+      double expected = 0;
+      for (int scan = fromScan; scan <= toScan; scan++)
+        expected = Math.max(expected, getMaxIntensity(scans[scan], mzRange));
+      assertEquals("scans " + fromScan + "-" + toScan + ", m/z " + mzRange, expected,
+          maxIntensity, 0);
+    }
+    assertEquals(true, answeredQueries > 0);
+
+  }
+
+  private static double getMaxIntensity(DataPoint dataPoints[], Range<Double> mzRange) {
+    double maxIntensity = 0;
+    for (DataPoint dataPoint : dataPoints) {
+      if (mzRange.contains(dataPoint.getMZ()))
+        maxIntensity = Math.max(maxIntensity, dataPoint.getIntensity());
+    }
+    return maxIntensity;
+  }
+
+}